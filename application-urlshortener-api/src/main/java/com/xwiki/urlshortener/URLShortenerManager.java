@@ -19,6 +19,11 @@
  */
 package com.xwiki.urlshortener;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.stability.Unstable;
@@ -54,6 +59,19 @@ public interface URLShortenerManager
     String regenerateShortenedURL(DocumentReference documentReference, String oldPageID)
         throws IllegalStateException, URLShortenerException;
 
+    /**
+     * Retrieves the unique identifier already associated to a xwiki page, when it is known without loading the
+     * document. The default implementation doesn't know any.
+     *
+     * @param documentReference the reference on the document.
+     * @return the unique identifier associated to the document, or null if it's not known.
+     * @since 1.3.5
+     */
+    default String getPageID(DocumentReference documentReference)
+    {
+        return null;
+    }
+
     /**
      * Retrieves the document reference identified by the given page id.
      *
@@ -63,4 +81,83 @@ public interface URLShortenerManager
      * @throws URLShortenerException if the searching process failed.
      */
     DocumentReference getDocumentReference(String wiki, String id) throws URLShortenerException;
+
+    /**
+     * Retrieves the document references identified by several page ids at once, e.g. all the short links of a page.
+     *
+     * @param wiki the id of the wiki where to look for the document references.
+     * @param ids the unique ids that are associated to existing xwiki pages.
+     * @return the document references associated to the known ids, indexed by id.
+     * @throws URLShortenerException if the searching process failed.
+     * @since 1.3.5
+     */
+    default Map<String, DocumentReference> getDocumentReferences(String wiki, Collection<String> ids)
+        throws URLShortenerException
+    {
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        for (String id : ids) {
+            DocumentReference documentReference = getDocumentReference(wiki, id);
+            if (documentReference != null) {
+                documentReferences.put(id, documentReference);
+            }
+        }
+        return documentReferences;
+    }
+
+    /**
+     * Associates an unique identifier to a xwiki page, without blocking the calling thread.
+     *
+     * @param documentReference the reference on the document for which an unique identifier will be created.
+     * @return the future unique identifier that can be used to retrieve the document reference. The future completes
+     *     exceptionally with an {@link URLShortenerException} if the creation process failed.
+     * @since 1.3.5
+     */
+    default CompletableFuture<String> createShortenedURLAsync(DocumentReference documentReference)
+    {
+        try {
+            return CompletableFuture.completedFuture(createShortenedURL(documentReference));
+        } catch (URLShortenerException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Replace the given pageID for the given document with a newly generated one, without blocking the calling thread.
+     *
+     * @param documentReference the reference of the document that already has an unique id associated.
+     * @param oldPageID the pageID, associated to the given document reference, to be replaced, as {@code String}.
+     * @return the future new unique identifier associated to the xwiki page. The future completes exceptionally with an
+     *     {@link URLShortenerException} if the regeneration process failed, caused by an {@link IllegalStateException}
+     *     if the passed document reference does not have the old id associated.
+     * @since 1.3.5
+     */
+    default CompletableFuture<String> regenerateShortenedURLAsync(DocumentReference documentReference,
+        String oldPageID)
+    {
+        try {
+            return CompletableFuture.completedFuture(regenerateShortenedURL(documentReference, oldPageID));
+        } catch (URLShortenerException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(new URLShortenerException(e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Retrieves the document reference identified by the given page id, without blocking the calling thread.
+     *
+     * @param wiki the id of the wiki where to look for the document reference.
+     * @param id the unique id that is associated to an existing xwiki page.
+     * @return the future document reference that is associated to the unique id, or null if nothing was found. The
+     *     future completes exceptionally with an {@link URLShortenerException} if the searching process failed.
+     * @since 1.3.5
+     */
+    default CompletableFuture<DocumentReference> getDocumentReferenceAsync(String wiki, String id)
+    {
+        try {
+            return CompletableFuture.completedFuture(getDocumentReference(wiki, id));
+        } catch (URLShortenerException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
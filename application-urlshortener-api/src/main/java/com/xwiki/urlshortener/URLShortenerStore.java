@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Stores the associations between the page IDs of the shortened URLs and the documents they point to. The
+ * implementation used by {@link URLShortenerManager} is selected with the {@code urlshortener.store} property of
+ * {@code xwiki.properties}, which holds the hint of the store component ({@code xobject} by default, storing the page
+ * IDs in {@code URLShortener.Code.URLShortenerClass} objects).
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Unstable
+@Role
+public interface URLShortenerStore
+{
+    /**
+     * Associates a new page ID to a document.
+     *
+     * @param pageID the page ID, which is not associated to any document yet
+     * @param documentReference the document the page ID points to
+     * @throws URLShortenerException if the association fails to be stored
+     */
+    void put(String pageID, DocumentReference documentReference) throws URLShortenerException;
+
+    /**
+     * Retrieves the document a page ID points to.
+     *
+     * @param wiki the wiki where to look for the page ID first, or an empty string for the main wiki; the page ID is
+     *     then looked up in all the wikis
+     * @param pageID the page ID
+     * @return the document the page ID points to, or {@code null} if the page ID is unknown
+     * @throws URLShortenerException if the lookup fails
+     */
+    DocumentReference get(String wiki, String pageID) throws URLShortenerException;
+
+    /**
+     * Retrieves the documents several page IDs point to, e.g. all the short links of a page. The default
+     * implementation calls {@link #get(String, String)} for each page ID, stores that can look up several page IDs at
+     * once should override it.
+     *
+     * @param wiki the wiki where to look for the page IDs first, or an empty string for the main wiki; the page IDs
+     *     are then looked up in all the wikis
+     * @param pageIDs the page IDs
+     * @return the documents the known page IDs point to, indexed by page ID
+     * @throws URLShortenerException if the lookup fails
+     */
+    default Map<String, DocumentReference> getAll(String wiki, Collection<String> pageIDs)
+        throws URLShortenerException
+    {
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        for (String pageID : pageIDs) {
+            DocumentReference documentReference = get(wiki, pageID);
+            if (documentReference != null) {
+                documentReferences.put(pageID, documentReference);
+            }
+        }
+        return documentReferences;
+    }
+
+    /**
+     * Retrieves the page ID pointing to a document.
+     *
+     * @param documentReference the document reference
+     * @return the page ID pointing to the document (the first one if there are several), or {@code null} if there is
+     *     none
+     * @throws URLShortenerException if the lookup fails
+     */
+    String getPageID(DocumentReference documentReference) throws URLShortenerException;
+
+    /**
+     * @param pageID a page ID
+     * @return {@code true} if the page ID points to a document of any wiki
+     * @throws URLShortenerException if the lookup fails
+     */
+    boolean exists(String pageID) throws URLShortenerException;
+
+    /**
+     * Replaces a page ID of a document with a new one.
+     *
+     * @param documentReference the document reference
+     * @param oldPageID the page ID pointing to the document, to be replaced
+     * @param newPageID the new page ID, which is not associated to any document yet
+     * @return {@code false} if the old page ID doesn't point to the given document, in which case nothing is changed
+     * @throws URLShortenerException if the association fails to be stored
+     */
+    boolean replace(DocumentReference documentReference, String oldPageID, String newPageID)
+        throws URLShortenerException;
+
+    /**
+     * Removes a page ID.
+     *
+     * @param pageID the page ID to remove
+     * @return {@code false} if the page ID was not pointing to any document
+     * @throws URLShortenerException if the removal fails
+     */
+    boolean delete(String pageID) throws URLShortenerException;
+
+    /**
+     * Visits all the stored associations, in no particular order.
+     *
+     * @param visitor called with each page ID and the document it points to
+     * @throws URLShortenerException if the associations fail to be read
+     */
+    void scan(BiConsumer<String, DocumentReference> visitor) throws URLShortenerException;
+
+    /**
+     * Visits the stored associations of the documents of a wiki, in no particular order. The default implementation
+     * filters the result of {@link #scan(BiConsumer)}, stores that can read the associations of a single wiki should
+     * override it.
+     *
+     * @param wiki the wiki of the documents
+     * @param visitor called with each page ID and the document it points to
+     * @throws URLShortenerException if the associations fail to be read
+     */
+    default void scan(String wiki, BiConsumer<String, DocumentReference> visitor) throws URLShortenerException
+    {
+        scan((pageID, documentReference) -> {
+            if (wiki.equals(documentReference.getWikiReference().getName())) {
+                visitor.accept(pageID, documentReference);
+            }
+        });
+    }
+}
@@ -19,6 +19,11 @@
  */
 package com.xwiki.urlshortener.script;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -44,6 +49,13 @@ import com.xwiki.urlshortener.URLShortenerManager;
 @Singleton
 public class URLShortenerScriptService implements ScriptService
 {
+    /**
+     * The Solr field holding the page ID of the documents in the search results, whatever the store.
+     *
+     * @since 1.3.5
+     */
+    public static final String PAGE_ID_FIELD = "property.URLShortener.Code.URLShortenerClass.pageID_string";
+
     @Inject
     private ContextualAuthorizationManager contextualAuthorizationManager;
 
@@ -91,6 +103,48 @@ public class URLShortenerScriptService implements ScriptService
         return urlShortenerManager.regenerateShortenedURL(documentReference, oldPageID);
     }
 
+    /**
+     * Retrieves the unique identifier already associated to a xwiki page, without creating one and without loading the
+     * document, e.g. to include it in the page metadata.
+     *
+     * @param documentReference the reference on the document.
+     * @return the unique identifier associated to the document, or null if it's not known.
+     * @throws URLShortenerException if the user does not have view rights on the page.
+     * @since 1.3.5
+     */
+    public String getPageID(DocumentReference documentReference) throws URLShortenerException
+    {
+        try {
+            contextualAuthorizationManager.checkAccess(Right.VIEW, documentReference);
+        } catch (AccessDeniedException e) {
+            throw new URLShortenerException(
+                String.format("Can't retrieve the shortened url of document [%s]", documentReference), e);
+        }
+        return urlShortenerManager.getPageID(documentReference);
+    }
+
+    /**
+     * Retrieves the page IDs of a batch of search results from the data already fetched, so that listing pages don't
+     * need to ask for the page ID of each result. The search results are already filtered by view right.
+     *
+     * @param results the Solr search results, fetched with the {@link #PAGE_ID_FIELD} field
+     * @return the page IDs of the given results, in the same order, {@code null} for the results without page ID
+     * @since 1.3.5
+     */
+    public List<String> getPageIDs(List<? extends Map<String, ?>> results)
+    {
+        List<String> pageIDs = new ArrayList<>(results.size());
+        for (Map<String, ?> result : results) {
+            Object value = result.get(PAGE_ID_FIELD);
+            // The field is multivalued, although a document has a single page ID.
+            if (value instanceof Collection) {
+                value = ((Collection<?>) value).stream().findFirst().orElse(null);
+            }
+            pageIDs.add(value != null ? value.toString() : null);
+        }
+        return pageIDs;
+    }
+
     /**
      * Retrieves the document reference identified by the given page id.
      *
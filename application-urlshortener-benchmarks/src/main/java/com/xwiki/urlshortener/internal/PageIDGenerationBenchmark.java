@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the generation of a free page ID, the way {@code DefaultURLShortenerManager#createPageID} does it, when a
+ * given fraction of the current 5 hexadecimal characters keyspace is already used. The existing IDs are simulated by
+ * a bit set instead of the Solr query, whose cost can be simulated with {@link #lookupCost}.
+ * <p>
+ * Besides the throughput, the benchmark reports the distribution of the number of retries needed to find a free ID
+ * as secondary metrics: {@code firstTry}, {@code oneRetry}, {@code twoToFourRetries} and {@code fiveOrMoreRetries}
+ * count the operations in each bucket, and {@code retries} the total number of retries.
+ * <p>
+ * New generation strategies should be added to {@link #strategy}, so that they are compared on the same data.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageIDGenerationBenchmark
+{
+    /**
+     * The number of IDs that fit in the current keyspace of 5 hexadecimal characters.
+     */
+    private static final int CURRENT_KEYSPACE = 1 << (4 * DefaultPageIDGenerator.LENGTH);
+
+    /**
+     * The generation strategy: {@code default} is {@link DefaultPageIDGenerator}, {@code randomN} generates N random
+     * hexadecimal characters.
+     */
+    @Param({ "default", "random5", "random6", "random7" })
+    public String strategy;
+
+    /**
+     * The fraction of the current 5 characters keyspace that is already used. The same number of IDs is used for the
+     * longer strategies, so that they show the retries saved for the same number of shortened URLs.
+     */
+    @Param({ "0.01", "0.25", "0.5", "0.9" })
+    public double fill;
+
+    /**
+     * The amount of CPU work (see {@link Blackhole#consumeCPU(long)}) done for each lookup of an ID, to simulate the
+     * cost of the query checking if the ID is used.
+     */
+    @Param({ "0" })
+    public long lookupCost;
+
+    private PageIDGenerator generator;
+
+    private BitSet usedIDs;
+
+    /**
+     * Per thread retry distribution, reported as secondary metrics.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retries
+    {
+        /**
+         * Total number of retries.
+         */
+        public long retries;
+
+        /**
+         * Operations that found a free ID on the first try.
+         */
+        public long firstTry;
+
+        /**
+         * Operations that needed one retry.
+         */
+        public long oneRetry;
+
+        /**
+         * Operations that needed two to four retries.
+         */
+        public long twoToFourRetries;
+
+        /**
+         * Operations that needed five retries or more.
+         */
+        public long fiveOrMoreRetries;
+
+        /**
+         * Resets the counters before each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            this.retries = 0;
+            this.firstTry = 0;
+            this.oneRetry = 0;
+            this.twoToFourRetries = 0;
+            this.fiveOrMoreRetries = 0;
+        }
+
+        void record(int count)
+        {
+            this.retries += count;
+            if (count == 0) {
+                this.firstTry++;
+            } else if (count == 1) {
+                this.oneRetry++;
+            } else if (count < 5) {
+                this.twoToFourRetries++;
+            } else {
+                this.fiveOrMoreRetries++;
+            }
+        }
+    }
+
+    /**
+     * Creates the generator and marks a random set of IDs as used.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        int length;
+        if ("default".equals(this.strategy)) {
+            this.generator = new DefaultPageIDGenerator();
+            length = DefaultPageIDGenerator.LENGTH;
+        } else {
+            length = Integer.parseInt(this.strategy.substring("random".length()));
+            this.generator = new RandomHexPageIDGenerator(length);
+        }
+
+        int keyspace = 1 << (4 * length);
+        int usedCount = (int) (CURRENT_KEYSPACE * this.fill);
+        this.usedIDs = new BitSet(keyspace);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = 0;
+        while (count < usedCount) {
+            int id = random.nextInt(keyspace);
+            if (!this.usedIDs.get(id)) {
+                this.usedIDs.set(id);
+                count++;
+            }
+        }
+    }
+
+    /**
+     * @param retries the retry distribution to update
+     * @return a page ID that is not used yet
+     */
+    @Benchmark
+    public String createPageID(Retries retries)
+    {
+        int count = 0;
+        String id = this.generator.generate();
+        while (isUsed(id)) {
+            count++;
+            id = this.generator.generate();
+        }
+        retries.record(count);
+        return id;
+    }
+
+    private boolean isUsed(String id)
+    {
+        if (this.lookupCost > 0) {
+            Blackhole.consumeCPU(this.lookupCost);
+        }
+        return this.usedIDs.get(Integer.parseInt(id, 16));
+    }
+
+    /**
+     * Candidate strategy generating a fixed number of random hexadecimal characters.
+     */
+    private static final class RandomHexPageIDGenerator implements PageIDGenerator
+    {
+        private final int length;
+
+        private final String format;
+
+        RandomHexPageIDGenerator(int length)
+        {
+            this.length = length;
+            this.format = "%0" + length + "x";
+        }
+
+        @Override
+        public String generate()
+        {
+            return String.format(Locale.ROOT, this.format, ThreadLocalRandom.current().nextInt(1 << (4 * this.length)));
+        }
+    }
+}
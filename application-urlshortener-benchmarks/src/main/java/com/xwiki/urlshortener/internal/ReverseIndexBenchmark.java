@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Measures a repeated {@code createShortenedURL} call for a document that already has a page ID, with and without
+ * {@link URLShortenerReverseIndex}. Without it, the page ID is read from the URL Shortener object of the document,
+ * whose load is simulated with {@link #loadCost}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReverseIndexBenchmark
+{
+    /**
+     * The number of documents that have a page ID.
+     */
+    @Param({ "100000" })
+    public int documentCount;
+
+    /**
+     * The amount of CPU work (see {@link Blackhole#consumeCPU(long)}) done to load a document from the document
+     * cache, or from the database.
+     */
+    @Param({ "100", "10000" })
+    public long loadCost;
+
+    private final List<DocumentReference> documentReferences = new ArrayList<>();
+
+    private final Map<DocumentReference, String> objects = new HashMap<>();
+
+    private final URLShortenerReverseIndex reverseIndex = new URLShortenerReverseIndex();
+
+    /**
+     * Assigns a page ID to nested pages spread over a few spaces.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        PageIDGenerator generator = new DefaultPageIDGenerator();
+        for (int i = 0; i < this.documentCount; i++) {
+            DocumentReference documentReference =
+                new DocumentReference("xwiki", List.of("Space" + (i % 100), "Page" + i), "WebHome");
+            String pageID = generator.generate();
+            this.documentReferences.add(documentReference);
+            this.objects.put(documentReference, pageID);
+            this.reverseIndex.put(documentReference, pageID);
+        }
+    }
+
+    /**
+     * @return the page ID of a random document, read from its object
+     */
+    @Benchmark
+    public String documentObject()
+    {
+        DocumentReference documentReference = nextDocumentReference();
+        Blackhole.consumeCPU(this.loadCost);
+        return this.objects.get(documentReference);
+    }
+
+    /**
+     * @return the page ID of a random document, read from the reverse index
+     */
+    @Benchmark
+    public String reverseIndex()
+    {
+        return this.reverseIndex.get(nextDocumentReference());
+    }
+
+    private DocumentReference nextDocumentReference()
+    {
+        return this.documentReferences.get(ThreadLocalRandom.current().nextInt(this.documentReferences.size()));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation, {@code hashCode} and {@code equals} of {@link URLShortenerResourceReference}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLShortenerResourceReferenceBenchmark
+{
+    private URLShortenerResourceReference reference;
+
+    private URLShortenerResourceReference sameReference;
+
+    /**
+     * Creates two equal references, with query parameters.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.reference = createReference();
+        this.sameReference = createReference();
+    }
+
+    /**
+     * @return a new reference
+     */
+    @Benchmark
+    public URLShortenerResourceReference create()
+    {
+        return new URLShortenerResourceReference("subwiki", "a1b2c");
+    }
+
+    /**
+     * @return the hash code of the reference
+     */
+    @Benchmark
+    public int hash()
+    {
+        return this.reference.hashCode();
+    }
+
+    /**
+     * @return the result of comparing two distinct but equal references
+     */
+    @Benchmark
+    public boolean equalsSame()
+    {
+        return this.reference.equals(this.sameReference);
+    }
+
+    private static URLShortenerResourceReference createReference()
+    {
+        URLShortenerResourceReference result = new URLShortenerResourceReference("subwiki", "a1b2c");
+        result.addParameter("utm_source", "newsletter");
+        result.addParameter("viewer", "comments");
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rebuilding of the query string that {@link URLShortenerResourceReferenceHandler} preserves when
+ * redirecting to the target document.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLShortenerResourceReferenceHandlerBenchmark
+{
+    private Map<String, List<String>> noParameters;
+
+    private Map<String, List<String>> parameters;
+
+    /**
+     * Creates the parameters of a typical shortened URL request: none, or a few tracking parameters.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.noParameters = Collections.emptyMap();
+        this.parameters = new LinkedHashMap<>();
+        this.parameters.put("utm_source", List.of("newsletter"));
+        this.parameters.put("utm_campaign", List.of("spring 2024"));
+        this.parameters.put("viewer", List.of("comments", "history%3A"));
+    }
+
+    /**
+     * @return the query string built when the shortened URL has no parameters
+     */
+    @Benchmark
+    public String queryStringWithoutParameters()
+    {
+        return URLShortenerResourceReferenceHandler.getQueryString(this.noParameters);
+    }
+
+    /**
+     * @return the query string built when the shortened URL has parameters
+     */
+    @Benchmark
+    public String queryStringWithParameters()
+    {
+        return URLShortenerResourceReferenceHandler.getQueryString(this.parameters);
+    }
+}
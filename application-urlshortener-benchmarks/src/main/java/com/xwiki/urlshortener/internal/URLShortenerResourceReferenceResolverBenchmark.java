@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.resource.ResourceReference;
+import org.xwiki.url.ExtendedURL;
+
+/**
+ * Measures the parsing of a shortened URL into a {@link URLShortenerResourceReference}, which is done for every hit on
+ * a short link.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLShortenerResourceReferenceResolverBenchmark
+{
+    private URLShortenerResourceReferenceResolver resolver;
+
+    private ExtendedURL mainWikiURL;
+
+    private ExtendedURL subWikiURL;
+
+    private ExtendedURL subWikiURLWithParameters;
+
+    /**
+     * Creates the resolver and the URLs to resolve.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.resolver = new URLShortenerResourceReferenceResolver();
+        this.mainWikiURL = new ExtendedURL(Collections.singletonList("a1b2c"));
+        this.subWikiURL = new ExtendedURL(Arrays.asList("subwiki", "a1b2c"));
+        Map<String, List<String>> parameters =
+            Map.of("utm_source", List.of("newsletter"), "viewer", List.of("comments", "history"));
+        this.subWikiURLWithParameters = new ExtendedURL(Arrays.asList("subwiki", "a1b2c"), parameters);
+    }
+
+    /**
+     * @return the reference resolved from a main wiki URL
+     * @throws Exception if the URL cannot be resolved
+     */
+    @Benchmark
+    public ResourceReference resolveMainWiki() throws Exception
+    {
+        return this.resolver.resolve(this.mainWikiURL, URLShortenerResourceReference.TYPE, Collections.emptyMap());
+    }
+
+    /**
+     * @return the reference resolved from a subwiki URL
+     * @throws Exception if the URL cannot be resolved
+     */
+    @Benchmark
+    public ResourceReference resolveSubWiki() throws Exception
+    {
+        return this.resolver.resolve(this.subWikiURL, URLShortenerResourceReference.TYPE, Collections.emptyMap());
+    }
+
+    /**
+     * @return the reference resolved from a subwiki URL carrying query parameters
+     * @throws Exception if the URL cannot be resolved
+     */
+    @Benchmark
+    public ResourceReference resolveSubWikiWithParameters() throws Exception
+    {
+        return this.resolver.resolve(this.subWikiURLWithParameters, URLShortenerResourceReference.TYPE,
+            Collections.emptyMap());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.url.ExtendedURL;
+import org.xwiki.url.URLNormalizer;
+
+/**
+ * Measures the serialization of a {@link URLShortenerResourceReference} into a relative URL, which is done each time a
+ * short link is rendered.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLShortenerResourceReferenceSerializerBenchmark
+{
+    private URLShortenerResourceReferenceSerializer serializer;
+
+    private URLShortenerResourceReference mainWikiReference;
+
+    private URLShortenerResourceReference subWikiReference;
+
+    /**
+     * Creates the serializer, with a context path normalizer that only prepends the web application name, like the
+     * default one does when XWiki is deployed under {@code /xwiki}.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.serializer = new URLShortenerResourceReferenceSerializer();
+        URLNormalizer<ExtendedURL> contextPathNormalizer = extendedURL -> {
+            List<String> segments = new ArrayList<>();
+            segments.add("xwiki");
+            segments.addAll(extendedURL.getSegments());
+            return new ExtendedURL(segments, extendedURL.getParameters());
+        };
+        ReflectionUtils.setFieldValue(this.serializer, "extendedURLNormalizer", contextPathNormalizer);
+
+        this.mainWikiReference = new URLShortenerResourceReference("", "a1b2c");
+        this.subWikiReference = new URLShortenerResourceReference("subwiki", "a1b2c");
+    }
+
+    /**
+     * @return the serialized main wiki URL
+     * @throws Exception if the serialization fails
+     */
+    @Benchmark
+    public String serializeMainWiki() throws Exception
+    {
+        return this.serializer.serialize(this.mainWikiReference).serialize();
+    }
+
+    /**
+     * @return the serialized subwiki URL
+     * @throws Exception if the serialization fails
+     */
+    @Benchmark
+    public String serializeSubWiki() throws Exception
+    {
+        return this.serializer.serialize(this.subWikiReference).serialize();
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Provider;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.container.servlet.ServletResponse;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.QueryManager;
+import org.xwiki.query.internal.DefaultQuery;
+import org.xwiki.resource.ResourceReferenceHandlerChain;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.DefaultPageIDGenerator;
+import com.xwiki.urlshortener.internal.DefaultURLShortenerManager;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+import com.xwiki.urlshortener.internal.URLShortenerLookupExecutor;
+import com.xwiki.urlshortener.internal.URLShortenerLookupIndex;
+import com.xwiki.urlshortener.internal.URLShortenerRedirectCache;
+import com.xwiki.urlshortener.internal.URLShortenerResourceReference;
+import com.xwiki.urlshortener.internal.URLShortenerResourceReferenceHandler;
+import com.xwiki.urlshortener.internal.URLShortenerReverseIndex;
+import com.xwiki.urlshortener.internal.store.ParallelWikiLookup;
+import com.xwiki.urlshortener.internal.store.SolrPageIDIndex;
+import com.xwiki.urlshortener.internal.store.SolrPendingPageIDs;
+import com.xwiki.urlshortener.internal.store.XObjectPageIDIndex;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Drives concurrent redirects through the real {@link URLShortenerResourceReferenceHandler},
+ * {@link DefaultURLShortenerManager} and {@link XObjectURLShortenerStore}, backed by a {@link SimulatedQueryExecutor}
+ * instead of the database and Solr, and reports the throughput and the latency percentiles. The rest of the XWiki
+ * environment is replaced by stub-only mocks, which are not recording invocations.
+ * <p>
+ * The load is configured with system properties:
+ * <ul>
+ * <li>{@code harness.concurrency}: number of concurrent clients (default 1000)</li>
+ * <li>{@code harness.requests}: total number of redirects (default 100000)</li>
+ * <li>{@code harness.mappings}: number of short URLs per wiki (default 10000)</li>
+ * <li>{@code harness.crossWikiRate}: fraction of redirects needing the cross-wiki fallback (default 0.05)</li>
+ * <li>{@code harness.unknownRate}: fraction of redirects for unknown IDs (default 0.01)</li>
+ * <li>{@code harness.xwqlLatency} and {@code harness.solrLatency}: query latency in microseconds (default 1000 and
+ * 10000)</li>
+ * <li>{@code harness.xwqlFailureRate} and {@code harness.solrFailureRate}: query failure probability (default 0)</li>
+ * <li>{@code harness.redirectCache}: whether the redirect URL cache keeps the URLs (default true)</li>
+ * <li>{@code harness.fallback}: the cross-wiki fallback, {@code solr} or {@code database} (default solr)</li>
+ * <li>{@code harness.fallbackParallelism}: the number of wikis queried at the same time by the {@code database}
+ * fallback (default 4)</li>
+ * <li>{@code harness.emptyWikis}: number of additional wikis without short URLs, queried by the {@code database}
+ * fallback (default 0)</li>
+ * <li>{@code harness.lookupPoolSize}, {@code harness.lookupQueueSize} and {@code harness.lookupTimeout}: the bounds of
+ * the lookup executor, the timeout being in milliseconds (default 64, 1000 and 10000)</li>
+ * </ul>
+ * The clients run on virtual threads when the JVM supports them (Java 21 and later), and on platform threads
+ * otherwise.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public final class RedirectLoadHarness
+{
+    private static final String PREFIX = "harness.";
+
+    private static final String MAIN_WIKI = "xwiki";
+
+    private static final String SUB_WIKI = "subwiki";
+
+    private final int concurrency = Integer.getInteger(PREFIX + "concurrency", 1000);
+
+    private final int requests = Integer.getInteger(PREFIX + "requests", 100000);
+
+    private final int mappings = Integer.getInteger(PREFIX + "mappings", 10000);
+
+    private final double crossWikiRate = getDouble("crossWikiRate", 0.05);
+
+    private final double unknownRate = getDouble("unknownRate", 0.01);
+
+    private final int emptyWikis = Integer.getInteger(PREFIX + "emptyWikis", 0);
+
+    private final Map<String, Map<String, DocumentReference>> mappingsByWiki = new HashMap<>();
+
+    private final Map<String, DocumentReference> referencesByString = new HashMap<>();
+
+    private final AtomicLong redirects = new AtomicLong();
+
+    private final AtomicLong notFound = new AtomicLong();
+
+    private final AtomicLong unavailable = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private SimulatedQueryExecutor xwqlExecutor;
+
+    private SimulatedQueryExecutor solrExecutor;
+
+    private URLShortenerResourceReferenceHandler handler;
+
+    private URLShortenerLookupExecutor lookupExecutor;
+
+    private ParallelWikiLookup parallelWikiLookup;
+
+    private RedirectLoadHarness()
+    {
+    }
+
+    /**
+     * @param args unused, see the class documentation for the supported system properties
+     * @throws Exception if the harness fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        RedirectLoadHarness harness = new RedirectLoadHarness();
+        harness.setUp();
+        harness.run();
+    }
+
+    private void setUp() throws Exception
+    {
+        createMappings(MAIN_WIKI);
+        createMappings(SUB_WIKI);
+
+        this.xwqlExecutor = new SimulatedQueryExecutor(this.mappingsByWiki, MAIN_WIKI,
+            Long.getLong(PREFIX + "xwqlLatency", 1000), getDouble("xwqlFailureRate", 0));
+        this.solrExecutor = new SimulatedQueryExecutor(this.mappingsByWiki, MAIN_WIKI,
+            Long.getLong(PREFIX + "solrLatency", 10000), getDouble("solrFailureRate", 0));
+
+        XWikiContext xcontext = stub(XWikiContext.class);
+        XWiki xwiki = stub(XWiki.class);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        when(xwiki.getURL(any(DocumentReference.class), anyString(), anyString(), anyString(),
+            any(XWikiContext.class)))
+            .thenAnswer(invocation -> "/xwiki/bin/view/" + invocation.getArgument(0, DocumentReference.class)
+                .getName());
+        Provider<XWikiContext> xcontextProvider = () -> xcontext;
+
+        XObjectURLShortenerStore store = new XObjectURLShortenerStore();
+        setFieldValue(store, "queryManager", createQueryManager());
+        setFieldValue(store, "xcontextProvider", xcontextProvider);
+        setFieldValue(store, "documentReferenceResolver",
+            (DocumentReferenceResolver<String>) (reference, parameters) -> this.referencesByString.get(reference));
+        setFieldValue(store, "solrDocumentReferenceResolver",
+            (DocumentReferenceResolver<SolrDocument>) (document, parameters) -> (DocumentReference) document
+                .getFieldValue(SimulatedQueryExecutor.REFERENCE_FIELD));
+        setFieldValue(store, "serializer",
+            (EntityReferenceSerializer<String>) (reference, parameters) -> reference.toString());
+        setFieldValue(store, "wikiDescriptorManager", createWikiDescriptorManager());
+        setFieldValue(store, "configuration", createConfiguration());
+        setFieldValue(store, "parallelWikiLookup", createParallelWikiLookup());
+        // Nothing is created during the load, so there's nothing pending for Solr.
+        setFieldValue(store, "solrPendingPageIDs", new SolrPendingPageIDs());
+        // The dedicated Solr core is never ready, so the simulated search core is queried.
+        setFieldValue(store, "solrPageIDIndex", new SolrPageIDIndex());
+        // The simulated database has no page ID index, so the HQL lookup is used.
+        setFieldValue(store, "pageIDIndex", mock(XObjectPageIDIndex.class));
+
+        DefaultURLShortenerManager manager = new DefaultURLShortenerManager();
+        setFieldValue(manager, "logger", LoggerFactory.getLogger(DefaultURLShortenerManager.class));
+        setFieldValue(manager, "storeProvider", (Provider<URLShortenerStore>) () -> store);
+        setFieldValue(manager, "pageIDGenerator", new DefaultPageIDGenerator());
+        setFieldValue(manager, "lookupExecutor", createLookupExecutor());
+        setFieldValue(manager, "reverseIndex", new URLShortenerReverseIndex());
+        setFieldValue(manager, "lookupIndex", new URLShortenerLookupIndex());
+
+        this.handler = new URLShortenerResourceReferenceHandler();
+        setFieldValue(this.handler, "xcontextProvider", xcontextProvider);
+        setFieldValue(this.handler, "container", createContainer());
+        setFieldValue(this.handler, "urlShortenerManager", manager);
+        setFieldValue(this.handler, "redirectCache", createRedirectCache());
+        setFieldValue(this.handler, "configuration", createConfiguration());
+        setFieldValue(this.handler, "logger", LoggerFactory.getLogger(URLShortenerResourceReferenceHandler.class));
+    }
+
+    private URLShortenerConfiguration createConfiguration()
+    {
+        URLShortenerConfiguration configuration = stub(URLShortenerConfiguration.class);
+        when(configuration.getRedirectStatus()).thenReturn(302);
+        when(configuration.getLookupPoolSize()).thenReturn(Integer.getInteger(PREFIX + "lookupPoolSize", 64));
+        when(configuration.getLookupQueueSize()).thenReturn(Integer.getInteger(PREFIX + "lookupQueueSize", 1000));
+        when(configuration.getLookupTimeout()).thenReturn(Long.getLong(PREFIX + "lookupTimeout", 10000));
+        when(configuration.getLookupFallback()).thenReturn(System.getProperty(PREFIX + "fallback", "solr"));
+        when(configuration.getLookupFallbackParallelism())
+            .thenReturn(Integer.getInteger(PREFIX + "fallbackParallelism", 4));
+        return configuration;
+    }
+
+    private WikiDescriptorManager createWikiDescriptorManager() throws Exception
+    {
+        List<String> wikis = new ArrayList<>(this.mappingsByWiki.keySet());
+        for (int i = 1; i <= this.emptyWikis; i++) {
+            wikis.add("empty" + i);
+        }
+        WikiDescriptorManager wikiDescriptorManager = stub(WikiDescriptorManager.class);
+        when(wikiDescriptorManager.getAllIds()).thenReturn(wikis);
+        when(wikiDescriptorManager.getMainWikiId()).thenReturn(MAIN_WIKI);
+        return wikiDescriptorManager;
+    }
+
+    private ParallelWikiLookup createParallelWikiLookup()
+    {
+        this.parallelWikiLookup = new ParallelWikiLookup();
+        setFieldValue(this.parallelWikiLookup, "configuration", createConfiguration());
+        // The lookups run without execution context, the stubbed manager doesn't initialize any.
+        setFieldValue(this.parallelWikiLookup, "execution", stub(Execution.class));
+        setFieldValue(this.parallelWikiLookup, "executionContextManager", stub(ExecutionContextManager.class));
+        this.parallelWikiLookup.initialize();
+        return this.parallelWikiLookup;
+    }
+
+    private URLShortenerLookupExecutor createLookupExecutor() throws Exception
+    {
+        this.lookupExecutor = new URLShortenerLookupExecutor();
+        setFieldValue(this.lookupExecutor, "configuration", createConfiguration());
+        // Without execution context, the lookups don't need to clone it.
+        setFieldValue(this.lookupExecutor, "execution", stub(Execution.class));
+        setFieldValue(this.lookupExecutor, "logger", LoggerFactory.getLogger(URLShortenerLookupExecutor.class));
+        this.lookupExecutor.initialize();
+        return this.lookupExecutor;
+    }
+
+    private URLShortenerRedirectCache createRedirectCache() throws Exception
+    {
+        CacheManager cacheManager = stub(CacheManager.class);
+        boolean enabled = Boolean.parseBoolean(System.getProperty(PREFIX + "redirectCache", "true"));
+        when(cacheManager.createNewCache(any())).thenReturn(new InMemoryCache<>(enabled));
+        URLShortenerRedirectCache redirectCache = new URLShortenerRedirectCache();
+        setFieldValue(redirectCache, "cacheManager", cacheManager);
+        redirectCache.initialize();
+        return redirectCache;
+    }
+
+    private void createMappings(String wiki)
+    {
+        Map<String, DocumentReference> wikiMappings = new HashMap<>();
+        for (int i = 0; i < this.mappings; i++) {
+            DocumentReference reference = new DocumentReference(wiki, "Space", "Page" + i);
+            wikiMappings.put(getPageID(wiki, i), reference);
+            this.referencesByString.put(reference.toString(), reference);
+        }
+        this.mappingsByWiki.put(wiki, wikiMappings);
+    }
+
+    private QueryManager createQueryManager() throws Exception
+    {
+        QueryManager queryManager = stub(QueryManager.class);
+        when(queryManager.createQuery(anyString(), anyString())).thenAnswer(invocation -> {
+            String language = invocation.getArgument(1);
+            return new DefaultQuery(invocation.getArgument(0), language,
+                "solr".equals(language) ? this.solrExecutor : this.xwqlExecutor);
+        });
+        when(queryManager.hasLanguage(anyString())).thenReturn(true);
+        return queryManager;
+    }
+
+    private Container createContainer() throws Exception
+    {
+        HttpServletResponse response = stub(HttpServletResponse.class);
+        doAnswer(invocation -> this.redirects.incrementAndGet()).when(response).sendRedirect(anyString());
+        doAnswer(invocation -> invocation.<Integer>getArgument(0) == HttpServletResponse.SC_SERVICE_UNAVAILABLE
+            ? this.unavailable.incrementAndGet() : this.notFound.incrementAndGet()).when(response)
+            .sendError(anyInt(), anyString());
+
+        ServletResponse servletResponse = stub(ServletResponse.class);
+        when(servletResponse.getHttpServletResponse()).thenReturn(response);
+        HttpServletRequest request = stub(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        ServletRequest servletRequest = stub(ServletRequest.class);
+        when(servletRequest.getHttpServletRequest()).thenReturn(request);
+
+        Container container = stub(Container.class);
+        when(container.getRequest()).thenReturn(servletRequest);
+        when(container.getResponse()).thenReturn(servletResponse);
+        return container;
+    }
+
+    private void run() throws Exception
+    {
+        ResourceReferenceHandlerChain chain = stub(ResourceReferenceHandlerChain.class);
+        int requestsPerClient = Math.max(1, this.requests / this.concurrency);
+        List<Future<long[]>> clients = new ArrayList<>(this.concurrency);
+
+        long start = System.nanoTime();
+        ExecutorService executor = createClientExecutor();
+        try {
+            for (int i = 0; i < this.concurrency; i++) {
+                clients.add(executor.submit(() -> runClient(requestsPerClient, chain)));
+            }
+            long[] latencies = new long[requestsPerClient * this.concurrency];
+            int offset = 0;
+            for (Future<long[]> client : clients) {
+                long[] clientLatencies = client.get();
+                System.arraycopy(clientLatencies, 0, latencies, offset, clientLatencies.length);
+                offset += clientLatencies.length;
+            }
+            long elapsed = System.nanoTime() - start;
+            report(latencies, elapsed);
+        } finally {
+            executor.shutdownNow();
+            this.lookupExecutor.dispose();
+            this.parallelWikiLookup.dispose();
+        }
+    }
+
+    private long[] runClient(int count, ResourceReferenceHandlerChain chain)
+    {
+        long[] latencies = new long[count];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            URLShortenerResourceReference reference = nextReference(random);
+            long start = System.nanoTime();
+            try {
+                this.handler.handle(reference, chain);
+            } catch (Exception e) {
+                this.errors.incrementAndGet();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private URLShortenerResourceReference nextReference(ThreadLocalRandom random)
+    {
+        double kind = random.nextDouble();
+        int index = random.nextInt(this.mappings);
+        if (kind < this.unknownRate) {
+            return new URLShortenerResourceReference("", "u" + index);
+        } else if (kind < this.unknownRate + this.crossWikiRate) {
+            // A subwiki ID requested without the wiki segment is found only by the cross-wiki fallback.
+            return new URLShortenerResourceReference("", getPageID(SUB_WIKI, index));
+        } else if (random.nextBoolean()) {
+            return new URLShortenerResourceReference(SUB_WIKI, getPageID(SUB_WIKI, index));
+        } else {
+            return new URLShortenerResourceReference("", getPageID(MAIN_WIKI, index));
+        }
+    }
+
+    private void report(long[] latencies, long elapsedNanos)
+    {
+        Arrays.sort(latencies);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "Clients: %d, requests: %d, elapsed: %.2f s%n", this.concurrency,
+            latencies.length, seconds);
+        System.out.printf(Locale.ROOT, "Throughput: %.1f redirects/s%n", latencies.length / seconds);
+        System.out.printf(Locale.ROOT, "Latency (ms): p50=%.3f p99=%.3f p999=%.3f max=%.3f%n",
+            percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+            latencies[latencies.length - 1] / 1e6);
+        System.out.printf(Locale.ROOT, "Outcomes: redirects=%d, notFound=%d, unavailable=%d, errors=%d%n",
+            this.redirects.get(), this.notFound.get(), this.unavailable.get(), this.errors.get());
+        System.out.printf(Locale.ROOT, "Lookups: completed=%d, rejected=%d, timedOut=%d%n",
+            this.lookupExecutor.getCompletedCount(), this.lookupExecutor.getRejectedCount(),
+            this.lookupExecutor.getTimedOutCount());
+        System.out.printf(Locale.ROOT, "Queries: xwql=%d (failed %d), solr=%d (failed %d)%n",
+            this.xwqlExecutor.getExecutions(), this.xwqlExecutor.getFailures(), this.solrExecutor.getExecutions(),
+            this.solrExecutor.getFailures());
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile)
+    {
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+
+    private static String getPageID(String wiki, int index)
+    {
+        // Distinct IDs for each wiki, so that the cross-wiki fallback finds a single document.
+        return String.format(Locale.ROOT, "%s%05x", wiki.charAt(0), index);
+    }
+
+    private ExecutorService createClientExecutor()
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available, using platform threads.");
+            return Executors.newFixedThreadPool(this.concurrency);
+        }
+    }
+
+    private static double getDouble(String name, double defaultValue)
+    {
+        String value = System.getProperty(PREFIX + name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private static <T> T stub(Class<T> type)
+    {
+        return mock(type, withSettings().stubOnly());
+    }
+}
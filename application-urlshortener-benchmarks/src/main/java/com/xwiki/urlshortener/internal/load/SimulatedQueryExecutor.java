@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.load;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryExecutor;
+
+/**
+ * Stand-in for the database (XWQL and HQL) and Solr query executors, answering the URL Shortener queries from an
+ * in-memory map of mappings, after a configurable latency and with a configurable failure rate.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class SimulatedQueryExecutor implements QueryExecutor
+{
+    /**
+     * The name of the Solr document field holding the reference of the simulated document.
+     */
+    public static final String REFERENCE_FIELD = "reference";
+
+    private static final String PAGE_ID = "pageID";
+
+    private final Map<String, Map<String, DocumentReference>> mappingsByWiki;
+
+    private final String mainWiki;
+
+    private final long latencyNanos;
+
+    private final double failureRate;
+
+    private final AtomicLong executions = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param mappingsByWiki the page IDs of each wiki, with the document they are associated to
+     * @param mainWiki the wiki used when the query doesn't specify one
+     * @param latencyMicros the time spent by each query, in microseconds
+     * @param failureRate the probability, between 0 and 1, that a query fails
+     */
+    public SimulatedQueryExecutor(Map<String, Map<String, DocumentReference>> mappingsByWiki, String mainWiki,
+        long latencyMicros, double failureRate)
+    {
+        this.mappingsByWiki = mappingsByWiki;
+        this.mainWiki = mainWiki;
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> List<T> execute(Query query) throws QueryException
+    {
+        this.executions.incrementAndGet();
+        if (this.latencyNanos > 0) {
+            LockSupport.parkNanos(this.latencyNanos);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (this.failureRate > 0 && random.nextDouble() < this.failureRate) {
+            this.failures.incrementAndGet();
+            throw new QueryException("Simulated query failure", query, null);
+        }
+
+        if ("solr".equals(query.getLanguage())) {
+            return (List<T>) Collections.singletonList(executeSolr(query));
+        } else {
+            return (List<T>) executeXWQL(query);
+        }
+    }
+
+    /**
+     * @return the number of executed queries
+     */
+    public long getExecutions()
+    {
+        return this.executions.get();
+    }
+
+    /**
+     * @return the number of queries that failed
+     */
+    public long getFailures()
+    {
+        return this.failures.get();
+    }
+
+    private List<String> executeXWQL(Query query)
+    {
+        String wiki = query.getWiki() != null ? query.getWiki() : this.mainWiki;
+        Object pageID = query.getNamedParameters().get(PAGE_ID);
+        DocumentReference reference =
+            this.mappingsByWiki.getOrDefault(wiki, Collections.emptyMap()).get(String.valueOf(pageID));
+        return reference != null ? Collections.singletonList(reference.toString()) : Collections.emptyList();
+    }
+
+    private QueryResponse executeSolr(Query query)
+    {
+        // The statement has the form "property.URLShortener.Code.URLShortenerClass.pageID:<id>".
+        String statement = query.getStatement();
+        String pageID = statement.substring(statement.lastIndexOf(':') + 1);
+
+        SolrDocumentList results = new SolrDocumentList();
+        for (Map<String, DocumentReference> mappings : this.mappingsByWiki.values()) {
+            DocumentReference reference = mappings.get(pageID);
+            if (reference != null) {
+                SolrDocument document = new SolrDocument();
+                document.setField(REFERENCE_FIELD, reference);
+                results.add(document);
+                break;
+            }
+        }
+        results.setNumFound(results.size());
+
+        return new QueryResponse()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public SolrDocumentList getResults()
+            {
+                return results;
+            }
+        };
+    }
+}
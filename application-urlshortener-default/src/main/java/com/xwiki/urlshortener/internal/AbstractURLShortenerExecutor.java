@@ -0,0 +1,338 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+import com.xwiki.urlshortener.URLShortenerException;
+
+/**
+ * Base class of the bounded pools running the URL Shortener tasks away from the servlet container threads. The tasks
+ * over the queue limit, or not completed before the optional deadline, fail fast with
+ * {@link URLShortenerUnavailableException} instead of blocking. The tasks run with a clone of the execution context of
+ * the caller, and the tasks submitted from a thread of the pool run directly, so that they can't wait for themselves.
+ * The saturation of the pool is exposed through JMX.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public abstract class AbstractURLShortenerExecutor implements URLShortenerExecutorMBean, Initializable, Disposable
+{
+    @Inject
+    protected URLShortenerConfiguration configuration;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private final ThreadLocal<Boolean> poolThread = new ThreadLocal<>();
+
+    private ThreadPoolExecutor executor;
+
+    private ScheduledThreadPoolExecutor deadlineScheduler;
+
+    private long timeout;
+
+    private int retryAfter;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    /**
+     * @return the name of the tasks, used in the thread names and the error messages
+     */
+    protected abstract String getName();
+
+    /**
+     * @return the JMX name of the pool metrics
+     */
+    protected abstract String getObjectName();
+
+    /**
+     * @return the maximum number of tasks running at the same time
+     */
+    protected abstract int getPoolLimit();
+
+    /**
+     * @return the maximum number of tasks waiting for a thread
+     */
+    protected abstract int getQueueLimit();
+
+    /**
+     * @return the number of milliseconds after which a task is abandoned, or 0 to wait for the tasks until they
+     *     complete
+     */
+    protected abstract long getDeadline();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int poolSize = getPoolLimit();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(getQueueLimit()), runnable -> {
+                Thread thread = new Thread(() -> {
+                    this.poolThread.set(Boolean.TRUE);
+                    runnable.run();
+                }, String.format("URL Shortener %s %d", getName(), threadCount.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeout = getDeadline();
+        if (this.timeout > 0) {
+            this.deadlineScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, String.format("URL Shortener %s deadline", getName()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.deadlineScheduler.setRemoveOnCancelPolicy(true);
+        }
+        this.retryAfter = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(this.timeout));
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(getObjectName());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this, URLShortenerExecutorMBean.class), name);
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the URL Shortener [{}] metrics. Root cause: [{}]", getName(),
+                e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.executor.shutdownNow();
+        if (this.deadlineScheduler != null) {
+            this.deadlineScheduler.shutdownNow();
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(getObjectName()));
+        } catch (JMException e) {
+            this.logger.debug("Failed to unregister the URL Shortener [{}] metrics.", getName(), e);
+        }
+    }
+
+    /**
+     * Runs the given task on the pool and waits for its result, at most until the configured deadline.
+     *
+     * @param task the task to run
+     * @param <T> the type of the task result
+     * @return the result of the task
+     * @throws URLShortenerUnavailableException if the queue is full or the task didn't complete in time
+     * @throws URLShortenerException if the task fails
+     */
+    public <T> T execute(Callable<T> task) throws URLShortenerException
+    {
+        return join(submit(task));
+    }
+
+    /**
+     * Runs the given task on the pool, without waiting for its result. The future is completed from the pool thread
+     * while the execution context is still set, so its dependent actions that run there have access to it.
+     *
+     * @param task the task to run
+     * @param <T> the type of the task result
+     * @return the future result of the task, completed exceptionally with an {@link URLShortenerException} if the task
+     *     fails, or with an {@link URLShortenerUnavailableException} if the queue is full or the task didn't
+     *     complete in time
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (Boolean.TRUE.equals(this.poolThread.get())) {
+            // Waiting for another thread of the pool could dead lock.
+            complete(result, task);
+            return result;
+        }
+
+        Future<?> future;
+        try {
+            future = this.executor.submit(withExecutionContext(() -> complete(result, task)));
+        } catch (URLShortenerException e) {
+            result.completeExceptionally(e);
+            return result;
+        } catch (RejectedExecutionException e) {
+            this.rejectedCount.incrementAndGet();
+            result.completeExceptionally(new URLShortenerUnavailableException(
+                String.format("Too many URL Shortener [%s] tasks in progress.", getName()), this.retryAfter, e));
+            return result;
+        }
+
+        ScheduledFuture<?> deadline = this.timeout > 0 ? this.deadlineScheduler.schedule(() -> {
+            if (!result.isDone()) {
+                this.timedOutCount.incrementAndGet();
+                result.completeExceptionally(new URLShortenerUnavailableException(
+                    String.format("The URL Shortener [%s] task didn't complete in [%s] ms.", getName(), this.timeout),
+                    this.retryAfter, null));
+            }
+        }, this.timeout, TimeUnit.MILLISECONDS) : null;
+        result.whenComplete((value, error) -> {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (error != null) {
+                // Drop the task if it didn't start, but don't interrupt it when running: an interrupt in the middle of
+                // Hibernate or JDBC can close the file channels of an embedded database, or leave the connection in a
+                // bad state. Its late result is then ignored.
+                future.cancel(false);
+                this.executor.remove((Runnable) future);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for the given task result.
+     *
+     * @param future the future result of a task submitted to an URL Shortener executor
+     * @param <T> the type of the task result
+     * @return the result of the task
+     * @throws URLShortenerException if the task fails, or the waiting thread is interrupted
+     */
+    public static <T> T join(CompletableFuture<T> future) throws URLShortenerException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new URLShortenerException("Interrupted while waiting for an URL Shortener task.", e);
+        } catch (ExecutionException e) {
+            throw (URLShortenerException) e.getCause();
+        }
+    }
+
+    private <T> void complete(CompletableFuture<T> result, Callable<T> task)
+    {
+        try {
+            result.complete(task.call());
+        } catch (URLShortenerException e) {
+            result.completeExceptionally(e);
+        } catch (Exception e) {
+            result.completeExceptionally(
+                new URLShortenerException(String.format("The URL Shortener [%s] task failed.", getName()), e));
+        }
+    }
+
+    private Runnable withExecutionContext(Runnable runnable) throws URLShortenerException
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context == null) {
+            return runnable;
+        }
+
+        ExecutionContext clonedContext;
+        try {
+            clonedContext = this.executionContextManager.clone(context);
+        } catch (ExecutionContextException e) {
+            throw new URLShortenerException(
+                String.format("Failed to clone the execution context for the URL Shortener [%s] task.", getName()), e);
+        }
+        return () -> {
+            this.execution.setContext(clonedContext);
+            try {
+                runnable.run();
+            } finally {
+                this.execution.removeContext();
+            }
+        };
+    }
+
+    @Override
+    public int getMaximumPoolSize()
+    {
+        return this.executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getActiveCount()
+    {
+        return this.executor.getActiveCount();
+    }
+
+    @Override
+    public int getQueueSize()
+    {
+        return this.executor.getQueue().size();
+    }
+
+    @Override
+    public int getRemainingQueueCapacity()
+    {
+        return this.executor.getQueue().remainingCapacity();
+    }
+
+    @Override
+    public long getCompletedCount()
+    {
+        return this.executor.getCompletedTaskCount();
+    }
+
+    @Override
+    public long getRejectedCount()
+    {
+        return this.rejectedCount.get();
+    }
+
+    @Override
+    public long getTimedOutCount()
+    {
+        return this.timedOutCount.get();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.UUID;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Generates IDs made of the first 5 hexadecimal characters of a random UUID, which gives a keyspace of 2^20 IDs.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+public class DefaultPageIDGenerator implements PageIDGenerator
+{
+    /**
+     * The number of characters of the generated IDs.
+     */
+    public static final int LENGTH = 5;
+
+    @Override
+    public String generate()
+    {
+        return UUID.randomUUID().toString().substring(0, LENGTH);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Default implementation of {@link URLShortenerConfiguration}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+public class DefaultURLShortenerConfiguration implements URLShortenerConfiguration
+{
+    private static final String PREFIX = "urlshortener.";
+
+    private static final int DEFAULT_REDIRECT_STATUS = 302;
+
+    private static final Set<Integer> REDIRECT_STATUSES = Set.of(301, 302, 307, 308);
+
+    // The tokens of the preview bots only, e.g. not "Mattermost", which is also in the user agent of the desktop app.
+    private static final List<String> DEFAULT_PREVIEW_USER_AGENTS = List.of("Slackbot", "facebookexternalhit",
+        "Twitterbot", "Discordbot", "WhatsApp", "TelegramBot", "LinkedInBot", "SkypeUriPreview", "Mattermost-Bot");
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public int getRedirectStatus()
+    {
+        int status = this.configuration.getProperty(PREFIX + "redirect.status", DEFAULT_REDIRECT_STATUS);
+        if (!REDIRECT_STATUSES.contains(status)) {
+            this.logger.warn("Unsupported redirect status [{}], falling back to [{}].", status,
+                DEFAULT_REDIRECT_STATUS);
+            return DEFAULT_REDIRECT_STATUS;
+        }
+        return status;
+    }
+
+    @Override
+    public int getRedirectMaxAge()
+    {
+        return Math.max(0, this.configuration.getProperty(PREFIX + "redirect.maxAge", 0));
+    }
+
+    @Override
+    public boolean isAsyncRedirect()
+    {
+        return this.configuration.getProperty(PREFIX + "redirect.async", true);
+    }
+
+    @Override
+    public List<String> getPreviewUserAgents()
+    {
+        return this.configuration.getProperty(PREFIX + "preview.userAgents", DEFAULT_PREVIEW_USER_AGENTS);
+    }
+
+    @Override
+    public int getLookupPoolSize()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "lookup.poolSize", 8));
+    }
+
+    @Override
+    public int getLookupQueueSize()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "lookup.queueSize", 100));
+    }
+
+    @Override
+    public long getLookupTimeout()
+    {
+        return Math.max(1L, this.configuration.getProperty(PREFIX + "lookup.timeout", 10000L));
+    }
+
+    @Override
+    public int getLookupShardLimit()
+    {
+        return Math.max(0, this.configuration.getProperty(PREFIX + "lookup.shards", 100));
+    }
+
+    @Override
+    public String getLookupFallback()
+    {
+        return this.configuration.getProperty(PREFIX + "lookup.fallback", "solr");
+    }
+
+    @Override
+    public int getLookupFallbackParallelism()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "lookup.fallbackParallelism", 4));
+    }
+
+    @Override
+    public int getUpdatePoolSize()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "update.poolSize", 2));
+    }
+
+    @Override
+    public int getUpdateQueueSize()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "update.queueSize", 1000));
+    }
+
+    @Override
+    public String getStoreHint()
+    {
+        return this.configuration.getProperty(PREFIX + "store", "xobject");
+    }
+}
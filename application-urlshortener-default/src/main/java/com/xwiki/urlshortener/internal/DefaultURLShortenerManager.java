@@ -19,40 +19,38 @@
  */
 package com.xwiki.urlshortener.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.util.ClientUtils;
-import org.apache.solr.common.SolrDocument;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.LocalDocumentReference;
-import org.xwiki.model.reference.WikiReference;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
-
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.search.solr.internal.api.SolrIndexer;
+
 import com.xwiki.urlshortener.URLShortenerException;
 import com.xwiki.urlshortener.URLShortenerManager;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
 
 /**
+ * Default implementation of {@link URLShortenerManager}, keeping the page IDs in the configured
+ * {@link URLShortenerStore}, the lookups going through the {@link URLShortenerLookupIndex} first. The lookups run on
+ * the {@link URLShortenerLookupExecutor} and the creations and regenerations on the {@link URLShortenerUpdateExecutor},
+ * the blocking methods waiting for their asynchronous counterparts.
+ *
  * @version $Id$
  * @since 1.3.0
  */
@@ -66,165 +64,231 @@ public class DefaultURLShortenerManager implements URLShortenerManager
     public static final LocalDocumentReference URL_SHORTENER_CLASS_REFERENCE =
         new LocalDocumentReference(Arrays.asList("URLShortener", "Code"), "URLShortenerClass");
 
-    private static final String PAGE_ID = "pageID";
+    @Inject
+    private Logger logger;
 
     @Inject
-    private QueryManager queryManager;
+    private Provider<URLShortenerStore> storeProvider;
 
     @Inject
-    private Provider<XWikiContext> xcontextProvider;
+    private URLShortenerReverseIndex reverseIndex;
 
     @Inject
-    private Logger logger;
+    private URLShortenerLookupIndex lookupIndex;
 
     @Inject
-    @Named("current")
-    private DocumentReferenceResolver<String> documentReferenceResolver;
+    private PageIDGenerator pageIDGenerator;
 
     @Inject
-    private DocumentReferenceResolver<SolrDocument> solrDocumentReferenceResolver;
+    private URLShortenerLookupExecutor lookupExecutor;
 
     @Inject
-    private EntityReferenceSerializer<String> serializer;
+    private URLShortenerUpdateExecutor updateExecutor;
+
+    /**
+     * Internal API: the platform doesn't expose a way to reindex a single document, the Solr script service requiring
+     * the current user to be an administrator and saving the document adding a history entry. Only used with the
+     * stores that don't save the document, and looked up lazily so that the other stores don't depend on it.
+     */
+    @Inject
+    private Provider<SolrIndexer> solrIndexerProvider;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * The creations in progress, by document, so that the concurrent creations for the same document, e.g. the eager
+     * creation of a new page and its first short URL request, share a single page ID.
+     */
+    private final Map<DocumentReference, CompletableFuture<String>> creations = new ConcurrentHashMap<>();
 
     @Override
     public String createShortenedURL(DocumentReference documentReference) throws URLShortenerException
     {
-        try {
-            XWikiContext xcontext = xcontextProvider.get();
-            XWikiDocument currentDoc = xcontext.getWiki().getDocument(documentReference, xcontext);
-            return addURLShortenerXObject(currentDoc.clone());
-        } catch (XWikiException | QueryException e) {
-            this.logger.error(
-                String.format("Error while computing the shortened URL for document [%s]. Root cause: [%s]",
-                    documentReference, ExceptionUtils.getRootCauseMessage(e)));
-            throw new URLShortenerException(String.format("Failed to retrieve the document [%s].", documentReference),
-                e);
+        return AbstractURLShortenerExecutor.join(createShortenedURLAsync(documentReference));
+    }
+
+    @Override
+    public CompletableFuture<String> createShortenedURLAsync(DocumentReference documentReference)
+    {
+        CompletableFuture<String> newCreation = new CompletableFuture<>();
+        CompletableFuture<String> creation = this.creations.putIfAbsent(documentReference, newCreation);
+        if (creation == null) {
+            creation = newCreation;
+            this.updateExecutor.submit(() -> create(documentReference)).whenComplete((pageID, error) -> {
+                // The page ID is in the reverse index by now, for the next creations.
+                this.creations.remove(documentReference, newCreation);
+                complete(newCreation, pageID, error);
+            });
         }
+        // Each caller gets its own future, so that a caller giving up on waiting doesn't cancel the others.
+        CompletableFuture<String> result = new CompletableFuture<>();
+        creation.whenComplete((pageID, error) -> complete(result, pageID, error));
+        return result;
     }
 
     @Override
     public String regenerateShortenedURL(DocumentReference documentReference, String oldPageID)
         throws IllegalStateException, URLShortenerException
     {
-        XWikiContext xcontext = xcontextProvider.get();
         try {
-            XWikiDocument currentDoc = xcontext.getWiki().getDocument(documentReference, xcontext);
-            List<BaseObject> oldObjects =
-                currentDoc.getXObjects(URL_SHORTENER_CLASS_REFERENCE).stream().filter(Objects::nonNull)
-                    .filter((baseObject) -> baseObject.getStringValue(PAGE_ID).equals(oldPageID))
-                    .collect(Collectors.toList());
-
-            if (oldObjects.isEmpty()) {
-                throw new IllegalStateException(String.format(
-                    "The document does not contains the URLShortener object with id [%s] that needs regenerating.",
-                    oldPageID));
-            } else {
-                String pageID = createPageID();
-                oldObjects.get(0).setStringValue(PAGE_ID, pageID);
-                // Don't create a history entry.
-                currentDoc.setMetaDataDirty(false);
-                currentDoc.setContentDirty(false);
-                xcontext.getWiki().saveDocument(currentDoc, "Regenerate short URL.", true, xcontext);
-                return pageID;
+            return AbstractURLShortenerExecutor.join(regenerateShortenedURLAsync(documentReference, oldPageID));
+        } catch (URLShortenerException e) {
+            if (e.getCause() instanceof IllegalStateException) {
+                throw (IllegalStateException) e.getCause();
             }
-        } catch (XWikiException | QueryException e) {
-            throw new URLShortenerException(
-                String.format("Failed to regenerate the short url for the document [%s].", documentReference), e);
+            throw e;
         }
     }
 
+    @Override
+    public CompletableFuture<String> regenerateShortenedURLAsync(DocumentReference documentReference,
+        String oldPageID)
+    {
+        return this.updateExecutor.submit(() -> {
+            try {
+                return regenerate(documentReference, oldPageID);
+            } catch (IllegalStateException e) {
+                throw new URLShortenerException(e.getMessage(), e);
+            }
+        });
+    }
+
+    @Override
+    public String getPageID(DocumentReference documentReference)
+    {
+        return this.reverseIndex.get(documentReference);
+    }
+
     @Override
     public DocumentReference getDocumentReference(String wiki, String id) throws URLShortenerException
     {
-        try {
-            DocumentReference documentReference = null;
+        // Don't let slow queries hold the caller's thread for longer than the lookup deadline.
+        return AbstractURLShortenerExecutor.join(getDocumentReferenceAsync(wiki, id));
+    }
 
-            List<?> results = getURLShortenerObjectWithID(id, wiki);
+    @Override
+    public CompletableFuture<DocumentReference> getDocumentReferenceAsync(String wiki, String id)
+    {
+        return this.lookupExecutor.submit(() -> {
+            DocumentReference documentReference = this.lookupIndex.get(wiki, id);
+            return documentReference != null ? documentReference : this.storeProvider.get().get(wiki, id);
+        });
+    }
 
-            if (!results.isEmpty()) {
-                documentReference = documentReferenceResolver.resolve((String) results.get(0));
-                if (wiki != null && !wiki.isEmpty()) {
-                    documentReference =
-                        documentReference.setWikiReference(new WikiReference(wiki));
+    @Override
+    public Map<String, DocumentReference> getDocumentReferences(String wiki, Collection<String> ids)
+        throws URLShortenerException
+    {
+        return AbstractURLShortenerExecutor.join(this.lookupExecutor.submit(() -> {
+            Map<String, DocumentReference> documentReferences = new HashMap<>();
+            List<String> missingIDs = new ArrayList<>();
+            for (String id : ids) {
+                DocumentReference documentReference = this.lookupIndex.get(wiki, id);
+                if (documentReference != null) {
+                    documentReferences.put(id, documentReference);
+                } else {
+                    missingIDs.add(id);
                 }
+            }
+            // Look up the remaining ids all at once instead of one query per id.
+            if (!missingIDs.isEmpty()) {
+                documentReferences.putAll(this.storeProvider.get().getAll(wiki, missingIDs));
+            }
+            return documentReferences;
+        }));
+    }
+
+    private String create(DocumentReference documentReference) throws URLShortenerException
+    {
+        // Avoid asking the store, which might need to load the document, when the page ID is already known.
+        String pageID = this.reverseIndex.get(documentReference);
+        if (pageID != null) {
+            return pageID;
+        }
+        try {
+            URLShortenerStore store = this.storeProvider.get();
+            pageID = store.getPageID(documentReference);
+            if (pageID == null) {
+                pageID = createPageID(store);
+                store.put(pageID, documentReference);
+                this.lookupIndex.put(pageID, documentReference);
+                // Before the reindex, which reads the page ID from the reverse index.
+                this.reverseIndex.put(documentReference, pageID);
+                reindex(store, documentReference);
+                notify(store, pageID, documentReference, null);
             } else {
-                // If no short url is found on the given subwiki, try to find the pageID in all subwikis.
-                results = getURLShortenerObjectWithIDOnAnyWiki(id);
-                if (!results.isEmpty()) {
-                    documentReference = documentReferenceResolver.resolve((String) results.get(0));
-                }
+                this.reverseIndex.put(documentReference, pageID);
             }
-            return documentReference;
-        } catch (QueryException e) {
-            throw new URLShortenerException(
-                String.format("Failed to find the xwiki page identified by id [%s] and wiki [%s].", id, wiki));
+            return pageID;
+        } catch (URLShortenerException e) {
+            this.logger.error(
+                String.format("Error while computing the shortened URL for document [%s]. Root cause: [%s]",
+                    documentReference, ExceptionUtils.getRootCauseMessage(e)));
+            throw e;
         }
     }
 
-    private String addURLShortenerXObject(XWikiDocument currentDoc) throws XWikiException, QueryException
+    private static void complete(CompletableFuture<String> future, String pageID, Throwable error)
     {
-        String pageID = null;
-        BaseObject urlShortenerObj = currentDoc.getXObject(URL_SHORTENER_CLASS_REFERENCE);
-
-        if (urlShortenerObj == null) {
-
-            XWikiContext xcontext = this.xcontextProvider.get();
-            BaseObject object = currentDoc.newXObject(URL_SHORTENER_CLASS_REFERENCE, xcontext);
-            pageID = createPageID();
-            object.set(PAGE_ID, pageID, xcontext);
-
-            // Don't create a history entry.
-            currentDoc.setMetaDataDirty(false);
-            currentDoc.setContentDirty(false);
-            xcontext.getWiki().saveDocument(currentDoc, "Created URL Shortener.", true, xcontext);
+        if (error != null) {
+            future.completeExceptionally(error);
         } else {
-            pageID = urlShortenerObj.getStringValue(PAGE_ID);
+            future.complete(pageID);
         }
+    }
 
+    private String regenerate(DocumentReference documentReference, String oldPageID)
+        throws IllegalStateException, URLShortenerException
+    {
+        URLShortenerStore store = this.storeProvider.get();
+        String pageID = createPageID(store);
+        if (!store.replace(documentReference, oldPageID, pageID)) {
+            throw new IllegalStateException(String.format(
+                "The document does not contains the URLShortener object with id [%s] that needs regenerating.",
+                oldPageID));
+        }
+        this.reverseIndex.put(documentReference, pageID);
+        this.lookupIndex.remove(oldPageID, documentReference);
+        this.lookupIndex.put(pageID, documentReference);
+        reindex(store, documentReference);
+        notify(store, oldPageID, null, documentReference);
+        notify(store, pageID, documentReference, null);
         return pageID;
     }
 
-    private String createPageID() throws QueryException
+    private void reindex(URLShortenerStore store, DocumentReference documentReference)
     {
-        String id = UUID.randomUUID().toString().substring(0, 5);
-        // Make sure the ID is not already used.
-        if (!getURLShortenerObjectWithIDOnAnyWiki(id).isEmpty()) {
-            id = createPageID();
+        // The default store saves the document, which is reindexed with its objects. The other stores don't touch the
+        // document, whose page ID is added to its Solr entry by the URLShortenerSolrMetadataExtractor.
+        if (!(store instanceof XObjectURLShortenerStore)) {
+            try {
+                this.solrIndexerProvider.get().index(documentReference, false);
+            } catch (RuntimeException e) {
+                // The page ID is added to the search results the next time the document is indexed.
+                this.logger.warn("Failed to reindex the document [{}]. Root cause: [{}]", documentReference,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
         }
-
-        return id;
     }
 
-    private List<?> getURLShortenerObjectWithIDOnAnyWiki(String pageId)
-        throws QueryException
+    private void notify(URLShortenerStore store, String pageID, DocumentReference documentReference,
+        DocumentReference previousReference)
     {
-        // Note that the query is very slow when solr is reindexing.
-        // Also, for newly added URLShortener objects, SOLR takes some moments to update with its value. So this SOLR
-        // query might also return null if it didn't finish updating the index.
-        String statement =
-            "property.URLShortener.Code.URLShortenerClass.pageID:" + ClientUtils.escapeQueryChars(pageId);
-        Query query = this.queryManager.createQuery(statement, "solr").setLimit(1);
-        QueryResponse response = (QueryResponse) query.execute().get(0);
-        List<?> queryResults = response.getResults().stream()
-            .map((SolrDocument doc) -> serializer.serialize(solrDocumentReferenceResolver.resolve(doc)))
-            .collect(Collectors.toList());
-        return queryResults;
+        // The other cluster nodes learn the changes of the default store from the document events.
+        if (!(store instanceof XObjectURLShortenerStore)) {
+            this.observationManager.notify(new PageIDUpdatedEvent(pageID), documentReference, previousReference);
+        }
     }
 
-    private List<?> getURLShortenerObjectWithID(String pageId, String wikiName) throws QueryException
+    private String createPageID(URLShortenerStore store) throws URLShortenerException
     {
-        String statement =
-            "select distinct doc.fullName from Document as doc, doc.object('URLShortener.Code.URLShortenerClass') as "
-                + "obj where obj.pageID = :pageID";
-        Query query =
-            this.queryManager.createQuery(statement, Query.XWQL).bindValue(PAGE_ID, pageId)
-                .setLimit(1);
-        // An empty wiki means we are on the main wiki, which doesn't need to be set on the query because it's the
-        // default.
-        if (wikiName != null && !wikiName.isEmpty()) {
-            query = query.setWiki(wikiName);
+        String id = this.pageIDGenerator.generate();
+        // Make sure the ID is not already used.
+        while (store.exists(id)) {
+            id = this.pageIDGenerator.generate();
         }
-        return query.execute();
+
+        return id;
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.io.Serializable;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Notified when a page ID of a store that doesn't keep the page IDs in the documents is added, moved or removed, so
+ * that the other cluster nodes update their {@link URLShortenerLookupIndex}, {@link URLShortenerReverseIndex} and
+ * {@link URLShortenerRedirectCache}. The default store doesn't need it since the document events carry its changes.
+ * <p>
+ * The event also sends the following parameters:
+ * <ul>
+ * <li>source: the {@link org.xwiki.model.reference.DocumentReference} the page ID now points to, or {@code null} if
+ * it was removed</li>
+ * <li>data: the {@link org.xwiki.model.reference.DocumentReference} the page ID was pointing to, or {@code null} if it
+ * was added</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class PageIDUpdatedEvent implements Event, Serializable
+{
+    /**
+     * Class ID for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    private final String pageID;
+
+    /**
+     * Matches all the page IDs.
+     */
+    public PageIDUpdatedEvent()
+    {
+        this(null);
+    }
+
+    /**
+     * @param pageID the updated page ID
+     */
+    public PageIDUpdatedEvent(String pageID)
+    {
+        this.pageID = pageID;
+    }
+
+    /**
+     * @return the updated page ID
+     */
+    public String getPageID()
+    {
+        return this.pageID;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof PageIDUpdatedEvent;
+    }
+}
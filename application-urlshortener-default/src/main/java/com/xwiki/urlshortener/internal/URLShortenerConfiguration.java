@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Configuration of the URL Shortener, read from {@code xwiki.properties}, where all the properties are prefixed with
+ * {@code urlshortener.}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Role
+public interface URLShortenerConfiguration
+{
+    /**
+     * @return the HTTP status used when redirecting a shortened URL to its document, one of 301, 302, 307 or 308
+     *     ({@code urlshortener.redirect.status}, 302 by default)
+     */
+    int getRedirectStatus();
+
+    /**
+     * @return for how many seconds browsers and proxies are allowed to cache a redirect, or 0 to not send any caching
+     *     header ({@code urlshortener.redirect.maxAge}, 0 by default)
+     */
+    int getRedirectMaxAge();
+
+    /**
+     * @return whether the redirects that need a lookup release the servlet container thread while waiting for it, when
+     *     the container supports asynchronous requests ({@code urlshortener.redirect.async}, {@code true} by default)
+     */
+    boolean isAsyncRedirect();
+
+    /**
+     * @return the (case insensitive) fragments of the {@code User-Agent} of the link preview clients (chat
+     *     applications, social networks), which get a minimal page with the title and the description of the target
+     *     document instead of a redirect ({@code urlshortener.preview.userAgents}, a comma separated list)
+     */
+    List<String> getPreviewUserAgents();
+
+    /**
+     * @return the maximum number of shortened URL lookups running at the same time
+     *     ({@code urlshortener.lookup.poolSize}, 8 by default)
+     */
+    int getLookupPoolSize();
+
+    /**
+     * @return the maximum number of shortened URL lookups waiting for a thread, over which new lookups are rejected
+     *     ({@code urlshortener.lookup.queueSize}, 100 by default)
+     */
+    int getLookupQueueSize();
+
+    /**
+     * @return the number of milliseconds after which a shortened URL lookup is abandoned
+     *     ({@code urlshortener.lookup.timeout}, 10000 by default)
+     */
+    long getLookupTimeout();
+
+    /**
+     * @return the maximum number of wikis whose page IDs are kept in memory by the {@link URLShortenerLookupIndex}, the
+     *     least recently used ones being evicted first, or 0 to always look up the page IDs in the store
+     *     ({@code urlshortener.lookup.shards}, 100 by default)
+     */
+    int getLookupShardLimit();
+
+    /**
+     * @return how the page IDs that are not found in the requested wiki are looked up in the other wikis: {@code solr}
+     *     to run a single Solr query on the whole farm, or {@code database} to query the database of all the wikis in
+     *     parallel ({@code urlshortener.lookup.fallback}, {@code solr} by default)
+     */
+    String getLookupFallback();
+
+    /**
+     * @return the maximum number of wikis queried at the same time by the {@code database} lookup fallback
+     *     ({@code urlshortener.lookup.fallbackParallelism}, 4 by default)
+     */
+    int getLookupFallbackParallelism();
+
+    /**
+     * @return the maximum number of shortened URL creations and regenerations running at the same time
+     *     ({@code urlshortener.update.poolSize}, 2 by default)
+     */
+    int getUpdatePoolSize();
+
+    /**
+     * @return the maximum number of shortened URL creations and regenerations waiting for a thread, over which new ones
+     *     are rejected ({@code urlshortener.update.queueSize}, 1000 by default)
+     */
+    int getUpdateQueueSize();
+
+    /**
+     * @return the hint of the {@link com.xwiki.urlshortener.URLShortenerStore} holding the page IDs
+     *     ({@code urlshortener.store}, {@code xobject} by default)
+     */
+    String getStoreHint();
+}
@@ -19,6 +19,8 @@
  */
 package com.xwiki.urlshortener.internal;
 
+import java.util.Locale;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
@@ -27,23 +29,41 @@ import javax.inject.Singleton;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.ObservationContext;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
 import org.xwiki.refactoring.event.DocumentCopiedEvent;
+import org.xwiki.refactoring.event.DocumentCopyingEvent;
+import org.xwiki.refactoring.event.DocumentRenamedEvent;
 import org.xwiki.refactoring.event.DocumentRenamingEvent;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerManager;
+import com.xwiki.urlshortener.URLShortenerStore;
 import com.xwiki.urlshortener.internal.rest.DefaultURLShortenerResource;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
 
 /**
  * Listener to make sure copied documents do not copy also the URLShortener object, which would mean 2 documents have
  * the same ID associated. We also listen to DocumentCreatedEvent, since documents could be created from templates which
- * had the URLShortener object added.
+ * had the URLShortener object added. The page ID known by the {@link URLShortenerReverseIndex} for the document, if
+ * a document with the same reference had one, is then removed too. The new documents of the spaces whose preferences
+ * set {@value #EAGER_PREFERENCE} to {@code 1} then get their page ID in the background, on the
+ * {@link URLShortenerUpdateExecutor}, by the cluster node where they were created, so that asking for their shortened
+ * URL later doesn't need to create it.
+ * <p>
+ * The stores other than the default one don't keep the page IDs in the documents, so the page IDs of the deleted
+ * documents are removed from the {@link URLShortenerStore}, and the page IDs of the renamed documents are moved to the
+ * new reference, by the cluster node where the document was deleted or renamed. The other nodes are then notified with
+ * {@link PageIDUpdatedEvent}s.
  *
  * @version $Id$
  * @since 1.1.1
@@ -58,6 +78,12 @@ public class URLShortenerEventListener extends AbstractEventListener
      */
     public static final String NAME = "URLShortenerEventListener";
 
+    /**
+     * The space preference enabling the creation of the page IDs of the new documents, inherited by the nested spaces
+     * and read from the wiki preferences when no space sets it.
+     */
+    public static final String EAGER_PREFERENCE = "urlshortener_eager";
+
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
@@ -67,23 +93,105 @@ public class URLShortenerEventListener extends AbstractEventListener
     @Inject
     private ObservationContext observationContext;
 
+    @Inject
+    private URLShortenerReverseIndex reverseIndex;
+
+    @Inject
+    private Provider<URLShortenerManager> urlShortenerManagerProvider;
+
+    @Inject
+    private Provider<URLShortenerStore> storeProvider;
+
+    @Inject
+    private URLShortenerRedirectCache redirectCache;
+
+    @Inject
+    private URLShortenerLookupIndex lookupIndex;
+
+    @Inject
+    private Provider<ObservationManager> observationManagerProvider;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
     /**
      * Default constructor.
      */
     public URLShortenerEventListener()
     {
-        super(NAME, new DocumentCopiedEvent(), new DocumentCreatedEvent());
+        super(NAME, new DocumentCopiedEvent(), new DocumentCreatedEvent(), new DocumentDeletedEvent(),
+            new DocumentRenamedEvent());
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof DocumentRenamedEvent) {
+            DocumentRenamedEvent renamedEvent = (DocumentRenamedEvent) event;
+            movePageIDs(renamedEvent.getSourceReference(), renamedEvent.getTargetReference());
+        } else if (event instanceof DocumentDeletedEvent) {
+            DocumentDeletedEvent deletedEvent = (DocumentDeletedEvent) event;
+            // The page IDs of a renamed document are moved once it's renamed, and the page IDs point to the document
+            // whatever its locale, so they are kept when only a translation is deleted.
+            if (!this.observationContext.isIn(new DocumentRenamingEvent()) && !isTranslation(deletedEvent, source)) {
+                movePageIDs(deletedEvent.getDocumentReference(), null);
+            }
+        } else {
+            onDocumentCreated(event);
+        }
+    }
+
+    /**
+     * Moves the page IDs of the source document to the target document, or removes them if there's no target.
+     */
+    private void movePageIDs(DocumentReference source, DocumentReference target)
+    {
+        URLShortenerStore store = this.storeProvider.get();
+        // The objects of the default store are deleted or moved with the documents, and the store of the other ones is
+        // shared by the cluster nodes, the stores local to a node being refused in a cluster.
+        if (store instanceof XObjectURLShortenerStore || this.remoteObservationManagerContext.isRemoteState()) {
+            return;
+        }
+        try {
+            for (String pageID = store.getPageID(source); pageID != null && store.delete(pageID);
+                pageID = store.getPageID(source)) {
+                this.redirectCache.remove(pageID);
+                this.lookupIndex.remove(pageID, source);
+                if (target != null) {
+                    store.put(pageID, target);
+                    this.lookupIndex.put(pageID, target);
+                    this.reverseIndex.put(target, pageID);
+                }
+                this.observationManagerProvider.get().notify(new PageIDUpdatedEvent(pageID), target, source);
+            }
+            this.reverseIndex.remove(source);
+        } catch (URLShortenerException e) {
+            this.logger.warn("Failed to update the page IDs of the document [{}]. Root cause: [{}]", source,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private boolean isTranslation(DocumentDeletedEvent event, Object source)
+    {
+        Locale locale = event.getDocumentReference().getLocale();
+        if (locale != null && !Locale.ROOT.equals(locale)) {
+            return true;
+        }
+        // The source is the deleted document, whose original document holds what was deleted.
+        XWikiDocument deletedDocument =
+            source instanceof XWikiDocument ? ((XWikiDocument) source).getOriginalDocument() : null;
+        return deletedDocument != null && deletedDocument.isTranslation();
+    }
+
+    private void onDocumentCreated(Event event)
     {
         XWikiContext xcontext = xcontextProvider.get();
 
         try {
             XWikiDocument targetDoc = xcontext.getWiki().getDocument(getDocumentReference(event), xcontext);
+            boolean renaming = observationContext.isIn(new DocumentRenamingEvent());
 
-            if (!observationContext.isIn(new DocumentRenamingEvent())
+            if (!renaming
                 && targetDoc.getXObject(DefaultURLShortenerResource.URL_SHORTENER_CLASS_REFERENCE) != null) {
                 targetDoc.removeXObjects(DefaultURLShortenerResource.URL_SHORTENER_CLASS_REFERENCE);
 
@@ -93,6 +201,13 @@ public class URLShortenerEventListener extends AbstractEventListener
                 xcontext.getWiki()
                     .saveDocument(targetDoc, "Removed the URL Shortener object specific to the source page.", true,
                         xcontext);
+                this.reverseIndex.remove(targetDoc.getDocumentReference());
+            }
+
+            // The copies are handled once copied, since the page ID copied from the source is removed only then.
+            if (!renaming && (event instanceof DocumentCopiedEvent || !observationContext.isIn(
+                new DocumentCopyingEvent()))) {
+                createPageID(getDocumentReference(event));
             }
         } catch (XWikiException e) {
             logger.warn("Failed to check copied document for an associated shortened URL. This could lead to problems "
@@ -101,6 +216,28 @@ public class URLShortenerEventListener extends AbstractEventListener
         }
     }
 
+    private void createPageID(DocumentReference documentReference)
+    {
+        // The other cluster nodes receive the creation too, but only the one where the document was created needs
+        // to create its page ID.
+        if (this.remoteObservationManagerContext.isRemoteState() || !isEager(documentReference)) {
+            return;
+        }
+        // Not inside the save: the page ID is created from the queue of the update executor.
+        this.urlShortenerManagerProvider.get().createShortenedURLAsync(documentReference).exceptionally(e -> {
+            this.logger.warn("Failed to create the shortened URL of the new document [{}]. Root cause: [{}]",
+                documentReference, ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        });
+    }
+
+    private boolean isEager(DocumentReference documentReference)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        return "1".equals(xcontext.getWiki()
+            .getSpacePreference(EAGER_PREFERENCE, documentReference.getLastSpaceReference(), "0", xcontext));
+    }
+
     private DocumentReference getDocumentReference(Event event)
     {
         if (event instanceof DocumentCreatedEvent) {
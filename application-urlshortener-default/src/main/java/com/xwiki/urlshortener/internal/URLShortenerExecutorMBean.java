@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+/**
+ * Exposes the saturation of an {@link AbstractURLShortenerExecutor} through JMX, e.g. under the
+ * {@value URLShortenerLookupExecutor#OBJECT_NAME} name for the lookups.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public interface URLShortenerExecutorMBean
+{
+    /**
+     * @return the maximum number of tasks running at the same time
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * @return the number of tasks currently running
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    int getQueueSize();
+
+    /**
+     * @return the number of tasks that can still be queued before new ones are rejected
+     */
+    int getRemainingQueueCapacity();
+
+    /**
+     * @return the number of completed tasks
+     */
+    long getCompletedCount();
+
+    /**
+     * @return the number of tasks rejected because the queue was full
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the number of tasks abandoned because they didn't complete before the deadline
+     */
+    long getTimedOutCount();
+}
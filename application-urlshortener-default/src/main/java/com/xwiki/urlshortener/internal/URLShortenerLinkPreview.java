@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.xml.XMLUtils;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Generates the minimal HTML page served to link preview clients (chat applications, social networks) instead of the
+ * redirect, holding the OpenGraph title and description of the target document. This avoids rendering the whole target
+ * page just to "unfurl" a shortened URL. The description is the text of the first paragraph of the document, taken
+ * from its parsed content without executing any macro. The pages are cached by document and invalidated by
+ * {@link URLShortenerRedirectCacheListener} when the document is saved, so they are generated once per version.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerLinkPreview.class)
+@Singleton
+public class URLShortenerLinkPreview implements Initializable, Disposable
+{
+    private static final int CAPACITY = 1000;
+
+    private static final int DESCRIPTION_MAX_LENGTH = 200;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<String> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("urlshortener.preview", CAPACITY));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the URL Shortener link preview cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param documentReference the target document of a shortened URL
+     * @return the HTML page describing the document to link preview clients
+     * @throws XWikiException if the document fails to be loaded
+     */
+    public String getHTML(DocumentReference documentReference) throws XWikiException
+    {
+        String key = this.serializer.serialize(documentReference);
+        String html = this.cache.get(key);
+        if (html == null) {
+            XWikiContext xcontext = this.xcontextProvider.get();
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+            html = getHTML(document.getRenderedTitle(Syntax.PLAIN_1_0, xcontext), getDescription(document),
+                document.getExternalURL("view", xcontext));
+            this.cache.set(key, html);
+        }
+        return html;
+    }
+
+    /**
+     * Invalidates the page of the given document, e.g. when it's saved.
+     *
+     * @param documentReference the document reference
+     */
+    public void remove(DocumentReference documentReference)
+    {
+        this.cache.remove(this.serializer.serialize(documentReference));
+    }
+
+    /**
+     * Invalidates all the pages, e.g. when the wiki aliases change.
+     */
+    public void removeAll()
+    {
+        this.cache.removeAll();
+    }
+
+    private String getDescription(XWikiDocument document)
+    {
+        ParagraphBlock paragraph =
+            document.getXDOM().getFirstBlock(new ClassBlockMatcher(ParagraphBlock.class), Block.Axes.DESCENDANT);
+        if (paragraph == null) {
+            return "";
+        }
+
+        StringBuilder description = new StringBuilder();
+        List<Block> blocks = paragraph.getBlocks(
+            block -> block instanceof WordBlock || block instanceof SpaceBlock || block instanceof SpecialSymbolBlock,
+            Block.Axes.DESCENDANT);
+        for (Block block : blocks) {
+            if (block instanceof WordBlock) {
+                description.append(((WordBlock) block).getWord());
+            } else if (block instanceof SpecialSymbolBlock) {
+                description.append(((SpecialSymbolBlock) block).getSymbol());
+            } else {
+                description.append(' ');
+            }
+        }
+        return StringUtils.abbreviate(description.toString(), DESCRIPTION_MAX_LENGTH);
+    }
+
+    private String getHTML(String title, String description, String url)
+    {
+        String escapedTitle = XMLUtils.escape(title);
+        String escapedURL = XMLUtils.escape(url);
+        return "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"/>"
+            + "<title>" + escapedTitle + "</title>"
+            + "<meta property=\"og:type\" content=\"website\"/>"
+            + "<meta property=\"og:title\" content=\"" + escapedTitle + "\"/>"
+            + "<meta property=\"og:description\" content=\"" + XMLUtils.escape(description) + "\"/>"
+            + "<meta property=\"og:url\" content=\"" + escapedURL + "\"/>"
+            + "<link rel=\"canonical\" href=\"" + escapedURL + "\"/>"
+            + "</head><body><a href=\"" + escapedURL + "\">" + escapedTitle + "</a></body></html>";
+    }
+}
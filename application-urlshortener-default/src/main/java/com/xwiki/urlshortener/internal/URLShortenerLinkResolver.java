@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerManager;
+
+/**
+ * Resolves the {@code short:} links rendered during a request. The short links of each rendered content are resolved
+ * with a single lookup by {@link URLShortenerLinkTransformation} before they are rendered, and the results are
+ * remembered until the end of the request, so that a page with many short links doesn't need one lookup per link. The
+ * links that are not known yet when they are rendered, e.g. when the transformation is not enabled, are looked up one
+ * by one.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerLinkResolver.class)
+@Singleton
+public class URLShortenerLinkResolver
+{
+    private static final String CONTEXT_KEY = "urlshortener.links";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private URLShortenerManager urlShortenerManager;
+
+    @Inject
+    private ContextualAuthorizationManager contextualAuthorizationManager;
+
+    @Inject
+    private Execution execution;
+
+    /**
+     * Parses the reference of a {@code short:} link, which has the same form as the path of the short URL.
+     *
+     * @param reference the reference of the link, either the page ID, or the wiki and the page ID separated by a
+     *     slash for the documents that are not on the main wiki
+     * @return the corresponding resource reference
+     */
+    public URLShortenerResourceReference parse(String reference)
+    {
+        int separator = reference.lastIndexOf('/');
+        return new URLShortenerResourceReference(separator < 0 ? "" : reference.substring(0, separator),
+            reference.substring(separator + 1));
+    }
+
+    /**
+     * @param reference the short link
+     * @return the document the short link points to, or {@code null} if it is unknown or not viewable by the current
+     *     user
+     */
+    public DocumentReference resolve(URLShortenerResourceReference reference)
+    {
+        ResolvedLinks resolvedLinks = getResolvedLinks();
+        if (!resolvedLinks.documentReferences.containsKey(reference)) {
+            resolve(List.of(reference), resolvedLinks);
+        }
+
+        DocumentReference documentReference = resolvedLinks.documentReferences.get(reference);
+        // Don't disclose the target of the links to the documents the current user can't view.
+        if (documentReference != null
+            && !this.contextualAuthorizationManager.hasAccess(Right.VIEW, documentReference)) {
+            return null;
+        }
+        return documentReference;
+    }
+
+    /**
+     * Looks up the short links that are not known yet, so that they are resolved without another lookup until the end
+     * of the request.
+     *
+     * @param references the short links about to be rendered
+     */
+    public void preResolve(Collection<URLShortenerResourceReference> references)
+    {
+        ResolvedLinks resolvedLinks = getResolvedLinks();
+        List<URLShortenerResourceReference> unknownReferences = new ArrayList<>();
+        for (URLShortenerResourceReference reference : references) {
+            if (!resolvedLinks.documentReferences.containsKey(reference)) {
+                unknownReferences.add(reference);
+            }
+        }
+        if (!unknownReferences.isEmpty()) {
+            resolve(unknownReferences, resolvedLinks);
+        }
+    }
+
+    private void resolve(Collection<URLShortenerResourceReference> references, ResolvedLinks resolvedLinks)
+    {
+        // One lookup per wiki, which is a single one unless the content links to other wikis.
+        Map<String, List<String>> pageIDsByWiki = new HashMap<>();
+        for (URLShortenerResourceReference reference : references) {
+            pageIDsByWiki.computeIfAbsent(reference.getWikiId(), wiki -> new ArrayList<>())
+                .add(reference.getPageId());
+        }
+        for (Map.Entry<String, List<String>> entry : pageIDsByWiki.entrySet()) {
+            Map<String, DocumentReference> documentReferences = Map.of();
+            try {
+                documentReferences = this.urlShortenerManager.getDocumentReferences(entry.getKey(), entry.getValue());
+            } catch (URLShortenerException e) {
+                this.logger.warn("Failed to resolve the short links [{}] of the wiki [{}]. Root cause: [{}]",
+                    entry.getValue(), entry.getKey(), ExceptionUtils.getRootCauseMessage(e));
+            }
+            // Remember the unknown page IDs too, so that they are not looked up again.
+            for (String pageID : entry.getValue()) {
+                resolvedLinks.documentReferences.put(new URLShortenerResourceReference(entry.getKey(), pageID),
+                    documentReferences.get(pageID));
+            }
+        }
+    }
+
+    private ResolvedLinks getResolvedLinks()
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context == null) {
+            return new ResolvedLinks();
+        }
+        ResolvedLinks resolvedLinks = (ResolvedLinks) context.getProperty(CONTEXT_KEY);
+        if (resolvedLinks == null) {
+            resolvedLinks = new ResolvedLinks();
+            context.setProperty(CONTEXT_KEY, resolvedLinks);
+        }
+        return resolvedLinks;
+    }
+
+    private static final class ResolvedLinks
+    {
+        private final Map<URLShortenerResourceReference, DocumentReference> documentReferences = new HashMap<>();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.transformation.AbstractTransformation;
+import org.xwiki.rendering.transformation.TransformationContext;
+
+/**
+ * Resolves all the {@code short:} links of the content being rendered with {@link URLShortenerLinkResolver}, before
+ * they are rendered one by one. It runs after the macro transformation, so that the links of the included documents,
+ * of the sheets and of the content generated by the macros are resolved too. It has to be added to the
+ * {@code rendering.transformations} of {@code xwiki.properties}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Named(URLShortenerLinkTransformation.HINT)
+@Singleton
+public class URLShortenerLinkTransformation extends AbstractTransformation
+{
+    /**
+     * The hint of this transformation.
+     */
+    public static final String HINT = "urlshortener";
+
+    @Inject
+    private URLShortenerLinkResolver linkResolver;
+
+    @Override
+    public void transform(Block block, TransformationContext context)
+    {
+        Set<URLShortenerResourceReference> references = new LinkedHashSet<>();
+        for (LinkBlock link : block.<LinkBlock>getBlocks(new ClassBlockMatcher(LinkBlock.class),
+            Block.Axes.DESCENDANT_OR_SELF)) {
+            if (URLShortenerResourceReferenceTypeParser.TYPE.equals(link.getReference().getType())) {
+                references.add(this.linkResolver.parse(link.getReference().getReference()));
+            }
+        }
+        if (!references.isEmpty()) {
+            this.linkResolver.preResolve(references);
+        }
+    }
+}
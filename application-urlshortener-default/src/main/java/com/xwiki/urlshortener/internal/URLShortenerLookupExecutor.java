@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Runs the shortened URL lookups on a dedicated bounded pool, so that a slow database or Solr can't hold all the
+ * servlet container threads. The pool size, the queue limit and the deadline of the lookups are configured by
+ * {@link URLShortenerConfiguration}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerLookupExecutor.class)
+@Singleton
+public class URLShortenerLookupExecutor extends AbstractURLShortenerExecutor
+{
+    /**
+     * The JMX name of the executor metrics.
+     */
+    public static final String OBJECT_NAME = "com.xwiki.urlshortener:type=LookupExecutor";
+
+    @Override
+    protected String getName()
+    {
+        return "lookup";
+    }
+
+    @Override
+    protected String getObjectName()
+    {
+        return OBJECT_NAME;
+    }
+
+    @Override
+    protected int getPoolLimit()
+    {
+        return this.configuration.getLookupPoolSize();
+    }
+
+    @Override
+    protected int getQueueLimit()
+    {
+        return this.configuration.getLookupQueueSize();
+    }
+
+    @Override
+    protected long getDeadline()
+    {
+        return this.configuration.getLookupTimeout();
+    }
+}
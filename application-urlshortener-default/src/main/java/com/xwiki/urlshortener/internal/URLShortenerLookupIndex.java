@@ -0,0 +1,581 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.store.CompactPageIDIndex;
+
+/**
+ * Keeps in memory the page IDs of the documents of the wikis that shortened URLs are looked up from (the wiki of
+ * {@link URLShortenerResourceReference#getWikiId()}), so that a lookup doesn't need to query the store. The page IDs
+ * are split in one shard per wiki, loaded from the store on the first lookup in the wiki, so that the wikis whose
+ * shortened URLs are rarely used don't take any memory. The shards are loaded in the background on the
+ * {@link URLShortenerUpdateExecutor}, the lookups going to the store until then, so that loading a large wiki doesn't
+ * count against the lookup deadline. The shards are kept in an LRU cache of
+ * {@link URLShortenerConfiguration#getLookupShardLimit()} wikis, evicting a whole shard at a time. A page ID missing
+ * from the shard of a wiki can still point to a document of another wiki, and has to be looked up in the store.
+ * <p>
+ * The shards survive restarts and evictions: once loaded, the page IDs of a wiki are written to a snapshot in the
+ * permanent directory, and the later changes of the wiki are appended to its journal, until the journal reaches
+ * {@value #SNAPSHOT_THRESHOLD} changes and a new snapshot replaces it. When a shard is loaded again, the lookups are
+ * answered from its snapshot and journal right away, while the page IDs are verified against the store in the
+ * background, since they could have changed while the wiki was down. A snapshot that can't be written or read is
+ * deleted, the shard being then loaded from the store only.
+ * <p>
+ * The shards are kept up to date by {@link DefaultURLShortenerManager}, {@link URLShortenerEventListener} and
+ * {@link URLShortenerRedirectCacheListener}, which also creates an empty shard for the new wikis, drops the shard of
+ * the deleted ones, and applies the changes made by the other cluster nodes.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerLookupIndex.class)
+@Singleton
+public class URLShortenerLookupIndex implements Initializable, Disposable
+{
+    /**
+     * The number of changes journaled for a wiki triggering a new snapshot of its page IDs.
+     */
+    public static final int SNAPSHOT_THRESHOLD = 10000;
+
+    private static final int MAGIC = 0x55524c4c;
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final byte PUT = 0;
+
+    private static final byte REMOVE = 1;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private Provider<URLShortenerStore> storeProvider;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private URLShortenerUpdateExecutor updateExecutor;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<Shard> shards;
+
+    /**
+     * Guards the snapshots and the journals of the shards.
+     */
+    private final Object files = new Object();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int limit = this.configuration.getLookupShardLimit();
+        if (limit > 0) {
+            try {
+                this.shards = this.cacheManager.createNewCache(new LRUCacheConfiguration("urlshortener.lookup", limit));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the URL Shortener lookup index.", e);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.shards != null) {
+            this.shards.dispose();
+        }
+    }
+
+    /**
+     * Looks up a page ID among the documents of a wiki, loading the page IDs of the wiki if needed.
+     *
+     * @param wiki the wiki the shortened URL is looked up from, or an empty string for the main wiki
+     * @param pageID the page ID
+     * @return the document of the wiki the page ID points to, or {@code null} if it has to be looked up in the store,
+     *     because it is not in the wiki or because the page IDs of the wiki are not loaded yet
+     */
+    public DocumentReference get(String wiki, String pageID)
+    {
+        if (this.shards == null) {
+            return null;
+        }
+        String wikiId = wiki.isEmpty() ? this.wikiDescriptorManager.getMainWikiId() : wiki;
+        Shard shard = this.shards.get(wikiId);
+        if (shard == null) {
+            shard = loadShard(wikiId);
+            if (shard == null) {
+                return null;
+            }
+        }
+        String reference = shard.get(pageID);
+        return reference != null ? this.resolver.resolve(reference, new WikiReference(wikiId)) : null;
+    }
+
+    /**
+     * Adds a page ID to the shard of the wiki of its document, if that shard is in memory.
+     *
+     * @param pageID the page ID
+     * @param documentReference the document the page ID points to
+     */
+    public void put(String pageID, DocumentReference documentReference)
+    {
+        if (this.shards != null) {
+            String reference = this.serializer.serialize(documentReference);
+            Shard shard = getShard(documentReference);
+            // The page IDs of the documents that are saved again are unchanged.
+            if (shard == null || shard.put(pageID, reference)) {
+                journal(documentReference.getWikiReference().getName(), shard, PUT, pageID, reference);
+            }
+        }
+    }
+
+    /**
+     * Removes a page ID from the shard of the wiki of its document, if that shard is in memory.
+     *
+     * @param pageID the page ID
+     * @param documentReference the document the page ID was pointing to
+     */
+    public void remove(String pageID, DocumentReference documentReference)
+    {
+        if (this.shards != null) {
+            Shard shard = getShard(documentReference);
+            if (shard == null || shard.remove(pageID)) {
+                journal(documentReference.getWikiReference().getName(), shard, REMOVE, pageID, null);
+            }
+        }
+    }
+
+    /**
+     * Creates the empty shard of a new wiki, so that the first lookups don't need to query it.
+     *
+     * @param wiki the new wiki
+     */
+    public void createShard(String wiki)
+    {
+        if (this.shards != null) {
+            Shard shard = new Shard();
+            shard.load(new CompactPageIDIndex(), true);
+            synchronized (this) {
+                this.shards.set(wiki, shard);
+            }
+            // Replaces the files of a previous wiki with the same identifier, if any.
+            writeSnapshot(wiki, shard);
+        }
+    }
+
+    /**
+     * Drops the shard of a wiki, e.g. when it is deleted.
+     *
+     * @param wiki the wiki
+     */
+    public void removeShard(String wiki)
+    {
+        if (this.shards != null) {
+            synchronized (this) {
+                this.shards.remove(wiki);
+            }
+            synchronized (this.files) {
+                deleteFiles(wiki);
+            }
+        }
+    }
+
+    private Shard getShard(DocumentReference documentReference)
+    {
+        return this.shards != null ? this.shards.get(documentReference.getWikiReference().getName()) : null;
+    }
+
+    private Shard loadShard(String wiki)
+    {
+        try {
+            // Don't query the wikis that don't exist, e.g. because of a mistyped shortened URL.
+            if (!this.wikiDescriptorManager.exists(wiki)) {
+                return null;
+            }
+        } catch (WikiManagerException e) {
+            this.logger.warn("Failed to check if the wiki [{}] exists. Root cause: [{}]", wiki,
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+
+        Shard shard;
+        synchronized (this) {
+            shard = this.shards.get(wiki);
+            if (shard != null) {
+                return shard;
+            }
+            shard = new Shard();
+            this.shards.set(wiki, shard);
+        }
+        Shard loadingShard = shard;
+        this.updateExecutor.submit(() -> load(wiki, loadingShard)).whenComplete((result, error) -> {
+            if (error != null) {
+                this.logger.warn("Failed to load the page IDs of the wiki [{}]. Root cause: [{}]", wiki,
+                    ExceptionUtils.getRootCauseMessage(error));
+                // Let the next lookup try again.
+                synchronized (this) {
+                    if (this.shards.get(wiki) == loadingShard) {
+                        this.shards.remove(wiki);
+                    }
+                }
+            }
+        });
+        return shard;
+    }
+
+    private Void load(String wiki, Shard shard) throws URLShortenerException
+    {
+        CompactPageIDIndex persistedPageIDs = read(wiki);
+        if (persistedPageIDs != null) {
+            // Answer the lookups while the page IDs are verified.
+            shard.load(persistedPageIDs, false);
+        }
+        CompactPageIDIndex pageIDs = new CompactPageIDIndex();
+        this.storeProvider.get().scan(wiki,
+            (pageID, documentReference) -> pageIDs.put(pageID, this.serializer.serialize(documentReference)));
+        shard.load(pageIDs, true);
+        writeSnapshot(wiki, shard);
+        return null;
+    }
+
+    private void journal(String wiki, Shard shard, byte type, String pageID, String reference)
+    {
+        synchronized (this.files) {
+            // The changes of a wiki without snapshot are read from the store with the rest of its page IDs.
+            if (!Files.exists(getSnapshot(wiki))) {
+                return;
+            }
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(getJournal(wiki), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                output.writeByte(type);
+                output.writeUTF(pageID);
+                if (type == PUT) {
+                    output.writeUTF(reference);
+                }
+            } catch (IOException e) {
+                this.logger.warn("Failed to write the page ID [{}] to the journal of the wiki [{}]. Root cause: [{}]",
+                    pageID, wiki, ExceptionUtils.getRootCauseMessage(e));
+                // The snapshot misses the change.
+                deleteFiles(wiki);
+                return;
+            }
+        }
+        if (shard != null && shard.journalSize.incrementAndGet() % SNAPSHOT_THRESHOLD == 0) {
+            this.updateExecutor.submit(() -> {
+                writeSnapshot(wiki, shard);
+                return null;
+            });
+        }
+    }
+
+    private CompactPageIDIndex read(String wiki)
+    {
+        synchronized (this.files) {
+            Path snapshot = getSnapshot(wiki);
+            if (!Files.exists(snapshot)) {
+                return null;
+            }
+            CompactPageIDIndex pageIDs = new CompactPageIDIndex();
+            try {
+                try (DataInputStream input = openInput(snapshot)) {
+                    if (input.readInt() != MAGIC) {
+                        throw new IOException(String.format("[%s] is not a snapshot of page IDs.", snapshot));
+                    }
+                    for (int count = input.readInt(); count > 0; count--) {
+                        pageIDs.put(input.readUTF(), input.readUTF());
+                    }
+                }
+                replay(getJournal(wiki), pageIDs);
+                return pageIDs;
+            } catch (IOException e) {
+                this.logger.warn("Failed to read the page IDs of the wiki [{}], they will be read from the store. "
+                    + "Root cause: [{}]", wiki, ExceptionUtils.getRootCauseMessage(e));
+                deleteFiles(wiki);
+                return null;
+            }
+        }
+    }
+
+    private void replay(Path journal, CompactPageIDIndex pageIDs) throws IOException
+    {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        try (DataInputStream input = openInput(journal)) {
+            while (true) {
+                byte type = input.readByte();
+                String pageID = input.readUTF();
+                if (type == PUT) {
+                    pageIDs.put(pageID, input.readUTF());
+                } else {
+                    pageIDs.remove(pageID);
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the journal, possibly truncated by a crash in the middle of the last change.
+        }
+    }
+
+    private void writeSnapshot(String wiki, Shard shard)
+    {
+        synchronized (this.files) {
+            // The changes of an evicted or dropped shard are not applied to it anymore, and the page IDs of a shard
+            // that is still verified can be stale.
+            if (this.shards.get(wiki) != shard || !shard.isVerified()) {
+                return;
+            }
+            Path snapshot = getSnapshot(wiki);
+            Path temporaryFile = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(snapshot.getParent());
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporaryFile)))) {
+                    output.writeInt(MAGIC);
+                    shard.write(output);
+                }
+                Files.move(temporaryFile, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                // The snapshot holds the journaled changes.
+                Files.deleteIfExists(getJournal(wiki));
+                shard.journalSize.set(0);
+            } catch (IOException | UncheckedIOException e) {
+                this.logger.warn("Failed to write the snapshot of the page IDs of the wiki [{}]. Root cause: [{}]",
+                    wiki, ExceptionUtils.getRootCauseMessage(e));
+                deleteFiles(wiki);
+            }
+        }
+    }
+
+    private void deleteFiles(String wiki)
+    {
+        try {
+            Files.deleteIfExists(getSnapshot(wiki));
+            Files.deleteIfExists(getJournal(wiki));
+        } catch (IOException e) {
+            this.logger.warn("Failed to delete the page IDs of the wiki [{}]. Root cause: [{}]", wiki,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private Path getSnapshot(String wiki)
+    {
+        return this.environment.getPermanentDirectory().toPath().resolve("urlshortener").resolve("lookup")
+            .resolve(URLEncoder.encode(wiki, StandardCharsets.UTF_8));
+    }
+
+    private Path getJournal(String wiki)
+    {
+        Path snapshot = getSnapshot(wiki);
+        return snapshot.resolveSibling(snapshot.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    private static DataInputStream openInput(Path file) throws IOException
+    {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+
+    /**
+     * The page IDs of the documents of a wiki.
+     */
+    private static final class Shard
+    {
+        /**
+         * Marks the page IDs removed while the shard is loaded.
+         */
+        private static final String REMOVED = "";
+
+        /**
+         * The number of changes journaled since the last snapshot.
+         */
+        final AtomicInteger journalSize = new AtomicInteger();
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private CompactPageIDIndex pageIDs;
+
+        /**
+         * The changes made while the shard is loaded or verified, applied on top of the page IDs read from the store.
+         */
+        private Map<String, String> pendingChanges = new HashMap<>();
+
+        String get(String pageID)
+        {
+            this.lock.readLock().lock();
+            try {
+                return this.pageIDs != null ? this.pageIDs.get(pageID) : null;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return {@code true} if the page ID is changed, or if the shard is not verified yet
+         */
+        boolean put(String pageID, String reference)
+        {
+            this.lock.writeLock().lock();
+            try {
+                boolean changed = true;
+                if (this.pageIDs != null) {
+                    changed = !reference.equals(this.pageIDs.get(pageID));
+                    this.pageIDs.put(pageID, reference);
+                }
+                if (this.pendingChanges != null) {
+                    this.pendingChanges.put(pageID, reference);
+                    changed = true;
+                }
+                return changed;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * @return {@code true} if the page ID is removed, or if the shard is not verified yet
+         */
+        boolean remove(String pageID)
+        {
+            this.lock.writeLock().lock();
+            try {
+                boolean changed = this.pageIDs != null && this.pageIDs.remove(pageID);
+                if (this.pendingChanges != null) {
+                    this.pendingChanges.put(pageID, REMOVED);
+                    changed = true;
+                }
+                return changed;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * @param loadedPageIDs the page IDs read from the store, or from the snapshot
+         * @param verified {@code false} if the page IDs are read from the snapshot and still have to be verified
+         *     against the store, in which case the changes are recorded until then
+         */
+        void load(CompactPageIDIndex loadedPageIDs, boolean verified)
+        {
+            this.lock.writeLock().lock();
+            try {
+                this.pendingChanges.forEach((pageID, reference) -> {
+                    if (REMOVED.equals(reference)) {
+                        loadedPageIDs.remove(pageID);
+                    } else {
+                        loadedPageIDs.put(pageID, reference);
+                    }
+                });
+                if (verified) {
+                    this.pendingChanges = null;
+                }
+                this.pageIDs = loadedPageIDs;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        boolean isVerified()
+        {
+            this.lock.readLock().lock();
+            try {
+                return this.pendingChanges == null;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        void write(DataOutputStream output) throws IOException
+        {
+            this.lock.readLock().lock();
+            try {
+                output.writeInt(this.pageIDs.size());
+                this.pageIDs.forEach((pageID, reference) -> {
+                    try {
+                        output.writeUTF(pageID);
+                        output.writeUTF(reference);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Caches the view URL of the documents that shortened URLs redirect to, so that a redirect for a known page ID needs
+ * neither a query nor the URL factory. The entries are keyed by page ID, and hold one URL for each wiki the page ID
+ * was looked up from, since the same page ID can be resolved differently depending on the wiki of the shortened URL.
+ * The entries are invalidated by {@link URLShortenerRedirectCacheListener}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerRedirectCache.class)
+@Singleton
+public class URLShortenerRedirectCache implements Initializable, Disposable
+{
+    private static final int CAPACITY = 10000;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<Map<String, URLShortenerRedirectTarget>> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("urlshortener.redirect", CAPACITY));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the URL Shortener redirect cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param wiki the wiki in which the page ID is looked up first
+     * @param pageId the ID of the shortened URL
+     * @return the cached target of the shortened URL, or {@code null} if it's not cached
+     */
+    public URLShortenerRedirectTarget get(String wiki, String pageId)
+    {
+        Map<String, URLShortenerRedirectTarget> targets = this.cache.get(pageId);
+        return targets != null ? targets.get(wiki) : null;
+    }
+
+    /**
+     * @param wiki the wiki in which the page ID is looked up first
+     * @param pageId the ID of the shortened URL
+     * @param target the target of the shortened URL
+     */
+    public void set(String wiki, String pageId, URLShortenerRedirectTarget target)
+    {
+        Map<String, URLShortenerRedirectTarget> targets = this.cache.get(pageId);
+        if (targets == null) {
+            targets = new ConcurrentHashMap<>();
+            this.cache.set(pageId, targets);
+        }
+        targets.put(wiki, target);
+    }
+
+    /**
+     * Invalidates the URLs cached for the given page ID, for all wikis.
+     *
+     * @param pageId the ID of the shortened URL
+     */
+    public void remove(String pageId)
+    {
+        this.cache.remove(pageId);
+    }
+
+    /**
+     * Invalidates all the cached URLs, e.g. when the wiki aliases change.
+     */
+    public void removeAll()
+    {
+        this.cache.removeAll();
+    }
+}
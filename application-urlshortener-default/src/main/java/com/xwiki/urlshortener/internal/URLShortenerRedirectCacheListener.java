@@ -0,0 +1,232 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiCreatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.urlshortener.internal.store.SolrPageIDIndex;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
+
+/**
+ * Invalidates the {@link URLShortenerRedirectCache} entries and the {@link URLShortenerLinkPreview} page of a document
+ * when it is updated or deleted (which is also the case of the source document of a rename), and all the entries when a
+ * wiki descriptor changes, since the wiki aliases are part of the cached URLs. Also forgets the page ID known by the
+ * {@link URLShortenerReverseIndex} for a document when it is deleted or no longer holds it, or for all the documents of
+ * a deleted wiki, keeps the shards of the {@link URLShortenerLookupIndex} and the {@link SolrPageIDIndex} in sync with
+ * the URL Shortener objects, and creates or drops the shards of the created or deleted wikis. The changes of the other
+ * stores made by the other cluster nodes are received as {@link PageIDUpdatedEvent}s. The translations are left out of
+ * the indexes, since the page IDs are held by the default locale document.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+@Named(URLShortenerRedirectCacheListener.NAME)
+public class URLShortenerRedirectCacheListener extends AbstractEventListener
+{
+    /**
+     * Event name.
+     */
+    public static final String NAME = "URLShortenerRedirectCacheListener";
+
+    private static final LocalDocumentReference WIKI_DESCRIPTOR_CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiServerClass");
+
+    private static final String PAGE_ID = "pageID";
+
+    @Inject
+    private URLShortenerRedirectCache redirectCache;
+
+    @Inject
+    private URLShortenerLinkPreview linkPreview;
+
+    @Inject
+    private URLShortenerReverseIndex reverseIndex;
+
+    @Inject
+    private URLShortenerLookupIndex lookupIndex;
+
+    @Inject
+    private SolrPageIDIndex solrPageIDIndex;
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    /**
+     * Default constructor.
+     */
+    public URLShortenerRedirectCacheListener()
+    {
+        super(NAME, Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent(),
+            new WikiCreatedEvent(), new WikiDeletedEvent(), new PageIDUpdatedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof PageIDUpdatedEvent) {
+            // The local changes are already applied.
+            if (this.remoteObservationManagerContext.isRemoteState()) {
+                onPageIDUpdated(((PageIDUpdatedEvent) event).getPageID(), (DocumentReference) source,
+                    (DocumentReference) data);
+            }
+            return;
+        } else if (event instanceof WikiCreatedEvent) {
+            this.lookupIndex.createShard(((WikiCreatedEvent) event).getWikiId());
+            return;
+        } else if (event instanceof WikiDeletedEvent) {
+            this.redirectCache.removeAll();
+            this.linkPreview.removeAll();
+            this.reverseIndex.removeWiki(((WikiDeletedEvent) event).getWikiId());
+            this.lookupIndex.removeShard(((WikiDeletedEvent) event).getWikiId());
+            if (isXObjectStore()) {
+                this.solrPageIDIndex.removeWiki(((WikiDeletedEvent) event).getWikiId());
+            }
+            return;
+        }
+
+        XWikiDocument document = (XWikiDocument) source;
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        // The URL Shortener objects are held by the default locale document, the translations having no objects.
+        if (!isTranslation(document) && !isTranslation(originalDocument)) {
+            updateReverseIndex(event, document);
+            if (isXObjectStore()) {
+                updateLookupIndex(document, originalDocument);
+            }
+        }
+        if (isWikiDescriptor(document) || isWikiDescriptor(originalDocument)) {
+            this.redirectCache.removeAll();
+            this.linkPreview.removeAll();
+        } else if (originalDocument != null) {
+            this.linkPreview.remove(document.getDocumentReference());
+            // The previous version of the document holds the page IDs that were redirecting to it.
+            List<BaseObject> objects =
+                originalDocument.getXObjects(DefaultURLShortenerManager.URL_SHORTENER_CLASS_REFERENCE);
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    this.redirectCache.remove(object.getStringValue(PAGE_ID));
+                }
+            }
+        }
+    }
+
+    private void onPageIDUpdated(String pageID, DocumentReference documentReference,
+        DocumentReference previousReference)
+    {
+        this.redirectCache.remove(pageID);
+        if (previousReference != null) {
+            this.lookupIndex.remove(pageID, previousReference);
+            // The document could already have another page ID.
+            if (pageID.equals(this.reverseIndex.get(previousReference))) {
+                this.reverseIndex.remove(previousReference);
+            }
+        }
+        if (documentReference != null) {
+            this.lookupIndex.put(pageID, documentReference);
+        }
+    }
+
+    private void updateReverseIndex(Event event, XWikiDocument document)
+    {
+        DocumentReference documentReference = document.getDocumentReference();
+        String pageID = this.reverseIndex.get(documentReference);
+        if (pageID == null) {
+            return;
+        }
+        // The default store keeps the page IDs in the document, which can be edited. The other stores only need to
+        // forget the deleted documents.
+        boolean removed = event instanceof DocumentDeletedEvent;
+        if (!removed && isXObjectStore()) {
+            removed = !getPageIDs(document).contains(pageID);
+        }
+        if (removed) {
+            this.reverseIndex.remove(documentReference);
+        }
+    }
+
+    private void updateLookupIndex(XWikiDocument document, XWikiDocument originalDocument)
+    {
+        // The objects can be added, edited or removed by hand, or with the document.
+        DocumentReference documentReference = document.getDocumentReference();
+        Set<String> pageIDs = getPageIDs(document);
+        Set<String> originalPageIDs = originalDocument != null ? getPageIDs(originalDocument) : Set.of();
+        for (String pageID : originalPageIDs) {
+            if (!pageIDs.contains(pageID)) {
+                this.lookupIndex.remove(pageID, documentReference);
+                this.solrPageIDIndex.remove(pageID, documentReference);
+            }
+        }
+        for (String pageID : pageIDs) {
+            this.lookupIndex.put(pageID, documentReference);
+            // Saving a document doesn't need to reindex its unchanged page IDs.
+            if (!originalPageIDs.contains(pageID)) {
+                this.solrPageIDIndex.put(pageID, documentReference);
+            }
+        }
+    }
+
+    private Set<String> getPageIDs(XWikiDocument document)
+    {
+        return document.getXObjects(DefaultURLShortenerManager.URL_SHORTENER_CLASS_REFERENCE).stream()
+            .filter(Objects::nonNull).map(object -> object.getStringValue(PAGE_ID)).filter(pageID -> !pageID.isEmpty())
+            .collect(Collectors.toSet());
+    }
+
+    private boolean isTranslation(XWikiDocument document)
+    {
+        return document != null && document.isTranslation();
+    }
+
+    private boolean isXObjectStore()
+    {
+        return XObjectURLShortenerStore.HINT.equals(this.configuration.getStoreHint());
+    }
+
+    private boolean isWikiDescriptor(XWikiDocument document)
+    {
+        return document != null && document.getXObject(WIKI_DESCRIPTOR_CLASS_REFERENCE) != null;
+    }
+}
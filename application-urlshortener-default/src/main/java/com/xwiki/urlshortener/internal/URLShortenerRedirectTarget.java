@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The target of a shortened URL, as kept by {@link URLShortenerRedirectCache}. The HTTP validators of the redirect are
+ * derived from the mapping itself, so that they are the same on all the cluster nodes and after a restart, and so that
+ * the target document doesn't need to be loaded: the entity tag identifies the version of the mapping by the page ID
+ * and the target URL. Regenerating the shortened URL of a document gives it a new page ID and renaming it changes its
+ * URL, so both give a new entity tag. The stores don't keep when a mapping was changed, so there's no
+ * {@code Last-Modified} validator.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class URLShortenerRedirectTarget
+{
+    private final DocumentReference documentReference;
+
+    private final String url;
+
+    /**
+     * @param documentReference see {@link #getDocumentReference()}
+     * @param url see {@link #getURL()}
+     */
+    public URLShortenerRedirectTarget(DocumentReference documentReference, String url)
+    {
+        this.documentReference = documentReference;
+        this.url = url;
+    }
+
+    /**
+     * @return the reference of the target document
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.documentReference;
+    }
+
+    /**
+     * @return the view URL of the target document, without query string
+     */
+    public String getURL()
+    {
+        return this.url;
+    }
+
+    /**
+     * @param pageId the ID of the shortened URL
+     * @return the entity tag identifying this version of the mapping of the given page ID
+     */
+    public String getETag(String pageId)
+    {
+        return '"' + pageId + '-' + Integer.toUnsignedString(this.url.hashCode(), Character.MAX_RADIX) + '"';
+    }
+
+    /**
+     * @param pageId the ID of the shortened URL
+     * @param ifNoneMatch the value of the {@code If-None-Match} request header, or {@code null}
+     * @return {@code true} if the client has the current version of the redirect of the given page ID
+     */
+    public boolean isNotModified(String pageId, String ifNoneMatch)
+    {
+        if (ifNoneMatch != null) {
+            // A comma separated list of entity tags, compared with the weak comparison function.
+            String eTag = getETag(pageId);
+            for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+                String value = StringUtils.removeStart(candidate.trim(), "W/");
+                if ("*".equals(value) || eTag.equals(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
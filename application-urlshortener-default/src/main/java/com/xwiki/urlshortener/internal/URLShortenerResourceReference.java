@@ -19,8 +19,8 @@
  */
 package com.xwiki.urlshortener.internal;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.Objects;
+
 import org.xwiki.resource.AbstractResourceReference;
 import org.xwiki.resource.ResourceType;
 
@@ -76,32 +76,26 @@ public class URLShortenerResourceReference extends AbstractResourceReference
     @Override
     public int hashCode()
     {
-        return new HashCodeBuilder(5, 5)
-            .append(getType())
-            .append(getWikiId())
-            .append(getPageId())
-            .append(getParameters())
-            .toHashCode();
+        // Computed by hand, without HashCodeBuilder or Objects#hash, since references are created for each request.
+        int result = Objects.hashCode(getType());
+        result = 31 * result + Objects.hashCode(getWikiId());
+        result = 31 * result + Objects.hashCode(getPageId());
+        return 31 * result + Objects.hashCode(getParameters());
     }
 
     @Override
     public boolean equals(Object object)
     {
-        if (object == null) {
-            return false;
-        }
-        if (object.getClass() != this.getClass()) {
-            return false;
-        }
         if (object == this) {
             return true;
         }
+        if (object == null || object.getClass() != this.getClass()) {
+            return false;
+        }
         URLShortenerResourceReference obj = (URLShortenerResourceReference) object;
-        return new EqualsBuilder()
-            .append(this.getWikiId(), obj.getWikiId())
-            .append(this.getPageId(), obj.getPageId())
-            .append(getType(), obj.getType())
-            .append(getParameters(), obj.getParameters())
-            .isEquals();
+        return Objects.equals(getPageId(), obj.getPageId())
+            && Objects.equals(getWikiId(), obj.getWikiId())
+            && Objects.equals(getType(), obj.getType())
+            && Objects.equals(getParameters(), obj.getParameters());
     }
 }
@@ -19,21 +19,27 @@
  */
 package com.xwiki.urlshortener.internal;
 
+import java.io.IOException;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
 import org.xwiki.container.servlet.ServletResponse;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.resource.AbstractResourceReferenceHandler;
@@ -41,13 +47,21 @@ import org.xwiki.resource.ResourceReference;
 import org.xwiki.resource.ResourceReferenceHandlerChain;
 import org.xwiki.resource.ResourceReferenceHandlerException;
 import org.xwiki.resource.ResourceType;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xwiki.urlshortener.URLShortenerManager;
 
 /**
  * URL Resource Handler for redirecting from a shortened URL to the actual document, which is uniquely identified by an
- * ID.
+ * ID. The redirect status and the HTTP caching of the redirect are configured by {@link URLShortenerConfiguration}.
+ * {@code HEAD} requests are answered from the mapping alone, without error page, and link preview clients get the page
+ * generated by {@link URLShortenerLinkPreview} instead of the redirect, so that neither renders the target document.
+ * When the lookups are saturated, the request fails fast with a 503 status and a {@code Retry-After} header. When the
+ * servlet container supports it, the requests that need a lookup are made asynchronous, so that the container thread
+ * is released until the lookup completes.
  *
  * @version $Id:$
  * @since 1.2
@@ -62,6 +76,22 @@ public class URLShortenerResourceReferenceHandler extends AbstractResourceRefere
      */
     public static final String PAGE_ID = "pageID";
 
+    private static final String HANDLE_ERROR = "Failed to handle resource [%s]";
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String ETAG = "ETag";
+
+    private static final String LOCATION = "Location";
+
+    private static final String IF_NONE_MATCH = "If-None-Match";
+
+    private static final String USER_AGENT = "User-Agent";
+
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private static final String HEAD = "HEAD";
+
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
@@ -71,6 +101,21 @@ public class URLShortenerResourceReferenceHandler extends AbstractResourceRefere
     @Inject
     private URLShortenerManager urlShortenerManager;
 
+    @Inject
+    private URLShortenerRedirectCache redirectCache;
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private URLShortenerLinkPreview linkPreview;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private Logger logger;
+
     @Override
     public List<ResourceType> getSupportedResourceReferences()
     {
@@ -81,32 +126,210 @@ public class URLShortenerResourceReferenceHandler extends AbstractResourceRefere
     public void handle(ResourceReference reference, ResourceReferenceHandlerChain chain)
         throws ResourceReferenceHandlerException
     {
+        HttpServletRequest request = ((ServletRequest) this.container.getRequest()).getHttpServletRequest();
         HttpServletResponse response = ((ServletResponse) this.container.getResponse()).getHttpServletResponse();
         try {
             URLShortenerResourceReference urlResourceReference = (URLShortenerResourceReference) reference;
-            DocumentReference documentReference =
-                urlShortenerManager.getDocumentReference(urlResourceReference.getWikiId(),
-                    urlResourceReference.getPageId());
-            if (null != documentReference) {
-                XWikiContext xcontext = xcontextProvider.get();
-                // Preserve query parameters from the shortened URL request.
-                String queryString = URLEncodedUtils.format(urlResourceReference.getParameters().entrySet().stream()
-                    .flatMap(
-                        entry -> entry.getValue().stream().map(value -> new BasicNameValuePair(entry.getKey(), value)))
-                    .collect(Collectors.toList()), StandardCharsets.UTF_8);
-
-                String stringURL = xcontext.getWiki().getURL(documentReference, "view", queryString, "", xcontext);
-                // Let the redirect action to check the view right on the document.
-                response.sendRedirect(stringURL);
-            } else {
-                response.sendError(404,
-                    String.format("No document is associated to the given ID: [%s]", urlResourceReference.getPageId()));
+            XWikiContext xcontext = xcontextProvider.get();
+            // Page IDs without wiki segment are looked up in the current wiki first.
+            String wiki = urlResourceReference.getWikiId().isEmpty() ? StringUtils.defaultString(xcontext.getWikiId())
+                : urlResourceReference.getWikiId();
+            URLShortenerRedirectTarget target = this.redirectCache.get(wiki, urlResourceReference.getPageId());
+            if (target == null && this.configuration.isAsyncRedirect() && request.isAsyncSupported()) {
+                // Release the container thread while the lookup is running.
+                handleAsync(urlResourceReference, wiki, request);
+                return;
+            } else if (target == null) {
+                DocumentReference documentReference = this.urlShortenerManager
+                    .getDocumentReference(urlResourceReference.getWikiId(), urlResourceReference.getPageId());
+                target = createRedirectTarget(wiki, urlResourceReference.getPageId(), documentReference, xcontext);
             }
+            if (respond(urlResourceReference, target, request, response)) {
+                // The response is committed, so there's nothing left for the other handlers to do.
+                return;
+            }
+        } catch (URLShortenerUnavailableException e) {
+            sendUnavailable(e, response);
+            return;
         } catch (Exception e) {
             throw new ResourceReferenceHandlerException(
-                String.format("Failed to handle resource [%s]", URLShortenerResourceReference.TYPE), e);
+                String.format(HANDLE_ERROR, URLShortenerResourceReference.TYPE), e);
         }
 
         chain.handleNext(reference);
     }
+
+    private void handleAsync(URLShortenerResourceReference reference, String wiki, HttpServletRequest request)
+    {
+        AsyncContext asyncContext = request.startAsync();
+        // The lookup has its own deadline.
+        asyncContext.setTimeout(0);
+        this.urlShortenerManager.getDocumentReferenceAsync(reference.getWikiId(), reference.getPageId())
+            .whenComplete((documentReference, error) -> {
+                // This runs on the lookup thread, with a clone of the execution context of the request, unless the
+                // lookup failed before or after running.
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                try {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof URLShortenerUnavailableException) {
+                        sendUnavailable((URLShortenerUnavailableException) cause, response);
+                    } else if (cause != null) {
+                        sendError(cause, response);
+                    } else {
+                        URLShortenerRedirectTarget target = createRedirectTarget(wiki, reference.getPageId(),
+                            documentReference, this.xcontextProvider.get());
+                        // The 404 is complete once sent: the container thread has returned and the components of the
+                        // request are released, so the next handlers can't be called from this thread.
+                        respond(reference, target, request, response);
+                    }
+                } catch (Exception e) {
+                    sendError(e, response);
+                } finally {
+                    asyncContext.complete();
+                }
+            });
+    }
+
+    private void sendError(Throwable error, HttpServletResponse response)
+    {
+        this.logger.error(String.format(HANDLE_ERROR, URLShortenerResourceReference.TYPE), error);
+        if (!response.isCommitted()) {
+            try {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } catch (IOException e) {
+                this.logger.debug("Failed to send the error response.", e);
+            }
+        }
+    }
+
+    private URLShortenerRedirectTarget createRedirectTarget(String wiki, String pageId,
+        DocumentReference documentReference, XWikiContext xcontext)
+    {
+        URLShortenerRedirectTarget target = null;
+        if (documentReference != null) {
+            // The validators are derived from the mapping, so the target document isn't loaded.
+            String viewURL = xcontext.getWiki().getURL(documentReference, "view", "", "", xcontext);
+            target = new URLShortenerRedirectTarget(documentReference, viewURL);
+            this.redirectCache.set(wiki, pageId, target);
+        }
+        return target;
+    }
+
+    /**
+     * @return {@code true} if the response is complete, {@code false} if the next handlers should be called
+     */
+    private boolean respond(URLShortenerResourceReference reference, URLShortenerRedirectTarget target,
+        HttpServletRequest request, HttpServletResponse response) throws IOException, XWikiException
+    {
+        if (null == target && HEAD.equals(request.getMethod())) {
+            // Don't render an error page that won't be sent anyway.
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return true;
+        } else if (null != target && isLinkPreview(request, target)) {
+            sendLinkPreview(target, response);
+            return true;
+        } else if (null != target) {
+            // Preserve query parameters from the shortened URL request.
+            String queryString = getQueryString(reference.getParameters());
+            String stringURL = queryString.isEmpty() ? target.getURL() : target.getURL() + '?' + queryString;
+            // Let the redirect action to check the view right on the document.
+            redirect(stringURL, reference.getPageId(), target, request, response);
+            return true;
+        } else {
+            response.sendError(404,
+                String.format("No document is associated to the given ID: [%s]", reference.getPageId()));
+            return false;
+        }
+    }
+
+    private void redirect(String url, String pageId, URLShortenerRedirectTarget target, HttpServletRequest request,
+        HttpServletResponse response) throws IOException
+    {
+        int maxAge = this.configuration.getRedirectMaxAge();
+        if (maxAge > 0) {
+            // Allow browsers and reverse proxies to cache the redirect, and to revalidate it cheaply.
+            String eTag = target.getETag(pageId);
+            response.setHeader(CACHE_CONTROL, "public, max-age=" + maxAge);
+            response.setHeader(ETAG, eTag);
+            if (target.isNotModified(pageId, request.getHeader(IF_NONE_MATCH))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        int status = this.configuration.getRedirectStatus();
+        if (status == HttpServletResponse.SC_FOUND) {
+            response.sendRedirect(url);
+        } else {
+            response.setStatus(status);
+            response.setHeader(LOCATION, url);
+        }
+    }
+
+    private void sendUnavailable(URLShortenerUnavailableException exception, HttpServletResponse response)
+        throws ResourceReferenceHandlerException
+    {
+        try {
+            // Fail fast, leaving the thread to the other requests.
+            response.setHeader(RETRY_AFTER, String.valueOf(exception.getRetryAfter()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exception.getMessage());
+        } catch (IOException e) {
+            throw new ResourceReferenceHandlerException(
+                String.format(HANDLE_ERROR, URLShortenerResourceReference.TYPE), e);
+        }
+    }
+
+    private boolean isLinkPreview(HttpServletRequest request, URLShortenerRedirectTarget target)
+    {
+        String userAgent = request.getHeader(USER_AGENT);
+        if (StringUtils.isEmpty(userAgent) || HEAD.equals(request.getMethod())) {
+            return false;
+        }
+        for (String previewUserAgent : this.configuration.getPreviewUserAgents()) {
+            if (StringUtils.containsIgnoreCase(userAgent, previewUserAgent)) {
+                // Don't disclose the title of the document to clients that wouldn't be allowed to view it.
+                return this.authorization.hasAccess(Right.VIEW, target.getDocumentReference());
+            }
+        }
+        return false;
+    }
+
+    private void sendLinkPreview(URLShortenerRedirectTarget target, HttpServletResponse response)
+        throws IOException, XWikiException
+    {
+        String html = this.linkPreview.getHTML(target.getDocumentReference());
+        response.setContentType("text/html");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(html);
+    }
+
+    /**
+     * Serializes the given parameters into an URL encoded query string. This is equivalent to
+     * {@code URLEncodedUtils.format(..., UTF_8)}, but avoids the intermediate name-value pairs since it is done for
+     * each redirect.
+     *
+     * @param parameters the parameters of the shortened URL request
+     * @return the query string, without the leading {@code ?}
+     */
+    static String getQueryString(Map<String, List<String>> parameters)
+    {
+        if (parameters.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder queryString = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+            String name = URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8);
+            for (String value : entry.getValue()) {
+                if (queryString.length() > 0) {
+                    queryString.append('&');
+                }
+                queryString.append(name);
+                if (value != null) {
+                    queryString.append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return queryString.toString();
+    }
 }
@@ -19,7 +19,7 @@
  */
 package com.xwiki.urlshortener.internal;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -53,12 +53,12 @@ public class URLShortenerResourceReferenceSerializer
     public ExtendedURL serialize(URLShortenerResourceReference resource)
         throws SerializeResourceReferenceException, UnsupportedResourceReferenceException
     {
-        List<String> segments = new ArrayList<>();
-        segments.add(URLShortenerResourceReference.HINT);
-        if (!resource.getWikiId().isEmpty()) {
-            segments.add(resource.getWikiId());
+        List<String> segments;
+        if (resource.getWikiId().isEmpty()) {
+            segments = Arrays.asList(URLShortenerResourceReference.HINT, resource.getPageId());
+        } else {
+            segments = Arrays.asList(URLShortenerResourceReference.HINT, resource.getWikiId(), resource.getPageId());
         }
-        segments.add(resource.getPageId());
 
         ExtendedURL extendedURL = new ExtendedURL(segments);
 
@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rendering.internal.parser.reference.type.AbstractURIResourceReferenceTypeParser;
+import org.xwiki.rendering.listener.reference.ResourceType;
+
+/**
+ * Parses the {@code short:} link references of the wiki syntax, e.g. {@code [[label>>short:abc12]]}, or
+ * {@code [[label>>short:subwiki/abc12]]} for a page ID of a subwiki.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Named(URLShortenerResourceReference.HINT)
+@Singleton
+public class URLShortenerResourceReferenceTypeParser extends AbstractURIResourceReferenceTypeParser
+{
+    /**
+     * The type of the {@code short:} link references.
+     */
+    public static final ResourceType TYPE = new ResourceType(URLShortenerResourceReference.HINT);
+
+    @Override
+    public ResourceType getType()
+    {
+        return TYPE;
+    }
+}
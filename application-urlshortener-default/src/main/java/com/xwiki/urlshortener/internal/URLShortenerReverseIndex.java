@@ -0,0 +1,535 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.store.CompactPageIDIndex;
+import com.xwiki.urlshortener.internal.store.DocumentPageIDMap;
+import com.xwiki.urlshortener.internal.store.DocumentReferenceDictionary;
+import com.xwiki.urlshortener.internal.store.LongIntHashMap;
+
+/**
+ * Remembers the page ID of the documents that have one, so that creating a shortened URL for a document that already
+ * has one doesn't need to ask the store (which loads the document with the default store). The documents are encoded
+ * with a {@link DocumentReferenceDictionary} and the page IDs with {@link CompactPageIDIndex#encode(String)} when
+ * possible, so that an entry takes a few bytes besides the names of the document and of its spaces, which are shared.
+ * The entries are invalidated by {@link URLShortenerRedirectCacheListener}.
+ * <p>
+ * The entries survive restarts: the changes are appended to a journal in the permanent directory, and a snapshot of
+ * all the entries replaces the journal each time it reaches {@value #SNAPSHOT_THRESHOLD} changes, the documents that
+ * lost their page ID being then removed from the dictionary. At startup, the
+ * snapshot is loaded and the journal replayed in the background, the index missing the entries until then, and the
+ * loaded entries are then verified against the store, since the documents could have changed while the wiki was down.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerReverseIndex.class)
+@Singleton
+public class URLShortenerReverseIndex implements Initializable, Disposable
+{
+    /**
+     * The number of journal entries triggering a new snapshot.
+     */
+    public static final int SNAPSHOT_THRESHOLD = 10000;
+
+    private static final int MAGIC = 0x55524c44;
+
+    private static final String SNAPSHOT = "documents";
+
+    private static final String JOURNAL_PREFIX = "documents.journal.";
+
+    private static final byte PUT = 0;
+
+    private static final byte REMOVE = 1;
+
+    private static final byte CLEAR = 2;
+
+    private static final byte REMOVE_WIKI = 3;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private Provider<URLShortenerStore> storeProvider;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private DocumentPageIDMap pageIDs = new DocumentPageIDMap();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Path directory;
+
+    /**
+     * The generation of the journal being written, the snapshot holding the changes of the previous ones.
+     */
+    private int journalGeneration;
+
+    private DataOutputStream journalOutput;
+
+    private int journalSize;
+
+    /**
+     * Whether the snapshot and the journals have been loaded, before which no snapshot can be written.
+     */
+    private boolean loaded;
+
+    private boolean snapshotScheduled;
+
+    /**
+     * The keys of the entries found in the store, or put, while the store is scanned.
+     */
+    private LongIntHashMap verified;
+
+    private ExecutorService persister;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.directory = this.environment.getPermanentDirectory().toPath().resolve("urlshortener");
+        try {
+            Files.createDirectories(this.directory);
+            List<Integer> generations = getJournalGenerations();
+            this.journalGeneration = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+            this.journalOutput = openJournal();
+        } catch (IOException e) {
+            throw new InitializationException("Failed to open the journal of the document page IDs.", e);
+        }
+
+        this.persister = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "URL Shortener page ID persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.persister.execute(this::load);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.persister.shutdown();
+        try {
+            this.persister.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.journalOutput != null) {
+                this.journalOutput.close();
+                this.journalOutput = null;
+            }
+        } catch (IOException e) {
+            throw new ComponentLifecycleException("Failed to close the journal of the document page IDs.", e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @return the page ID of the document, or {@code null} if it is not known
+     */
+    public String get(DocumentReference documentReference)
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.pageIDs.get(documentReference);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @param pageID the page ID of the document
+     */
+    public void put(DocumentReference documentReference, String pageID)
+    {
+        this.lock.writeLock().lock();
+        try {
+            long key = this.pageIDs.put(documentReference, pageID);
+            if (this.verified != null) {
+                this.verified.put(key, 0);
+            }
+            append(PUT, this.serializer.serialize(documentReference), pageID);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param documentReference the document whose page ID is forgotten
+     */
+    public void remove(DocumentReference documentReference)
+    {
+        this.lock.writeLock().lock();
+        try {
+            this.pageIDs.remove(documentReference);
+            append(REMOVE, this.serializer.serialize(documentReference), null);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param wiki the wiki whose documents' page IDs are forgotten
+     */
+    public void removeWiki(String wiki)
+    {
+        this.lock.writeLock().lock();
+        try {
+            this.pageIDs.removeWiki(wiki);
+            append(REMOVE_WIKI, wiki, null);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets all the page IDs, and clears the dictionary of documents.
+     */
+    public void removeAll()
+    {
+        this.lock.writeLock().lock();
+        try {
+            this.pageIDs.clear();
+            if (this.verified != null) {
+                // The keys are given again by the new dictionary.
+                this.verified.clear();
+            }
+            append(CLEAR, null, null);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of documents whose page ID is known
+     */
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.pageIDs.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the entries and deletes the journals it replaces. Called in the background after the
+     * startup, and each time the journal reaches {@link #SNAPSHOT_THRESHOLD} changes.
+     */
+    void snapshot()
+    {
+        DocumentPageIDMap snapshot;
+        int generation;
+        this.lock.writeLock().lock();
+        try {
+            this.snapshotScheduled = false;
+            if (this.journalOutput == null) {
+                return;
+            }
+            // Start a new journal, whose changes are applied on top of the snapshot.
+            this.journalOutput.close();
+            this.journalOutput = null;
+            this.journalGeneration++;
+            this.journalOutput = openJournal();
+            this.journalSize = 0;
+            generation = this.journalGeneration;
+            // Leave out the wikis, spaces and names of the documents that lost their page ID.
+            snapshot = this.pageIDs.compact();
+            // The keys being verified must stay valid, the entries are then compacted by the next snapshot.
+            if (this.verified == null) {
+                this.pageIDs = snapshot.copy();
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to start a new journal of the document page IDs. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+            return;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        Path snapshotFile = this.directory.resolve(SNAPSHOT);
+        Path temporaryFile = this.directory.resolve(SNAPSHOT + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporaryFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(generation);
+                snapshot.write(output);
+            }
+            Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            for (int journal : getJournalGenerations()) {
+                if (journal < generation) {
+                    Files.delete(getJournal(journal));
+                }
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to write the snapshot of the document page IDs. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private void load()
+    {
+        try {
+            DocumentPageIDMap loadedPageIDs = new DocumentPageIDMap();
+            int generation = 0;
+            Path snapshotFile = this.directory.resolve(SNAPSHOT);
+            if (Files.exists(snapshotFile)) {
+                try (DataInputStream input = openInput(snapshotFile)) {
+                    if (input.readInt() != MAGIC) {
+                        throw new IOException(String.format("[%s] is not a snapshot of page IDs.", snapshotFile));
+                    }
+                    generation = input.readInt();
+                    loadedPageIDs = DocumentPageIDMap.read(input);
+                }
+            }
+            // The journals preceding the current one are not written anymore.
+            for (int journal : getJournalGenerations()) {
+                if (journal >= generation && journal < this.journalGeneration) {
+                    replay(getJournal(journal), loadedPageIDs);
+                }
+            }
+
+            this.lock.writeLock().lock();
+            try {
+                // The current journal holds the changes made since the startup.
+                replay(getJournal(this.journalGeneration), loadedPageIDs);
+                this.pageIDs = loadedPageIDs;
+                this.loaded = true;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to load the document page IDs, they will be read from the store again. "
+                + "Root cause: [{}]", ExceptionUtils.getRootCauseMessage(e));
+            this.lock.writeLock().lock();
+            this.loaded = true;
+            this.lock.writeLock().unlock();
+        }
+
+        snapshot();
+        verify();
+    }
+
+    private void verify()
+    {
+        this.lock.writeLock().lock();
+        this.verified = new LongIntHashMap();
+        this.lock.writeLock().unlock();
+
+        boolean scanned = false;
+        int removed = 0;
+        try {
+            scanned = scanStore();
+        } finally {
+            this.lock.writeLock().lock();
+            try {
+                if (scanned) {
+                    for (long key : this.pageIDs.keys()) {
+                        if (this.verified.get(key) == LongIntHashMap.MISSING) {
+                            this.pageIDs.remove(key);
+                            removed++;
+                        }
+                    }
+                }
+                this.verified = null;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        if (removed > 0) {
+            this.logger.debug("Removed [{}] document page IDs that are not in the store anymore.", removed);
+            // The removals are not in the journal.
+            snapshot();
+        }
+    }
+
+    private boolean scanStore()
+    {
+        try {
+            // The store might need an XWiki context, e.g. to run queries.
+            this.executionContextManager.initialize(new ExecutionContext());
+            this.storeProvider.get().scan((pageID, documentReference) -> {
+                this.lock.writeLock().lock();
+                try {
+                    long key = this.pageIDs.find(documentReference, pageID);
+                    if (key != DocumentReferenceDictionary.MISSING) {
+                        this.verified.put(key, 0);
+                    }
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+            });
+            return true;
+        } catch (URLShortenerException | ExecutionContextException e) {
+            this.logger.warn("Failed to verify the document page IDs against the store. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private void append(byte type, String reference, String pageID)
+    {
+        if (this.journalOutput == null) {
+            return;
+        }
+        try {
+            this.journalOutput.writeByte(type);
+            if (type != CLEAR) {
+                this.journalOutput.writeUTF(reference);
+            }
+            if (type == PUT) {
+                this.journalOutput.writeUTF(pageID);
+            }
+            this.journalOutput.flush();
+        } catch (IOException e) {
+            this.logger.warn("Failed to write the page ID of [{}] to the journal. Root cause: [{}]", reference,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        this.journalSize++;
+        if (this.journalSize >= SNAPSHOT_THRESHOLD && this.loaded && !this.snapshotScheduled) {
+            this.snapshotScheduled = true;
+            try {
+                this.persister.execute(this::snapshot);
+            } catch (RejectedExecutionException e) {
+                // The index is being disposed.
+            }
+        }
+    }
+
+    private void replay(Path file, DocumentPageIDMap target) throws IOException
+    {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream input = openInput(file)) {
+            while (true) {
+                byte type = input.readByte();
+                if (type == CLEAR) {
+                    target.clear();
+                } else if (type == REMOVE_WIKI) {
+                    target.removeWiki(input.readUTF());
+                } else {
+                    DocumentReference documentReference = this.resolver.resolve(input.readUTF());
+                    if (type == PUT) {
+                        target.put(documentReference, input.readUTF());
+                    } else {
+                        target.remove(documentReference);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the journal, possibly truncated by a crash in the middle of the last change.
+        }
+    }
+
+    private List<Integer> getJournalGenerations() throws IOException
+    {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.map(file -> file.getFileName().toString())
+                .filter(name -> name.startsWith(JOURNAL_PREFIX)
+                    && StringUtils.isNumeric(name.substring(JOURNAL_PREFIX.length())))
+                .map(name -> Integer.valueOf(name.substring(JOURNAL_PREFIX.length()))).sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private Path getJournal(int generation)
+    {
+        return this.directory.resolve(JOURNAL_PREFIX + generation);
+    }
+
+    private DataOutputStream openJournal() throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getJournal(this.journalGeneration),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    private static DataInputStream openInput(Path file) throws IOException
+    {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+}
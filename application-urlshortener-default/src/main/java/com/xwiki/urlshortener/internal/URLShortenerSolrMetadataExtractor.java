@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.search.solr.SolrEntityMetadataExtractor;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
+import com.xwiki.urlshortener.script.URLShortenerScriptService;
+
+/**
+ * Adds the page ID of a document to its entry in the search core, whatever the store, so that the search results and
+ * the live tables can display the short URLs without asking for the page ID of each page. The default store keeps the
+ * page IDs in objects, which are already indexed with the document under the same field. Only the page IDs known by the
+ * {@link URLShortenerReverseIndex} are indexed, so that a full reindex doesn't query the store for each document: the
+ * documents getting a page ID are reindexed by {@link DefaultURLShortenerManager} anyway.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Named("urlshortener")
+@Singleton
+public class URLShortenerSolrMetadataExtractor implements SolrEntityMetadataExtractor<XWikiDocument>
+{
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private URLShortenerReverseIndex reverseIndex;
+
+    @Override
+    public boolean extract(XWikiDocument document, SolrInputDocument solrDocument)
+    {
+        if (XObjectURLShortenerStore.HINT.equals(this.configuration.getStoreHint())
+            || solrDocument.getFieldValue(URLShortenerScriptService.PAGE_ID_FIELD) != null) {
+            return false;
+        }
+
+        String pageID = this.reverseIndex.get(document.getDocumentReference());
+        if (pageID == null) {
+            return false;
+        }
+        solrDocument.setField(URLShortenerScriptService.PAGE_ID_FIELD, pageID);
+        return true;
+    }
+}
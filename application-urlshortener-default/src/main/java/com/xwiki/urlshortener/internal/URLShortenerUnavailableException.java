@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import com.xwiki.urlshortener.URLShortenerException;
+
+/**
+ * Thrown when a shortened URL cannot be looked up because the lookups are saturated, i.e. the
+ * {@link URLShortenerLookupExecutor} queue is full or the lookup didn't complete in time. The caller should retry
+ * later.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class URLShortenerUnavailableException extends URLShortenerException
+{
+    /**
+     * Class ID for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfter;
+
+    /**
+     * @param message the detail message for this exception
+     * @param retryAfter see {@link #getRetryAfter()}
+     * @param throwable the cause for this exception or null if none exists
+     */
+    public URLShortenerUnavailableException(String message, int retryAfter, Throwable throwable)
+    {
+        super(message, throwable);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the number of seconds after which the lookup can be retried
+     */
+    public int getRetryAfter()
+    {
+        return this.retryAfter;
+    }
+}
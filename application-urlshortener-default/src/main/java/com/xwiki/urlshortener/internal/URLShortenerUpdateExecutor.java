@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Runs the creation and the regeneration of the shortened URLs on a dedicated bounded pool, so that they can be
+ * submitted without waiting for them. These tasks save documents, so they are never abandoned once started. The pool
+ * size and the queue limit are configured by {@link URLShortenerConfiguration}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = URLShortenerUpdateExecutor.class)
+@Singleton
+public class URLShortenerUpdateExecutor extends AbstractURLShortenerExecutor
+{
+    /**
+     * The JMX name of the executor metrics.
+     */
+    public static final String OBJECT_NAME = "com.xwiki.urlshortener:type=UpdateExecutor";
+
+    @Override
+    protected String getName()
+    {
+        return "update";
+    }
+
+    @Override
+    protected String getObjectName()
+    {
+        return OBJECT_NAME;
+    }
+
+    @Override
+    protected int getPoolLimit()
+    {
+        return this.configuration.getUpdatePoolSize();
+    }
+
+    @Override
+    protected int getQueueLimit()
+    {
+        return this.configuration.getUpdateQueueSize();
+    }
+
+    @Override
+    protected long getDeadline()
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.internal.renderer.xhtml.link.AbstractXHTMLLinkTypeRenderer;
+import org.xwiki.rendering.internal.renderer.xhtml.link.XHTMLLinkRenderer;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.renderer.reference.link.LinkLabelGenerator;
+import org.xwiki.resource.ResourceReferenceSerializer;
+import org.xwiki.resource.SerializeResourceReferenceException;
+import org.xwiki.resource.UnsupportedResourceReferenceException;
+import org.xwiki.url.ExtendedURL;
+
+/**
+ * Renders the {@code short:} links in XHTML, pointing to the short URL, and labelled like a link to the target
+ * document when no label is given. The target documents are resolved with {@link URLShortenerLinkResolver}, all the
+ * short links of the rendered content at once.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Named(URLShortenerResourceReference.HINT)
+@Singleton
+public class URLShortenerXHTMLLinkTypeRenderer extends AbstractXHTMLLinkTypeRenderer
+{
+    private static final String CLASS = "class";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private URLShortenerLinkResolver linkResolver;
+
+    @Inject
+    @Named(URLShortenerResourceReference.HINT)
+    private ResourceReferenceSerializer<URLShortenerResourceReference, ExtendedURL> resourceReferenceSerializer;
+
+    @Inject
+    private EntityReferenceSerializer<String> entityReferenceSerializer;
+
+    @Inject
+    private LinkLabelGenerator linkLabelGenerator;
+
+    @Override
+    protected void beginLinkExtraAttributes(ResourceReference reference, Map<String, String> spanAttributes,
+        Map<String, String> anchorAttributes)
+    {
+        URLShortenerResourceReference shortReference = this.linkResolver.parse(reference.getReference());
+        // Same styles as the links to existing and missing documents.
+        spanAttributes.put(CLASS,
+            this.linkResolver.resolve(shortReference) != null ? "wikilink" : "wikicreatelink");
+        try {
+            anchorAttributes.put(XHTMLLinkRenderer.HREF,
+                this.resourceReferenceSerializer.serialize(shortReference).serialize());
+        } catch (SerializeResourceReferenceException | UnsupportedResourceReferenceException e) {
+            this.logger.warn("Failed to serialize the short link [{}]. Root cause: [{}]", reference.getReference(),
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    @Override
+    protected String computeLabel(ResourceReference reference)
+    {
+        DocumentReference documentReference =
+            this.linkResolver.resolve(this.linkResolver.parse(reference.getReference()));
+        if (documentReference == null) {
+            return reference.getReference();
+        }
+        return this.linkLabelGenerator.generate(
+            new DocumentResourceReference(this.entityReferenceSerializer.serialize(documentReference)));
+    }
+}
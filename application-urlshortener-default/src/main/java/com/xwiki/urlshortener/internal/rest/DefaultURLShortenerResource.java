@@ -26,31 +26,26 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.util.ClientUtils;
-import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.model.reference.LocalDocumentReference;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.security.authorization.Right;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xwiki.urlshortener.URLShortenerManager;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+import com.xwiki.urlshortener.internal.URLShortenerRedirectTarget;
 import com.xwiki.urlshortener.rest.URLShortenerResource;
 
 /**
@@ -72,15 +67,9 @@ public class DefaultURLShortenerResource implements URLShortenerResource
 
     private static final String PAGE_ID = "pageID";
 
-    @Inject
-    private QueryManager queryManager;
-
     @Inject
     private DocumentReferenceResolver<String> documentReferenceResolver;
 
-    @Inject
-    private EntityReferenceResolver<SolrDocument> solrEntityReferenceResolver;
-
     @Inject
     private ContextualAuthorizationManager authorization;
 
@@ -93,24 +82,45 @@ public class DefaultURLShortenerResource implements URLShortenerResource
     @Inject
     private URLShortenerManager urlShortenerManager;
 
+    @Inject
+    private URLShortenerConfiguration configuration;
+
     @Override
     public Response redirect(String pageID) throws Exception
     {
-        SolrDocument result = getURLShortenerObjectWithID(pageID);
-        if (result != null) {
-            EntityReference docRef = solrEntityReferenceResolver.resolve(result, EntityType.DOCUMENT);
+        // The page ID is looked up on all wikis.
+        DocumentReference docRef = this.urlShortenerManager.getDocumentReference("", pageID);
+        if (docRef != null) {
             XWikiContext xcontext = xcontextProvider.get();
             XWikiDocument doc = xcontext.getWiki().getDocument(docRef, xcontext);
             String stringURL = doc.getURL("view", xcontext);
-            // Let the redirect action to check the view right on the document.
-            xcontext.getResponse().sendRedirect(stringURL);
+            // Same status and validators as the shortened URLs handled by URLShortenerResourceReferenceHandler.
+            URLShortenerRedirectTarget target = new URLShortenerRedirectTarget(docRef, stringURL);
+            int maxAge = this.configuration.getRedirectMaxAge();
+            ResponseBuilder response;
+            if (maxAge > 0 && isNotModified(pageID, target, xcontext.getRequest())) {
+                response = Response.notModified();
+            } else {
+                // Let the redirect action to check the view right on the document.
+                response = Response.status(this.configuration.getRedirectStatus())
+                    .header(HttpHeaders.LOCATION, stringURL);
+            }
+            if (maxAge > 0) {
+                response.header(HttpHeaders.CACHE_CONTROL, "public, max-age=" + maxAge)
+                    .header(HttpHeaders.ETAG, target.getETag(pageID));
+            }
 
-            return Response.status(301).build();
+            return response.build();
         } else {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
     }
 
+    private boolean isNotModified(String pageID, URLShortenerRedirectTarget target, HttpServletRequest request)
+    {
+        return request != null && target.isNotModified(pageID, request.getHeader(HttpHeaders.IF_NONE_MATCH));
+    }
+
     @Override
     public Response createShortenedURL(String currentDocRef) throws Exception
     {
@@ -146,16 +156,4 @@ public class DefaultURLShortenerResource implements URLShortenerResource
             throw new WebApplicationException(Response.Status.UNAUTHORIZED);
         }
     }
-
-    private SolrDocument getURLShortenerObjectWithID(String pageID) throws QueryException
-    {
-        // This query needs to be done on all wikis.
-        String statement =
-            "property.URLShortener.Code.URLShortenerClass.pageID:" + ClientUtils.escapeQueryChars(pageID);
-        Query query = this.queryManager.createQuery(statement, "solr").setLimit(1);
-        QueryResponse response = (QueryResponse) query.execute().get(0);
-        SolrDocumentList results = response.getResults();
-
-        return results.isEmpty() ? null : results.get(0);
-    }
 }
@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Maps page IDs to serialized document references with little memory per entry. The page IDs made of 1 to
+ * {@value #MAX_HEX_LENGTH} lowercase hexadecimal characters, like the generated ones, are encoded as {@code int}s
+ * (their length and value) and kept in an open addressing {@code int} to {@code int} map pointing to a table of
+ * references, in which each reference is stored once whatever the number of page IDs pointing to it. Other page IDs
+ * are kept in a regular map. This class is not thread safe.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public final class CompactPageIDIndex
+{
+    /**
+     * The maximum length of the page IDs that are encoded as {@code int}s.
+     */
+    public static final int MAX_HEX_LENGTH = 7;
+
+    private static final int VALUE_BITS = 4 * MAX_HEX_LENGTH;
+
+    private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
+
+    private static final int HEX_RADIX = 16;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The encoded page IDs, {@code 0} marking the free cells (the encoded page IDs have a length, so they are never
+     * {@code 0}).
+     */
+    private int[] keys = new int[INITIAL_CAPACITY];
+
+    /**
+     * The slots of the references in {@link #references}, for each cell of {@link #keys}.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    private final Map<String, Integer> otherKeys = new HashMap<>();
+
+    private String[] references = new String[INITIAL_CAPACITY];
+
+    /**
+     * The number of page IDs pointing to each reference slot, the free slots having none.
+     */
+    private int[] referenceUses = new int[INITIAL_CAPACITY];
+
+    /**
+     * The slots in {@link #references} plus one, hashed by reference, {@code 0} marking the free cells.
+     */
+    private int[] referenceSet = new int[INITIAL_CAPACITY];
+
+    private int referenceCount;
+
+    /**
+     * The index of the first never used slot, the slots freed before it being reused first.
+     */
+    private int referenceEnd;
+
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+
+    private int freeSlotCount;
+
+    /**
+     * Encodes a page ID as an {@code int}.
+     *
+     * @param pageID a page ID
+     * @return the encoded page ID, or {@code -1} if it is not made of 1 to {@value #MAX_HEX_LENGTH} lowercase
+     *     hexadecimal characters
+     */
+    public static int encode(String pageID)
+    {
+        int length = pageID.length();
+        if (length == 0 || length > MAX_HEX_LENGTH) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = pageID.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return -1;
+            }
+            value = value * HEX_RADIX + digit;
+        }
+        return length << VALUE_BITS | value;
+    }
+
+    /**
+     * @param key a page ID encoded with {@link #encode(String)}
+     * @return the page ID
+     */
+    public static String decode(int key)
+    {
+        int length = key >>> VALUE_BITS;
+        String value = Integer.toHexString(key & VALUE_MASK);
+        StringBuilder pageID = new StringBuilder(length);
+        for (int i = value.length(); i < length; i++) {
+            pageID.append('0');
+        }
+        return pageID.append(value).toString();
+    }
+
+    /**
+     * @return the number of page IDs
+     */
+    public int size()
+    {
+        return this.size + this.otherKeys.size();
+    }
+
+    /**
+     * @param pageID a page ID
+     * @return the serialized reference of the document the page ID points to, or {@code null} if the page ID is unknown
+     */
+    public String get(String pageID)
+    {
+        int key = encode(pageID);
+        if (key < 0) {
+            Integer slot = this.otherKeys.get(pageID);
+            return slot != null ? this.references[slot] : null;
+        }
+        int cell = findCell(key);
+        return this.keys[cell] != 0 ? this.references[this.slots[cell]] : null;
+    }
+
+    /**
+     * Associates a page ID to a document, replacing the document it was pointing to, if any.
+     *
+     * @param pageID the page ID
+     * @param reference the serialized document reference
+     */
+    public void put(String pageID, String reference)
+    {
+        remove(pageID);
+        int slot = addReference(reference);
+        int key = encode(pageID);
+        if (key < 0) {
+            this.otherKeys.put(pageID, slot);
+            return;
+        }
+        if ((this.size + 1) * 3 > this.keys.length * 2) {
+            resizeKeys();
+        }
+        int cell = findCell(key);
+        this.keys[cell] = key;
+        this.slots[cell] = slot;
+        this.size++;
+    }
+
+    /**
+     * @param pageID the page ID to remove
+     * @return {@code true} if the page ID was pointing to a document
+     */
+    public boolean remove(String pageID)
+    {
+        int key = encode(pageID);
+        int slot;
+        if (key < 0) {
+            Integer otherSlot = this.otherKeys.remove(pageID);
+            if (otherSlot == null) {
+                return false;
+            }
+            slot = otherSlot;
+        } else {
+            int cell = findCell(key);
+            if (this.keys[cell] == 0) {
+                return false;
+            }
+            slot = this.slots[cell];
+            deleteCell(cell);
+            this.size--;
+        }
+        removeReference(slot);
+        return true;
+    }
+
+    /**
+     * Visits all the page IDs, in no particular order.
+     *
+     * @param visitor called with each page ID and the serialized reference of the document it points to
+     */
+    public void forEach(BiConsumer<String, String> visitor)
+    {
+        for (int cell = 0; cell < this.keys.length; cell++) {
+            if (this.keys[cell] != 0) {
+                visitor.accept(decode(this.keys[cell]), this.references[this.slots[cell]]);
+            }
+        }
+        this.otherKeys.forEach((pageID, slot) -> visitor.accept(pageID, this.references[slot]));
+    }
+
+    private int findCell(int key)
+    {
+        int mask = this.keys.length - 1;
+        int cell = mix(key) & mask;
+        while (this.keys[cell] != 0 && this.keys[cell] != key) {
+            cell = (cell + 1) & mask;
+        }
+        return cell;
+    }
+
+    private void deleteCell(int deletedCell)
+    {
+        // Shift back the following entries of the cluster instead of leaving a tombstone.
+        int mask = this.keys.length - 1;
+        int free = deletedCell;
+        int cell = (free + 1) & mask;
+        while (this.keys[cell] != 0) {
+            int home = mix(this.keys[cell]) & mask;
+            if (((cell - home) & mask) >= ((cell - free) & mask)) {
+                this.keys[free] = this.keys[cell];
+                this.slots[free] = this.slots[cell];
+                free = cell;
+            }
+            cell = (cell + 1) & mask;
+        }
+        this.keys[free] = 0;
+    }
+
+    private void resizeKeys()
+    {
+        int[] oldKeys = this.keys;
+        int[] oldSlots = this.slots;
+        this.keys = new int[oldKeys.length * 2];
+        this.slots = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int cell = findCell(oldKeys[i]);
+                this.keys[cell] = oldKeys[i];
+                this.slots[cell] = oldSlots[i];
+            }
+        }
+    }
+
+    private int addReference(String reference)
+    {
+        int cell = findReferenceCell(reference);
+        if (this.referenceSet[cell] != 0) {
+            int slot = this.referenceSet[cell] - 1;
+            this.referenceUses[slot]++;
+            return slot;
+        }
+
+        int slot;
+        if (this.freeSlotCount > 0) {
+            slot = this.freeSlots[--this.freeSlotCount];
+        } else {
+            if (this.referenceEnd == this.references.length) {
+                this.references = Arrays.copyOf(this.references, this.references.length * 2);
+                this.referenceUses = Arrays.copyOf(this.referenceUses, this.references.length);
+            }
+            slot = this.referenceEnd++;
+        }
+        this.references[slot] = reference;
+        this.referenceUses[slot] = 1;
+        this.referenceSet[cell] = slot + 1;
+        this.referenceCount++;
+        if (this.referenceCount * 3 > this.referenceSet.length * 2) {
+            resizeReferenceSet();
+        }
+        return slot;
+    }
+
+    private void removeReference(int slot)
+    {
+        if (--this.referenceUses[slot] > 0) {
+            return;
+        }
+        int cell = findReferenceCell(this.references[slot]);
+        this.references[slot] = null;
+        deleteReferenceCell(cell);
+        this.referenceCount--;
+        if (this.freeSlotCount == this.freeSlots.length) {
+            this.freeSlots = Arrays.copyOf(this.freeSlots, this.freeSlots.length * 2);
+        }
+        this.freeSlots[this.freeSlotCount++] = slot;
+    }
+
+    private int findReferenceCell(String reference)
+    {
+        int mask = this.referenceSet.length - 1;
+        int cell = mix(reference.hashCode()) & mask;
+        while (this.referenceSet[cell] != 0 && !reference.equals(this.references[this.referenceSet[cell] - 1])) {
+            cell = (cell + 1) & mask;
+        }
+        return cell;
+    }
+
+    private void deleteReferenceCell(int deletedCell)
+    {
+        int mask = this.referenceSet.length - 1;
+        int free = deletedCell;
+        int cell = (free + 1) & mask;
+        while (this.referenceSet[cell] != 0) {
+            int home = mix(this.references[this.referenceSet[cell] - 1].hashCode()) & mask;
+            if (((cell - home) & mask) >= ((cell - free) & mask)) {
+                this.referenceSet[free] = this.referenceSet[cell];
+                free = cell;
+            }
+            cell = (cell + 1) & mask;
+        }
+        this.referenceSet[free] = 0;
+    }
+
+    private void resizeReferenceSet()
+    {
+        int[] oldSet = this.referenceSet;
+        this.referenceSet = new int[oldSet.length * 2];
+        for (int entry : oldSet) {
+            if (entry != 0) {
+                this.referenceSet[findReferenceCell(this.references[entry - 1])] = entry;
+            }
+        }
+    }
+
+    private static int mix(int hash)
+    {
+        // Spread the consecutive keys over the table.
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+}
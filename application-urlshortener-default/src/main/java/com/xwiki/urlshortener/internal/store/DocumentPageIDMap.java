@@ -0,0 +1,246 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Maps documents to their page ID, with the documents encoded by a {@link DocumentReferenceDictionary} and the page
+ * IDs encoded as {@code int}s when possible (see {@link CompactPageIDIndex#encode(String)}). This class is not thread
+ * safe.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public final class DocumentPageIDMap
+{
+    private DocumentReferenceDictionary dictionary;
+
+    private final LongIntHashMap pageIDs;
+
+    /**
+     * The page IDs that can't be encoded as {@code int}s.
+     */
+    private final Map<Long, String> otherPageIDs;
+
+    /**
+     * Creates an empty map.
+     */
+    public DocumentPageIDMap()
+    {
+        this(new DocumentReferenceDictionary(), new LongIntHashMap(), new HashMap<>());
+    }
+
+    private DocumentPageIDMap(DocumentReferenceDictionary dictionary, LongIntHashMap pageIDs,
+        Map<Long, String> otherPageIDs)
+    {
+        this.dictionary = dictionary;
+        this.pageIDs = pageIDs;
+        this.otherPageIDs = otherPageIDs;
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @return the page ID of the document, or {@code null} if it has none
+     */
+    public String get(DocumentReference documentReference)
+    {
+        long key = this.dictionary.find(documentReference);
+        return key != DocumentReferenceDictionary.MISSING ? get(key) : null;
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @param pageID a page ID
+     * @return the key of the document if it has the given page ID, {@link DocumentReferenceDictionary#MISSING}
+     *     otherwise
+     */
+    public long find(DocumentReference documentReference, String pageID)
+    {
+        long key = this.dictionary.find(documentReference);
+        return key != DocumentReferenceDictionary.MISSING && pageID.equals(get(key)) ? key
+            : DocumentReferenceDictionary.MISSING;
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @param pageID the page ID of the document
+     * @return the key of the document
+     */
+    public long put(DocumentReference documentReference, String pageID)
+    {
+        int encodedPageID = CompactPageIDIndex.encode(pageID);
+        long key = this.dictionary.add(documentReference);
+        if (encodedPageID < 0) {
+            this.pageIDs.remove(key);
+            this.otherPageIDs.put(key, pageID);
+        } else {
+            this.otherPageIDs.remove(key);
+            this.pageIDs.put(key, encodedPageID);
+        }
+        return key;
+    }
+
+    /**
+     * @param documentReference the document whose page ID is removed
+     */
+    public void remove(DocumentReference documentReference)
+    {
+        long key = this.dictionary.find(documentReference);
+        if (key != DocumentReferenceDictionary.MISSING) {
+            remove(key);
+        }
+    }
+
+    /**
+     * @param key the key of the document whose page ID is removed
+     */
+    public void remove(long key)
+    {
+        this.pageIDs.remove(key);
+        this.otherPageIDs.remove(key);
+    }
+
+    /**
+     * @param wiki the wiki whose documents' page IDs are removed
+     * @return the number of removed page IDs
+     */
+    public int removeWiki(String wiki)
+    {
+        LongPredicate inWiki = this.dictionary.inWiki(wiki);
+        int removed = 0;
+        for (long key : keys()) {
+            if (inWiki.test(key)) {
+                remove(key);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the page IDs, and clears the dictionary of documents.
+     */
+    public void clear()
+    {
+        this.pageIDs.clear();
+        this.otherPageIDs.clear();
+        this.dictionary = new DocumentReferenceDictionary();
+    }
+
+    /**
+     * @return the keys of the documents that have a page ID
+     */
+    public long[] keys()
+    {
+        long[] keys = this.pageIDs.keys();
+        long[] result = new long[keys.length + this.otherPageIDs.size()];
+        System.arraycopy(keys, 0, result, 0, keys.length);
+        int count = keys.length;
+        for (long key : this.otherPageIDs.keySet()) {
+            result[count++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of documents that have a page ID
+     */
+    public int size()
+    {
+        return this.pageIDs.size() + this.otherPageIDs.size();
+    }
+
+    /**
+     * @return a copy of this map
+     */
+    public DocumentPageIDMap copy()
+    {
+        return new DocumentPageIDMap(this.dictionary.copy(), this.pageIDs.copy(), new HashMap<>(this.otherPageIDs));
+    }
+
+    /**
+     * @return a copy of this map whose dictionary holds only the documents that have a page ID, the documents getting
+     *     new keys
+     */
+    public DocumentPageIDMap compact()
+    {
+        long[] keys = keys();
+        long[] compactedKeys = keys.clone();
+        DocumentReferenceDictionary compactedDictionary = this.dictionary.compact(compactedKeys);
+        LongIntHashMap compactedPageIDs = new LongIntHashMap();
+        Map<Long, String> compactedOtherPageIDs = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            int pageID = this.pageIDs.get(keys[i]);
+            if (pageID != LongIntHashMap.MISSING) {
+                compactedPageIDs.put(compactedKeys[i], pageID);
+            } else {
+                compactedOtherPageIDs.put(compactedKeys[i], this.otherPageIDs.get(keys[i]));
+            }
+        }
+        return new DocumentPageIDMap(compactedDictionary, compactedPageIDs, compactedOtherPageIDs);
+    }
+
+    /**
+     * @param output where to write the content of this map
+     * @throws IOException if the content fails to be written
+     * @see #read(DataInput)
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        this.dictionary.write(output);
+        this.pageIDs.write(output);
+        output.writeInt(this.otherPageIDs.size());
+        for (Map.Entry<Long, String> entry : this.otherPageIDs.entrySet()) {
+            output.writeLong(entry.getKey());
+            output.writeUTF(entry.getValue());
+        }
+    }
+
+    /**
+     * @param input the content written by {@link #write(DataOutput)}
+     * @return a map with the same content as the written one
+     * @throws IOException if the content fails to be read
+     */
+    public static DocumentPageIDMap read(DataInput input) throws IOException
+    {
+        DocumentReferenceDictionary dictionary = DocumentReferenceDictionary.read(input);
+        LongIntHashMap pageIDs = LongIntHashMap.read(input);
+        int count = input.readInt();
+        Map<Long, String> otherPageIDs = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            otherPageIDs.put(input.readLong(), input.readUTF());
+        }
+        return new DocumentPageIDMap(dictionary, pageIDs, otherPageIDs);
+    }
+
+    private String get(long key)
+    {
+        int pageID = this.pageIDs.get(key);
+        return pageID != LongIntHashMap.MISSING ? CompactPageIDIndex.decode(pageID) : this.otherPageIDs.get(key);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Encodes document references as {@code long}s, so that they can be used as keys without keeping a
+ * {@link DocumentReference} object graph for each document. The wikis and spaces are the nodes of a tree, in which
+ * the documents of a space share the node of that space, and the nodes sharing a parent share its path. The names
+ * are stored once whatever the number of entities having them (e.g. all the {@code WebHome} documents share the same
+ * name). The key of a document is made of the node of its space and of its name. Nothing is removed from the
+ * dictionary as the documents go, so the documents still in use are copied to a new dictionary from time to time with
+ * {@link #compact(long[])}. This class is not thread safe.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public final class DocumentReferenceDictionary
+{
+    /**
+     * The key returned for documents that are not in the dictionary.
+     */
+    public static final long MISSING = -1;
+
+    private static final int NO_PARENT = -1;
+
+    private final Map<String, Integer> names;
+
+    /**
+     * The wiki and space nodes, by parent node and name.
+     */
+    private final LongIntHashMap nodes;
+
+    /**
+     * Creates an empty dictionary.
+     */
+    public DocumentReferenceDictionary()
+    {
+        this(new HashMap<>(), new LongIntHashMap());
+    }
+
+    private DocumentReferenceDictionary(Map<String, Integer> names, LongIntHashMap nodes)
+    {
+        this.names = names;
+        this.nodes = nodes;
+    }
+
+    /**
+     * @return the number of wiki and space nodes
+     */
+    public int getNodeCount()
+    {
+        return this.nodes.size();
+    }
+
+    /**
+     * @return the number of distinct names
+     */
+    public int getNameCount()
+    {
+        return this.names.size();
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @return the key of the document, adding its wiki, spaces and name to the dictionary if needed
+     */
+    public long add(DocumentReference documentReference)
+    {
+        List<EntityReference> chain = documentReference.getReversedReferenceChain();
+        int node = NO_PARENT;
+        for (int i = 0; i < chain.size() - 1; i++) {
+            long nodeKey = toKey(node + 1, addName(chain.get(i).getName()));
+            int child = this.nodes.get(nodeKey);
+            if (child == LongIntHashMap.MISSING) {
+                child = this.nodes.size();
+                this.nodes.put(nodeKey, child);
+            }
+            node = child;
+        }
+        return toKey(node, addName(documentReference.getName()));
+    }
+
+    /**
+     * @param documentReference a document reference
+     * @return the key of the document, or {@link #MISSING} if its wiki, spaces or name are not in the dictionary
+     */
+    public long find(DocumentReference documentReference)
+    {
+        List<EntityReference> chain = documentReference.getReversedReferenceChain();
+        int node = NO_PARENT;
+        for (int i = 0; i < chain.size() - 1; i++) {
+            Integer name = this.names.get(chain.get(i).getName());
+            if (name == null) {
+                return MISSING;
+            }
+            node = this.nodes.get(toKey(node + 1, name));
+            if (node == LongIntHashMap.MISSING) {
+                return MISSING;
+            }
+        }
+        Integer name = this.names.get(documentReference.getName());
+        return name != null ? toKey(node, name) : MISSING;
+    }
+
+    /**
+     * @return a copy of this dictionary, giving the same keys to the documents
+     */
+    public DocumentReferenceDictionary copy()
+    {
+        return new DocumentReferenceDictionary(new HashMap<>(this.names), this.nodes.copy());
+    }
+
+    /**
+     * @param output where to write the content of this dictionary
+     * @throws IOException if the content fails to be written
+     * @see #read(DataInput)
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        String[] namesById = new String[this.names.size()];
+        this.names.forEach((name, id) -> namesById[id] = name);
+        output.writeInt(namesById.length);
+        for (String name : namesById) {
+            output.writeUTF(name);
+        }
+        this.nodes.write(output);
+    }
+
+    /**
+     * @param input the content written by {@link #write(DataOutput)}
+     * @return a dictionary giving the same keys to the documents as the written one
+     * @throws IOException if the content fails to be read
+     */
+    public static DocumentReferenceDictionary read(DataInput input) throws IOException
+    {
+        int count = input.readInt();
+        Map<String, Integer> names = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            names.put(input.readUTF(), i);
+        }
+        return new DocumentReferenceDictionary(names, LongIntHashMap.read(input));
+    }
+
+    /**
+     * @param wiki a wiki name
+     * @return tells whether a key is the one of a document of the given wiki, until the dictionary changes
+     */
+    public LongPredicate inWiki(String wiki)
+    {
+        Integer name = this.names.get(wiki);
+        int wikiNode = name != null ? this.nodes.get(toKey(NO_PARENT + 1, name)) : LongIntHashMap.MISSING;
+        if (wikiNode == LongIntHashMap.MISSING) {
+            return key -> false;
+        }
+        int[] parents = getParents();
+        return key -> {
+            int node = (int) (key >> Integer.SIZE);
+            while (parents[node] != NO_PARENT) {
+                node = parents[node];
+            }
+            return node == wikiNode;
+        };
+    }
+
+    /**
+     * Copies the wikis, spaces and names of the given documents to a new dictionary, leaving out the ones of the other
+     * documents.
+     *
+     * @param keys the keys of the documents to copy, replaced by their keys in the new dictionary
+     * @return the new dictionary
+     */
+    public DocumentReferenceDictionary compact(long[] keys)
+    {
+        String[] namesById = new String[this.names.size()];
+        this.names.forEach((name, id) -> namesById[id] = name);
+        int[] parents = getParents();
+        int[] nodeNames = new int[this.nodes.size()];
+        for (long nodeKey : this.nodes.keys()) {
+            nodeNames[this.nodes.get(nodeKey)] = (int) nodeKey;
+        }
+
+        DocumentReferenceDictionary compacted = new DocumentReferenceDictionary();
+        int[] copiedNodes = new int[parents.length];
+        Arrays.fill(copiedNodes, LongIntHashMap.MISSING);
+        for (int i = 0; i < keys.length; i++) {
+            int node = copyNode((int) (keys[i] >> Integer.SIZE), parents, nodeNames, namesById, copiedNodes, compacted);
+            keys[i] = toKey(node, compacted.addName(namesById[(int) keys[i]]));
+        }
+        return compacted;
+    }
+
+    /**
+     * @return the parent of each node, the nodes being numbered in the order they are added
+     */
+    private int[] getParents()
+    {
+        int[] parents = new int[this.nodes.size()];
+        for (long nodeKey : this.nodes.keys()) {
+            parents[this.nodes.get(nodeKey)] = (int) (nodeKey >>> Integer.SIZE) - 1;
+        }
+        return parents;
+    }
+
+    private int copyNode(int node, int[] parents, int[] nodeNames, String[] namesById, int[] copiedNodes,
+        DocumentReferenceDictionary target)
+    {
+        if (node == NO_PARENT) {
+            return NO_PARENT;
+        }
+        if (copiedNodes[node] == LongIntHashMap.MISSING) {
+            int parent = copyNode(parents[node], parents, nodeNames, namesById, copiedNodes, target);
+            copiedNodes[node] = target.nodes.size();
+            target.nodes.put(toKey(parent + 1, target.addName(namesById[nodeNames[node]])), copiedNodes[node]);
+        }
+        return copiedNodes[node];
+    }
+
+    private int addName(String name)
+    {
+        return this.names.computeIfAbsent(name, key -> this.names.size());
+    }
+
+    private static long toKey(int high, int low)
+    {
+        return ((long) high << Integer.SIZE) | (low & 0xFFFFFFFFL);
+    }
+}
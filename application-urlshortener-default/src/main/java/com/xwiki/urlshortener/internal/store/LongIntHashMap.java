@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Open addressing map from {@code long} keys to {@code int} values, without boxing. {@link Long#MIN_VALUE} can't be
+ * used as key. This class is not thread safe.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public final class LongIntHashMap
+{
+    /**
+     * The value returned for the missing keys.
+     */
+    public static final int MISSING = -1;
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = newKeys(INITIAL_CAPACITY);
+
+    private int[] values = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * @return the number of keys
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param key a key
+     * @return the value of the key, or {@link #MISSING} if there is none
+     */
+    public int get(long key)
+    {
+        int cell = findCell(key);
+        return this.keys[cell] != FREE ? this.values[cell] : MISSING;
+    }
+
+    /**
+     * @param key a key, other than {@link Long#MIN_VALUE}
+     * @param value the value of the key, replacing the previous one
+     */
+    public void put(long key, int value)
+    {
+        int cell = findCell(key);
+        if (this.keys[cell] == FREE) {
+            if ((this.size + 1) * 3 > this.keys.length * 2) {
+                resize();
+                cell = findCell(key);
+            }
+            this.keys[cell] = key;
+            this.size++;
+        }
+        this.values[cell] = value;
+    }
+
+    /**
+     * @param key a key
+     * @return the value the key had, or {@link #MISSING} if there was none
+     */
+    public int remove(long key)
+    {
+        int cell = findCell(key);
+        if (this.keys[cell] == FREE) {
+            return MISSING;
+        }
+        int value = this.values[cell];
+        // Shift back the following entries of the cluster instead of leaving a tombstone.
+        int mask = this.keys.length - 1;
+        int free = cell;
+        int next = (free + 1) & mask;
+        while (this.keys[next] != FREE) {
+            int home = mix(this.keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                this.keys[free] = this.keys[next];
+                this.values[free] = this.values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[free] = FREE;
+        this.size--;
+        return value;
+    }
+
+    /**
+     * Removes all the keys.
+     */
+    public void clear()
+    {
+        this.keys = newKeys(INITIAL_CAPACITY);
+        this.values = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * @return the keys, in no particular order
+     */
+    public long[] keys()
+    {
+        long[] result = new long[this.size];
+        int count = 0;
+        for (long key : this.keys) {
+            if (key != FREE) {
+                result[count++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of this map
+     */
+    public LongIntHashMap copy()
+    {
+        LongIntHashMap copy = new LongIntHashMap();
+        copy.keys = this.keys.clone();
+        copy.values = this.values.clone();
+        copy.size = this.size;
+        return copy;
+    }
+
+    /**
+     * @param output where to write the entries of this map
+     * @throws IOException if the entries fail to be written
+     * @see #read(DataInput)
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        output.writeInt(this.size);
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != FREE) {
+                output.writeLong(this.keys[i]);
+                output.writeInt(this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * @param input the entries written by {@link #write(DataOutput)}
+     * @return a map with the read entries
+     * @throws IOException if the entries fail to be read
+     */
+    public static LongIntHashMap read(DataInput input) throws IOException
+    {
+        LongIntHashMap map = new LongIntHashMap();
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            map.put(input.readLong(), input.readInt());
+        }
+        return map;
+    }
+
+    private int findCell(long key)
+    {
+        int mask = this.keys.length - 1;
+        int cell = mix(key) & mask;
+        while (this.keys[cell] != FREE && this.keys[cell] != key) {
+            cell = (cell + 1) & mask;
+        }
+        return cell;
+    }
+
+    private void resize()
+    {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = newKeys(oldKeys.length * 2);
+        this.values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int cell = findCell(oldKeys[i]);
+                this.keys[cell] = oldKeys[i];
+                this.values[cell] = oldValues[i];
+            }
+        }
+    }
+
+    private static long[] newKeys(int capacity)
+    {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        return keys;
+    }
+
+    private static int mix(long key)
+    {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
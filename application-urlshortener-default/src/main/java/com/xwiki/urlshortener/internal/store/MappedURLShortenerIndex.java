@@ -0,0 +1,306 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Read-only index file mapping page IDs to serialized document references, read through a {@link MappedByteBuffer} so
+ * that the mappings don't live in the heap. The file starts with a header (magic number and number of entries),
+ * followed by the entries sorted by page ID, each made of the page ID encoded on {@link #KEY_WIDTH} zero padded bytes
+ * and of the offset of the document reference in the string table that ends the file. The entries are followed by a
+ * reverse table holding, for each entry, the hash code of its document reference and its position, sorted by hash
+ * code, so that the page IDs of a document reference are found without going through the whole file. The lookups are
+ * binary searches over the entries or over the reverse table. An index file is never modified: changes are written to
+ * a new file replacing the previous one.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public final class MappedURLShortenerIndex
+{
+    /**
+     * The maximum number of bytes of an UTF-8 encoded page ID.
+     */
+    public static final int KEY_WIDTH = 16;
+
+    /**
+     * The order of the entries in the index file.
+     */
+    public static final Comparator<String> KEY_ORDER =
+        (first, second) -> Arrays.compareUnsigned(encodeKey(first), encodeKey(second));
+
+    private static final int MAGIC = 0x55524c54;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final int ENTRY_SIZE = KEY_WIDTH + Integer.BYTES;
+
+    private static final int REVERSE_ENTRY_SIZE = Long.BYTES;
+
+    private static final MappedURLShortenerIndex EMPTY = new MappedURLShortenerIndex(null, 0);
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private MappedURLShortenerIndex(ByteBuffer buffer, int size)
+    {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * Maps an index file in memory.
+     *
+     * @param file the index file
+     * @return the index, empty if the file doesn't exist
+     * @throws IOException if the file can't be mapped or is not an index file
+     */
+    public static MappedURLShortenerIndex open(Path file) throws IOException
+    {
+        if (!Files.exists(file)) {
+            return EMPTY;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(String.format("[%s] is not a short URL index file.", file));
+            }
+            return new MappedURLShortenerIndex(buffer, buffer.getInt(Integer.BYTES));
+        }
+    }
+
+    /**
+     * Writes a new index file, atomically replacing the existing one.
+     *
+     * @param file the index file
+     * @param entries the page IDs and the serialized document references they point to, sorted with
+     *     {@link #KEY_ORDER}
+     * @throws IOException if the file fails to be written
+     */
+    public static void write(Path file, Iterator<Map.Entry<String, String>> entries) throws IOException
+    {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Path stringTable = file.resolveSibling(file.getFileName() + ".strings");
+        try {
+            int count = 0;
+            // The hash code of each document reference in the high bits and the position of its entry in the low bits.
+            long[] reverse = new long[1024];
+            try (DataOutputStream keys =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+                DataOutputStream strings =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stringTable)))) {
+                keys.writeInt(MAGIC);
+                // The number of entries is written once known.
+                keys.writeInt(0);
+                while (entries.hasNext()) {
+                    Map.Entry<String, String> entry = entries.next();
+                    int offset = strings.size();
+                    // DataOutputStream#size() overflows past 2GB, which is also the limit of a mapped buffer.
+                    if (offset < 0) {
+                        throw new IOException("The short URL index exceeds 2GB.");
+                    }
+                    keys.write(encodeKey(entry.getKey()));
+                    keys.writeInt(offset);
+                    byte[] reference = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                    strings.writeInt(reference.length);
+                    strings.write(reference);
+                    if (count == reverse.length) {
+                        reverse = Arrays.copyOf(reverse, count * 2);
+                    }
+                    reverse[count] = ((long) entry.getValue().hashCode() << Integer.SIZE) | count;
+                    count++;
+                }
+                Arrays.sort(reverse, 0, count);
+                for (int i = 0; i < count; i++) {
+                    keys.writeLong(reverse[i]);
+                }
+            }
+            try (FileChannel target = FileChannel.open(temporaryFile, StandardOpenOption.WRITE);
+                FileChannel source = FileChannel.open(stringTable, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(count);
+                header.flip();
+                target.write(header, Integer.BYTES);
+                // Append the string table after the reverse table.
+                long end = target.size();
+                long transferred = 0;
+                while (transferred < source.size()) {
+                    transferred += source.transferTo(transferred, source.size() - transferred,
+                        target.position(end + transferred));
+                }
+                target.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(stringTable);
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * @param pageID a page ID
+     * @return {@code true} if the page ID can be stored in an index file
+     */
+    public static boolean isSupported(String pageID)
+    {
+        return pageID.getBytes(StandardCharsets.UTF_8).length <= KEY_WIDTH;
+    }
+
+    /**
+     * @return the number of entries of the index
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param pageID a page ID
+     * @return the serialized document reference the page ID points to, or {@code null} if it is not in the index
+     */
+    public String get(String pageID)
+    {
+        if (!isSupported(pageID)) {
+            return null;
+        }
+        byte[] key = encodeKey(pageID);
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareKeyAt(middle, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return getValueAt(middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param position the position of an entry, between {@code 0} and {@link #size()}
+     * @return the page ID of the entry
+     */
+    public String getKeyAt(int position)
+    {
+        byte[] key = new byte[KEY_WIDTH];
+        ByteBuffer entry = this.buffer.duplicate();
+        entry.position(HEADER_SIZE + position * ENTRY_SIZE);
+        entry.get(key);
+        int length = 0;
+        while (length < KEY_WIDTH && key[length] != 0) {
+            length++;
+        }
+        return new String(key, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param position the position of an entry, between {@code 0} and {@link #size()}
+     * @return the serialized document reference of the entry
+     */
+    public String getValueAt(int position)
+    {
+        int offset = this.buffer.getInt(HEADER_SIZE + position * ENTRY_SIZE + KEY_WIDTH);
+        ByteBuffer value = this.buffer.duplicate();
+        value.position(getReverseEntryStart(this.size) + offset);
+        byte[] bytes = new byte[value.getInt()];
+        value.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Looks for a page ID pointing to the given document reference, using the reverse table.
+     *
+     * @param value a serialized document reference
+     * @param predicate called with each page ID pointing to the document reference
+     * @return the first accepted page ID, or {@code null} if none is accepted
+     */
+    public String findKey(String value, Predicate<String> predicate)
+    {
+        int hash = value.hashCode();
+        // Look for the first reverse entry with the hash code, then go through the ones sharing it.
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getHashAt(middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        for (int i = low; i < this.size && getHashAt(i) == hash; i++) {
+            int position = this.buffer.getInt(getReverseEntryStart(i) + Integer.BYTES);
+            if (value.equals(getValueAt(position))) {
+                String key = getKeyAt(position);
+                if (predicate.test(key)) {
+                    return key;
+                }
+            }
+        }
+        return null;
+    }
+
+    private int getHashAt(int reversePosition)
+    {
+        return this.buffer.getInt(getReverseEntryStart(reversePosition));
+    }
+
+    private int getReverseEntryStart(int reversePosition)
+    {
+        return HEADER_SIZE + this.size * ENTRY_SIZE + reversePosition * REVERSE_ENTRY_SIZE;
+    }
+
+    private int compareKeyAt(int position, byte[] key)
+    {
+        int start = HEADER_SIZE + position * ENTRY_SIZE;
+        for (int i = 0; i < KEY_WIDTH; i++) {
+            int comparison = Byte.compareUnsigned(this.buffer.get(start + i), key[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] encodeKey(String pageID)
+    {
+        return Arrays.copyOf(pageID.getBytes(StandardCharsets.UTF_8), KEY_WIDTH);
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+
+/**
+ * Stores the page IDs in files of the permanent directory, so that they are available right after a restart without
+ * querying the database and without holding the document references in the heap. The bulk of the mappings is in a
+ * {@link MappedURLShortenerIndex} file, the latest changes being appended to a journal and kept in memory until they
+ * are merged into a new index file by a background compaction, each time the journal reaches
+ * {@value #COMPACTION_THRESHOLD} changes. The page ID of a document reference is found with the reverse table of the
+ * index file and with the in-memory reverse maps of the journal changes, the candidates being checked against the
+ * latest changes. The files are the only copy of the mappings, and they are local to the cluster node, so this store
+ * can't be used in a cluster (see {@link URLShortenerStoreProvider}) and the permanent directory has to be backed up.
+ * Each change is forced to the disk before being acknowledged.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+@Named(MappedURLShortenerStore.HINT)
+public class MappedURLShortenerStore implements URLShortenerStore, Initializable, Disposable
+{
+    /**
+     * The hint of this store.
+     */
+    public static final String HINT = "mapped";
+
+    /**
+     * The number of journal entries triggering a compaction.
+     */
+    public static final int COMPACTION_THRESHOLD = 10000;
+
+    /**
+     * Marks the removed page IDs in the journal, document references are never empty.
+     */
+    private static final String REMOVED = "";
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private Logger logger;
+
+    private Path indexFile;
+
+    private Path journalFile;
+
+    private Path compactedJournalFile;
+
+    private volatile MappedURLShortenerIndex index;
+
+    /**
+     * The changes of the current journal file, by page ID.
+     */
+    private volatile Map<String, String> journal = new ConcurrentHashMap<>();
+
+    /**
+     * The changes being merged into a new index file, by page ID.
+     */
+    private volatile Map<String, String> compacting = Map.of();
+
+    /**
+     * The page IDs of the changes of the current journal file, by document reference.
+     */
+    private volatile Map<String, String> journalPageIDs = new ConcurrentHashMap<>();
+
+    /**
+     * The page IDs of the changes being merged into a new index file, by document reference.
+     */
+    private volatile Map<String, String> compactingPageIDs = Map.of();
+
+    private FileChannel journalChannel;
+
+    private DataOutputStream journalOutput;
+
+    private ExecutorService compactor;
+
+    private boolean compactionScheduled;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Path directory = this.environment.getPermanentDirectory().toPath().resolve("urlshortener");
+        this.indexFile = directory.resolve("index");
+        this.journalFile = directory.resolve("journal");
+        this.compactedJournalFile = directory.resolve("journal.compacting");
+        try {
+            Files.createDirectories(directory);
+            this.index = MappedURLShortenerIndex.open(this.indexFile);
+            // The journal of an interrupted compaction holds the changes preceding the ones of the current journal.
+            Map<String, String> changes = new HashMap<>();
+            replay(this.compactedJournalFile, changes);
+            replay(this.journalFile, changes);
+            // Rewrite the journal to drop the duplicates and a change possibly truncated by a crash.
+            if (Files.exists(this.compactedJournalFile) || Files.exists(this.journalFile)) {
+                rewriteJournal(changes);
+                Files.deleteIfExists(this.compactedJournalFile);
+            }
+            this.journal.putAll(changes);
+            this.journalPageIDs = getPageIDs(changes);
+            this.journalOutput = openJournal();
+        } catch (IOException e) {
+            throw new InitializationException("Failed to open the short URL index.", e);
+        }
+
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "URL Shortener index compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!this.journal.isEmpty()) {
+            scheduleCompaction();
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.compactor.shutdown();
+        try {
+            this.compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                this.journalOutput.close();
+            } catch (IOException e) {
+                throw new ComponentLifecycleException("Failed to close the short URL journal.", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void put(String pageID, DocumentReference documentReference) throws URLShortenerException
+    {
+        if (!MappedURLShortenerIndex.isSupported(pageID)) {
+            throw new URLShortenerException(String.format("The page ID [%s] is longer than %s bytes.", pageID,
+                MappedURLShortenerIndex.KEY_WIDTH));
+        }
+        append(pageID, this.serializer.serialize(documentReference));
+    }
+
+    @Override
+    public DocumentReference get(String wiki, String pageID)
+    {
+        // The page IDs are unique across the wikis so there's no need to look in the given wiki first.
+        String reference = lookup(pageID);
+        return reference != null ? this.resolver.resolve(reference) : null;
+    }
+
+    @Override
+    public String getPageID(DocumentReference documentReference)
+    {
+        String reference = this.serializer.serialize(documentReference);
+        // Starting with the latest changes, which may have removed or replaced the page IDs found after.
+        for (Map<String, String> pageIDs : List.of(this.journalPageIDs, this.compactingPageIDs)) {
+            String pageID = pageIDs.get(reference);
+            if (pageID != null && reference.equals(lookup(pageID))) {
+                return pageID;
+            }
+        }
+        return this.index.findKey(reference, pageID -> reference.equals(lookup(pageID)));
+    }
+
+    @Override
+    public boolean exists(String pageID)
+    {
+        return lookup(pageID) != null;
+    }
+
+    @Override
+    public synchronized boolean replace(DocumentReference documentReference, String oldPageID, String newPageID)
+        throws URLShortenerException
+    {
+        String reference = this.serializer.serialize(documentReference);
+        if (!reference.equals(lookup(oldPageID))) {
+            return false;
+        }
+        put(newPageID, documentReference);
+        append(oldPageID, REMOVED);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(String pageID) throws URLShortenerException
+    {
+        if (lookup(pageID) == null) {
+            return false;
+        }
+        append(pageID, REMOVED);
+        return true;
+    }
+
+    @Override
+    public void scan(BiConsumer<String, DocumentReference> visitor)
+    {
+        Map<String, String> changes = new HashMap<>(this.compacting);
+        changes.putAll(this.journal);
+        MappedURLShortenerIndex currentIndex = this.index;
+        for (int i = 0; i < currentIndex.size(); i++) {
+            String pageID = currentIndex.getKeyAt(i);
+            if (!changes.containsKey(pageID)) {
+                visitor.accept(pageID, this.resolver.resolve(currentIndex.getValueAt(i)));
+            }
+        }
+        changes.forEach((pageID, reference) -> {
+            if (!REMOVED.equals(reference)) {
+                visitor.accept(pageID, this.resolver.resolve(reference));
+            }
+        });
+    }
+
+    /**
+     * Merges the journal into a new index file. Called in the background when the journal grows past
+     * {@link #COMPACTION_THRESHOLD}.
+     *
+     * @throws IOException if the new index fails to be written
+     */
+    void compact() throws IOException
+    {
+        synchronized (this) {
+            if (this.journal.isEmpty()) {
+                return;
+            }
+            // Start a new journal so that the changes can go on while the index is written.
+            this.journalOutput.close();
+            Files.move(this.journalFile, this.compactedJournalFile, StandardCopyOption.REPLACE_EXISTING);
+            this.compacting = this.journal;
+            this.compactingPageIDs = this.journalPageIDs;
+            this.journal = new ConcurrentHashMap<>();
+            this.journalPageIDs = new ConcurrentHashMap<>();
+            this.journalOutput = openJournal();
+        }
+
+        Map<String, String> changes = new TreeMap<>(MappedURLShortenerIndex.KEY_ORDER);
+        changes.putAll(this.compacting);
+        try {
+            MappedURLShortenerIndex.write(this.indexFile, new MergingIterator(this.index, changes));
+        } catch (IOException e) {
+            restoreJournal();
+            throw e;
+        }
+
+        synchronized (this) {
+            this.index = MappedURLShortenerIndex.open(this.indexFile);
+            this.compacting = Map.of();
+            this.compactingPageIDs = Map.of();
+            Files.delete(this.compactedJournalFile);
+        }
+    }
+
+    private synchronized void restoreJournal() throws IOException
+    {
+        // Put the changes back in a single journal, so that the next compaction doesn't overwrite them.
+        Map<String, String> changes = new HashMap<>(this.compacting);
+        changes.putAll(this.journal);
+        this.journalOutput.close();
+        rewriteJournal(changes);
+        this.journal = new ConcurrentHashMap<>(changes);
+        this.journalPageIDs = getPageIDs(changes);
+        this.compacting = Map.of();
+        this.compactingPageIDs = Map.of();
+        this.journalOutput = openJournal();
+        Files.delete(this.compactedJournalFile);
+    }
+
+    private String lookup(String pageID)
+    {
+        String reference = this.journal.get(pageID);
+        if (reference == null) {
+            reference = this.compacting.get(pageID);
+        }
+        if (reference == null) {
+            reference = this.index.get(pageID);
+        }
+        return REMOVED.equals(reference) ? null : reference;
+    }
+
+    private void append(String pageID, String reference) throws URLShortenerException
+    {
+        try {
+            writeChange(this.journalOutput, pageID, reference);
+            this.journalOutput.flush();
+            // The journal is the only copy of the change until the next compaction.
+            this.journalChannel.force(false);
+        } catch (IOException e) {
+            throw new URLShortenerException(String.format("Failed to write the page ID [%s] to the journal.", pageID),
+                e);
+        }
+        this.journal.put(pageID, reference);
+        // The removed page IDs are left in the reverse map, since the lookups check the candidates anyway.
+        if (!REMOVED.equals(reference)) {
+            this.journalPageIDs.put(reference, pageID);
+        }
+        if (this.journal.size() >= COMPACTION_THRESHOLD) {
+            scheduleCompaction();
+        }
+    }
+
+    private synchronized void scheduleCompaction()
+    {
+        if (this.compactionScheduled) {
+            return;
+        }
+        this.compactionScheduled = true;
+        this.compactor.execute(() -> {
+            synchronized (this) {
+                this.compactionScheduled = false;
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                this.logger.warn("Failed to compact the short URL index. Root cause: [{}]", e.getMessage());
+            }
+        });
+    }
+
+    private static Map<String, String> getPageIDs(Map<String, String> changes)
+    {
+        Map<String, String> pageIDs = new ConcurrentHashMap<>();
+        changes.forEach((pageID, reference) -> {
+            if (!REMOVED.equals(reference)) {
+                pageIDs.put(reference, pageID);
+            }
+        });
+        return pageIDs;
+    }
+
+    private DataOutputStream openJournal() throws IOException
+    {
+        this.journalChannel = FileChannel.open(this.journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.journalChannel)));
+    }
+
+    private void rewriteJournal(Map<String, String> changes) throws IOException
+    {
+        Path temporaryFile = this.journalFile.resolveSibling("journal.tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                writeChange(output, change.getKey(), change.getValue());
+            }
+            output.flush();
+            channel.force(false);
+        }
+        Files.move(temporaryFile, this.journalFile, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void replay(Path file, Map<String, String> changes) throws IOException
+    {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+            while (true) {
+                String pageID = input.readUTF();
+                changes.put(pageID, input.readUTF());
+            }
+        } catch (EOFException e) {
+            // The end of the journal, possibly truncated by a crash in the middle of the last change.
+        }
+    }
+
+    private static void writeChange(DataOutputStream output, String pageID, String reference) throws IOException
+    {
+        output.writeUTF(pageID);
+        output.writeUTF(reference);
+    }
+
+    /**
+     * Merges the entries of an index with the changes made since, both sorted by page ID, leaving out the removed
+     * page IDs.
+     */
+    private static final class MergingIterator implements Iterator<Map.Entry<String, String>>
+    {
+        private final MappedURLShortenerIndex index;
+
+        private final Iterator<Map.Entry<String, String>> changes;
+
+        private int position;
+
+        private Map.Entry<String, String> change;
+
+        private Map.Entry<String, String> next;
+
+        MergingIterator(MappedURLShortenerIndex index, Map<String, String> changes)
+        {
+            this.index = index;
+            this.changes = changes.entrySet().iterator();
+            this.change = nextChange();
+            this.next = computeNext();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next()
+        {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> result = this.next;
+            this.next = computeNext();
+            return result;
+        }
+
+        private Map.Entry<String, String> computeNext()
+        {
+            while (this.position < this.index.size() || this.change != null) {
+                Map.Entry<String, String> candidate;
+                int comparison = compareNext();
+                if (comparison < 0) {
+                    candidate = new AbstractMap.SimpleImmutableEntry<>(this.index.getKeyAt(this.position),
+                        this.index.getValueAt(this.position));
+                    this.position++;
+                } else {
+                    // The change overrides the entry of the index with the same page ID.
+                    if (comparison == 0) {
+                        this.position++;
+                    }
+                    candidate = this.change;
+                    this.change = nextChange();
+                }
+                if (!REMOVED.equals(candidate.getValue())) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private int compareNext()
+        {
+            if (this.position >= this.index.size()) {
+                return 1;
+            } else if (this.change == null) {
+                return -1;
+            }
+            return MappedURLShortenerIndex.KEY_ORDER.compare(this.index.getKeyAt(this.position), this.change.getKey());
+        }
+
+        private Map.Entry<String, String> nextChange()
+        {
+            return this.changes.hasNext() ? this.changes.next() : null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xwiki.urlshortener.URLShortenerStore;
+
+/**
+ * Keeps the page IDs in memory only, meaning that they are lost on restart. Meant for tests and benchmarks. The
+ * mappings are held by a {@link CompactPageIDIndex}, with the document references serialized.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+@Named(MemoryURLShortenerStore.HINT)
+public class MemoryURLShortenerStore implements URLShortenerStore
+{
+    /**
+     * The hint of this store.
+     */
+    public static final String HINT = "memory";
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    private final CompactPageIDIndex index = new CompactPageIDIndex();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void put(String pageID, DocumentReference documentReference)
+    {
+        String reference = this.serializer.serialize(documentReference);
+        this.lock.writeLock().lock();
+        try {
+            this.index.put(pageID, reference);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DocumentReference get(String wiki, String pageID)
+    {
+        // The page IDs are unique across the wikis so there's no need to look in the given wiki first.
+        String reference = lookup(pageID);
+        return reference != null ? this.resolver.resolve(reference) : null;
+    }
+
+    @Override
+    public String getPageID(DocumentReference documentReference)
+    {
+        String reference = this.serializer.serialize(documentReference);
+        String[] pageID = new String[1];
+        scanSerialized((key, value) -> {
+            if (pageID[0] == null && reference.equals(value)) {
+                pageID[0] = key;
+            }
+        });
+        return pageID[0];
+    }
+
+    @Override
+    public boolean exists(String pageID)
+    {
+        return lookup(pageID) != null;
+    }
+
+    @Override
+    public boolean replace(DocumentReference documentReference, String oldPageID, String newPageID)
+    {
+        String reference = this.serializer.serialize(documentReference);
+        this.lock.writeLock().lock();
+        try {
+            if (!reference.equals(this.index.get(oldPageID))) {
+                return false;
+            }
+            this.index.remove(oldPageID);
+            this.index.put(newPageID, reference);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String pageID)
+    {
+        this.lock.writeLock().lock();
+        try {
+            return this.index.remove(pageID);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(BiConsumer<String, DocumentReference> visitor)
+    {
+        // Copy the mappings so that the visitor can modify the store.
+        List<String[]> mappings = new ArrayList<>();
+        scanSerialized((pageID, reference) -> mappings.add(new String[] {pageID, reference}));
+        mappings.forEach(mapping -> visitor.accept(mapping[0], this.resolver.resolve(mapping[1])));
+    }
+
+    private String lookup(String pageID)
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.index.get(pageID);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void scanSerialized(BiConsumer<String, String> visitor)
+    {
+        this.lock.readLock().lock();
+        try {
+            this.index.forEach(visitor);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+}
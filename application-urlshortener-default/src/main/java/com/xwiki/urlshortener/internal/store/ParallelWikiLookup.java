@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+/**
+ * Runs the same lookup on several wikis in parallel, on a bounded fork-join pool, and returns the first result found.
+ * The lookups that are still queued when a result is found are cancelled, and the results of the ones that are still
+ * running are ignored. Each thread of the pool initializes its own execution context the first time it runs a lookup,
+ * and keeps it until it terminates, so that the lookups don't clone the context of the caller. The pool size is
+ * configured by {@link URLShortenerConfiguration#getLookupFallbackParallelism()}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = ParallelWikiLookup.class)
+@Singleton
+public class ParallelWikiLookup implements Initializable, Disposable
+{
+    /**
+     * A lookup on a single wiki.
+     *
+     * @param <T> the type of the lookup result
+     * @version $Id$
+     * @since 1.3.5
+     */
+    @FunctionalInterface
+    public interface WikiLookup<T>
+    {
+        /**
+         * @param wiki the identifier of the wiki to look into
+         * @return the result found in the given wiki, or {@code null} if there is none
+         * @throws Exception if the lookup fails
+         */
+        T lookup(String wiki) throws Exception;
+    }
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    private ForkJoinPool pool;
+
+    @Override
+    public void initialize()
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ForkJoinPool(this.configuration.getLookupFallbackParallelism(),
+            forkJoinPool -> new LookupThread(forkJoinPool,
+                String.format("URL Shortener wiki lookup %d", threadCount.incrementAndGet())), null, false);
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.pool.shutdownNow();
+    }
+
+    /**
+     * Runs the given lookup on all the given wikis in parallel, and waits for the first result.
+     *
+     * @param wikis the identifiers of the wikis to look into
+     * @param lookup the lookup to run on each wiki
+     * @param <T> the type of the lookup result
+     * @return the first result found, or {@code null} if none of the wikis has one
+     * @throws URLShortenerException if no result is found and at least one of the lookups failed, or if the calling
+     *     thread is interrupted while waiting
+     */
+    public <T> T findFirst(Collection<String> wikis, WikiLookup<T> lookup) throws URLShortenerException
+    {
+        BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        List<Future<T>> futures = new ArrayList<>(wikis.size());
+        try {
+            for (String wiki : wikis) {
+                FutureTask<T> future = new FutureTask<>(() -> lookup(wiki, lookup))
+                {
+                    @Override
+                    protected void done()
+                    {
+                        completed.add(this);
+                    }
+                };
+                futures.add(future);
+                this.pool.execute(future);
+            }
+
+            Throwable failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    T result = completed.take().get();
+                    if (result != null) {
+                        return result;
+                    }
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                }
+            }
+            if (failure != null) {
+                throw new URLShortenerException(String.format("Failed to look up some of the wikis %s.", wikis),
+                    failure);
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new URLShortenerException("Interrupted while looking up the wikis.", e);
+        } catch (RejectedExecutionException e) {
+            throw new URLShortenerException("The wiki lookup pool is stopped.", e);
+        } finally {
+            // Cancel the lookups that are not needed anymore. The running ones are not interrupted, since interrupting
+            // a thread that is waiting on the database can close its connection: they end on their own, and their
+            // result is ignored.
+            futures.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private <T> T lookup(String wiki, WikiLookup<T> lookup) throws Exception
+    {
+        if (this.execution.getContext() == null) {
+            initializeExecutionContext();
+        }
+        return lookup.lookup(wiki);
+    }
+
+    private void initializeExecutionContext() throws URLShortenerException
+    {
+        try {
+            // The context is kept by the thread of the pool for the next lookups.
+            this.executionContextManager.initialize(new ExecutionContext());
+        } catch (ExecutionContextException e) {
+            this.execution.removeContext();
+            throw new URLShortenerException("Failed to initialize the execution context for the wiki lookup.", e);
+        }
+    }
+
+    private final class LookupThread extends ForkJoinWorkerThread
+    {
+        LookupThread(ForkJoinPool pool, String name)
+        {
+            super(pool);
+            setName(name);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception)
+        {
+            if (execution.getContext() != null) {
+                execution.removeContext();
+            }
+            super.onTermination(exception);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.hibernate.jdbc.ReturningWork;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+
+/**
+ * Stores the page IDs in a dedicated table of the main wiki database, with the page ID as primary key and an index on
+ * the document reference. The table is created the first time the store is used.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+@Named(RelationalURLShortenerStore.HINT)
+public class RelationalURLShortenerStore implements URLShortenerStore
+{
+    /**
+     * The hint of this store.
+     */
+    public static final String HINT = "relational";
+
+    /**
+     * The name of the table holding the page IDs.
+     */
+    public static final String TABLE = "urlshortener_mapping";
+
+    private static final String SELECT_REFERENCE = "select us_reference from " + TABLE + " where us_pageid = ?";
+
+    private static final String SELECT_PAGE_ID = "select us_pageid from " + TABLE + " where us_reference = ?";
+
+    private static final String INSERT =
+        "insert into " + TABLE + " (us_pageid, us_wiki, us_reference) values (?, ?, ?)";
+
+    private static final String UPDATE =
+        "update " + TABLE + " set us_pageid = ? where us_pageid = ? and us_reference = ?";
+
+    private static final String DELETE = "delete from " + TABLE + " where us_pageid = ?";
+
+    private static final String SELECT_ALL = "select us_pageid, us_reference from " + TABLE;
+
+    private static final String SELECT_WIKI = SELECT_ALL + " where us_wiki = ?";
+
+    @Inject
+    @Named("hibernate")
+    private XWikiStoreInterface hibernateStore;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    private volatile boolean tableCreated;
+
+    @Override
+    public void put(String pageID, DocumentReference documentReference) throws URLShortenerException
+    {
+        execute(true, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                statement.setString(1, pageID);
+                statement.setString(2, documentReference.getWikiReference().getName());
+                statement.setString(3, this.serializer.serialize(documentReference));
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public DocumentReference get(String wiki, String pageID) throws URLShortenerException
+    {
+        // The page ID is the primary key, so it is unique across the wikis.
+        String reference = execute(false, connection -> queryString(connection, SELECT_REFERENCE, pageID));
+        return reference != null ? this.resolver.resolve(reference) : null;
+    }
+
+    @Override
+    public Map<String, DocumentReference> getAll(String wiki, Collection<String> pageIDs)
+        throws URLShortenerException
+    {
+        // Primary key lookups on a single connection, reusing the same prepared statement.
+        Map<String, String> references = execute(false, connection -> {
+            Map<String, String> result = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_REFERENCE)) {
+                for (String pageID : pageIDs) {
+                    statement.setString(1, pageID);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next()) {
+                            result.put(pageID, resultSet.getString(1));
+                        }
+                    }
+                }
+            }
+            return result;
+        });
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        references.forEach((pageID, reference) -> documentReferences.put(pageID, this.resolver.resolve(reference)));
+        return documentReferences;
+    }
+
+    @Override
+    public String getPageID(DocumentReference documentReference) throws URLShortenerException
+    {
+        String reference = this.serializer.serialize(documentReference);
+        return execute(false, connection -> queryString(connection, SELECT_PAGE_ID, reference));
+    }
+
+    @Override
+    public boolean exists(String pageID) throws URLShortenerException
+    {
+        return get("", pageID) != null;
+    }
+
+    @Override
+    public boolean replace(DocumentReference documentReference, String oldPageID, String newPageID)
+        throws URLShortenerException
+    {
+        return execute(true, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE)) {
+                statement.setString(1, newPageID);
+                statement.setString(2, oldPageID);
+                statement.setString(3, this.serializer.serialize(documentReference));
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    @Override
+    public boolean delete(String pageID) throws URLShortenerException
+    {
+        return execute(true, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE)) {
+                statement.setString(1, pageID);
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    @Override
+    public void scan(BiConsumer<String, DocumentReference> visitor) throws URLShortenerException
+    {
+        // Read everything before calling the visitor so that the connection is not held by slow visitors.
+        List<String[]> rows = execute(false, connection -> {
+            List<String[]> result = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(SELECT_ALL)) {
+                while (resultSet.next()) {
+                    result.add(new String[] {resultSet.getString(1), resultSet.getString(2)});
+                }
+            }
+            return result;
+        });
+        rows.forEach(row -> visitor.accept(row[0], this.resolver.resolve(row[1])));
+    }
+
+    @Override
+    public void scan(String wiki, BiConsumer<String, DocumentReference> visitor) throws URLShortenerException
+    {
+        List<String[]> rows = execute(false, connection -> {
+            List<String[]> result = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_WIKI)) {
+                statement.setString(1, wiki);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        result.add(new String[] {resultSet.getString(1), resultSet.getString(2)});
+                    }
+                }
+            }
+            return result;
+        });
+        rows.forEach(row -> visitor.accept(row[0], this.resolver.resolve(row[1])));
+    }
+
+    private String queryString(Connection connection, String query, String parameter) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, parameter);
+            statement.setMaxRows(1);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private <T> T execute(boolean write, ReturningWork<T> work) throws URLShortenerException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
+        // The table lives in the main wiki database, whatever the current wiki.
+        String currentWiki = xcontext.getWikiId();
+        xcontext.setWikiId(xcontext.getMainXWiki());
+        try {
+            XWikiHibernateBaseStore.HibernateCallback<T> callback = session -> session.doReturningWork(connection -> {
+                createTable(connection);
+                return work.execute(connection);
+            });
+            return write ? store.executeWrite(xcontext, callback) : store.executeRead(xcontext, callback);
+        } catch (XWikiException e) {
+            throw new URLShortenerException("Failed to access the URL shortener table.", e);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    private void createTable(Connection connection) throws SQLException
+    {
+        if (this.tableCreated) {
+            return;
+        }
+        synchronized (this) {
+            if (!this.tableCreated) {
+                if (!tableExists(connection)) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate("create table " + TABLE + " (us_pageid varchar(255) not null primary "
+                            + "key, us_wiki varchar(255) not null, us_reference varchar(768) not null)");
+                        statement.executeUpdate(
+                            "create index " + TABLE + "_reference on " + TABLE + " (us_reference)");
+                    }
+                }
+                this.tableCreated = true;
+            }
+        }
+    }
+
+    private boolean tableExists(Connection connection) throws SQLException
+    {
+        // Databases don't agree on the case of the table names stored in their metadata.
+        for (String name : new String[] {TABLE, TABLE.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet tables = connection.getMetaData().getTables(null, null, name, null)) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
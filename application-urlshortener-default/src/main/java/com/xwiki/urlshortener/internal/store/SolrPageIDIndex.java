@@ -0,0 +1,333 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.search.solr.SolrException;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+import static com.xwiki.urlshortener.internal.store.URLShortenerSolrCoreInitializer.FIELD_REFERENCE;
+import static com.xwiki.urlshortener.internal.store.URLShortenerSolrCoreInitializer.FIELD_WIKI;
+
+/**
+ * Maps the page IDs of {@link XObjectURLShortenerStore} to their documents in the dedicated
+ * {@link URLShortenerSolrCoreInitializer Solr core}, where they are looked up with a real-time get by unique key, which
+ * sees the changes before they are committed. The core is kept in sync by
+ * {@link com.xwiki.urlshortener.internal.URLShortenerRedirectCacheListener}, and filled with the page IDs of the store
+ * in the background the first time it is used. It is not used until then, which is remembered with a marker document.
+ * When a change can't be indexed, the core is cleared, marker included, and filled again in the background, so that it
+ * is not used while it misses changes.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = SolrPageIDIndex.class)
+@Singleton
+public class SolrPageIDIndex implements Initializable, Disposable
+{
+    /**
+     * The identifier of the document marking the end of the initial fill of the core.
+     */
+    static final String READY_ID = "_urlshortener_ready";
+
+    private static final int COMMIT_WITHIN = 1000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Inject
+    private Solr solr;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private Provider<URLShortenerStore> storeProvider;
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private ExecutorService filler;
+
+    private volatile boolean ready;
+
+    private final AtomicBoolean refillQueued = new AtomicBoolean();
+
+    @Override
+    public void initialize()
+    {
+        // The other stores don't need Solr.
+        if (XObjectURLShortenerStore.HINT.equals(this.configuration.getStoreHint())) {
+            this.filler = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "URL Shortener Solr page ID index");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.filler.execute(() -> fillCore(false));
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.filler != null) {
+            this.filler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return {@code true} if the core holds all the page IDs of the store, {@code false} while it is being filled
+     */
+    public boolean isReady()
+    {
+        return this.ready;
+    }
+
+    /**
+     * @param pageID a page ID
+     * @return the document the page ID redirects to, or {@code null} if the page ID is unknown
+     * @throws URLShortenerException if the core can't be queried
+     */
+    public DocumentReference get(String pageID) throws URLShortenerException
+    {
+        if (READY_ID.equals(pageID)) {
+            return null;
+        }
+        try {
+            SolrDocument document = getClient().getById(pageID);
+            return document != null ? this.resolver.resolve((String) document.getFieldValue(FIELD_REFERENCE)) : null;
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new URLShortenerException(String.format("Failed to look up the page ID [%s] in Solr.", pageID), e);
+        }
+    }
+
+    /**
+     * @param pageIDs some page IDs
+     * @return the documents the given page IDs redirect to, the unknown page IDs being left out
+     * @throws URLShortenerException if the core can't be queried
+     */
+    public Map<String, DocumentReference> getAll(Collection<String> pageIDs) throws URLShortenerException
+    {
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        try {
+            for (SolrDocument document : getClient().getById(pageIDs)) {
+                String pageID = (String) document.getFieldValue("id");
+                if (!READY_ID.equals(pageID)) {
+                    documentReferences.put(pageID,
+                        this.resolver.resolve((String) document.getFieldValue(FIELD_REFERENCE)));
+                }
+            }
+            return documentReferences;
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new URLShortenerException(String.format("Failed to look up the page IDs %s in Solr.", pageIDs), e);
+        }
+    }
+
+    /**
+     * Maps the given page ID to the given document.
+     *
+     * @param pageID the page ID
+     * @param documentReference the document the page ID redirects to
+     */
+    public void put(String pageID, DocumentReference documentReference)
+    {
+        try {
+            getClient().add(createDocument(pageID, documentReference), COMMIT_WITHIN);
+        } catch (SolrException | SolrServerException | IOException e) {
+            warn(String.format("Failed to index the page ID [%s]", pageID), e);
+            refill();
+        }
+    }
+
+    /**
+     * Forgets the given page ID, unless it was mapped to another document in the meantime.
+     *
+     * @param pageID the page ID
+     * @param documentReference the document the page ID was redirecting to
+     */
+    public void remove(String pageID, DocumentReference documentReference)
+    {
+        try {
+            // A renamed document holds the page ID before its previous version is deleted.
+            if (documentReference.equals(get(pageID))) {
+                getClient().deleteById(pageID, COMMIT_WITHIN);
+            }
+        } catch (URLShortenerException | SolrException | SolrServerException | IOException e) {
+            warn(String.format("Failed to remove the page ID [%s] from the index", pageID), e);
+            refill();
+        }
+    }
+
+    /**
+     * Forgets the page IDs of the documents of the given wiki.
+     *
+     * @param wiki the identifier of the deleted wiki
+     */
+    public void removeWiki(String wiki)
+    {
+        try {
+            getClient().deleteByQuery(FIELD_WIKI + ':' + ClientUtils.escapeQueryChars(wiki), COMMIT_WITHIN);
+        } catch (SolrException | SolrServerException | IOException e) {
+            warn(String.format("Failed to remove the page IDs of the wiki [%s] from the index", wiki), e);
+            refill();
+        }
+    }
+
+    private void refill()
+    {
+        // The page IDs are looked up in the search core until the core is filled again.
+        this.ready = false;
+        if (this.filler != null && this.refillQueued.compareAndSet(false, true)) {
+            try {
+                this.filler.execute(() -> {
+                    this.refillQueued.set(false);
+                    fillCore(true);
+                });
+            } catch (RejectedExecutionException e) {
+                // Disposed.
+            }
+        }
+    }
+
+    private void fillCore(boolean refill)
+    {
+        try {
+            SolrClient client = getClient();
+            if (refill) {
+                // Forget the page IDs that failed to be removed, and don't trust the core after a restart if it can't
+                // be filled again.
+                client.deleteByQuery("*:*");
+                client.commit();
+            }
+            if (refill || client.getById(READY_ID) == null) {
+                fill(client);
+                SolrInputDocument marker = new SolrInputDocument();
+                marker.setField("id", READY_ID);
+                client.add(marker);
+                client.commit();
+            }
+            this.ready = true;
+        } catch (URLShortenerException | ExecutionContextException | SolrException | SolrServerException
+            | IOException e) {
+            // The page IDs are looked up in the search core until the next restart, or the next change that fails.
+            warn("Failed to fill the page ID index", e);
+        }
+    }
+
+    private void fill(SolrClient client) throws URLShortenerException, ExecutionContextException
+    {
+        try {
+            // The store might need an XWiki context, e.g. to run queries.
+            this.executionContextManager.initialize(new ExecutionContext());
+            List<SolrInputDocument> batch = new ArrayList<>(BATCH_SIZE);
+            List<Exception> failures = new ArrayList<>(1);
+            this.storeProvider.get().scan((pageID, documentReference) -> {
+                batch.add(createDocument(pageID, documentReference));
+                if (batch.size() == BATCH_SIZE) {
+                    add(client, batch, failures);
+                }
+            });
+            add(client, batch, failures);
+            if (!failures.isEmpty()) {
+                throw new URLShortenerException("Failed to index the page IDs of the store.", failures.get(0));
+            }
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private void add(SolrClient client, List<SolrInputDocument> batch, List<Exception> failures)
+    {
+        // Stop sending the page IDs after the first failure.
+        if (!batch.isEmpty() && failures.isEmpty()) {
+            try {
+                client.add(batch);
+            } catch (SolrServerException | IOException e) {
+                failures.add(e);
+            }
+        }
+        batch.clear();
+    }
+
+    private SolrInputDocument createDocument(String pageID, DocumentReference documentReference)
+    {
+        SolrInputDocument document = new SolrInputDocument();
+        document.setField("id", pageID);
+        document.setField(FIELD_REFERENCE, this.serializer.serialize(documentReference));
+        document.setField(FIELD_WIKI, documentReference.getWikiReference().getName());
+        return document;
+    }
+
+    private SolrClient getClient() throws SolrException
+    {
+        return this.solr.getClient(URLShortenerSolrCoreInitializer.NAME);
+    }
+
+    private void warn(String message, Exception e)
+    {
+        this.logger.warn("{}. Root cause: [{}]", message, ExceptionUtils.getRootCauseMessage(e));
+    }
+}
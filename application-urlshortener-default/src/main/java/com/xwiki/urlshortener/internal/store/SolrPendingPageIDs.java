@@ -0,0 +1,335 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Remembers the page IDs recently added to or removed from the documents, until Solr has indexed the change, so that
+ * the cross-wiki Solr lookups of {@link XObjectURLShortenerStore} see their own writes: a short URL opened right after
+ * its creation is found, and a new page ID can't collide with one that is not indexed yet. The pending page IDs are
+ * looked up in Solr in the background every {@value #CONFIRMATION_INTERVAL} ms and forgotten as soon as Solr returns
+ * the expected document (or no document, for a removed page ID). The pending page IDs are looked up together, with
+ * one Solr query for at most {@value #BATCH_SIZE} page IDs, as superadmin so that the documents the guest user can't
+ * see are confirmed too. The interval doubles, up to {@value #MAX_CONFIRMATION_INTERVAL} ms, while no page ID is
+ * confirmed, e.g. while Solr is down or reindexing. Those that are never confirmed are forgotten after
+ * {@value #MAX_AGE} ms.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = SolrPendingPageIDs.class)
+@Singleton
+public class SolrPendingPageIDs implements Initializable, Disposable
+{
+    /**
+     * The Solr field holding the page IDs.
+     */
+    static final String SOLR_PAGE_ID_FIELD = "property.URLShortener.Code.URLShortenerClass.pageID";
+
+    /**
+     * Keeps only the documents in their default locale, since the translations are indexed with the objects of their
+     * default locale document.
+     */
+    static final String SOLR_DEFAULT_LOCALE_FILTER = "doclocale:\"\"";
+
+    /**
+     * The fields needed to resolve the document references.
+     */
+    static final String SOLR_REFERENCE_FIELDS = "type,wiki,spaces,name,locale,doclocale";
+
+    private static final long CONFIRMATION_INTERVAL = 1000;
+
+    private static final long MAX_CONFIRMATION_INTERVAL = 60000;
+
+    /**
+     * The maximum number of page IDs looked up with a single query, below the limit of Solr on the number of clauses.
+     */
+    static final int BATCH_SIZE = 100;
+
+    private static final long MAX_AGE = 600000;
+
+    /**
+     * A page ID that is not indexed by Solr yet.
+     *
+     * @version $Id$
+     * @since 1.3.5
+     */
+    public static final class PendingPageID
+    {
+        private final DocumentReference documentReference;
+
+        private final long expiry;
+
+        PendingPageID(DocumentReference documentReference, long expiry)
+        {
+            this.documentReference = documentReference;
+            this.expiry = expiry;
+        }
+
+        /**
+         * @return the document the page ID was added to, or {@code null} if the page ID was removed
+         */
+        public DocumentReference getDocumentReference()
+        {
+            return this.documentReference;
+        }
+    }
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private DocumentReferenceResolver<SolrDocument> solrDocumentReferenceResolver;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, PendingPageID> pendingPageIDs = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService confirmer;
+
+    /**
+     * Only used by the thread of the confirmer.
+     */
+    private long confirmationInterval = CONFIRMATION_INTERVAL;
+
+    @Override
+    public void initialize()
+    {
+        this.confirmer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "URL Shortener Solr confirmation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.confirmer.schedule(this::confirmAndReschedule, CONFIRMATION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.confirmer != null) {
+            this.confirmer.shutdownNow();
+        }
+    }
+
+    /**
+     * Remembers that the given page ID was added to the given document.
+     *
+     * @param pageID the added page ID
+     * @param documentReference the document holding the page ID
+     */
+    public void put(String pageID, DocumentReference documentReference)
+    {
+        this.pendingPageIDs.put(pageID, new PendingPageID(documentReference, System.currentTimeMillis() + MAX_AGE));
+    }
+
+    /**
+     * Remembers that the given page ID was removed from its document.
+     *
+     * @param pageID the removed page ID
+     */
+    public void remove(String pageID)
+    {
+        put(pageID, null);
+    }
+
+    /**
+     * @param pageID a page ID
+     * @return the change of the given page ID that is not indexed by Solr yet, or {@code null} if Solr is up to date
+     */
+    public PendingPageID get(String pageID)
+    {
+        PendingPageID pendingPageID = this.pendingPageIDs.get(pageID);
+        if (pendingPageID != null && pendingPageID.expiry < System.currentTimeMillis()) {
+            this.pendingPageIDs.remove(pageID, pendingPageID);
+            return null;
+        }
+        return pendingPageID;
+    }
+
+    /**
+     * @return the number of page IDs that are not indexed by Solr yet
+     */
+    public int size()
+    {
+        return this.pendingPageIDs.size();
+    }
+
+    private void confirmAndReschedule()
+    {
+        try {
+            this.confirmationInterval = confirm() ? CONFIRMATION_INTERVAL
+                : Math.min(this.confirmationInterval * 2, MAX_CONFIRMATION_INTERVAL);
+        } finally {
+            try {
+                this.confirmer.schedule(this::confirmAndReschedule, this.confirmationInterval, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Disposed.
+            }
+        }
+    }
+
+    /**
+     * Looks up the pending page IDs in Solr, and forgets those whose change is indexed.
+     *
+     * @return {@code false} if some page IDs are pending and none of them could be forgotten, {@code true} otherwise
+     */
+    boolean confirm()
+    {
+        if (this.pendingPageIDs.isEmpty()) {
+            return true;
+        }
+
+        int size = this.pendingPageIDs.size();
+        try {
+            // The Solr queries need an XWiki context, with a user allowed to see all the documents.
+            this.executionContextManager.initialize(new ExecutionContext());
+            XWikiContext xcontext = this.xcontextProvider.get();
+            if (xcontext == null) {
+                // No request was handled yet.
+                return false;
+            }
+            xcontext.setUserReference(
+                new DocumentReference(xcontext.getMainXWiki(), XWiki.SYSTEM_SPACE, XWikiRightService.SUPERADMIN_USER));
+
+            long now = System.currentTimeMillis();
+            // Sorted, so that the same page IDs make the same query.
+            List<String> pageIDs = this.pendingPageIDs.keySet().stream().sorted().collect(Collectors.toList());
+            for (int i = 0; i < pageIDs.size(); i += BATCH_SIZE) {
+                List<String> batch = pageIDs.subList(i, Math.min(i + BATCH_SIZE, pageIDs.size()));
+                Map<String, DocumentReference> indexed = getIndexedDocumentReferences(batch);
+                for (String pageID : batch) {
+                    PendingPageID pendingPageID = this.pendingPageIDs.get(pageID);
+                    if (pendingPageID != null && (pendingPageID.expiry < now
+                        || Objects.equals(pendingPageID.documentReference, indexed.get(pageID))))
+                    {
+                        this.pendingPageIDs.remove(pageID, pendingPageID);
+                    }
+                }
+            }
+        } catch (QueryException | ExecutionContextException e) {
+            // The page IDs stay pending until the next attempt.
+            this.logger.debug("Failed to confirm the pending page IDs. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            this.execution.removeContext();
+        }
+        return this.pendingPageIDs.size() < size;
+    }
+
+    /**
+     * @param queryManager the query manager
+     * @param pageID a page ID
+     * @return the query of the search core returning the default locale document holding the given page ID, with only
+     *     the fields needed to resolve its reference
+     * @throws QueryException if the query can't be created
+     */
+    static Query createPageIDQuery(QueryManager queryManager, String pageID) throws QueryException
+    {
+        return queryManager.createQuery(SOLR_PAGE_ID_FIELD + ':' + ClientUtils.escapeQueryChars(pageID), "solr")
+            .bindValue("fq", SOLR_DEFAULT_LOCALE_FILTER).bindValue("fl", SOLR_REFERENCE_FIELDS).setLimit(1);
+    }
+
+    /**
+     * @param queryManager the query manager
+     * @param pageIDs at most {@value #BATCH_SIZE} page IDs
+     * @return the query of the search core returning the default locale documents holding the given page IDs, with
+     *     only the fields needed to resolve their reference and their page IDs
+     * @throws QueryException if the query can't be created
+     */
+    static Query createPageIDsQuery(QueryManager queryManager, List<String> pageIDs) throws QueryException
+    {
+        List<String> terms = new ArrayList<>(pageIDs.size());
+        pageIDs.forEach(pageID -> terms.add(ClientUtils.escapeQueryChars(pageID)));
+        return queryManager.createQuery(
+            String.format("%s:(%s)", SOLR_PAGE_ID_FIELD, String.join(" OR ", terms)), "solr")
+            .bindValue("fq", SOLR_DEFAULT_LOCALE_FILTER)
+            .bindValue("fl", SOLR_REFERENCE_FIELDS + ',' + SOLR_PAGE_ID_FIELD).setLimit(pageIDs.size());
+    }
+
+    private Map<String, DocumentReference> getIndexedDocumentReferences(List<String> pageIDs) throws QueryException
+    {
+        Query query = createPageIDsQuery(this.queryManager, pageIDs);
+        SolrDocumentList results = ((QueryResponse) query.execute().get(0)).getResults();
+
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        for (SolrDocument result : results) {
+            // Ignore the locale of the resolved reference.
+            DocumentReference documentReference = this.solrDocumentReferenceResolver.resolve(result);
+            documentReference =
+                new DocumentReference(documentReference.getName(), documentReference.getLastSpaceReference());
+            Collection<Object> values = result.getFieldValues(SOLR_PAGE_ID_FIELD);
+            if (values != null) {
+                for (Object value : values) {
+                    documentReferences.putIfAbsent(String.valueOf(value), documentReference);
+                }
+            }
+        }
+        return documentReferences;
+    }
+}
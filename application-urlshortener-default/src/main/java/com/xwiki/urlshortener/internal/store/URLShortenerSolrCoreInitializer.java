@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.search.solr.AbstractSolrCoreInitializer;
+import org.xwiki.search.solr.SolrException;
+
+/**
+ * Creates the Solr core dedicated to the page IDs, separate from the search core so that the page ID lookups don't
+ * compete with the full text searches and don't wait for the reindexing of the content. The unique key of the core is
+ * the page ID, and each document holds the reference of the XWiki document the page ID redirects to, and its wiki.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Named(URLShortenerSolrCoreInitializer.NAME)
+@Singleton
+public class URLShortenerSolrCoreInitializer extends AbstractSolrCoreInitializer
+{
+    /**
+     * The name of the core.
+     */
+    public static final String NAME = "urlshortener";
+
+    /**
+     * The field holding the serialized reference of the document the page ID redirects to.
+     */
+    public static final String FIELD_REFERENCE = "reference";
+
+    /**
+     * The field holding the wiki of the document the page ID redirects to.
+     */
+    public static final String FIELD_WIKI = "wiki";
+
+    private static final long VERSION = 151000000;
+
+    @Override
+    public String getCoreName()
+    {
+        return NAME;
+    }
+
+    @Override
+    protected long getVersion()
+    {
+        return VERSION;
+    }
+
+    @Override
+    protected void createSchema() throws SolrException
+    {
+        addStringField(FIELD_REFERENCE, false, false);
+        addStringField(FIELD_WIKI, false, false);
+    }
+
+    @Override
+    protected void migrateSchema(long cversion)
+    {
+        // The schema didn't change yet.
+    }
+}
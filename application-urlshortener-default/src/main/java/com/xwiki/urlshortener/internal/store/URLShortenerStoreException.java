@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+/**
+ * Unchecked exception thrown when the configured {@link com.xwiki.urlshortener.URLShortenerStore} can't be provided,
+ * since {@link javax.inject.Provider#get()} can't throw a checked exception.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class URLShortenerStoreException extends RuntimeException
+{
+    /**
+     * Class ID for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message the detail message for this exception.
+     * @param throwable the cause for this exception or null if none exists.
+     */
+    public URLShortenerStoreException(String message, Throwable throwable)
+    {
+        super(message, throwable);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+/**
+ * Provides the {@link URLShortenerStore} selected by the {@code urlshortener.store} configuration property. An unknown
+ * store fails the initialization, while the store itself is looked up lazily since some stores depend on this
+ * provider. The stores keeping the page IDs on the cluster node, {@code mapped} and {@code memory}, also fail the
+ * initialization when the remote observation is enabled, since the page IDs created on a node would be missing from
+ * the store of the other nodes.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+public class URLShortenerStoreProvider implements Provider<URLShortenerStore>, Initializable
+{
+    private static final String LOOKUP_ERROR = "Failed to lookup the URL shortener store [%s].";
+
+    private static final Set<String> LOCAL_STORES = Set.of(MappedURLShortenerStore.HINT, MemoryURLShortenerStore.HINT);
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private RemoteObservationManagerConfiguration remoteObservationConfiguration;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        String hint = this.configuration.getStoreHint();
+        if (!this.componentManagerProvider.get().hasComponent(URLShortenerStore.class, hint)) {
+            throw new InitializationException(String.format(LOOKUP_ERROR, hint));
+        }
+        if (LOCAL_STORES.contains(hint) && this.remoteObservationConfiguration.isEnabled()) {
+            throw new InitializationException(String.format("The URL shortener store [%s] keeps the page IDs on each "
+                + "cluster node and can't be used when the remote observation is enabled.", hint));
+        }
+    }
+
+    @Override
+    public URLShortenerStore get()
+    {
+        String hint = this.configuration.getStoreHint();
+        try {
+            return this.componentManagerProvider.get().getInstance(URLShortenerStore.class, hint);
+        } catch (ComponentLookupException e) {
+            throw new URLShortenerStoreException(String.format(LOOKUP_ERROR, hint), e);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.hibernate.jdbc.ReturningWork;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xwiki.urlshortener.internal.URLShortenerUpdateExecutor;
+
+/**
+ * Indexes the page ID properties of the URL Shortener objects in the database of each wiki, and looks them up with a
+ * native query served by that index, for {@link XObjectURLShortenerStore}.
+ * <p>
+ * The index is the schema migration of this extension. It's versioned by {@link #VERSION}, recorded in the name of the
+ * index rather than in the database version of the platform, so that it's created on any wiki missing it, whatever the
+ * version of the platform that created or migrated the wiki. The migration runs in the background on the update pool,
+ * the first time the page IDs of a wiki are looked up, and the HQL lookup is used until it's done. Only the values of
+ * the page ID properties, or a prefix of them, are indexed, so the long string properties can't exceed the maximum
+ * size of an index entry:
+ * <ul>
+ * <li>PostgreSQL: a partial index on the first characters of the {@code pageID} properties</li>
+ * <li>MySQL and MariaDB: a prefix index on the name and the value of the string properties</li>
+ * <li>the other databases are left unchanged and keep the HQL lookup</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component(roles = XObjectPageIDIndex.class)
+@Singleton
+public class XObjectPageIDIndex
+{
+    /**
+     * The version of the index, to increase when its definition changes.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The name of the index.
+     */
+    static final String INDEX = "xws_urlshortener_pageid_v" + VERSION;
+
+    private static final String TABLE = "xwikistrings";
+
+    // The object name is the full name of its document.
+    private static final String LOOKUP = "select obj.xwo_name from xwikiobjects obj "
+        + "join xwikistrings prop on prop.xws_id = obj.xwo_id "
+        + "where prop.xws_name = 'pageID' and prop.xws_value = ? "
+        + "and obj.xwo_classname = 'URLShortener.Code.URLShortenerClass'";
+
+    /**
+     * The databases, with the definition of the index and the lookup it serves.
+     */
+    enum Database
+    {
+        /**
+         * The index is partial, so the lookup has to repeat its condition on the property name, and the same expression
+         * on the value.
+         */
+        POSTGRESQL("create index %s on xwikistrings (left(xws_value, 64)) where xws_name = 'pageID'",
+            LOOKUP + " and left(prop.xws_value, 64) = left(?, 64)"),
+
+        /**
+         * The full values are too long to be indexed with a multi-byte charset.
+         */
+        MYSQL("create index %s on xwikistrings (xws_name(16), xws_value(64))", LOOKUP),
+
+        /**
+         * No index is created.
+         */
+        UNSUPPORTED(null, null),
+
+        /**
+         * The migration of the wiki is running.
+         */
+        PENDING(null, null);
+
+        private final String index;
+
+        private final String lookup;
+
+        Database(String index, String lookup)
+        {
+            this.index = index;
+            this.lookup = lookup;
+        }
+
+        String getLookup()
+        {
+            return this.lookup;
+        }
+    }
+
+    @Inject
+    @Named("hibernate")
+    private XWikiStoreInterface hibernateStore;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private URLShortenerUpdateExecutor updateExecutor;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The migrated wikis.
+     */
+    private final Map<String, Database> databases = new ConcurrentHashMap<>();
+
+    /**
+     * @param wiki the wiki, the main wiki if empty
+     * @return {@code true} if the page IDs of the wiki can be looked up with {@link #get(String, String)}, otherwise
+     *     the migration of the wiki is started in the background, if needed
+     */
+    public boolean isReady(String wiki)
+    {
+        String wikiId = getWikiId(wiki);
+        Database database = this.databases.putIfAbsent(wikiId, Database.PENDING);
+        if (database == null) {
+            this.updateExecutor.submit(() -> migrate(wikiId)).whenComplete((result, error) -> {
+                if (error != null) {
+                    // The next lookup tries again.
+                    this.databases.remove(wikiId, Database.PENDING);
+                    this.logger.warn("Failed to index the URL Shortener page IDs of the wiki [{}]. Root cause: [{}]",
+                        wikiId, ExceptionUtils.getRootCauseMessage(error));
+                } else {
+                    this.databases.put(wikiId, result);
+                }
+            });
+            return false;
+        }
+        return database.getLookup() != null;
+    }
+
+    /**
+     * Looks up a page ID in a wiki that is {@link #isReady(String) ready}.
+     *
+     * @param wiki the wiki, the main wiki if empty
+     * @param pageID the page ID
+     * @return the full name of the document holding the page ID, in a list that is empty if the page ID is not found
+     * @throws XWikiException if the lookup fails
+     */
+    public List<String> get(String wiki, String pageID) throws XWikiException
+    {
+        String wikiId = getWikiId(wiki);
+        String lookup = this.databases.get(wikiId).getLookup();
+        return execute(wikiId, false, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(lookup)) {
+                for (int index = 1; index <= StringUtils.countMatches(lookup, '?'); index++) {
+                    statement.setString(index, pageID);
+                }
+                statement.setMaxRows(1);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? List.of(resultSet.getString(1)) : List.of();
+                }
+            }
+        });
+    }
+
+    private Database migrate(String wiki) throws XWikiException
+    {
+        return execute(wiki, true, connection -> migrate(wiki, connection));
+    }
+
+    /**
+     * Creates the index in the database of the current wiki, unless it already exists.
+     *
+     * @param wiki the current wiki
+     * @param connection the connection to the database of the current wiki
+     * @return the database of the wiki
+     * @throws SQLException if the index can't be created
+     */
+    Database migrate(String wiki, Connection connection) throws SQLException
+    {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String product = metaData.getDatabaseProductName().toLowerCase(Locale.ROOT);
+        Database database;
+        if (product.contains("postgresql")) {
+            database = Database.POSTGRESQL;
+        } else if (product.contains("mysql") || product.contains("mariadb")) {
+            database = Database.MYSQL;
+        } else {
+            return Database.UNSUPPORTED;
+        }
+        if (!indexExists(connection, metaData)) {
+            this.logger.info("Indexing the URL Shortener page IDs of the wiki [{}].", wiki);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(String.format(database.index, INDEX));
+            }
+        }
+        return database;
+    }
+
+    private boolean indexExists(Connection connection, DatabaseMetaData metaData) throws SQLException
+    {
+        // Databases don't agree on the case of the table and index names stored in their metadata. The catalog and the
+        // schema restrict the lookup to the database of the current wiki.
+        for (String table : new String[] {TABLE, TABLE.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet indexes =
+                metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(), table, false, true)) {
+                while (indexes.next()) {
+                    if (INDEX.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private <T> T execute(String wiki, boolean write, ReturningWork<T> work) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        XWikiHibernateBaseStore store = (XWikiHibernateBaseStore) this.hibernateStore;
+        String currentWiki = xcontext.getWikiId();
+        xcontext.setWikiId(wiki);
+        try {
+            XWikiHibernateBaseStore.HibernateCallback<T> callback = session -> session.doReturningWork(work);
+            return write ? store.executeWrite(xcontext, callback) : store.executeRead(xcontext, callback);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    private String getWikiId(String wiki)
+    {
+        return StringUtils.isEmpty(wiki) ? this.xcontextProvider.get().getMainXWiki() : wiki;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+import static com.xwiki.urlshortener.internal.DefaultURLShortenerManager.URL_SHORTENER_CLASS_REFERENCE;
+
+/**
+ * Stores the page IDs in {@code URLShortener.Code.URLShortenerClass} objects attached to the documents they point to.
+ * The page IDs are looked up in the requested wiki with a native query served by the index of
+ * {@link XObjectPageIDIndex}, or with an HQL query on the databases it doesn't support. The page IDs that are not found
+ * there are looked up either with Solr in all the wikis, or with a database query on all the other wikis in parallel,
+ * depending on {@link URLShortenerConfiguration#getLookupFallback()}. The database fallback stays correct while Solr is
+ * lagging behind or reindexing, and the Solr fallback sees the page IDs changed by this store before Solr indexes them
+ * thanks to {@link SolrPendingPageIDs}. Solr is queried through the dedicated {@link SolrPageIDIndex} once it is
+ * filled, and through the search core until then. This is the default store.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@Component
+@Singleton
+@Named(XObjectURLShortenerStore.HINT)
+public class XObjectURLShortenerStore implements URLShortenerStore
+{
+    /**
+     * The hint of this store.
+     */
+    public static final String HINT = "xobject";
+
+    private static final String PAGE_ID = "pageID";
+
+    private static final String DATABASE_FALLBACK = "database";
+
+    // The object name is the full name of its document.
+    private static final String PAGE_ID_QUERY_FROM = " from BaseObject as obj, StringProperty as prop "
+        + "where obj.className = 'URLShortener.Code.URLShortenerClass' and prop.id.id = obj.id "
+        + "and prop.id.name = 'pageID' and prop.value ";
+
+    // Stay below the limit of the databases on the number of values of an in clause.
+    private static final int BATCH_SIZE = 500;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private DocumentReferenceResolver<SolrDocument> solrDocumentReferenceResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private URLShortenerConfiguration configuration;
+
+    @Inject
+    private ParallelWikiLookup parallelWikiLookup;
+
+    @Inject
+    private SolrPendingPageIDs solrPendingPageIDs;
+
+    @Inject
+    private SolrPageIDIndex solrPageIDIndex;
+
+    @Inject
+    private XObjectPageIDIndex pageIDIndex;
+
+    @Override
+    public void put(String pageID, DocumentReference documentReference) throws URLShortenerException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext).clone();
+            BaseObject object = document.newXObject(URL_SHORTENER_CLASS_REFERENCE, xcontext);
+            object.set(PAGE_ID, pageID, xcontext);
+            save(document, "Created URL Shortener.", xcontext);
+            this.solrPendingPageIDs.put(pageID, documentReference);
+        } catch (XWikiException e) {
+            throw new URLShortenerException(
+                String.format("Failed to store the page ID [%s] of the document [%s].", pageID, documentReference), e);
+        }
+    }
+
+    @Override
+    public DocumentReference get(String wiki, String pageID) throws URLShortenerException
+    {
+        try {
+            DocumentReference documentReference = null;
+
+            List<?> results = getURLShortenerObjectWithID(pageID, wiki);
+
+            if (!results.isEmpty()) {
+                documentReference = documentReferenceResolver.resolve((String) results.get(0));
+                if (wiki != null && !wiki.isEmpty()) {
+                    documentReference =
+                        documentReference.setWikiReference(new WikiReference(wiki));
+                }
+            } else {
+                // If no short url is found on the given subwiki, try to find the pageID in all subwikis.
+                documentReference = getOnAnyWiki(pageID, StringUtils.defaultString(wiki));
+            }
+            return documentReference;
+        } catch (QueryException e) {
+            throw new URLShortenerException(
+                String.format("Failed to find the xwiki page identified by id [%s] and wiki [%s].", pageID, wiki), e);
+        }
+    }
+
+    @Override
+    public Map<String, DocumentReference> getAll(String wiki, Collection<String> pageIDs)
+        throws URLShortenerException
+    {
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        List<String> distinctPageIDs = new ArrayList<>(new LinkedHashSet<>(pageIDs));
+        try {
+            for (int i = 0; i < distinctPageIDs.size(); i += BATCH_SIZE) {
+                List<String> batch = distinctPageIDs.subList(i, Math.min(i + BATCH_SIZE, distinctPageIDs.size()));
+                for (Object result : getURLShortenerObjectsWithIDs(batch, wiki)) {
+                    Object[] row = (Object[]) result;
+                    DocumentReference documentReference = documentReferenceResolver.resolve((String) row[0]);
+                    if (wiki != null && !wiki.isEmpty()) {
+                        documentReference = documentReference.setWikiReference(new WikiReference(wiki));
+                    }
+                    documentReferences.putIfAbsent((String) row[1], documentReference);
+                }
+            }
+            // Same as get, the page IDs that are not on the given wiki are looked up on all the wikis, but at once.
+            List<String> missingPageIDs = distinctPageIDs.stream()
+                .filter(pageID -> !documentReferences.containsKey(pageID)).collect(Collectors.toList());
+            if (!missingPageIDs.isEmpty()) {
+                documentReferences.putAll(getAllOnAnyWiki(missingPageIDs, StringUtils.defaultString(wiki)));
+            }
+            return documentReferences;
+        } catch (QueryException e) {
+            throw new URLShortenerException(
+                String.format("Failed to find the xwiki pages identified by ids %s and wiki [%s].", pageIDs, wiki), e);
+        }
+    }
+
+    @Override
+    public String getPageID(DocumentReference documentReference) throws URLShortenerException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+            BaseObject object = document.getXObject(URL_SHORTENER_CLASS_REFERENCE);
+            return object != null ? object.getStringValue(PAGE_ID) : null;
+        } catch (XWikiException e) {
+            throw new URLShortenerException(String.format("Failed to retrieve the document [%s].", documentReference),
+                e);
+        }
+    }
+
+    @Override
+    public boolean exists(String pageID) throws URLShortenerException
+    {
+        try {
+            return getOnAnyWiki(pageID, null) != null;
+        } catch (QueryException e) {
+            throw new URLShortenerException(String.format("Failed to look up the page ID [%s].", pageID), e);
+        }
+    }
+
+    @Override
+    public boolean replace(DocumentReference documentReference, String oldPageID, String newPageID)
+        throws URLShortenerException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+            List<BaseObject> oldObjects = getObjects(document, oldPageID);
+            if (oldObjects.isEmpty()) {
+                return false;
+            }
+            oldObjects.get(0).setStringValue(PAGE_ID, newPageID);
+            save(document, "Regenerate short URL.", xcontext);
+            this.solrPendingPageIDs.put(newPageID, documentReference);
+            this.solrPendingPageIDs.remove(oldPageID);
+            return true;
+        } catch (XWikiException e) {
+            throw new URLShortenerException(
+                String.format("Failed to regenerate the short url for the document [%s].", documentReference), e);
+        }
+    }
+
+    @Override
+    public boolean delete(String pageID) throws URLShortenerException
+    {
+        DocumentReference documentReference = get("", pageID);
+        if (documentReference == null) {
+            return false;
+        }
+
+        XWikiContext xcontext = this.xcontextProvider.get();
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext).clone();
+            List<BaseObject> objects = getObjects(document, pageID);
+            objects.forEach(document::removeXObject);
+            if (!objects.isEmpty()) {
+                save(document, "Removed URL Shortener.", xcontext);
+                this.solrPendingPageIDs.remove(pageID);
+            }
+            return !objects.isEmpty();
+        } catch (XWikiException e) {
+            throw new URLShortenerException(
+                String.format("Failed to remove the page ID [%s] from the document [%s].", pageID, documentReference),
+                e);
+        }
+    }
+
+    @Override
+    public void scan(BiConsumer<String, DocumentReference> visitor) throws URLShortenerException
+    {
+        try {
+            for (String wiki : this.wikiDescriptorManager.getAllIds()) {
+                scan(wiki, visitor);
+            }
+        } catch (WikiManagerException e) {
+            throw new URLShortenerException("Failed to scan the page IDs.", e);
+        }
+    }
+
+    @Override
+    public void scan(String wiki, BiConsumer<String, DocumentReference> visitor) throws URLShortenerException
+    {
+        String statement = "select doc.fullName, obj.pageID from Document as doc, "
+            + "doc.object('URLShortener.Code.URLShortenerClass') as obj";
+        try {
+            WikiReference wikiReference = new WikiReference(wiki);
+            List<Object[]> results = this.queryManager.createQuery(statement, Query.XWQL).setWiki(wiki).execute();
+            for (Object[] result : results) {
+                visitor.accept((String) result[1],
+                    this.documentReferenceResolver.resolve((String) result[0], wikiReference));
+            }
+        } catch (QueryException e) {
+            throw new URLShortenerException(String.format("Failed to scan the page IDs of the wiki [%s].", wiki), e);
+        }
+    }
+
+    private List<BaseObject> getObjects(XWikiDocument document, String pageID)
+    {
+        return document.getXObjects(URL_SHORTENER_CLASS_REFERENCE).stream().filter(Objects::nonNull)
+            .filter(object -> pageID.equals(object.getStringValue(PAGE_ID))).collect(Collectors.toList());
+    }
+
+    private void save(XWikiDocument document, String comment, XWikiContext xcontext) throws XWikiException
+    {
+        // Don't create a history entry.
+        document.setMetaDataDirty(false);
+        document.setContentDirty(false);
+        xcontext.getWiki().saveDocument(document, comment, true, xcontext);
+    }
+
+    private DocumentReference getOnAnyWiki(String pageID, String skippedWiki)
+        throws QueryException, URLShortenerException
+    {
+        if (DATABASE_FALLBACK.equals(this.configuration.getLookupFallback())) {
+            return getOnAnyWikiDatabase(pageID, skippedWiki);
+        }
+
+        // Solr doesn't see the recent changes yet.
+        SolrPendingPageIDs.PendingPageID pendingPageID = this.solrPendingPageIDs.get(pageID);
+        if (pendingPageID != null) {
+            return pendingPageID.getDocumentReference();
+        }
+        // The dedicated core doesn't depend on the indexing of the content, and isn't ready while it misses changes,
+        // since it's filled again when a change fails to be indexed, so its misses are final.
+        if (this.solrPageIDIndex.isReady()) {
+            return this.solrPageIDIndex.get(pageID);
+        }
+
+        List<?> results = getURLShortenerObjectWithIDOnAnyWiki(pageID);
+        return results.isEmpty() ? null : documentReferenceResolver.resolve((String) results.get(0));
+    }
+
+    private Map<String, DocumentReference> getAllOnAnyWiki(List<String> pageIDs, String skippedWiki)
+        throws QueryException, URLShortenerException
+    {
+        if (DATABASE_FALLBACK.equals(this.configuration.getLookupFallback())) {
+            return getAllOnAnyWikiDatabase(pageIDs, skippedWiki);
+        }
+
+        // Same as getOnAnyWiki: the pending page IDs, then the dedicated core, or the search core until it's ready.
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        List<String> indexedPageIDs = new ArrayList<>();
+        for (String pageID : pageIDs) {
+            SolrPendingPageIDs.PendingPageID pendingPageID = this.solrPendingPageIDs.get(pageID);
+            if (pendingPageID == null) {
+                indexedPageIDs.add(pageID);
+            } else if (pendingPageID.getDocumentReference() != null) {
+                documentReferences.put(pageID, pendingPageID.getDocumentReference());
+            }
+        }
+        if (this.solrPageIDIndex.isReady()) {
+            if (!indexedPageIDs.isEmpty()) {
+                documentReferences.putAll(this.solrPageIDIndex.getAll(indexedPageIDs));
+            }
+            return documentReferences;
+        }
+        for (int i = 0; i < indexedPageIDs.size(); i += SolrPendingPageIDs.BATCH_SIZE) {
+            documentReferences.putAll(getURLShortenerObjectsWithIDsOnAnyWiki(
+                indexedPageIDs.subList(i, Math.min(i + SolrPendingPageIDs.BATCH_SIZE, indexedPageIDs.size()))));
+        }
+        return documentReferences;
+    }
+
+    private Map<String, DocumentReference> getAllOnAnyWikiDatabase(List<String> pageIDs, String skippedWiki)
+        throws URLShortenerException
+    {
+        Map<String, DocumentReference> documentReferences = new ConcurrentHashMap<>();
+        // The lookup of a wiki returns a result, stopping the others, once all the page IDs are found.
+        this.parallelWikiLookup.findFirst(getOtherWikis(skippedWiki), wiki -> {
+            WikiReference wikiReference = new WikiReference(wiki);
+            for (int i = 0; i < pageIDs.size(); i += BATCH_SIZE) {
+                List<String> batch = pageIDs.subList(i, Math.min(i + BATCH_SIZE, pageIDs.size()));
+                for (Object result : getURLShortenerObjectsWithIDs(batch, wiki)) {
+                    Object[] row = (Object[]) result;
+                    documentReferences.putIfAbsent((String) row[1],
+                        this.documentReferenceResolver.resolve((String) row[0], wikiReference));
+                }
+            }
+            return documentReferences.size() < pageIDs.size() ? null : Boolean.TRUE;
+        });
+        // The lookups that are still running don't change the returned page IDs.
+        return new HashMap<>(documentReferences);
+    }
+
+    private List<String> getOtherWikis(String skippedWiki) throws URLShortenerException
+    {
+        List<String> wikis;
+        try {
+            wikis = new ArrayList<>(this.wikiDescriptorManager.getAllIds());
+        } catch (WikiManagerException e) {
+            throw new URLShortenerException("Failed to list the wikis.", e);
+        }
+        if (skippedWiki != null) {
+            // An empty wiki means the main wiki.
+            wikis.remove(skippedWiki.isEmpty() ? this.wikiDescriptorManager.getMainWikiId() : skippedWiki);
+        }
+        return wikis;
+    }
+
+    private DocumentReference getOnAnyWikiDatabase(String pageID, String skippedWiki) throws URLShortenerException
+    {
+        return this.parallelWikiLookup.findFirst(getOtherWikis(skippedWiki), wiki -> {
+            List<?> results = getURLShortenerObjectWithID(pageID, wiki);
+            return results.isEmpty() ? null
+                : this.documentReferenceResolver.resolve((String) results.get(0), new WikiReference(wiki));
+        });
+    }
+
+    private List<?> getURLShortenerObjectWithIDOnAnyWiki(String pageId)
+        throws QueryException
+    {
+        // Note that the query is very slow when solr is reindexing.
+        // Also, for newly added URLShortener objects, SOLR takes some moments to update with its value. So this SOLR
+        // query might also return null if it didn't finish updating the index, hence SolrPendingPageIDs.
+        // Only the default locale documents, since the translations are indexed with the same objects.
+        Query query = SolrPendingPageIDs.createPageIDQuery(this.queryManager, pageId);
+        QueryResponse response = (QueryResponse) query.execute().get(0);
+        List<?> queryResults = response.getResults().stream()
+            .map((SolrDocument doc) -> serializer.serialize(solrDocumentReferenceResolver.resolve(doc)))
+            .collect(Collectors.toList());
+        return queryResults;
+    }
+
+    private Map<String, DocumentReference> getURLShortenerObjectsWithIDsOnAnyWiki(List<String> pageIDs)
+        throws QueryException
+    {
+        // Same Solr lookup as getURLShortenerObjectWithIDOnAnyWiki, for several page IDs at once.
+        Query query = SolrPendingPageIDs.createPageIDsQuery(this.queryManager, pageIDs);
+        QueryResponse response = (QueryResponse) query.execute().get(0);
+        Set<String> requestedPageIDs = new HashSet<>(pageIDs);
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        for (SolrDocument result : response.getResults()) {
+            DocumentReference documentReference = this.documentReferenceResolver
+                .resolve(this.serializer.serialize(this.solrDocumentReferenceResolver.resolve(result)));
+            Collection<Object> values = result.getFieldValues(SolrPendingPageIDs.SOLR_PAGE_ID_FIELD);
+            if (values != null) {
+                for (Object value : values) {
+                    if (requestedPageIDs.contains(value)) {
+                        documentReferences.putIfAbsent((String) value, documentReference);
+                    }
+                }
+            }
+        }
+        return documentReferences;
+    }
+
+    private List<?> getURLShortenerObjectWithID(String pageId, String wikiName) throws QueryException
+    {
+        if (this.pageIDIndex.isReady(wikiName)) {
+            try {
+                return this.pageIDIndex.get(wikiName, pageId);
+            } catch (XWikiException e) {
+                throw new QueryException(
+                    String.format("Failed to look up the page ID [%s] in the wiki [%s].", pageId, wikiName), null, e);
+            }
+        }
+        // Until the page IDs of the wiki are indexed, lookup on the object and string property tables, without joining
+        // the documents: the objects are found with the index of their class name, and their string property with its
+        // primary key.
+        String statement = "select obj.name" + PAGE_ID_QUERY_FROM + "= :pageID";
+        Query query =
+            this.queryManager.createQuery(statement, Query.HQL).bindValue(PAGE_ID, pageId)
+                .setLimit(1);
+        // An empty wiki means we are on the main wiki, which doesn't need to be set on the query because it's the
+        // default.
+        if (wikiName != null && !wikiName.isEmpty()) {
+            query = query.setWiki(wikiName);
+        }
+        return query.execute();
+    }
+
+    private List<?> getURLShortenerObjectsWithIDs(List<String> pageIDs, String wikiName) throws QueryException
+    {
+        // Same indexed lookup as getURLShortenerObjectWithID, for several page IDs at once.
+        String statement = "select obj.name, prop.value" + PAGE_ID_QUERY_FROM + "in (:pageIDs)";
+        Query query = this.queryManager.createQuery(statement, Query.HQL).bindValue("pageIDs", pageIDs);
+        if (wikiName != null && !wikiName.isEmpty()) {
+            query = query.setWiki(wikiName);
+        }
+        return query.execute();
+    }
+}
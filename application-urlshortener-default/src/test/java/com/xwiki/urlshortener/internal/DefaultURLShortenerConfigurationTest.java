@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+
+import javax.inject.Named;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultURLShortenerConfiguration}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class DefaultURLShortenerConfigurationTest
+{
+    @InjectMockComponents
+    private DefaultURLShortenerConfiguration configuration;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configurationSource;
+
+    @Test
+    void getRedirectStatus()
+    {
+        when(this.configurationSource.getProperty("urlshortener.redirect.status", 302)).thenReturn(308);
+
+        assertEquals(308, this.configuration.getRedirectStatus());
+    }
+
+    @Test
+    void getRedirectStatusWithUnsupportedValue()
+    {
+        when(this.configurationSource.getProperty("urlshortener.redirect.status", 302)).thenReturn(200);
+
+        assertEquals(302, this.configuration.getRedirectStatus());
+    }
+
+    @Test
+    void getRedirectMaxAge()
+    {
+        when(this.configurationSource.getProperty("urlshortener.redirect.maxAge", 0)).thenReturn(-5);
+
+        assertEquals(0, this.configuration.getRedirectMaxAge());
+    }
+
+    @Test
+    void getPreviewUserAgentsDefault()
+    {
+        when(this.configurationSource.getProperty(eq("urlshortener.preview.userAgents"), any(List.class)))
+            .thenAnswer(invocation -> invocation.getArgument(1));
+
+        List<String> userAgents = this.configuration.getPreviewUserAgents();
+
+        assertTrue(matches(userAgents, "Mattermost-Bot/1.1"));
+        assertTrue(matches(userAgents, "Slackbot-LinkExpanding 1.0 (+https://api.slack.com/robots)"));
+        // The desktop apps of the chat applications are real users.
+        assertFalse(matches(userAgents, "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like "
+            + "Gecko) Mattermost/5.5.0 Chrome/118.0.5993.159 Electron/27.1.3 Safari/537.36"));
+    }
+
+    private boolean matches(List<String> previewUserAgents, String userAgent)
+    {
+        return previewUserAgents.stream().anyMatch(fragment -> StringUtils.containsIgnoreCase(userAgent, fragment));
+    }
+
+    @Test
+    void getLookupBounds()
+    {
+        when(this.configurationSource.getProperty("urlshortener.lookup.poolSize", 8)).thenReturn(0);
+        when(this.configurationSource.getProperty("urlshortener.lookup.queueSize", 100)).thenReturn(50);
+        when(this.configurationSource.getProperty("urlshortener.lookup.timeout", 10000L)).thenReturn(2000L);
+        when(this.configurationSource.getProperty("urlshortener.lookup.shards", 100)).thenReturn(-1);
+        when(this.configurationSource.getProperty("urlshortener.lookup.fallback", "solr")).thenReturn("database");
+        when(this.configurationSource.getProperty("urlshortener.lookup.fallbackParallelism", 4)).thenReturn(0);
+
+        assertEquals(1, this.configuration.getLookupPoolSize());
+        assertEquals(50, this.configuration.getLookupQueueSize());
+        assertEquals(2000L, this.configuration.getLookupTimeout());
+        assertEquals(0, this.configuration.getLookupShardLimit());
+        assertEquals("database", this.configuration.getLookupFallback());
+        assertEquals(1, this.configuration.getLookupFallbackParallelism());
+    }
+}
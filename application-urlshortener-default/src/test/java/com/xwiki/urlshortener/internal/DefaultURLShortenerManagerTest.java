@@ -19,45 +19,40 @@
  */
 package com.xwiki.urlshortener.internal;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
-import javax.inject.Named;
 import javax.inject.Provider;
 
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
-import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.search.solr.internal.api.SolrIndexer;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
 import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
 
-import static com.xwiki.urlshortener.internal.DefaultURLShortenerManager.URL_SHORTENER_CLASS_REFERENCE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -65,67 +60,61 @@ import static org.mockito.Mockito.when;
 @ComponentTest
 public class DefaultURLShortenerManagerTest
 {
-    public static final String PAGE_ID = "pageID";
-
     private static final String PAGE_ID_VALUE = "12345";
 
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "A", "B");
+
     @InjectMockComponents
     private DefaultURLShortenerManager urlShortenerManager;
 
     @MockComponent
-    private QueryManager queryManager;
+    private Provider<URLShortenerStore> storeProvider;
 
     @MockComponent
-    private Provider<XWikiContext> xcontextProvider;
+    private URLShortenerReverseIndex reverseIndex;
 
     @MockComponent
-    @Named("current")
-    private DocumentReferenceResolver<String> documentReferenceResolver;
+    private URLShortenerLookupIndex lookupIndex;
 
-    @Mock
-    private Query query;
-
-    @Mock
-    private QueryResponse queryResponse;
+    @MockComponent
+    private PageIDGenerator pageIDGenerator;
 
-    @Mock
-    private XWikiContext xcontext;
+    @MockComponent
+    private URLShortenerLookupExecutor lookupExecutor;
 
-    @Mock
-    private XWiki xwiki;
+    @MockComponent
+    private URLShortenerUpdateExecutor updateExecutor;
 
-    @Mock
-    private XWikiDocument document;
+    @MockComponent
+    private Provider<SolrIndexer> solrIndexerProvider;
 
-    @Mock
-    private BaseObject object;
+    @MockComponent
+    private ObservationManager observationManager;
 
     @Mock
-    private Query solrQuery;
+    private URLShortenerStore store;
 
     @Mock
-    private QueryResponse solrResponse;
+    private SolrIndexer solrIndexer;
 
     @BeforeEach
-    void beforeEach() throws QueryException
+    void beforeEach() throws Exception
     {
-        when(xcontextProvider.get()).thenReturn(xcontext);
-        when(xcontext.getWiki()).thenReturn(xwiki);
-        when(document.clone()).thenReturn(document);
+        when(lookupExecutor.submit(any())).thenAnswer(this::runInline);
+        when(updateExecutor.submit(any())).thenAnswer(this::runInline);
+        when(storeProvider.get()).thenReturn(store);
+        when(solrIndexerProvider.get()).thenReturn(solrIndexer);
+        when(pageIDGenerator.generate()).thenReturn("a1b2c");
     }
 
     @Test
     void createShortenedURLWithObject() throws Exception
     {
-        DocumentReference currentDocRef = new DocumentReference("wiki", "A", "B");
-        // The URLShortenerClass object already exists
-        when(xwiki.getDocument(currentDocRef, xcontext)).thenReturn(document);
-        BaseObject urlObject = new BaseObject();
-        urlObject.setStringValue(PAGE_ID, PAGE_ID_VALUE);
-        when(document.getXObject(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(urlObject);
-
-        String result = this.urlShortenerManager.createShortenedURL(currentDocRef);
-        assertEquals(PAGE_ID_VALUE, result);
+        // The page ID already exists.
+        when(store.getPageID(DOCUMENT_REFERENCE)).thenReturn(PAGE_ID_VALUE);
+
+        assertEquals(PAGE_ID_VALUE, this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
+        verify(store, never()).put(anyString(), any());
     }
 
     /**
@@ -134,61 +123,145 @@ public class DefaultURLShortenerManagerTest
     @Test
     void createShortenedURLWithoutObject() throws Exception
     {
-        DocumentReference currentDocRef = new DocumentReference("wiki", "A", "B");
-        when(xwiki.getDocument(currentDocRef, xcontext)).thenReturn(document);
+        // The first generated ID is already used.
+        when(pageIDGenerator.generate()).thenReturn(PAGE_ID_VALUE, "a1b2c");
+        when(store.exists(PAGE_ID_VALUE)).thenReturn(true);
+
+        assertEquals("a1b2c", this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
+        verify(store).put("a1b2c", DOCUMENT_REFERENCE);
+        verify(reverseIndex).put(DOCUMENT_REFERENCE, "a1b2c");
+        verify(lookupIndex).put("a1b2c", DOCUMENT_REFERENCE);
+        // The document isn't saved by this store, so it needs to be reindexed with its page ID.
+        verify(solrIndexer).index(DOCUMENT_REFERENCE, false);
+        // The other cluster nodes are told about the new page ID.
+        verify(observationManager).notify(pageIDUpdated("a1b2c"), eq(DOCUMENT_REFERENCE), isNull());
+    }
 
-        // The URLShortenerClass object does not exist.
-        when(document.getXObject(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(null);
-        when(document.newXObject(URL_SHORTENER_CLASS_REFERENCE, xcontext)).thenReturn(object);
+    @Test
+    void createShortenedURLWhenReindexFails() throws Exception
+    {
+        doThrow(new IllegalStateException("Solr down")).when(solrIndexer).index(DOCUMENT_REFERENCE, false);
 
-        // There is no other document with the generated ID.
-        when(queryManager.createQuery(any(String.class), eq("solr"))).thenReturn(solrQuery);
-        when(solrQuery.setLimit(anyInt())).thenReturn(solrQuery);
-        when(solrQuery.execute()).thenReturn(List.of(solrResponse));
-        when(solrResponse.getResults()).thenReturn(new SolrDocumentList());
+        // The page ID is still given, and added to the search results the next time the document is indexed.
+        assertEquals("a1b2c", this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
+        verify(store).put("a1b2c", DOCUMENT_REFERENCE);
+        verify(reverseIndex).put(DOCUMENT_REFERENCE, "a1b2c");
+    }
+
+    @Test
+    void createShortenedURLWithXObjectStore() throws Exception
+    {
+        XObjectURLShortenerStore xobjectStore = mock(XObjectURLShortenerStore.class);
+        when(storeProvider.get()).thenReturn(xobjectStore);
+
+        assertEquals("a1b2c", this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
+        verify(xobjectStore).put("a1b2c", DOCUMENT_REFERENCE);
+        // The saved document is reindexed with its objects, and the other cluster nodes are told by its events.
+        verify(solrIndexerProvider, never()).get();
+        verify(observationManager, never()).notify(any(), any(), any());
+    }
 
-        this.urlShortenerManager.createShortenedURL(currentDocRef);
+    @Test
+    void createShortenedURLWithKnownPageID() throws Exception
+    {
+        when(reverseIndex.get(DOCUMENT_REFERENCE)).thenReturn(PAGE_ID_VALUE);
+
+        assertEquals(PAGE_ID_VALUE, this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
+        verify(storeProvider, never()).get();
+    }
+
+    @Test
+    void getPageID()
+    {
+        assertNull(this.urlShortenerManager.getPageID(DOCUMENT_REFERENCE));
+
+        // Only the page IDs known without loading the document.
+        when(reverseIndex.get(DOCUMENT_REFERENCE)).thenReturn(PAGE_ID_VALUE);
+        assertEquals(PAGE_ID_VALUE, this.urlShortenerManager.getPageID(DOCUMENT_REFERENCE));
+        verify(storeProvider, never()).get();
+    }
+
+    @Test
+    void createShortenedURLWithException() throws Exception
+    {
+        when(store.getPageID(DOCUMENT_REFERENCE)).thenThrow(new URLShortenerException("Error"));
 
-        verify(xwiki).saveDocument(document, "Created URL Shortener.", true, xcontext);
-        verify(object).set(eq(PAGE_ID), any(String.class), eq(xcontext));
+        assertThrows(URLShortenerException.class,
+            () -> this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
     }
 
     @Test
     void regenerateShortenedURLWithObject() throws Exception
     {
-        DocumentReference currentDocRef = new DocumentReference("wiki", "A", "B");
-        when(xwiki.getDocument(currentDocRef, xcontext)).thenReturn(document);
-        when(this.queryManager.createQuery(any(), eq("solr"))).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        when(query.execute()).thenReturn(Collections.singletonList(queryResponse));
-        when(queryResponse.getResults()).thenReturn(new SolrDocumentList());
-
-        // The URLShortenerClass object already exists
-        BaseObject urlObject = new BaseObject();
-        urlObject.setStringValue(PAGE_ID, PAGE_ID_VALUE);
-        when(document.getXObjects(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(List.of(urlObject));
-
-        String response = this.urlShortenerManager.regenerateShortenedURL(currentDocRef, PAGE_ID_VALUE);
-        assertNotEquals(PAGE_ID_VALUE, response);
-        verify(xwiki).saveDocument(eq(document), anyString(), anyBoolean(), eq(xcontext));
+        when(store.replace(DOCUMENT_REFERENCE, PAGE_ID_VALUE, "a1b2c")).thenReturn(true);
+
+        assertEquals("a1b2c", this.urlShortenerManager.regenerateShortenedURL(DOCUMENT_REFERENCE, PAGE_ID_VALUE));
+        verify(reverseIndex).put(DOCUMENT_REFERENCE, "a1b2c");
+        verify(lookupIndex).remove(PAGE_ID_VALUE, DOCUMENT_REFERENCE);
+        verify(lookupIndex).put("a1b2c", DOCUMENT_REFERENCE);
+        verify(solrIndexer).index(DOCUMENT_REFERENCE, false);
+        verify(observationManager).notify(pageIDUpdated(PAGE_ID_VALUE), isNull(), eq(DOCUMENT_REFERENCE));
+        verify(observationManager).notify(pageIDUpdated("a1b2c"), eq(DOCUMENT_REFERENCE), isNull());
     }
 
     /**
      * Test the case where there isn't any URLShortener object, so no update is made.
      */
     @Test
-    void regenerateShortenedURLWithoutObject() throws Exception
+    void regenerateShortenedURLWithoutObject()
     {
-        DocumentReference currentDocRef = new DocumentReference("wiki", "A", "B");
-        when(xwiki.getDocument(currentDocRef, xcontext)).thenReturn(document);
+        assertThrows(IllegalStateException.class, () -> {
+            this.urlShortenerManager.regenerateShortenedURL(DOCUMENT_REFERENCE, PAGE_ID_VALUE);
+        });
+    }
 
-        // The URLShortenerClass object does not exist.
-        when(document.getXObjects(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(List.of());
+    @Test
+    void createShortenedURLAsync() throws Exception
+    {
+        when(store.getPageID(DOCUMENT_REFERENCE)).thenReturn(PAGE_ID_VALUE);
 
-        assertThrows(IllegalStateException.class, () -> {
-            this.urlShortenerManager.regenerateShortenedURL(currentDocRef, PAGE_ID_VALUE);
+        assertEquals(PAGE_ID_VALUE, this.urlShortenerManager.createShortenedURLAsync(DOCUMENT_REFERENCE).get());
+        verify(updateExecutor).submit(any());
+    }
+
+    @Test
+    void createShortenedURLAsyncConcurrently() throws Exception
+    {
+        when(pageIDGenerator.generate()).thenReturn(PAGE_ID_VALUE, "a1b2c");
+        CompletableFuture<Object> creation = new CompletableFuture<>();
+        Callable<?>[] create = new Callable<?>[1];
+        when(updateExecutor.submit(any())).thenAnswer(invocation -> {
+            create[0] = invocation.getArgument(0);
+            return creation;
         });
-        verify(xwiki, never()).saveDocument(eq(document), anyString(), anyBoolean(), eq(xcontext));
+
+        // E.g. the eager creation of a new page and its first short URL request.
+        CompletableFuture<String> first = this.urlShortenerManager.createShortenedURLAsync(DOCUMENT_REFERENCE);
+        CompletableFuture<String> second = this.urlShortenerManager.createShortenedURLAsync(DOCUMENT_REFERENCE);
+        // A caller giving up doesn't cancel the creation for the others.
+        second.cancel(false);
+        CompletableFuture<String> third = this.urlShortenerManager.createShortenedURLAsync(DOCUMENT_REFERENCE);
+        creation.complete(create[0].call());
+
+        assertEquals(PAGE_ID_VALUE, first.get());
+        assertEquals(PAGE_ID_VALUE, third.get());
+        verify(updateExecutor).submit(any());
+        verify(store).put(PAGE_ID_VALUE, DOCUMENT_REFERENCE);
+
+        // The next creation starts again, once the previous one is done.
+        when(updateExecutor.submit(any())).thenAnswer(this::runInline);
+        when(reverseIndex.get(DOCUMENT_REFERENCE)).thenReturn(PAGE_ID_VALUE);
+        assertEquals(PAGE_ID_VALUE, this.urlShortenerManager.createShortenedURL(DOCUMENT_REFERENCE));
+        verify(store).put(anyString(), any());
+    }
+
+    @Test
+    void regenerateShortenedURLAsyncWithoutObject() throws Exception
+    {
+        ExecutionException exception = assertThrows(ExecutionException.class,
+            () -> this.urlShortenerManager.regenerateShortenedURLAsync(DOCUMENT_REFERENCE, PAGE_ID_VALUE).get());
+        assertEquals(URLShortenerException.class, exception.getCause().getClass());
+        assertEquals(IllegalStateException.class, exception.getCause().getCause().getClass());
     }
 
     /**
@@ -197,96 +270,55 @@ public class DefaultURLShortenerManagerTest
     @Test
     void regenerateShortenedURLAndExceptionIsThrown() throws Exception
     {
-        DocumentReference currentDocRef = new DocumentReference("wiki", "A", "B");
-        when(xwiki.getDocument(currentDocRef, xcontext)).thenThrow(XWikiException.class);
+        when(store.replace(DOCUMENT_REFERENCE, PAGE_ID_VALUE, "a1b2c")).thenThrow(new URLShortenerException("Error"));
 
         assertThrows(URLShortenerException.class, () -> {
-            this.urlShortenerManager.regenerateShortenedURL(currentDocRef, PAGE_ID_VALUE);
+            this.urlShortenerManager.regenerateShortenedURL(DOCUMENT_REFERENCE, PAGE_ID_VALUE);
         });
-        verify(xwiki, never()).saveDocument(eq(document), anyString(), anyBoolean(), eq(xcontext));
     }
 
-    /**
-     * Test the case when a document reference is retrieved from a subwiki.
-     */
     @Test
-    void getDocumentReferenceWithQueryResultsOnSubWiki() throws Exception
+    void getDocumentReference() throws Exception
     {
-        String pageId = "123";
-        String wikiId = "test";
-
-        when(queryManager.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(query);
-        when(query.bindValue(PAGE_ID, pageId)).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        when(query.setWiki(wikiId)).thenReturn(query);
-        String docRef = "test.Space.Page";
-        DocumentReference documentReference = new DocumentReference(wikiId, "Space", "Page");
-        when(documentReferenceResolver.resolve(docRef)).thenReturn(documentReference);
-        when(query.execute()).thenReturn(Collections.singletonList(docRef));
-
-        DocumentReference result = this.urlShortenerManager.getDocumentReference(wikiId, pageId);
-        assertEquals(documentReference, result);
-
-        verify(queryManager, never()).createQuery(any(), eq("solr"));
-        verify(query).setWiki(eq(wikiId));
+        DocumentReference documentReference = new DocumentReference("test", "Space", "Page");
+        when(store.get("test", "123")).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.urlShortenerManager.getDocumentReference("test", "123"));
     }
 
-    /**
-     * Test the case when a document reference is retrieved from the main wiki.
-     */
     @Test
-    void getDocumentReferenceWithQueryResultsOnMainWiki() throws Exception
+    void getDocumentReferenceFromLookupIndex() throws Exception
     {
-        String pageId = "123";
-        String wikiId = "";
-
-        when(queryManager.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(query);
-        when(query.bindValue(URLShortenerResourceReferenceHandler.PAGE_ID, pageId)).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        String docRef = "wiki.Space.Page";
-        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
-        when(documentReferenceResolver.resolve(docRef)).thenReturn(documentReference);
-        when(query.execute()).thenReturn(Collections.singletonList(docRef));
-
-        DocumentReference result = this.urlShortenerManager.getDocumentReference(wikiId, pageId);
-        assertEquals(documentReference, result);
-
-        verify(queryManager, never()).createQuery(any(), eq("solr"));
-        verify(query, never()).setWiki(eq(wikiId));
+        DocumentReference documentReference = new DocumentReference("test", "Space", "Page");
+        when(lookupIndex.get("test", "123")).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.urlShortenerManager.getDocumentReference("test", "123"));
+        verify(storeProvider, never()).get();
     }
 
-    /**
-     * Test the case when a document reference is retrieved using solr.
-     */
     @Test
-    void getDocumentReferenceWithSolrQueryResults() throws Exception
+    void getDocumentReferenceAsync() throws Exception
     {
-        String pageId = "123";
-        String wikiId = "test";
-
-        when(queryManager.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(query);
-        when(query.bindValue(URLShortenerResourceReferenceHandler.PAGE_ID, pageId)).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        when(query.setWiki(wikiId)).thenReturn(query);
-        when(query.execute()).thenReturn(Collections.emptyList());
-        when(queryManager.createQuery(any(String.class), eq("solr"))).thenReturn(solrQuery);
-        String docRef = "test.Space.Page";
-        DocumentReference documentReference = new DocumentReference(wikiId, "Space", "Page");
-        when(documentReferenceResolver.resolve(docRef)).thenReturn(documentReference);
-
-        SolrDocumentList solrDocumentList = new SolrDocumentList();
-        SolrDocument solrDocument = Mockito.mock(SolrDocument.class);
-        when(solrDocument.toString()).thenReturn(docRef);
-        solrDocumentList.add(new SolrDocument());
-        when(solrQuery.setLimit(anyInt())).thenReturn(solrQuery);
-        when(solrQuery.execute()).thenReturn(List.of(solrResponse));
-        when(solrResponse.getResults()).thenReturn(solrDocumentList);
-        when(documentReferenceResolver.resolve(any())).thenReturn(documentReference);
-
-        DocumentReference result = this.urlShortenerManager.getDocumentReference(wikiId, pageId);
-        assertEquals(documentReference, result);
-        verify(queryManager).createQuery(any(), eq(Query.XWQL));
-        verify(queryManager).createQuery(any(), eq("solr"));
+        DocumentReference documentReference = new DocumentReference("test", "Space", "Page");
+        when(store.get("test", "123")).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.urlShortenerManager.getDocumentReferenceAsync("test", "123").get());
+        verify(lookupExecutor).submit(any());
+    }
+
+    @Test
+    void getDocumentReferences() throws Exception
+    {
+        DocumentReference indexedReference = new DocumentReference("test", "Space", "Indexed");
+        DocumentReference storedReference = new DocumentReference("test", "Space", "Stored");
+        when(lookupIndex.get("test", "123")).thenReturn(indexedReference);
+        when(store.getAll("test", List.of("456", "789"))).thenReturn(Map.of("456", storedReference));
+
+        // The ids missing from the lookup index are looked up in the store all at once.
+        assertEquals(Map.of("123", indexedReference, "456", storedReference),
+            this.urlShortenerManager.getDocumentReferences("test", List.of("123", "456", "789")));
+        verify(lookupExecutor).submit(any());
+        verify(store, never()).get(anyString(), anyString());
     }
 
     /**
@@ -295,23 +327,7 @@ public class DefaultURLShortenerManagerTest
     @Test
     void getDocumentReferenceWithoutQueryResults() throws Exception
     {
-        String pageId = "123";
-        String wikiId = "test";
-
-        when(queryManager.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(query);
-        when(query.bindValue(URLShortenerResourceReferenceHandler.PAGE_ID, pageId)).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        when(query.setWiki(wikiId)).thenReturn(query);
-        when(query.execute()).thenReturn(Collections.emptyList());
-        when(queryManager.createQuery(any(String.class), eq("solr"))).thenReturn(solrQuery);
-        when(solrQuery.setLimit(anyInt())).thenReturn(solrQuery);
-        when(solrQuery.execute()).thenReturn(List.of(solrResponse));
-        when(solrResponse.getResults()).thenReturn(new SolrDocumentList());
-
-        DocumentReference result = urlShortenerManager.getDocumentReference(wikiId, pageId);
-        assertNull(result);
-        verify(queryManager).createQuery(any(), eq(Query.XWQL));
-        verify(queryManager).createQuery(any(), eq("solr"));
+        assertNull(urlShortenerManager.getDocumentReference("test", "123"));
     }
 
     /**
@@ -320,14 +336,24 @@ public class DefaultURLShortenerManagerTest
     @Test
     void getDocumentReferenceWithException() throws Exception
     {
-        String pageId = "123";
-        String wikiId = "test";
-
-        when(queryManager.createQuery(any(String.class), eq(Query.XWQL))).thenThrow(
-            new QueryException("Error", null, null));
+        when(store.get("test", "123")).thenThrow(new URLShortenerException("Error"));
 
         assertThrows(URLShortenerException.class, () -> {
-            urlShortenerManager.getDocumentReference(wikiId, pageId);
+            urlShortenerManager.getDocumentReference("test", "123");
         });
     }
+
+    private static Event pageIDUpdated(String pageID)
+    {
+        return argThat(event -> pageID.equals(((PageIDUpdatedEvent) event).getPageID()));
+    }
+
+    private CompletableFuture<Object> runInline(InvocationOnMock invocation)
+    {
+        try {
+            return CompletableFuture.completedFuture(invocation.<Callable<?>>getArgument(0).call());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -19,6 +19,10 @@
  */
 package com.xwiki.urlshortener.internal;
 
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
 import javax.inject.Provider;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -27,9 +31,14 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.ObservationContext;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
 import org.xwiki.refactoring.event.DocumentCopiedEvent;
+import org.xwiki.refactoring.event.DocumentRenamedEvent;
 import org.xwiki.refactoring.event.DocumentRenamingEvent;
 import org.xwiki.test.LogLevel;
 import org.xwiki.test.junit5.LogCaptureExtension;
@@ -42,9 +51,19 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerManager;
+import com.xwiki.urlshortener.URLShortenerStore;
 import com.xwiki.urlshortener.internal.rest.DefaultURLShortenerResource;
+import com.xwiki.urlshortener.internal.store.XObjectURLShortenerStore;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -61,6 +80,27 @@ public class URLShortenerEventListenerTest
     @MockComponent
     private ObservationContext observationContext;
 
+    @MockComponent
+    private URLShortenerReverseIndex reverseIndex;
+
+    @MockComponent
+    private Provider<URLShortenerManager> urlShortenerManagerProvider;
+
+    @MockComponent
+    private Provider<URLShortenerStore> storeProvider;
+
+    @MockComponent
+    private URLShortenerRedirectCache redirectCache;
+
+    @MockComponent
+    private URLShortenerLookupIndex lookupIndex;
+
+    @MockComponent
+    private Provider<ObservationManager> observationManagerProvider;
+
+    @MockComponent
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
 
@@ -73,12 +113,24 @@ public class URLShortenerEventListenerTest
     @Mock
     private XWikiDocument targetDoc;
 
+    @Mock
+    private URLShortenerManager urlShortenerManager;
+
+    @Mock
+    private URLShortenerStore store;
+
+    @Mock
+    private ObservationManager observationManager;
+
     @BeforeEach
     void beforeEach()
     {
         when(xcontextProvider.get()).thenReturn(xcontext);
         when(xcontext.getWiki()).thenReturn(xwiki);
         when(observationContext.isIn(new DocumentRenamingEvent())).thenReturn(false);
+        when(urlShortenerManagerProvider.get()).thenReturn(urlShortenerManager);
+        when(storeProvider.get()).thenReturn(store);
+        when(observationManagerProvider.get()).thenReturn(observationManager);
     }
 
     @Test
@@ -104,12 +156,14 @@ public class URLShortenerEventListenerTest
         DocumentCopiedEvent event = new DocumentCopiedEvent(sourceRef, targetRef);
 
         when(xwiki.getDocument(targetRef, xcontext)).thenReturn(targetDoc);
+        when(targetDoc.getDocumentReference()).thenReturn(targetRef);
         when(targetDoc.getXObject(DefaultURLShortenerResource.URL_SHORTENER_CLASS_REFERENCE)).thenReturn(
             new BaseObject());
 
         eventListener.onEvent(event, null, null);
 
         verify(targetDoc, times(1)).removeXObjects(DefaultURLShortenerResource.URL_SHORTENER_CLASS_REFERENCE);
+        verify(this.reverseIndex).remove(targetRef);
     }
 
     @Test
@@ -161,4 +215,183 @@ public class URLShortenerEventListenerTest
             + "when associating a shortened URL for the new document. Root cause: [XWikiException: Error number 0"
             + " in 0]", logCapture.getMessage(0));
     }
+
+    @Test
+    void onEventCreatedInEagerSpace() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", List.of("Space", "Child"), "Test1");
+        DocumentCreatedEvent event = new DocumentCreatedEvent(docRef);
+
+        when(xwiki.getSpacePreference(URLShortenerEventListener.EAGER_PREFERENCE, docRef.getLastSpaceReference(), "0",
+            xcontext)).thenReturn("1");
+        when(xwiki.getDocument(docRef, xcontext)).thenReturn(targetDoc);
+        when(urlShortenerManager.createShortenedURLAsync(docRef))
+            .thenReturn(CompletableFuture.failedFuture(new Exception("Queue full")));
+
+        eventListener.onEvent(event, null, null);
+
+        verify(urlShortenerManager).createShortenedURLAsync(docRef);
+        assertEquals("Failed to create the shortened URL of the new document [wiki:Space.Child.Test1]. "
+            + "Root cause: [Exception: Queue full]", logCapture.getMessage(0));
+    }
+
+    @Test
+    void onEventCreatedInOtherSpace() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Other", "Test1");
+        DocumentCreatedEvent event = new DocumentCreatedEvent(docRef);
+
+        when(xwiki.getSpacePreference(URLShortenerEventListener.EAGER_PREFERENCE, docRef.getLastSpaceReference(), "0",
+            xcontext)).thenReturn("0");
+        when(xwiki.getDocument(docRef, xcontext)).thenReturn(targetDoc);
+
+        eventListener.onEvent(event, null, null);
+
+        verify(urlShortenerManager, never()).createShortenedURLAsync(any());
+    }
+
+    @Test
+    void onEventCreatedInEagerSpaceOnOtherNode() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        when(remoteObservationManagerContext.isRemoteState()).thenReturn(true);
+        when(xwiki.getSpacePreference(URLShortenerEventListener.EAGER_PREFERENCE, docRef.getLastSpaceReference(), "0",
+            xcontext)).thenReturn("1");
+        when(xwiki.getDocument(docRef, xcontext)).thenReturn(targetDoc);
+
+        eventListener.onEvent(new DocumentCreatedEvent(docRef), null, null);
+
+        verify(urlShortenerManager, never()).createShortenedURLAsync(any());
+    }
+
+    @Test
+    void onEventRenamedInEagerSpace() throws Exception
+    {
+        DocumentReference sourceRef = new DocumentReference("wiki", "Space", "Test1");
+        DocumentReference targetRef = new DocumentReference("wiki", "Space", "Test2");
+        when(observationContext.isIn(new DocumentRenamingEvent())).thenReturn(true);
+        when(xwiki.getSpacePreference(URLShortenerEventListener.EAGER_PREFERENCE, targetRef.getLastSpaceReference(),
+            "0", xcontext)).thenReturn("1");
+        when(xwiki.getDocument(targetRef, xcontext)).thenReturn(targetDoc);
+
+        eventListener.onEvent(new DocumentCreatedEvent(targetRef), null, null);
+        eventListener.onEvent(new DocumentCopiedEvent(sourceRef, targetRef), null, null);
+
+        verify(urlShortenerManager, never()).createShortenedURLAsync(any());
+    }
+
+    @Test
+    void onEventDeleted() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        when(store.getPageID(docRef)).thenReturn("abc", "def", null);
+        when(store.delete(any())).thenReturn(true);
+
+        eventListener.onEvent(new DocumentDeletedEvent(docRef), null, null);
+
+        verify(store).delete("abc");
+        verify(store).delete("def");
+        verify(store, never()).put(any(), any());
+        verify(redirectCache).remove("abc");
+        verify(redirectCache).remove("def");
+        verify(lookupIndex).remove("abc", docRef);
+        verify(lookupIndex).remove("def", docRef);
+        verify(reverseIndex).remove(docRef);
+        verify(observationManager).notify(pageIDUpdated("abc"), isNull(), eq(docRef));
+        verify(observationManager).notify(pageIDUpdated("def"), isNull(), eq(docRef));
+    }
+
+    @Test
+    void onEventDeletedOnOtherNode() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        when(remoteObservationManagerContext.isRemoteState()).thenReturn(true);
+
+        eventListener.onEvent(new DocumentDeletedEvent(docRef), null, null);
+
+        // The node where the document was deleted updates the shared store.
+        verify(store, never()).getPageID(any());
+        verify(observationManager, never()).notify(any(), any(), any());
+    }
+
+    @Test
+    void onEventDeletedWhileRenaming() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        when(observationContext.isIn(new DocumentRenamingEvent())).thenReturn(true);
+
+        eventListener.onEvent(new DocumentDeletedEvent(docRef), null, null);
+
+        verify(store, never()).getPageID(any());
+        verify(reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onEventDeletedTranslation() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        XWikiDocument translation = mock(XWikiDocument.class);
+        XWikiDocument source = mock(XWikiDocument.class);
+        when(source.getOriginalDocument()).thenReturn(translation);
+        when(translation.isTranslation()).thenReturn(true);
+
+        eventListener.onEvent(new DocumentDeletedEvent(new DocumentReference(docRef, Locale.FRENCH)), null, null);
+        eventListener.onEvent(new DocumentDeletedEvent(docRef), source, null);
+
+        // The page IDs point to the default locale document, which is still there.
+        verify(store, never()).getPageID(any());
+        verify(store, never()).delete(any());
+        verify(lookupIndex, never()).remove(any(), any());
+        verify(reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onEventDeletedWithXObjectStore() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        XObjectURLShortenerStore xobjectStore = mock(XObjectURLShortenerStore.class);
+        when(storeProvider.get()).thenReturn(xobjectStore);
+
+        eventListener.onEvent(new DocumentDeletedEvent(docRef), null, null);
+
+        verify(xobjectStore, never()).delete(any());
+        verify(reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onEventDeletedWithError() throws Exception
+    {
+        DocumentReference docRef = new DocumentReference("wiki", "Space", "Test1");
+        when(store.getPageID(docRef)).thenThrow(new URLShortenerException("Store down"));
+
+        eventListener.onEvent(new DocumentDeletedEvent(docRef), null, null);
+
+        verify(reverseIndex, never()).remove(any());
+        assertEquals("Failed to update the page IDs of the document [wiki:Space.Test1]. "
+            + "Root cause: [URLShortenerException: Store down]", logCapture.getMessage(0));
+    }
+
+    @Test
+    void onEventRenamedDocument() throws Exception
+    {
+        DocumentReference sourceRef = new DocumentReference("wiki", "Space", "Test1");
+        DocumentReference targetRef = new DocumentReference("wiki", "Space", "Test2");
+        when(store.getPageID(sourceRef)).thenReturn("abc", null);
+        when(store.delete("abc")).thenReturn(true);
+
+        eventListener.onEvent(new DocumentRenamedEvent(sourceRef, targetRef), null, null);
+
+        verify(store).put("abc", targetRef);
+        verify(redirectCache).remove("abc");
+        verify(lookupIndex).remove("abc", sourceRef);
+        verify(lookupIndex).put("abc", targetRef);
+        verify(reverseIndex).put(targetRef, "abc");
+        verify(reverseIndex).remove(sourceRef);
+        verify(observationManager).notify(pageIDUpdated("abc"), eq(targetRef), eq(sourceRef));
+    }
+
+    private static Event pageIDUpdated(String pageID)
+    {
+        return argThat(event -> pageID.equals(((PageIDUpdatedEvent) event).getPageID()));
+    }
 }
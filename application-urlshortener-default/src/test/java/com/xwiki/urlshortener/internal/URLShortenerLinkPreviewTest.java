@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerLinkPreview}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerLinkPreviewTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "Space", "Page");
+
+    private static final String KEY = "wiki:Space.Page";
+
+    @InjectMockComponents
+    private URLShortenerLinkPreview linkPreview;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    @Mock
+    private Cache<String> cache;
+
+    @Mock
+    private XWikiContext xcontext;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiDocument document;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.cacheManager.<String>createNewCache(any())).thenReturn(this.cache);
+    }
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(this.serializer.serialize(DOCUMENT_REFERENCE)).thenReturn(KEY);
+        when(this.xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getDocument(DOCUMENT_REFERENCE, this.xcontext)).thenReturn(this.document);
+    }
+
+    @Test
+    void getHTML() throws Exception
+    {
+        when(this.document.getRenderedTitle(Syntax.PLAIN_1_0, this.xcontext)).thenReturn("Title & <b>");
+        when(this.document.getExternalURL("view", this.xcontext)).thenReturn("http://host/xwiki/bin/view/Space/Page");
+        when(this.document.getXDOM()).thenReturn(new XDOM(List.of(new ParagraphBlock(
+            List.of(new WordBlock("Hello"), new SpaceBlock(), new WordBlock("world"), new SpecialSymbolBlock('!')))),
+            new ParagraphBlock(List.of(new WordBlock("Ignored")))));
+
+        String html = this.linkPreview.getHTML(DOCUMENT_REFERENCE);
+
+        assertEquals("<!DOCTYPE html><html><head><meta charset=\"UTF-8\"/><title>Title &#38; &#60;b&#62;</title>"
+            + "<meta property=\"og:type\" content=\"website\"/>"
+            + "<meta property=\"og:title\" content=\"Title &#38; &#60;b&#62;\"/>"
+            + "<meta property=\"og:description\" content=\"Hello world!\"/>"
+            + "<meta property=\"og:url\" content=\"http://host/xwiki/bin/view/Space/Page\"/>"
+            + "<link rel=\"canonical\" href=\"http://host/xwiki/bin/view/Space/Page\"/>"
+            + "</head><body><a href=\"http://host/xwiki/bin/view/Space/Page\">Title &#38; &#60;b&#62;</a>"
+            + "</body></html>",
+            html);
+        verify(this.cache).set(KEY, html);
+    }
+
+    @Test
+    void getHTMLFromCache() throws Exception
+    {
+        when(this.cache.get(KEY)).thenReturn("<html/>");
+
+        assertEquals("<html/>", this.linkPreview.getHTML(DOCUMENT_REFERENCE));
+        verify(this.xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    void remove()
+    {
+        this.linkPreview.remove(DOCUMENT_REFERENCE);
+
+        verify(this.cache).remove(KEY);
+    }
+}
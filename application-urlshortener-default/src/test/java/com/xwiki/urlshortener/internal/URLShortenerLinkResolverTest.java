@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.urlshortener.URLShortenerManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerLinkResolver}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerLinkResolverTest
+{
+    private static final DocumentReference PAGE = new DocumentReference("xwiki", "Space", "Page");
+
+    private static final DocumentReference SUBWIKI_PAGE = new DocumentReference("sub", "Space", "Page");
+
+    @InjectMockComponents
+    private URLShortenerLinkResolver linkResolver;
+
+    @MockComponent
+    private URLShortenerManager urlShortenerManager;
+
+    @MockComponent
+    private ContextualAuthorizationManager contextualAuthorizationManager;
+
+    @MockComponent
+    private Execution execution;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+        when(this.urlShortenerManager.getDocumentReferences("", List.of("abc12", "gh56k")))
+            .thenReturn(Map.of("abc12", PAGE));
+        when(this.urlShortenerManager.getDocumentReferences("sub", List.of("def34")))
+            .thenReturn(Map.of("def34", SUBWIKI_PAGE));
+        when(this.contextualAuthorizationManager.hasAccess(Right.VIEW, PAGE)).thenReturn(true);
+        when(this.contextualAuthorizationManager.hasAccess(Right.VIEW, SUBWIKI_PAGE)).thenReturn(true);
+    }
+
+    @Test
+    void parse()
+    {
+        assertEquals(new URLShortenerResourceReference("", "abc12"), this.linkResolver.parse("abc12"));
+        assertEquals(new URLShortenerResourceReference("sub", "def34"), this.linkResolver.parse("sub/def34"));
+    }
+
+    @Test
+    void resolvePreResolvedLinks() throws Exception
+    {
+        this.linkResolver.preResolve(List.of(this.linkResolver.parse("abc12"), this.linkResolver.parse("sub/def34"),
+            this.linkResolver.parse("gh56k")));
+        // The links that are already known are not looked up again.
+        this.linkResolver.preResolve(List.of(this.linkResolver.parse("abc12")));
+
+        assertEquals(PAGE, this.linkResolver.resolve(this.linkResolver.parse("abc12")));
+        assertEquals(SUBWIKI_PAGE, this.linkResolver.resolve(this.linkResolver.parse("sub/def34")));
+        // The unknown page IDs are remembered too.
+        assertNull(this.linkResolver.resolve(this.linkResolver.parse("gh56k")));
+        assertEquals(PAGE, this.linkResolver.resolve(this.linkResolver.parse("abc12")));
+
+        verify(this.urlShortenerManager, times(2)).getDocumentReferences(anyString(), any());
+    }
+
+    @Test
+    void resolveLinkNotPreResolved() throws Exception
+    {
+        DocumentReference otherPage = new DocumentReference("xwiki", "Space", "Other");
+        when(this.urlShortenerManager.getDocumentReferences("", List.of("xyz89")))
+            .thenReturn(Map.of("xyz89", otherPage));
+        when(this.contextualAuthorizationManager.hasAccess(Right.VIEW, otherPage)).thenReturn(true);
+
+        // E.g. when the transformation is not enabled.
+        assertEquals(otherPage, this.linkResolver.resolve(this.linkResolver.parse("xyz89")));
+        assertEquals(otherPage, this.linkResolver.resolve(this.linkResolver.parse("xyz89")));
+
+        verify(this.urlShortenerManager).getDocumentReferences(anyString(), any());
+    }
+
+    @Test
+    void resolveWithoutViewRight()
+    {
+        when(this.contextualAuthorizationManager.hasAccess(Right.VIEW, PAGE)).thenReturn(false);
+        when(this.urlShortenerManager.getDocumentReferences("", List.of("abc12"))).thenReturn(Map.of("abc12", PAGE));
+
+        assertNull(this.linkResolver.resolve(this.linkResolver.parse("abc12")));
+    }
+}
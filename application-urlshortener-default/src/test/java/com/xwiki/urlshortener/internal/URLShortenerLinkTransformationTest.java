@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerLinkTransformation}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerLinkTransformationTest
+{
+    @InjectMockComponents
+    private URLShortenerLinkTransformation transformation;
+
+    @MockComponent
+    private URLShortenerLinkResolver linkResolver;
+
+    @Test
+    void transform()
+    {
+        when(this.linkResolver.parse(anyString())).thenCallRealMethod();
+        XDOM xdom = new XDOM(List.of(new ParagraphBlock(List.of(
+            new LinkBlock(List.of(), new ResourceReference("abc12", URLShortenerResourceReferenceTypeParser.TYPE),
+                false),
+            new LinkBlock(List.of(), new DocumentResourceReference("Space.Other"), false),
+            new LinkBlock(List.of(), new ResourceReference("sub/def34", URLShortenerResourceReferenceTypeParser.TYPE),
+                false),
+            new LinkBlock(List.of(), new ResourceReference("abc12", URLShortenerResourceReferenceTypeParser.TYPE),
+                false)))));
+
+        this.transformation.transform(xdom, new TransformationContext());
+
+        verify(this.linkResolver).preResolve(
+            Set.of(new URLShortenerResourceReference("", "abc12"), new URLShortenerResourceReference("sub", "def34")));
+    }
+
+    @Test
+    void transformWithoutShortLinks()
+    {
+        this.transformation.transform(new XDOM(List.of(new ParagraphBlock(List.of(
+            new LinkBlock(List.of(), new DocumentResourceReference("Space.Other"), false))))),
+            new TransformationContext());
+
+        verify(this.linkResolver, never()).preResolve(any());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.urlshortener.URLShortenerException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerLookupExecutor}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerLookupExecutorTest
+{
+    @InjectMockComponents
+    private URLShortenerLookupExecutor lookupExecutor;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getLookupPoolSize()).thenReturn(1);
+        when(this.configuration.getLookupQueueSize()).thenReturn(1);
+        when(this.configuration.getLookupTimeout()).thenReturn(1000L);
+    }
+
+    @AfterEach
+    void afterEach()
+    {
+        this.release.countDown();
+    }
+
+    @Test
+    void execute() throws Exception
+    {
+        assertEquals("result", this.lookupExecutor.execute(() -> "result"));
+    }
+
+    @Test
+    void submit() throws Exception
+    {
+        CompletableFuture<Boolean> future = this.lookupExecutor.submit(() -> this.release.await(5, TimeUnit.SECONDS));
+
+        assertFalse(future.isDone());
+        this.release.countDown();
+        assertTrue(future.get());
+    }
+
+    @Test
+    void executeFromLookup() throws Exception
+    {
+        // With a single thread, waiting for a nested lookup in another thread would never complete.
+        assertEquals("nested", this.lookupExecutor.execute(() -> this.lookupExecutor.execute(() -> "nested")));
+    }
+
+    @Test
+    void executeWithExecutionContext() throws Exception
+    {
+        ExecutionContext context = new ExecutionContext();
+        ExecutionContext clonedContext = new ExecutionContext();
+        when(this.execution.getContext()).thenReturn(context);
+        when(this.executionContextManager.clone(context)).thenReturn(clonedContext);
+
+        this.lookupExecutor.execute(() -> null);
+
+        verify(this.execution).setContext(clonedContext);
+        verify(this.execution).removeContext();
+    }
+
+    @Test
+    void executeWithFailure()
+    {
+        URLShortenerException exception = new URLShortenerException("failure");
+
+        assertSame(exception, assertThrows(URLShortenerException.class, () -> this.lookupExecutor.execute(() -> {
+            throw exception;
+        })));
+    }
+
+    @Test
+    void executeWithTimeout()
+    {
+        URLShortenerUnavailableException exception = assertThrows(URLShortenerUnavailableException.class,
+            () -> this.lookupExecutor.execute(() -> this.release.await(5, TimeUnit.SECONDS)));
+
+        assertEquals(1, exception.getRetryAfter());
+        assertEquals(1, this.lookupExecutor.getTimedOutCount());
+    }
+
+    @Test
+    void executeWithTimeoutWithoutInterrupt() throws Exception
+    {
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+
+        assertThrows(URLShortenerUnavailableException.class, () -> this.lookupExecutor.execute(() -> {
+            try {
+                interrupted.complete(!this.release.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                interrupted.complete(true);
+            }
+            return null;
+        }));
+        this.release.countDown();
+
+        // The abandoned lookup keeps running until it completes.
+        assertFalse(interrupted.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void executeWhenSaturated() throws Exception
+    {
+        // One lookup running and one waiting fill the pool and the queue.
+        CompletableFuture.runAsync(this::blockingLookup);
+        CompletableFuture.runAsync(this::blockingLookup);
+        while (this.lookupExecutor.getRemainingQueueCapacity() > 0) {
+            Thread.sleep(1);
+        }
+
+        assertThrows(URLShortenerUnavailableException.class, () -> this.lookupExecutor.execute(() -> "result"));
+        assertEquals(1, this.lookupExecutor.getRejectedCount());
+        assertEquals(1, this.lookupExecutor.getQueueSize());
+    }
+
+    private void blockingLookup()
+    {
+        try {
+            this.lookupExecutor.execute(() -> this.release.await(5, TimeUnit.SECONDS));
+        } catch (URLShortenerException e) {
+            // Expected when the test ends first.
+        }
+    }
+}
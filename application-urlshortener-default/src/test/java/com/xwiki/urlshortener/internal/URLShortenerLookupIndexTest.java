@@ -0,0 +1,362 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.URLShortenerStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerLookupIndex}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerLookupIndexTest
+{
+    private static final DocumentReference PAGE = new DocumentReference("wiki", "Space", "Page");
+
+    private static final DocumentReference OTHER_PAGE = new DocumentReference("wiki", "Space", "Other");
+
+    @InjectMockComponents
+    private URLShortenerLookupIndex lookupIndex;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private Provider<URLShortenerStore> storeProvider;
+
+    @MockComponent
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @MockComponent
+    private DocumentReferenceResolver<String> resolver;
+
+    @MockComponent
+    private URLShortenerUpdateExecutor updateExecutor;
+
+    @MockComponent
+    private Environment environment;
+
+    @TempDir
+    private File permanentDirectory;
+
+    @Mock
+    private Cache<Object> cache;
+
+    @Mock
+    private URLShortenerStore store;
+
+    private final Map<String, Object> shards = new HashMap<>();
+
+    /**
+     * The page IDs in the store, by page ID.
+     */
+    private final Map<String, DocumentReference> storedPageIDs = new HashMap<>();
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getLookupShardLimit()).thenReturn(10);
+        when(this.cacheManager.<Object>createNewCache(any())).thenReturn(this.cache);
+        when(this.cache.get(anyString())).thenAnswer(invocation -> this.shards.get(invocation.getArgument(0)));
+        doAnswer(invocation -> this.shards.put(invocation.getArgument(0), invocation.getArgument(1))).when(this.cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> this.shards.remove(invocation.getArgument(0))).when(this.cache).remove(anyString());
+    }
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(this.environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        when(this.storeProvider.get()).thenReturn(this.store);
+        when(this.updateExecutor.submit(any())).thenAnswer(this::runInline);
+        when(this.wikiDescriptorManager.getMainWikiId()).thenReturn("xwiki");
+        when(this.wikiDescriptorManager.exists(any())).thenReturn(true);
+        when(this.serializer.serialize(any())).thenAnswer(
+            invocation -> ((DocumentReference) invocation.getArgument(0)).getName());
+        when(this.resolver.resolve(anyString(), any(WikiReference.class))).thenAnswer(invocation ->
+            new DocumentReference(invocation.<WikiReference>getArgument(1).getName(), "Space",
+                invocation.<String>getArgument(0)));
+        doAnswer(invocation -> {
+            String wiki = invocation.getArgument(0);
+            Map.copyOf(this.storedPageIDs).forEach((pageID, documentReference) -> {
+                if (wiki.equals(documentReference.getWikiReference().getName())) {
+                    invocation.<BiConsumer<String, DocumentReference>>getArgument(1).accept(pageID, documentReference);
+                }
+            });
+            return null;
+        }).when(this.store).scan(anyString(), any());
+    }
+
+    @Test
+    void getLoadsTheShardOnce() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        this.storedPageIDs.put("a1b2c", new DocumentReference("test", "Space", "Page"));
+
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+        // The page ID is in another wiki.
+        assertNull(this.lookupIndex.get("wiki", "a1b2c"));
+        verify(this.store, times(1)).scan(eq("wiki"), any());
+    }
+
+    @Test
+    void getWhileLoading() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        CompletableFuture<Object> loading = new CompletableFuture<>();
+        Callable<?>[] load = new Callable<?>[1];
+        when(this.updateExecutor.submit(any())).thenAnswer(invocation -> {
+            load[0] = invocation.getArgument(0);
+            return loading;
+        });
+
+        // The lookups go to the store until the shard is loaded in the background.
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        verify(this.updateExecutor, times(1)).submit(any());
+        verify(this.store, never()).scan(anyString(), any());
+
+        loading.complete(load[0].call());
+
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+    }
+
+    @Test
+    void getWhenLoadIsRejected() throws Exception
+    {
+        when(this.updateExecutor.submit(any()))
+            .thenReturn(CompletableFuture.failedFuture(new URLShortenerUnavailableException("Busy", 1, null)))
+            .thenAnswer(this::runInline);
+        this.storedPageIDs.put("12345", PAGE);
+
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        // The next lookup tries again.
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+    }
+
+    @Test
+    void getFromMainWiki() throws Exception
+    {
+        DocumentReference mainWikiPage = new DocumentReference("xwiki", "Space", "Page");
+        this.storedPageIDs.put("12345", mainWikiPage);
+
+        assertEquals(mainWikiPage, this.lookupIndex.get("", "12345"));
+    }
+
+    @Test
+    void getFromMissingWiki() throws Exception
+    {
+        when(this.wikiDescriptorManager.exists("missing")).thenReturn(false);
+
+        assertNull(this.lookupIndex.get("missing", "12345"));
+        verify(this.store, never()).scan(anyString(), any());
+    }
+
+    @Test
+    void getWhenLoadFails() throws Exception
+    {
+        doThrow(new URLShortenerException("Error")).when(this.store).scan(eq("wiki"), any());
+
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        // The next lookup tries again.
+        verify(this.store, times(2)).scan(eq("wiki"), any());
+    }
+
+    @Test
+    void putAndRemove()
+    {
+        // Nothing is loaded for the changes of the wikis that are not looked up from.
+        this.lookupIndex.put("12345", PAGE);
+        assertNull(this.shards.get("wiki"));
+
+        this.storedPageIDs.put("12345", PAGE);
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+
+        this.lookupIndex.put("a1b2c", OTHER_PAGE);
+        this.lookupIndex.remove("12345", PAGE);
+
+        assertEquals(OTHER_PAGE, this.lookupIndex.get("wiki", "a1b2c"));
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+    }
+
+    @Test
+    void putAndRemoveWhileLoading() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        doAnswer(invocation -> {
+            // Changes made by other threads while the shard is loaded.
+            this.lookupIndex.put("a1b2c", OTHER_PAGE);
+            this.lookupIndex.remove("12345", PAGE);
+            invocation.<BiConsumer<String, DocumentReference>>getArgument(1).accept("12345", PAGE);
+            return null;
+        }).when(this.store).scan(eq("wiki"), any());
+
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        assertEquals(OTHER_PAGE, this.lookupIndex.get("wiki", "a1b2c"));
+    }
+
+    @Test
+    void createAndRemoveShard() throws Exception
+    {
+        this.lookupIndex.createShard("new");
+        this.lookupIndex.put("12345", new DocumentReference("new", "Space", "Page"));
+
+        assertEquals(new DocumentReference("new", "Space", "Page"), this.lookupIndex.get("new", "12345"));
+        verify(this.store, never()).scan(anyString(), any());
+        assertTrue(Files.exists(getSnapshot("new")));
+
+        this.lookupIndex.removeShard("new");
+
+        assertFalse(Files.exists(getSnapshot("new")));
+        assertFalse(Files.exists(getSnapshot("new.journal")));
+        assertNull(this.lookupIndex.get("new", "12345"));
+        verify(this.store).scan(eq("new"), any());
+    }
+
+    @Test
+    void getFromSnapshotWhileVerifying() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+        this.lookupIndex.put("a1b2c", OTHER_PAGE);
+        assertTrue(Files.exists(getSnapshot("wiki.journal")));
+
+        // The node restarts, and a page ID is deleted by another node in the meantime.
+        this.shards.clear();
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        this.storedPageIDs.remove("12345");
+        DocumentReference[] whileVerifying = new DocumentReference[2];
+        doAnswer(invocation -> {
+            whileVerifying[0] = this.lookupIndex.get("wiki", "12345");
+            whileVerifying[1] = this.lookupIndex.get("wiki", "a1b2c");
+            invocation.<BiConsumer<String, DocumentReference>>getArgument(1).accept("a1b2c", OTHER_PAGE);
+            return null;
+        }).when(this.store).scan(eq("wiki"), any());
+
+        assertEquals(OTHER_PAGE, this.lookupIndex.get("wiki", "a1b2c"));
+        // The lookups are answered from the snapshot and the journal until the store is scanned.
+        assertEquals(PAGE, whileVerifying[0]);
+        assertEquals(OTHER_PAGE, whileVerifying[1]);
+        assertNull(this.lookupIndex.get("wiki", "12345"));
+        // The verified page IDs replace the journal.
+        assertFalse(Files.exists(getSnapshot("wiki.journal")));
+    }
+
+    @Test
+    void putAndRemoveOnEvictedShard() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+        this.shards.clear();
+
+        // The changes of the wikis that are not looked up from are journaled.
+        this.lookupIndex.put("a1b2c", OTHER_PAGE);
+        this.lookupIndex.remove("12345", PAGE);
+        doAnswer(invocation -> {
+            assertEquals(OTHER_PAGE, this.lookupIndex.get("wiki", "a1b2c"));
+            assertNull(this.lookupIndex.get("wiki", "12345"));
+            invocation.<BiConsumer<String, DocumentReference>>getArgument(1).accept("a1b2c", OTHER_PAGE);
+            return null;
+        }).when(this.store).scan(eq("wiki"), any());
+
+        assertEquals(OTHER_PAGE, this.lookupIndex.get("wiki", "a1b2c"));
+    }
+
+    @Test
+    void getWithInvalidSnapshot() throws Exception
+    {
+        Files.createDirectories(getSnapshot("wiki").getParent());
+        Files.write(getSnapshot("wiki"), new byte[] { 1, 2 });
+        this.storedPageIDs.put("12345", PAGE);
+
+        assertEquals(PAGE, this.lookupIndex.get("wiki", "12345"));
+        // A valid snapshot replaces it.
+        assertTrue(Files.size(getSnapshot("wiki")) > 2);
+    }
+
+    private Path getSnapshot(String name)
+    {
+        return this.permanentDirectory.toPath().resolve("urlshortener").resolve("lookup").resolve(name);
+    }
+
+    private CompletableFuture<Object> runInline(InvocationOnMock invocation)
+    {
+        try {
+            return CompletableFuture.completedFuture(invocation.<Callable<?>>getArgument(0).call());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiCreatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.urlshortener.internal.store.SolrPageIDIndex;
+
+import static com.xwiki.urlshortener.internal.DefaultURLShortenerManager.URL_SHORTENER_CLASS_REFERENCE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerRedirectCacheListener}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerRedirectCacheListenerTest
+{
+    private static final LocalDocumentReference WIKI_DESCRIPTOR_CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiServerClass");
+
+    @InjectMockComponents
+    private URLShortenerRedirectCacheListener listener;
+
+    @MockComponent
+    private URLShortenerRedirectCache redirectCache;
+
+    @MockComponent
+    private URLShortenerLinkPreview linkPreview;
+
+    @MockComponent
+    private URLShortenerReverseIndex reverseIndex;
+
+    @MockComponent
+    private URLShortenerLookupIndex lookupIndex;
+
+    @MockComponent
+    private SolrPageIDIndex solrPageIDIndex;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    @Mock
+    private XWikiDocument document;
+
+    @Mock
+    private XWikiDocument originalDocument;
+
+    private final DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+    @BeforeEach
+    void beforeEach()
+    {
+        when(this.document.getOriginalDocument()).thenReturn(this.originalDocument);
+        when(this.document.getDocumentReference()).thenReturn(this.documentReference);
+        when(this.configuration.getStoreHint()).thenReturn("xobject");
+    }
+
+    @Test
+    void onDocumentUpdatedWithObject()
+    {
+        BaseObject object = new BaseObject();
+        object.setStringValue("pageID", "12345");
+        when(this.originalDocument.getXObjects(URL_SHORTENER_CLASS_REFERENCE))
+            .thenReturn(Arrays.asList(null, object));
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        verify(this.redirectCache).remove("12345");
+        verify(this.redirectCache, never()).removeAll();
+        verify(this.linkPreview).remove(this.documentReference);
+        verify(this.lookupIndex).remove("12345", this.documentReference);
+        verify(this.solrPageIDIndex).remove("12345", this.documentReference);
+    }
+
+    @Test
+    void onDocumentUpdatedWithNewObject()
+    {
+        BaseObject originalObject = new BaseObject();
+        originalObject.setStringValue("pageID", "12345");
+        when(this.originalDocument.getXObjects(URL_SHORTENER_CLASS_REFERENCE))
+            .thenReturn(Arrays.asList(originalObject));
+        BaseObject object = new BaseObject();
+        object.setStringValue("pageID", "a1b2c");
+        when(this.document.getXObjects(URL_SHORTENER_CLASS_REFERENCE))
+            .thenReturn(Arrays.asList(originalObject, object));
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        verify(this.lookupIndex).put("a1b2c", this.documentReference);
+        verify(this.lookupIndex, never()).remove(any(), any());
+        verify(this.solrPageIDIndex).put("a1b2c", this.documentReference);
+        verify(this.solrPageIDIndex, never()).put("12345", this.documentReference);
+        verify(this.solrPageIDIndex, never()).remove(any(), any());
+    }
+
+    @Test
+    void onDocumentDeletedWithoutObject()
+    {
+        this.listener.onEvent(new DocumentDeletedEvent(this.documentReference), this.document, null);
+
+        verify(this.redirectCache, never()).remove(any());
+        verify(this.redirectCache, never()).removeAll();
+    }
+
+    @Test
+    void onDocumentUpdatedWithKnownPageID()
+    {
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+        BaseObject object = new BaseObject();
+        object.setStringValue("pageID", "12345");
+        when(this.document.getXObjects(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(Arrays.asList(null, object));
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        verify(this.reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onDocumentUpdatedWithoutKnownPageID()
+    {
+        // The object holding the known page ID was removed.
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        verify(this.reverseIndex).remove(this.documentReference);
+    }
+
+    @Test
+    void onDocumentUpdatedWithOtherStore()
+    {
+        when(this.configuration.getStoreHint()).thenReturn("relational");
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        verify(this.reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onDocumentDeletedWithKnownPageID()
+    {
+        when(this.configuration.getStoreHint()).thenReturn("relational");
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+
+        this.listener.onEvent(new DocumentDeletedEvent(this.documentReference), this.document, null);
+
+        verify(this.reverseIndex).remove(this.documentReference);
+    }
+
+    @Test
+    void onTranslationUpdated()
+    {
+        when(this.document.isTranslation()).thenReturn(true);
+        when(this.originalDocument.isTranslation()).thenReturn(true);
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        // The translation has no object, but the default locale document still holds the page ID.
+        verify(this.reverseIndex, never()).remove(any());
+        verify(this.lookupIndex, never()).remove(any(), any());
+        verify(this.solrPageIDIndex, never()).remove(any(), any());
+    }
+
+    @Test
+    void onTranslationDeleted()
+    {
+        when(this.configuration.getStoreHint()).thenReturn("relational");
+        when(this.originalDocument.isTranslation()).thenReturn(true);
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+
+        this.listener.onEvent(new DocumentDeletedEvent(this.documentReference), this.document, null);
+
+        verify(this.reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onWikiDescriptorUpdated()
+    {
+        when(this.document.getXObject(WIKI_DESCRIPTOR_CLASS_REFERENCE)).thenReturn(new BaseObject());
+
+        this.listener.onEvent(new DocumentUpdatedEvent(this.documentReference), this.document, null);
+
+        verify(this.redirectCache).removeAll();
+        verify(this.linkPreview).removeAll();
+    }
+
+    @Test
+    void onWikiDeleted()
+    {
+        this.listener.onEvent(new WikiDeletedEvent("subwiki"), null, null);
+
+        verify(this.redirectCache).removeAll();
+        verify(this.reverseIndex).removeWiki("subwiki");
+        verify(this.reverseIndex, never()).removeAll();
+        verify(this.lookupIndex).removeShard("subwiki");
+        verify(this.solrPageIDIndex).removeWiki("subwiki");
+    }
+
+    @Test
+    void onPageIDUpdatedOnOtherNode()
+    {
+        DocumentReference otherReference = new DocumentReference("wiki", "Space", "Other");
+        when(this.remoteObservationManagerContext.isRemoteState()).thenReturn(true);
+        when(this.reverseIndex.get(this.documentReference)).thenReturn("12345");
+        when(this.reverseIndex.get(otherReference)).thenReturn("fffff");
+
+        // A move, then a removal of a page ID that is not the one known for the document anymore.
+        this.listener.onEvent(new PageIDUpdatedEvent("12345"), otherReference, this.documentReference);
+        this.listener.onEvent(new PageIDUpdatedEvent("a1b2c"), null, otherReference);
+
+        verify(this.redirectCache).remove("12345");
+        verify(this.redirectCache).remove("a1b2c");
+        verify(this.lookupIndex).remove("12345", this.documentReference);
+        verify(this.lookupIndex).put("12345", otherReference);
+        verify(this.lookupIndex).remove("a1b2c", otherReference);
+        verify(this.reverseIndex).remove(this.documentReference);
+        verify(this.reverseIndex, never()).remove(otherReference);
+    }
+
+    @Test
+    void onPageIDUpdatedLocally()
+    {
+        this.listener.onEvent(new PageIDUpdatedEvent("12345"), null, this.documentReference);
+
+        verify(this.redirectCache, never()).remove(any());
+        verify(this.lookupIndex, never()).remove(any(), any());
+        verify(this.reverseIndex, never()).remove(any());
+    }
+
+    @Test
+    void onWikiCreated()
+    {
+        this.listener.onEvent(new WikiCreatedEvent("subwiki"), null, null);
+
+        verify(this.lookupIndex).createShard("subwiki");
+        verify(this.redirectCache, never()).removeAll();
+    }
+}
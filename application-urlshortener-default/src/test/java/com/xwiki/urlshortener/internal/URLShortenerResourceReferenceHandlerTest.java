@@ -19,18 +19,35 @@
  */
 package com.xwiki.urlshortener.internal;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import javax.inject.Provider;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.Mock;
 import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
 import org.xwiki.container.servlet.ServletResponse;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.QueryException;
 import org.xwiki.resource.ResourceReferenceHandlerChain;
 import org.xwiki.resource.ResourceReferenceHandlerException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
@@ -44,6 +61,9 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -51,6 +71,11 @@ import static org.mockito.Mockito.when;
 @ComponentTest
 public class URLShortenerResourceReferenceHandlerTest
 {
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("test", "Space", "Page");
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.ERROR);
+
     @InjectMockComponents
     private URLShortenerResourceReferenceHandler resourceReferenceHandler;
 
@@ -63,6 +88,18 @@ public class URLShortenerResourceReferenceHandlerTest
     @MockComponent
     private URLShortenerManager urlShortenerManager;
 
+    @MockComponent
+    private URLShortenerRedirectCache redirectCache;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private URLShortenerLinkPreview linkPreview;
+
+    @MockComponent
+    private ContextualAuthorizationManager authorization;
+
     @Mock
     private XWikiContext xcontext;
 
@@ -75,6 +112,12 @@ public class URLShortenerResourceReferenceHandlerTest
     @Mock
     private HttpServletResponse httpServletServletResponse;
 
+    @Mock
+    private ServletRequest request;
+
+    @Mock
+    private HttpServletRequest httpServletRequest;
+
     @Mock
     private ResourceReferenceHandlerChain handlerChain;
 
@@ -86,6 +129,9 @@ public class URLShortenerResourceReferenceHandlerTest
 
         when(this.container.getResponse()).thenReturn(response);
         when(response.getHttpServletResponse()).thenReturn(httpServletServletResponse);
+        when(this.container.getRequest()).thenReturn(request);
+        when(request.getHttpServletRequest()).thenReturn(httpServletRequest);
+        when(configuration.getRedirectStatus()).thenReturn(302);
     }
 
     @Test
@@ -107,8 +153,329 @@ public class URLShortenerResourceReferenceHandlerTest
         resourceReference.addParameter("test", "testValue2%3A");
         resourceReferenceHandler.handle(resourceReference, handlerChain);
 
-        verify(xwiki, times(1)).getURL(documentReference, "view", "test=testValue1&test=testValue2%253A", "", xcontext);
-        verify(httpServletServletResponse, times(1)).sendRedirect(docURL);
+        verify(xwiki, times(1)).getURL(documentReference, "view", "", "", xcontext);
+        verify(httpServletServletResponse, times(1)).sendRedirect(docURL + "?test=testValue1&test=testValue2%253A");
+        verify(handlerChain, never()).handleNext(resourceReference);
+        verify(redirectCache).set(eq(wikiId), eq(pageId), any(URLShortenerRedirectTarget.class));
+    }
+
+    @Test
+    void handleWithCacheHeadersOfLookedUpMapping() throws Exception
+    {
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        when(urlShortenerManager.getDocumentReference("test", "123")).thenReturn(DOCUMENT_REFERENCE);
+        when(xwiki.getURL(DOCUMENT_REFERENCE, "view", "", "", xcontext)).thenReturn("docURL");
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        // The validators are derived from the mapping, so that they don't change when the entry is cached again.
+        URLShortenerRedirectTarget target = new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "docURL");
+        verify(httpServletServletResponse).setHeader("ETag", target.getETag("123"));
+        verify(httpServletServletResponse).sendRedirect("docURL");
+        // Nor do they need the target document.
+        verify(xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    void handleWithCachedURL() throws Exception
+    {
+        String pageId = "123";
+        when(xcontext.getWikiId()).thenReturn("xwiki");
+        when(redirectCache.get("xwiki", pageId))
+            .thenReturn(new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL"));
+
+        URLShortenerResourceReference resourceReference = new URLShortenerResourceReference("", pageId);
+        resourceReference.addParameter("a", "b");
+        resourceReferenceHandler.handle(resourceReference, handlerChain);
+
+        verify(httpServletServletResponse, times(1)).sendRedirect("cachedURL?a=b");
+        verify(urlShortenerManager, never()).getDocumentReference(any(), any());
+        verify(xwiki, never()).getURL(any(DocumentReference.class), any(String.class), any(String.class),
+            any(String.class), any(XWikiContext.class));
+    }
+
+    @Test
+    void handleWithoutQueryString() throws Exception
+    {
+        String pageId = "123";
+        String wikiId = "";
+
+        DocumentReference documentReference = new DocumentReference("xwiki", "Space", "Page");
+        when(urlShortenerManager.getDocumentReference(wikiId, pageId)).thenReturn(documentReference);
+        when(xwiki.getURL(documentReference, "view", "", "", xcontext)).thenReturn("docURL");
+
+        URLShortenerResourceReference resourceReference = new URLShortenerResourceReference(wikiId, pageId);
+        resourceReferenceHandler.handle(resourceReference, handlerChain);
+
+        verify(httpServletServletResponse, times(1)).sendRedirect("docURL");
+    }
+
+    @Test
+    void handleWithPermanentRedirect() throws Exception
+    {
+        when(configuration.getRedirectStatus()).thenReturn(308);
+        when(redirectCache.get("test", "123"))
+            .thenReturn(new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL"));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).setStatus(308);
+        verify(httpServletServletResponse).setHeader("Location", "cachedURL");
+        verify(httpServletServletResponse, never()).sendRedirect(any(String.class));
+    }
+
+    @Test
+    void handleWithCacheHeaders() throws Exception
+    {
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        URLShortenerRedirectTarget target = new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL");
+        when(redirectCache.get("test", "123")).thenReturn(target);
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).setHeader("Cache-Control", "public, max-age=3600");
+        verify(httpServletServletResponse).setHeader("ETag", target.getETag("123"));
+        verify(httpServletServletResponse).sendRedirect("cachedURL");
+    }
+
+    @Test
+    void handleWithMatchingETag() throws Exception
+    {
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        URLShortenerRedirectTarget target = new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL");
+        when(redirectCache.get("test", "123")).thenReturn(target);
+        when(httpServletRequest.getHeader("If-None-Match")).thenReturn(target.getETag("123"));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).setStatus(304);
+        verify(httpServletServletResponse, never()).sendRedirect(any(String.class));
+    }
+
+    @Test
+    void handleWithETagList() throws Exception
+    {
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        URLShortenerRedirectTarget target = new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL");
+        when(redirectCache.get("test", "123")).thenReturn(target);
+        when(httpServletRequest.getHeader("If-None-Match")).thenReturn("\"other\", W/" + target.getETag("123"));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).setStatus(304);
+        verify(httpServletServletResponse, never()).sendRedirect(any(String.class));
+    }
+
+    @Test
+    void handleWithOtherETag() throws Exception
+    {
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        URLShortenerRedirectTarget target = new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL");
+        when(redirectCache.get("test", "123")).thenReturn(target);
+        // The entity tag of another mapping of the same page ID.
+        when(httpServletRequest.getHeader("If-None-Match")).thenReturn("\"123-other\", \"456\"");
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse, never()).setStatus(304);
+        verify(httpServletServletResponse).sendRedirect("cachedURL");
+    }
+
+    @Test
+    void handleHeadWithoutQueryResults() throws Exception
+    {
+        when(httpServletRequest.getMethod()).thenReturn("HEAD");
+
+        URLShortenerResourceReference resourceReference = new URLShortenerResourceReference("test", "123");
+        resourceReferenceHandler.handle(resourceReference, handlerChain);
+
+        verify(httpServletServletResponse).setStatus(404);
+        verify(httpServletServletResponse, never()).sendError(any(Integer.class), any(String.class));
+        verify(handlerChain, never()).handleNext(resourceReference);
+    }
+
+    @Test
+    void handleHeadFromLinkPreview() throws Exception
+    {
+        when(httpServletRequest.getMethod()).thenReturn("HEAD");
+        when(httpServletRequest.getHeader("User-Agent")).thenReturn("Slackbot-LinkExpanding 1.0");
+        when(configuration.getPreviewUserAgents()).thenReturn(List.of("Slackbot"));
+        when(redirectCache.get("test", "123"))
+            .thenReturn(new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL"));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).sendRedirect("cachedURL");
+        verify(linkPreview, never()).getHTML(any());
+    }
+
+    @Test
+    void handleLinkPreview() throws Exception
+    {
+        when(httpServletRequest.getMethod()).thenReturn("GET");
+        when(httpServletRequest.getHeader("User-Agent")).thenReturn("Mozilla/5.0 (compatible; Discordbot/2.0)");
+        when(configuration.getPreviewUserAgents()).thenReturn(List.of("Slackbot", "discordbot"));
+        when(redirectCache.get("test", "123"))
+            .thenReturn(new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL"));
+        when(authorization.hasAccess(Right.VIEW, DOCUMENT_REFERENCE)).thenReturn(true);
+        when(linkPreview.getHTML(DOCUMENT_REFERENCE)).thenReturn("<html/>");
+        StringWriter writer = new StringWriter();
+        when(httpServletServletResponse.getWriter()).thenReturn(new PrintWriter(writer));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).setContentType("text/html");
+        assertEquals("<html/>", writer.toString());
+        verify(httpServletServletResponse, never()).sendRedirect(any(String.class));
+    }
+
+    @Test
+    void handleLinkPreviewWithoutViewRight() throws Exception
+    {
+        when(httpServletRequest.getMethod()).thenReturn("GET");
+        when(httpServletRequest.getHeader("User-Agent")).thenReturn("Slackbot-LinkExpanding 1.0");
+        when(configuration.getPreviewUserAgents()).thenReturn(List.of("Slackbot"));
+        when(redirectCache.get("test", "123"))
+            .thenReturn(new URLShortenerRedirectTarget(DOCUMENT_REFERENCE, "cachedURL"));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).sendRedirect("cachedURL");
+        verify(linkPreview, never()).getHTML(any());
+    }
+
+    @Test
+    void handleWhenUnavailable() throws Exception
+    {
+        when(urlShortenerManager.getDocumentReference("test", "123"))
+            .thenThrow(new URLShortenerUnavailableException("Too many lookups.", 3, null));
+
+        URLShortenerResourceReference resourceReference = new URLShortenerResourceReference("test", "123");
+        resourceReferenceHandler.handle(resourceReference, handlerChain);
+
+        verify(httpServletServletResponse).setHeader("Retry-After", "3");
+        verify(httpServletServletResponse).sendError(503, "Too many lookups.");
+        verify(handlerChain, never()).handleNext(resourceReference);
+    }
+
+    @Test
+    void handleAsync() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(httpServletRequest.isAsyncSupported()).thenReturn(true);
+        when(configuration.isAsyncRedirect()).thenReturn(true);
+        when(httpServletRequest.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(httpServletServletResponse);
+        CompletableFuture<DocumentReference> lookup = new CompletableFuture<>();
+        when(urlShortenerManager.getDocumentReferenceAsync("test", "123")).thenReturn(lookup);
+        when(xwiki.getURL(DOCUMENT_REFERENCE, "view", "", "", xcontext)).thenReturn("docURL");
+
+        URLShortenerResourceReference resourceReference = new URLShortenerResourceReference("test", "123");
+        resourceReferenceHandler.handle(resourceReference, handlerChain);
+
+        // The request is released before the lookup completes.
+        verify(httpServletServletResponse, never()).sendRedirect(any(String.class));
+        verify(asyncContext, never()).complete();
+
+        lookup.complete(DOCUMENT_REFERENCE);
+
+        verify(httpServletServletResponse).sendRedirect("docURL");
+        verify(asyncContext).complete();
+        verify(redirectCache).set(eq("test"), eq("123"), any(URLShortenerRedirectTarget.class));
+        verify(urlShortenerManager, never()).getDocumentReference(any(), any());
+        verify(handlerChain, never()).handleNext(resourceReference);
+    }
+
+    @Test
+    void handleAsyncWhenUnavailable() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(httpServletRequest.isAsyncSupported()).thenReturn(true);
+        when(configuration.isAsyncRedirect()).thenReturn(true);
+        when(httpServletRequest.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(httpServletServletResponse);
+        when(urlShortenerManager.getDocumentReferenceAsync("test", "123")).thenReturn(
+            CompletableFuture.failedFuture(new URLShortenerUnavailableException("Too many lookups.", 3, null)));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).setHeader("Retry-After", "3");
+        verify(httpServletServletResponse).sendError(503, "Too many lookups.");
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    void handleAsyncWithoutDocument() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(httpServletRequest.isAsyncSupported()).thenReturn(true);
+        when(configuration.isAsyncRedirect()).thenReturn(true);
+        when(httpServletRequest.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(httpServletServletResponse);
+        when(urlShortenerManager.getDocumentReferenceAsync("test", "123"))
+            .thenReturn(CompletableFuture.completedFuture(null));
+
+        URLShortenerResourceReference resourceReference = new URLShortenerResourceReference("test", "123");
+        resourceReferenceHandler.handle(resourceReference, handlerChain);
+
+        verify(httpServletServletResponse).sendError(404, "No document is associated to the given ID: [123]");
+        verify(handlerChain, never()).handleNext(resourceReference);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    void handleAsyncWhenRespondFails() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(httpServletRequest.isAsyncSupported()).thenReturn(true);
+        when(configuration.isAsyncRedirect()).thenReturn(true);
+        when(httpServletRequest.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(httpServletServletResponse);
+        when(urlShortenerManager.getDocumentReferenceAsync("test", "123"))
+            .thenReturn(CompletableFuture.completedFuture(DOCUMENT_REFERENCE));
+        when(xwiki.getURL(DOCUMENT_REFERENCE, "view", "", "", xcontext)).thenThrow(new RuntimeException("failure"));
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse).sendError(500);
+        verify(asyncContext).complete();
+        assertEquals(String.format("Failed to handle resource [%s]", URLShortenerResourceReference.TYPE),
+            logCapture.getMessage(0));
+    }
+
+    @Test
+    void handleAsyncWhenRespondFailsAfterCommit() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(httpServletRequest.isAsyncSupported()).thenReturn(true);
+        when(configuration.isAsyncRedirect()).thenReturn(true);
+        when(httpServletRequest.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(httpServletServletResponse);
+        when(urlShortenerManager.getDocumentReferenceAsync("test", "123"))
+            .thenReturn(CompletableFuture.completedFuture(DOCUMENT_REFERENCE));
+        when(xwiki.getURL(DOCUMENT_REFERENCE, "view", "", "", xcontext)).thenReturn("docURL");
+        when(httpServletServletResponse.isCommitted()).thenReturn(true);
+        doThrow(new IOException("Connection reset")).when(httpServletServletResponse).sendRedirect("docURL");
+
+        resourceReferenceHandler.handle(new URLShortenerResourceReference("test", "123"), handlerChain);
+
+        verify(httpServletServletResponse, never()).sendError(500);
+        verify(asyncContext).complete();
+        assertEquals(String.format("Failed to handle resource [%s]", URLShortenerResourceReference.TYPE),
+            logCapture.getMessage(0));
+    }
+
+    @Test
+    void getQueryString()
+    {
+        Map<String, List<String>> parameters = new LinkedHashMap<>();
+        parameters.put("a b", List.of("1+1=2", "\u00e9"));
+        parameters.put("empty", Collections.singletonList(null));
+        parameters.put("c", List.of("x*y_z.-~"));
+
+        assertEquals("a+b=1%2B1%3D2&a+b=%C3%A9&empty&c=x*y_z.-%7E",
+            URLShortenerResourceReferenceHandler.getQueryString(parameters));
+        assertEquals("", URLShortenerResourceReferenceHandler.getQueryString(Collections.emptyMap()));
     }
 
     @Test
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link URLShortenerResourceReferenceTypeParser}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerResourceReferenceTypeParserTest
+{
+    private static final ResourceType TYPE = new ResourceType("short");
+
+    @InjectMockComponents
+    private URLShortenerResourceReferenceTypeParser parser;
+
+    @Test
+    void getType()
+    {
+        assertEquals(TYPE, this.parser.getType());
+    }
+
+    @Test
+    void parse()
+    {
+        assertEquals(new ResourceReference("abc12", TYPE), this.parser.parse("abc12"));
+        // The wiki of the page ID is kept in the reference, and resolved by URLShortenerLinkResolver.
+        assertEquals(new ResourceReference("subwiki/abc12", TYPE), this.parser.parse("subwiki/abc12"));
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openjdk.jol.info.GraphLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xwiki.urlshortener.URLShortenerStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Unit tests for {@link URLShortenerReverseIndex}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class URLShortenerReverseIndexTest
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(URLShortenerReverseIndexTest.class);
+
+    private static final int MEASURED_ENTRIES = 20000;
+
+    private static final DocumentReference PAGE = new DocumentReference("wiki", List.of("A", "B"), "WebHome");
+
+    private static final DocumentReference OTHER_PAGE = new DocumentReference("test", "C", "D");
+
+    private static final DocumentReference REMOVED_PAGE = new DocumentReference("wiki", "A", "E");
+
+    @TempDir
+    File permanentDirectory;
+
+    private final Map<String, DocumentReference> references = new HashMap<>();
+
+    /**
+     * The page IDs in the store, by page ID.
+     */
+    private final Map<String, DocumentReference> storedPageIDs = new HashMap<>();
+
+    private final Logger logger = mock(Logger.class);
+
+    private final URLShortenerReverseIndex index = new URLShortenerReverseIndex();
+
+    @Test
+    void putGetAndRemove()
+    {
+        DocumentReference page = new DocumentReference("wiki", List.of("A", "B"), "WebHome");
+        DocumentReference sibling = new DocumentReference("wiki", List.of("A", "C"), "WebHome");
+        DocumentReference terminal = new DocumentReference("wiki", List.of("A", "B"), "C");
+        DocumentReference otherWiki = new DocumentReference("test", List.of("A", "B"), "WebHome");
+
+        this.index.put(page, "a1b2c");
+        this.index.put(sibling, "custom-id");
+        this.index.put(terminal, "00000");
+
+        assertEquals("a1b2c", this.index.get(page));
+        assertEquals("custom-id", this.index.get(sibling));
+        assertEquals("00000", this.index.get(terminal));
+        assertEquals("a1b2c", this.index.get(new DocumentReference("wiki", List.of("A", "B"), "WebHome")));
+        assertNull(this.index.get(otherWiki));
+        assertNull(this.index.get(new DocumentReference("wiki", List.of("A"), "B")));
+        assertEquals(3, this.index.size());
+
+        this.index.put(sibling, "fffff");
+        assertEquals("fffff", this.index.get(sibling));
+        this.index.remove(page);
+        assertNull(this.index.get(page));
+        assertEquals(2, this.index.size());
+
+        this.index.removeAll();
+        assertNull(this.index.get(terminal));
+        assertEquals(0, this.index.size());
+    }
+
+    @Test
+    void memoryPerEntry()
+    {
+        // Nested pages, spread over 50 spaces.
+        Map<DocumentReference, String> pageIDs = new HashMap<>();
+        for (int i = 0; i < MEASURED_ENTRIES; i++) {
+            DocumentReference documentReference =
+                new DocumentReference("wiki", List.of("Projects", "Team" + (i % 50), "Page" + i), "WebHome");
+            String pageID = String.format("%05x", i);
+            pageIDs.put(documentReference, pageID);
+            this.index.put(documentReference, pageID);
+        }
+        pageIDs.forEach((documentReference, pageID) -> assertEquals(pageID, this.index.get(documentReference)));
+
+        long mapSize = GraphLayout.parseInstance(pageIDs).totalSize();
+        long indexSize = GraphLayout.parseInstance(this.index).totalSize();
+        LOGGER.info("Bytes per entry: [{}] with a map of document references, [{}] with the index.",
+            mapSize / MEASURED_ENTRIES, indexSize / MEASURED_ENTRIES);
+
+        assertTrue(indexSize * 2 < mapSize);
+    }
+
+    @Test
+    void getAfterRestart() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        this.storedPageIDs.put("custom-id", REMOVED_PAGE);
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        URLShortenerReverseIndex persistentIndex = createPersistentIndex();
+        persistentIndex.put(PAGE, "12345");
+        persistentIndex.put(REMOVED_PAGE, "custom-id");
+        persistentIndex.dispose();
+
+        persistentIndex = createPersistentIndex();
+        persistentIndex.put(OTHER_PAGE, "a1b2c");
+        persistentIndex.remove(REMOVED_PAGE);
+        persistentIndex.dispose();
+        // Only the journal written since the last snapshot is kept.
+        assertTrue(Files.exists(this.permanentDirectory.toPath().resolve("urlshortener/documents")));
+        try (Stream<Path> files = Files.list(this.permanentDirectory.toPath().resolve("urlshortener"))) {
+            assertEquals(1,
+                files.filter(file -> file.getFileName().toString().startsWith("documents.journal.")).count());
+        }
+
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        assertEquals("a1b2c", persistentIndex.get(OTHER_PAGE));
+        assertNull(persistentIndex.get(REMOVED_PAGE));
+    }
+
+    @Test
+    void getAfterRemoveAllAndRestart() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        URLShortenerReverseIndex persistentIndex = createPersistentIndex();
+        persistentIndex.put(PAGE, "12345");
+        persistentIndex.removeAll();
+        persistentIndex.put(OTHER_PAGE, "a1b2c");
+        persistentIndex.dispose();
+
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertNull(persistentIndex.get(PAGE));
+        assertEquals("a1b2c", persistentIndex.get(OTHER_PAGE));
+    }
+
+    @Test
+    void snapshotAfterRemove() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        URLShortenerReverseIndex persistentIndex = createPersistentIndex();
+        persistentIndex.put(PAGE, "12345");
+        persistentIndex.put(REMOVED_PAGE, "custom-id");
+        persistentIndex.put(OTHER_PAGE, "a1b2c");
+        persistentIndex.remove(REMOVED_PAGE);
+        persistentIndex.dispose();
+
+        // The snapshot written after the loading leaves out the removed document, and gives new keys to the others.
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        assertEquals("a1b2c", persistentIndex.get(OTHER_PAGE));
+        assertNull(persistentIndex.get(REMOVED_PAGE));
+        assertEquals(2, persistentIndex.size());
+
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        assertEquals("a1b2c", persistentIndex.get(OTHER_PAGE));
+        assertNull(persistentIndex.get(REMOVED_PAGE));
+    }
+
+    @Test
+    void removeWikiAndRestart() throws Exception
+    {
+        DocumentReference otherWikiPage = new DocumentReference("test", List.of("A", "B"), "WebHome");
+        this.storedPageIDs.put("12345", PAGE);
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        this.storedPageIDs.put("fffff", otherWikiPage);
+        URLShortenerReverseIndex persistentIndex = createPersistentIndex();
+        persistentIndex.put(PAGE, "12345");
+        persistentIndex.put(OTHER_PAGE, "a1b2c");
+        persistentIndex.put(otherWikiPage, "fffff");
+        persistentIndex.removeWiki("test");
+        persistentIndex.removeWiki("unknown");
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        assertNull(persistentIndex.get(OTHER_PAGE));
+        assertNull(persistentIndex.get(otherWikiPage));
+        assertEquals(1, persistentIndex.size());
+        persistentIndex.dispose();
+
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        assertNull(persistentIndex.get(OTHER_PAGE));
+        assertNull(persistentIndex.get(otherWikiPage));
+    }
+
+    @Test
+    void verifyAfterRestart() throws Exception
+    {
+        this.storedPageIDs.put("12345", PAGE);
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        URLShortenerReverseIndex persistentIndex = createPersistentIndex();
+        persistentIndex.put(PAGE, "12345");
+        persistentIndex.put(OTHER_PAGE, "a1b2c");
+        persistentIndex.dispose();
+
+        // The page ID of the other page was regenerated while the wiki was down.
+        this.storedPageIDs.remove("a1b2c");
+        this.storedPageIDs.put("fffff", OTHER_PAGE);
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        assertNull(persistentIndex.get(OTHER_PAGE));
+
+        // The removal survives a restart.
+        this.storedPageIDs.put("a1b2c", OTHER_PAGE);
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertNull(persistentIndex.get(OTHER_PAGE));
+    }
+
+    @Test
+    void loadWithInvalidSnapshot() throws Exception
+    {
+        File directory = new File(this.permanentDirectory, "urlshortener");
+        directory.mkdirs();
+        Files.writeString(directory.toPath().resolve("documents"), "invalid");
+        this.storedPageIDs.put("12345", PAGE);
+
+        URLShortenerReverseIndex persistentIndex = createPersistentIndex();
+        persistentIndex.put(PAGE, "12345");
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+        verify(this.logger).warn(eq("Failed to load the document page IDs, they will be read from the store again. "
+            + "Root cause: [{}]"), any(Object.class));
+
+        persistentIndex = createPersistentIndex();
+        persistentIndex.dispose();
+
+        assertEquals("12345", persistentIndex.get(PAGE));
+    }
+
+    private URLShortenerReverseIndex createPersistentIndex() throws Exception
+    {
+        URLShortenerReverseIndex persistentIndex = new URLShortenerReverseIndex();
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        URLShortenerStore store = mock(URLShortenerStore.class);
+        doAnswer(invocation -> {
+            Map.copyOf(this.storedPageIDs).forEach(invocation.<BiConsumer<String, DocumentReference>>getArgument(0));
+            return null;
+        }).when(store).scan(any());
+
+        setFieldValue(persistentIndex, "environment", environment);
+        setFieldValue(persistentIndex, "serializer", (EntityReferenceSerializer<String>) (reference, parameters) -> {
+            this.references.put(reference.toString(), (DocumentReference) reference);
+            return reference.toString();
+        });
+        setFieldValue(persistentIndex, "resolver",
+            (DocumentReferenceResolver<String>) (reference, parameters) -> this.references.get(reference));
+        setFieldValue(persistentIndex, "storeProvider", (Provider<URLShortenerStore>) () -> store);
+        setFieldValue(persistentIndex, "execution", mock(Execution.class));
+        setFieldValue(persistentIndex, "executionContextManager", mock(ExecutionContextManager.class));
+        setFieldValue(persistentIndex, "logger", this.logger);
+        persistentIndex.initialize();
+        return persistentIndex;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.urlshortener.script.URLShortenerScriptService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerSolrMetadataExtractor}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerSolrMetadataExtractorTest
+{
+    private static final DocumentReference PAGE = new DocumentReference("wiki", "Space", "Page");
+
+    @InjectMockComponents
+    private URLShortenerSolrMetadataExtractor extractor;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private URLShortenerReverseIndex reverseIndex;
+
+    @Mock
+    private XWikiDocument document;
+
+    private final SolrInputDocument solrDocument = new SolrInputDocument();
+
+    @BeforeEach
+    void beforeEach()
+    {
+        when(this.configuration.getStoreHint()).thenReturn("relational");
+        when(this.document.getDocumentReference()).thenReturn(PAGE);
+    }
+
+    @Test
+    void extractWithKnownPageID()
+    {
+        when(this.reverseIndex.get(PAGE)).thenReturn("a1b2c");
+
+        assertTrue(this.extractor.extract(this.document, this.solrDocument));
+        assertEquals("a1b2c", this.solrDocument.getFieldValue(URLShortenerScriptService.PAGE_ID_FIELD));
+    }
+
+    @Test
+    void extractWithoutPageID()
+    {
+        assertFalse(this.extractor.extract(this.document, this.solrDocument));
+        assertNull(this.solrDocument.getFieldValue(URLShortenerScriptService.PAGE_ID_FIELD));
+    }
+
+    @Test
+    void extractWithXObjectStore()
+    {
+        // The objects are already indexed with the document.
+        when(this.configuration.getStoreHint()).thenReturn("xobject");
+
+        assertFalse(this.extractor.extract(this.document, this.solrDocument));
+        verify(this.reverseIndex, never()).get(PAGE);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.XHTMLWikiPrinter;
+import org.xwiki.rendering.renderer.reference.link.LinkLabelGenerator;
+import org.xwiki.resource.ResourceReferenceSerializer;
+import org.xwiki.resource.SerializeResourceReferenceException;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.url.ExtendedURL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerXHTMLLinkTypeRenderer}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerXHTMLLinkTypeRendererTest
+{
+    private static final DocumentReference PAGE = new DocumentReference("xwiki", "Space", "Page");
+
+    private static final URLShortenerResourceReference SHORT_REFERENCE =
+        new URLShortenerResourceReference("", "abc12");
+
+    private static final ResourceReference REFERENCE =
+        new ResourceReference("abc12", URLShortenerResourceReferenceTypeParser.TYPE);
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private URLShortenerXHTMLLinkTypeRenderer renderer;
+
+    @MockComponent
+    private URLShortenerLinkResolver linkResolver;
+
+    @MockComponent
+    @Named(URLShortenerResourceReference.HINT)
+    private ResourceReferenceSerializer<URLShortenerResourceReference, ExtendedURL> resourceReferenceSerializer;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> entityReferenceSerializer;
+
+    @MockComponent
+    private LinkLabelGenerator linkLabelGenerator;
+
+    private final DefaultWikiPrinter printer = new DefaultWikiPrinter();
+
+    private final XHTMLWikiPrinter xhtmlPrinter = new XHTMLWikiPrinter(this.printer);
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.renderer.setXHTMLWikiPrinter(this.xhtmlPrinter);
+        when(this.linkResolver.parse("abc12")).thenReturn(SHORT_REFERENCE);
+        when(this.resourceReferenceSerializer.serialize(SHORT_REFERENCE))
+            .thenReturn(new ExtendedURL(List.of("xwiki", "short", "abc12")));
+        when(this.entityReferenceSerializer.serialize(PAGE)).thenReturn("xwiki:Space.Page");
+        when(this.linkLabelGenerator.generate(new DocumentResourceReference("xwiki:Space.Page"))).thenReturn("Page");
+    }
+
+    @Test
+    void renderWithoutLabel()
+    {
+        when(this.linkResolver.resolve(SHORT_REFERENCE)).thenReturn(PAGE);
+
+        render(false);
+
+        // Labelled like a link to the target page.
+        assertEquals("<span class=\"wikilink\"><a href=\"/xwiki/short/abc12\">"
+            + "<span class=\"wikigeneratedlinkcontent\">Page</span></a></span>", this.printer.toString());
+    }
+
+    @Test
+    void renderWithLabel()
+    {
+        when(this.linkResolver.resolve(SHORT_REFERENCE)).thenReturn(PAGE);
+
+        render(true);
+
+        assertEquals("<span class=\"wikilink\"><a href=\"/xwiki/short/abc12\">label</a></span>",
+            this.printer.toString());
+    }
+
+    @Test
+    void renderWithUnknownPageID()
+    {
+        render(false);
+
+        // Styled like a link to a missing page, and labelled with the reference.
+        assertEquals("<span class=\"wikicreatelink\"><a href=\"/xwiki/short/abc12\">"
+            + "<span class=\"wikigeneratedlinkcontent\">abc12</span></a></span>", this.printer.toString());
+    }
+
+    @Test
+    void renderWhenSerializationFails() throws Exception
+    {
+        when(this.linkResolver.resolve(SHORT_REFERENCE)).thenReturn(PAGE);
+        when(this.resourceReferenceSerializer.serialize(SHORT_REFERENCE))
+            .thenThrow(new SerializeResourceReferenceException("Error"));
+
+        render(true);
+
+        assertEquals("<span class=\"wikilink\"><a>label</a></span>", this.printer.toString());
+        assertEquals("Failed to serialize the short link [abc12]. Root cause: "
+            + "[SerializeResourceReferenceException: Error]", this.logCapture.getMessage(0));
+    }
+
+    private void render(boolean hasLabel)
+    {
+        this.renderer.setHasLabel(hasLabel);
+        this.renderer.beginLink(REFERENCE, false, Map.of());
+        if (hasLabel) {
+            this.xhtmlPrinter.printXML("label");
+        }
+        this.renderer.endLink(REFERENCE, false, Map.of());
+    }
+}
@@ -20,28 +20,18 @@
 package com.xwiki.urlshortener.internal.rest;
 
 import java.util.Arrays;
-import java.util.Collections;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.Mock;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.model.reference.LocalDocumentReference;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.LogLevel;
@@ -54,16 +44,19 @@ import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.web.XWikiRequest;
 import com.xpn.xwiki.web.XWikiResponse;
 import com.xwiki.urlshortener.URLShortenerException;
 import com.xwiki.urlshortener.URLShortenerManager;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+import com.xwiki.urlshortener.internal.URLShortenerRedirectTarget;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -77,8 +70,6 @@ import static org.mockito.Mockito.when;
 @ComponentTest
 public class DefaultURLShortenerResourceTest
 {
-    public static final String DEFAULT_STATEMENT = "property.URLShortener.Code.URLShortenerClass.pageID:12345";
-
     public static final String PAGE_ID = "pageID";
 
     private static final LocalDocumentReference URL_SHORTENER_CLASS_REFERENCE =
@@ -92,15 +83,9 @@ public class DefaultURLShortenerResourceTest
     @InjectMockComponents
     private DefaultURLShortenerResource urlShortenerResource;
 
-    @MockComponent
-    private QueryManager queryManager;
-
     @MockComponent
     private DocumentReferenceResolver<String> documentReferenceResolver;
 
-    @MockComponent
-    private EntityReferenceResolver<SolrDocument> solrEntityReferenceResolver;
-
     @MockComponent
     private ContextualAuthorizationManager authorization;
 
@@ -110,11 +95,8 @@ public class DefaultURLShortenerResourceTest
     @MockComponent
     private URLShortenerManager shortenerManager;
 
-    @Mock
-    private Query query;
-
-    @Mock
-    private QueryResponse queryResponse;
+    @MockComponent
+    private URLShortenerConfiguration configuration;
 
     @Mock
     private XWikiContext xcontext;
@@ -128,12 +110,16 @@ public class DefaultURLShortenerResourceTest
     @Mock
     private XWikiResponse xwikiResponse;
 
+    @Mock
+    private XWikiRequest xwikiRequest;
+
     @BeforeEach
-    void beforeEach() throws QueryException
+    void beforeEach()
     {
         when(xcontextProvider.get()).thenReturn(xcontext);
         when(xcontext.getWiki()).thenReturn(xwiki);
         when(document.clone()).thenReturn(document);
+        when(configuration.getRedirectStatus()).thenReturn(301);
     }
 
     /**
@@ -142,15 +128,8 @@ public class DefaultURLShortenerResourceTest
     @Test
     void redirectWithShortenedURL() throws Exception
     {
-        EntityReference docReference = new EntityReference("ref", EntityType.DOCUMENT);
-        SolrDocumentList solrDocumentList = new SolrDocumentList();
-        SolrDocument solrDocument = new SolrDocument();
-        solrDocumentList.add(solrDocument);
-        when(this.queryManager.createQuery(DEFAULT_STATEMENT, "solr")).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        when(query.execute()).thenReturn(Collections.singletonList(queryResponse));
-        when(queryResponse.getResults()).thenReturn(solrDocumentList);
-        when(solrEntityReferenceResolver.resolve(solrDocument, EntityType.DOCUMENT)).thenReturn(docReference);
+        DocumentReference docReference = new DocumentReference("wiki", "Space", "ref");
+        when(this.shortenerManager.getDocumentReference("", PAGE_ID_VALUE)).thenReturn(docReference);
 
         when(xwiki.getDocument(docReference, xcontext)).thenReturn(document);
         when(document.getURL("view", xcontext)).thenReturn("myURL");
@@ -160,6 +139,47 @@ public class DefaultURLShortenerResourceTest
         Response response = Response.status(301).build();
         Response actual = this.urlShortenerResource.redirect(PAGE_ID_VALUE);
         assertEquals(response.getStatus(), actual.getStatus());
+        assertEquals("myURL", actual.getMetadata().getFirst("Location"));
+        verify(xwikiResponse, times(0)).sendRedirect(any());
+    }
+
+    @Test
+    void redirectWithConfiguredStatusAndCacheHeaders() throws Exception
+    {
+        DocumentReference docReference = new DocumentReference("wiki", "Space", "ref");
+        when(this.shortenerManager.getDocumentReference("", PAGE_ID_VALUE)).thenReturn(docReference);
+        when(xwiki.getDocument(docReference, xcontext)).thenReturn(document);
+        when(document.getURL("view", xcontext)).thenReturn("myURL");
+        when(configuration.getRedirectStatus()).thenReturn(307);
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        when(xcontext.getRequest()).thenReturn(xwikiRequest);
+
+        Response actual = this.urlShortenerResource.redirect(PAGE_ID_VALUE);
+
+        assertEquals(307, actual.getStatus());
+        assertEquals("myURL", actual.getMetadata().getFirst("Location"));
+        assertEquals("public, max-age=3600", actual.getMetadata().getFirst("Cache-Control"));
+        assertEquals(new URLShortenerRedirectTarget(docReference, "myURL").getETag(PAGE_ID_VALUE),
+            actual.getMetadata().getFirst("ETag"));
+        assertNull(actual.getMetadata().getFirst("Last-Modified"));
+    }
+
+    @Test
+    void redirectWithMatchingETag() throws Exception
+    {
+        DocumentReference docReference = new DocumentReference("wiki", "Space", "ref");
+        when(this.shortenerManager.getDocumentReference("", PAGE_ID_VALUE)).thenReturn(docReference);
+        when(xwiki.getDocument(docReference, xcontext)).thenReturn(document);
+        when(document.getURL("view", xcontext)).thenReturn("myURL");
+        when(configuration.getRedirectMaxAge()).thenReturn(3600);
+        when(xcontext.getRequest()).thenReturn(xwikiRequest);
+        when(xwikiRequest.getHeader("If-None-Match"))
+            .thenReturn(new URLShortenerRedirectTarget(docReference, "myURL").getETag(PAGE_ID_VALUE));
+
+        Response actual = this.urlShortenerResource.redirect(PAGE_ID_VALUE);
+
+        assertEquals(304, actual.getStatus());
+        assertNull(actual.getMetadata().getFirst("Location"));
     }
 
     /**
@@ -168,12 +188,7 @@ public class DefaultURLShortenerResourceTest
     @Test
     void redirectWithoutShortenedURL() throws Exception
     {
-        // Empty solr list response.
-        SolrDocumentList solrDocumentList = new SolrDocumentList();
-        when(this.queryManager.createQuery(DEFAULT_STATEMENT, "solr")).thenReturn(query);
-        when(query.setLimit(anyInt())).thenReturn(query);
-        when(query.execute()).thenReturn(Collections.singletonList(queryResponse));
-        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(this.shortenerManager.getDocumentReference("", PAGE_ID_VALUE)).thenReturn(null);
 
         WebApplicationException exception =
             assertThrows(WebApplicationException.class, () -> this.urlShortenerResource.redirect(PAGE_ID_VALUE));
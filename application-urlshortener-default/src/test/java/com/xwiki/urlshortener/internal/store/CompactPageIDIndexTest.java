@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link CompactPageIDIndex}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class CompactPageIDIndexTest
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactPageIDIndexTest.class);
+
+    private static final int ENTRIES = 100000;
+
+    private static final int MEASURED_ENTRIES = 20000;
+
+    private final CompactPageIDIndex index = new CompactPageIDIndex();
+
+    @Test
+    void encode()
+    {
+        assertEquals(-1, CompactPageIDIndex.encode(""));
+        assertEquals(-1, CompactPageIDIndex.encode("A1B2C"));
+        assertEquals(-1, CompactPageIDIndex.encode("a1b2c3d4"));
+        assertEquals(-1, CompactPageIDIndex.encode("custom"));
+        for (String pageID : new String[] {"0", "00000", "a1b2c", "fffffff", "0000001"}) {
+            assertEquals(pageID, CompactPageIDIndex.decode(CompactPageIDIndex.encode(pageID)));
+        }
+        // The leading zeros are kept.
+        assertFalse(CompactPageIDIndex.encode("0a1b2") == CompactPageIDIndex.encode("a1b2"));
+    }
+
+    @Test
+    void putGetAndRemove()
+    {
+        this.index.put("a1b2c", "wiki:A.B");
+        this.index.put("custom-id", "wiki:A.B");
+        this.index.put("00000", "test:C.D");
+
+        assertEquals(3, this.index.size());
+        assertEquals("wiki:A.B", this.index.get("a1b2c"));
+        assertEquals("wiki:A.B", this.index.get("custom-id"));
+        assertEquals("test:C.D", this.index.get("00000"));
+        assertNull(this.index.get("0"));
+
+        this.index.put("00000", "wiki:A.B");
+        assertEquals("wiki:A.B", this.index.get("00000"));
+        assertTrue(this.index.remove("a1b2c"));
+        assertTrue(this.index.remove("custom-id"));
+        assertFalse(this.index.remove("custom-id"));
+        assertEquals(1, this.index.size());
+
+        Map<String, String> entries = new HashMap<>();
+        this.index.forEach(entries::put);
+        assertEquals(Map.of("00000", "wiki:A.B"), entries);
+    }
+
+    @Test
+    void randomOperations()
+    {
+        // Compare with a regular map, with enough entries to go through resizes and removals in clusters.
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < ENTRIES; i++) {
+            String pageID = Integer.toHexString(random.nextInt(1 << 16));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(pageID) != null, this.index.remove(pageID));
+            } else {
+                String reference = "wiki:Space.Page" + random.nextInt(1000);
+                expected.put(pageID, reference);
+                this.index.put(pageID, reference);
+            }
+        }
+
+        assertEquals(expected.size(), this.index.size());
+        expected.forEach((pageID, reference) -> assertEquals(reference, this.index.get(pageID)));
+        Map<String, String> actual = new HashMap<>();
+        this.index.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void memoryPerEntry()
+    {
+        Map<String, DocumentReference> documentReferences = new HashMap<>();
+        Map<String, String> serializedReferences = new HashMap<>();
+        for (int i = 0; i < MEASURED_ENTRIES; i++) {
+            String pageID = String.format("%05x", i);
+            DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page" + i);
+            String reference = documentReference.toString();
+            documentReferences.put(pageID, documentReference);
+            serializedReferences.put(pageID, reference);
+            this.index.put(pageID, reference);
+        }
+
+        long documentReferencesSize = GraphLayout.parseInstance(documentReferences).totalSize();
+        long serializedReferencesSize = GraphLayout.parseInstance(serializedReferences).totalSize();
+        long indexSize = GraphLayout.parseInstance(this.index).totalSize();
+        List<String> strings = new ArrayList<>();
+        this.index.forEach((pageID, reference) -> strings.add(reference));
+        // The sizes of the index and of the map without the serialized references they hold.
+        long overhead = indexSize - getSize(strings);
+        long mapOverhead = serializedReferencesSize - getSize(new ArrayList<>(serializedReferences.values()));
+        LOGGER.info("Bytes per entry: [{}] with a map of document references, [{}] with a map of serialized "
+            + "references, of which [{}] besides the serialized references, [{}] with the index, of which [{}] "
+            + "besides the serialized references.", documentReferencesSize / MEASURED_ENTRIES,
+            serializedReferencesSize / MEASURED_ENTRIES, mapOverhead / MEASURED_ENTRIES, indexSize / MEASURED_ENTRIES,
+            overhead / MEASURED_ENTRIES);
+
+        // The absolute sizes depend on the JVM (object headers, compressed pointers) so only the relative ones are
+        // asserted.
+        assertTrue(indexSize < serializedReferencesSize);
+        assertTrue(indexSize < documentReferencesSize);
+        assertTrue(overhead < mapOverhead);
+    }
+
+    private long getSize(List<String> strings)
+    {
+        return GraphLayout.parseInstance((Object) strings.toArray()).totalSize()
+            - GraphLayout.parseInstance((Object) new Object[strings.size()]).totalSize();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Unit tests for {@link DocumentReferenceDictionary}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class DocumentReferenceDictionaryTest
+{
+    private static final DocumentReference PAGE = new DocumentReference("wiki", List.of("A", "B"), "WebHome");
+
+    private static final DocumentReference SIBLING = new DocumentReference("wiki", List.of("A", "C"), "WebHome");
+
+    private static final DocumentReference OTHER_PAGE = new DocumentReference("test", List.of("D"), "E");
+
+    @Test
+    void addAndFind()
+    {
+        DocumentReferenceDictionary dictionary = new DocumentReferenceDictionary();
+        long key = dictionary.add(PAGE);
+
+        assertEquals(key, dictionary.add(new DocumentReference("wiki", List.of("A", "B"), "WebHome")));
+        assertEquals(key, dictionary.find(PAGE));
+        assertNotEquals(key, dictionary.add(SIBLING));
+        assertEquals(DocumentReferenceDictionary.MISSING, dictionary.find(OTHER_PAGE));
+        // wiki, A, B and C.
+        assertEquals(4, dictionary.getNodeCount());
+        // wiki, A, B, WebHome and C.
+        assertEquals(5, dictionary.getNameCount());
+    }
+
+    @Test
+    void compact()
+    {
+        DocumentReferenceDictionary dictionary = new DocumentReferenceDictionary();
+        dictionary.add(PAGE);
+        long siblingKey = dictionary.add(SIBLING);
+        long otherKey = dictionary.add(OTHER_PAGE);
+
+        long[] keys = {otherKey, siblingKey};
+        DocumentReferenceDictionary compacted = dictionary.compact(keys);
+
+        assertEquals(keys[0], compacted.find(OTHER_PAGE));
+        assertEquals(keys[1], compacted.find(SIBLING));
+        assertEquals(DocumentReferenceDictionary.MISSING, compacted.find(PAGE));
+        // test, D, wiki, A and C.
+        assertEquals(5, compacted.getNodeCount());
+        // test, D, E, wiki, A, C and WebHome.
+        assertEquals(7, compacted.getNameCount());
+        // The dictionary itself is left untouched.
+        assertEquals(siblingKey, dictionary.find(SIBLING));
+        assertEquals(6, dictionary.getNodeCount());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xwiki.urlshortener.URLShortenerException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Unit tests for {@link MappedURLShortenerStore}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class MappedURLShortenerStoreTest
+{
+    private static final DocumentReference PAGE = new DocumentReference("wiki", "A", "B");
+
+    private static final DocumentReference OTHER_PAGE = new DocumentReference("test", "C", "D");
+
+    @TempDir
+    File permanentDirectory;
+
+    private final Map<String, DocumentReference> references = new HashMap<>();
+
+    private MappedURLShortenerStore store;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.store = createStore();
+    }
+
+    @AfterEach
+    void afterEach() throws Exception
+    {
+        this.store.dispose();
+    }
+
+    @Test
+    void putAndGet() throws Exception
+    {
+        this.store.put("12345", PAGE);
+
+        assertEquals(PAGE, this.store.get("test", "12345"));
+        assertEquals("12345", this.store.getPageID(PAGE));
+        assertTrue(this.store.exists("12345"));
+        assertNull(this.store.get("", "a1b2c"));
+        assertNull(this.store.getPageID(OTHER_PAGE));
+    }
+
+    @Test
+    void putWithTooLongPageID()
+    {
+        assertThrows(URLShortenerException.class, () -> this.store.put("0123456789abcdefg", PAGE));
+    }
+
+    @Test
+    void getAfterRestart() throws Exception
+    {
+        this.store.put("12345", PAGE);
+        this.store.put("a1b2c", OTHER_PAGE);
+        this.store.delete("a1b2c");
+
+        restart();
+
+        assertEquals(PAGE, this.store.get("", "12345"));
+        assertNull(this.store.get("", "a1b2c"));
+    }
+
+    @Test
+    void compact() throws Exception
+    {
+        this.store.put("12345", PAGE);
+        this.store.put("a1b2c", OTHER_PAGE);
+        this.store.put("00000", OTHER_PAGE);
+        this.store.compact();
+
+        Path directory = this.permanentDirectory.toPath().resolve("urlshortener");
+        assertTrue(Files.exists(directory.resolve("index")));
+        assertEquals(0, Files.size(directory.resolve("journal")));
+        assertEquals(PAGE, this.store.get("", "12345"));
+        assertEquals(OTHER_PAGE, this.store.get("", "a1b2c"));
+
+        // Changes made after the compaction override the index.
+        assertTrue(this.store.replace(PAGE, "12345", "fffff"));
+        assertTrue(this.store.delete("00000"));
+        assertFalse(this.store.exists("12345"));
+        assertEquals("fffff", this.store.getPageID(PAGE));
+
+        this.store.compact();
+        restart();
+
+        Map<String, DocumentReference> mappings = new HashMap<>();
+        this.store.scan(mappings::put);
+        assertEquals(Map.of("a1b2c", OTHER_PAGE, "fffff", PAGE), mappings);
+        assertEquals("a1b2c", this.store.getPageID(OTHER_PAGE));
+    }
+
+    @Test
+    void getPageIDFromIndex() throws Exception
+    {
+        // Both references have the same hash code.
+        DocumentReference first = new DocumentReference("wiki", "Space", "Aa");
+        DocumentReference second = new DocumentReference("wiki", "Space", "BB");
+        for (int i = 0; i < 100; i++) {
+            this.store.put(String.format("p%03d", i), new DocumentReference("wiki", "Space", "Page" + i));
+        }
+        this.store.put("first", first);
+        this.store.put("second", second);
+        this.store.put("removed", OTHER_PAGE);
+        this.store.compact();
+
+        assertEquals("first", this.store.getPageID(first));
+        assertEquals("second", this.store.getPageID(second));
+        assertEquals("p042", this.store.getPageID(new DocumentReference("wiki", "Space", "Page42")));
+        assertNull(this.store.getPageID(new DocumentReference("wiki", "Space", "Other")));
+
+        // The page IDs of the index are checked against the latest changes.
+        assertTrue(this.store.delete("removed"));
+        assertNull(this.store.getPageID(OTHER_PAGE));
+        assertTrue(this.store.replace(first, "first", "changed"));
+        assertEquals("changed", this.store.getPageID(first));
+
+        restart();
+
+        assertEquals("changed", this.store.getPageID(first));
+        assertEquals("second", this.store.getPageID(second));
+        assertNull(this.store.getPageID(OTHER_PAGE));
+    }
+
+    @Test
+    void replaceWithOtherDocument() throws Exception
+    {
+        this.store.put("12345", PAGE);
+
+        assertFalse(this.store.replace(OTHER_PAGE, "12345", "a1b2c"));
+        assertFalse(this.store.replace(PAGE, "a1b2c", "fffff"));
+        assertEquals(PAGE, this.store.get("", "12345"));
+    }
+
+    @Test
+    void restartWithTruncatedJournal() throws Exception
+    {
+        this.store.put("12345", PAGE);
+        this.store.dispose();
+        // Simulate a crash while the next change was being written.
+        Files.write(this.permanentDirectory.toPath().resolve("urlshortener").resolve("journal"), new byte[] {0, 5, 'a'},
+            StandardOpenOption.APPEND);
+        this.store = createStore();
+
+        this.store.put("a1b2c", OTHER_PAGE);
+        restart();
+
+        assertEquals(PAGE, this.store.get("", "12345"));
+        assertEquals(OTHER_PAGE, this.store.get("", "a1b2c"));
+    }
+
+    private void restart() throws Exception
+    {
+        this.store.dispose();
+        this.store = createStore();
+    }
+
+    private MappedURLShortenerStore createStore() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+
+        MappedURLShortenerStore mappedStore = new MappedURLShortenerStore();
+        setFieldValue(mappedStore, "environment", environment);
+        setFieldValue(mappedStore, "serializer", (EntityReferenceSerializer<String>) (reference, parameters) -> {
+            this.references.put(reference.toString(), (DocumentReference) reference);
+            return reference.toString();
+        });
+        setFieldValue(mappedStore, "resolver",
+            (DocumentReferenceResolver<String>) (reference, parameters) -> this.references.get(reference));
+        setFieldValue(mappedStore, "logger", LoggerFactory.getLogger(MappedURLShortenerStore.class));
+        mappedStore.initialize();
+        return mappedStore;
+    }
+}
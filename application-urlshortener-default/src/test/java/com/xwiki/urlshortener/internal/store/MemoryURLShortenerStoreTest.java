@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Unit tests for {@link MemoryURLShortenerStore}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class MemoryURLShortenerStoreTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "A", "B");
+
+    private final Map<String, DocumentReference> references = new HashMap<>();
+
+    private final MemoryURLShortenerStore store = new MemoryURLShortenerStore();
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        setFieldValue(this.store, "serializer", (EntityReferenceSerializer<String>) (reference, parameters) -> {
+            this.references.put(reference.toString(), (DocumentReference) reference);
+            return reference.toString();
+        });
+        setFieldValue(this.store, "resolver",
+            (DocumentReferenceResolver<String>) (reference, parameters) -> this.references.get(reference));
+    }
+
+    @Test
+    void putAndGet()
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        assertEquals(DOCUMENT_REFERENCE, this.store.get("test", "12345"));
+        assertEquals("12345", this.store.getPageID(DOCUMENT_REFERENCE));
+        assertTrue(this.store.exists("12345"));
+        assertNull(this.store.get("", "a1b2c"));
+        assertNull(this.store.getPageID(new DocumentReference("wiki", "A", "C")));
+    }
+
+    @Test
+    void replace()
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        assertFalse(this.store.replace(new DocumentReference("wiki", "A", "C"), "12345", "a1b2c"));
+        assertTrue(this.store.replace(DOCUMENT_REFERENCE, "12345", "a1b2c"));
+        assertFalse(this.store.exists("12345"));
+        assertEquals(DOCUMENT_REFERENCE, this.store.get("", "a1b2c"));
+        assertEquals("a1b2c", this.store.getPageID(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void delete()
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+        this.store.put("a1b2c", DOCUMENT_REFERENCE);
+
+        assertTrue(this.store.delete("12345"));
+        assertFalse(this.store.delete("12345"));
+        // The remaining page ID of the document is used instead.
+        assertEquals("a1b2c", this.store.getPageID(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void scan()
+    {
+        DocumentReference otherReference = new DocumentReference("test", "C", "D");
+        this.store.put("12345", DOCUMENT_REFERENCE);
+        this.store.put("a1b2c", otherReference);
+
+        Map<String, DocumentReference> visited = new HashMap<>();
+        this.store.scan(visited::put);
+
+        assertEquals(Map.of("12345", DOCUMENT_REFERENCE, "a1b2c", otherReference), visited);
+    }
+
+    @Test
+    void scanWiki()
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+        this.store.put("a1b2c", new DocumentReference("test", "C", "D"));
+
+        Map<String, DocumentReference> visited = new HashMap<>();
+        this.store.scan("wiki", visited::put);
+
+        assertEquals(Map.of("12345", DOCUMENT_REFERENCE), visited);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Unit tests for {@link ParallelWikiLookup}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class ParallelWikiLookupTest
+{
+    private static final List<String> WIKIS = List.of("xwiki", "test", "other");
+
+    private final URLShortenerConfiguration configuration = mock(URLShortenerConfiguration.class);
+
+    private final Execution execution = mock(Execution.class);
+
+    private final ExecutionContextManager executionContextManager = mock(ExecutionContextManager.class);
+
+    private final ParallelWikiLookup parallelWikiLookup = new ParallelWikiLookup();
+
+    @BeforeEach
+    void beforeEach()
+    {
+        when(this.configuration.getLookupFallbackParallelism()).thenReturn(4);
+        setFieldValue(this.parallelWikiLookup, "configuration", this.configuration);
+        setFieldValue(this.parallelWikiLookup, "execution", this.execution);
+        setFieldValue(this.parallelWikiLookup, "executionContextManager", this.executionContextManager);
+        this.parallelWikiLookup.initialize();
+    }
+
+    @AfterEach
+    void afterEach()
+    {
+        this.parallelWikiLookup.dispose();
+    }
+
+    @Test
+    void findFirstDoesNotInterruptTheOtherLookups() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        AtomicInteger interrupted = new AtomicInteger();
+
+        String result = this.parallelWikiLookup.findFirst(WIKIS, wiki -> {
+            if ("test".equals(wiki)) {
+                // Wait for the slow lookups to start, so that they are still running when the result is found.
+                started.await();
+                return "test:A.B";
+            }
+            started.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+            finished.countDown();
+            return "xwiki:A.B";
+        });
+
+        assertEquals("test:A.B", result);
+        released.countDown();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(0, interrupted.get());
+    }
+
+    @Test
+    void findFirstWithoutResult() throws Exception
+    {
+        assertNull(this.parallelWikiLookup.findFirst(WIKIS, wiki -> null));
+        assertNull(this.parallelWikiLookup.findFirst(List.of(), wiki -> "xwiki:A.B"));
+    }
+
+    @Test
+    void findFirstWithFailure() throws Exception
+    {
+        URLShortenerException exception = assertThrows(URLShortenerException.class,
+            () -> this.parallelWikiLookup.findFirst(WIKIS, wiki -> {
+                if ("other".equals(wiki)) {
+                    throw new IllegalStateException("Database down");
+                }
+                return null;
+            }));
+        assertEquals("Database down", exception.getCause().getMessage());
+
+        // A failure on one wiki doesn't hide the result found on another one.
+        assertEquals("xwiki:A.B", this.parallelWikiLookup.findFirst(WIKIS, wiki -> {
+            if ("other".equals(wiki)) {
+                throw new IllegalStateException("Database down");
+            }
+            return "xwiki".equals(wiki) ? "xwiki:A.B" : null;
+        }));
+    }
+
+    @Test
+    void findFirstInitializesTheExecutionContext() throws Exception
+    {
+        assertNull(this.parallelWikiLookup.findFirst(WIKIS, wiki -> null));
+
+        // The mocked execution never keeps the context, so each lookup initializes one.
+        verify(this.executionContextManager, times(3)).initialize(any(ExecutionContext.class));
+        verify(this.executionContextManager, never()).clone(any());
+    }
+
+    @Test
+    void findFirstWithExecutionContext() throws Exception
+    {
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+
+        assertNull(this.parallelWikiLookup.findFirst(WIKIS, wiki -> null));
+
+        verify(this.executionContextManager, never()).initialize(any());
+        verify(this.executionContextManager, never()).clone(any());
+    }
+
+    @Test
+    void findFirstWhenTheExecutionContextFailsToInitialize() throws Exception
+    {
+        doThrow(new ExecutionContextException("Failed")).when(this.executionContextManager).initialize(any());
+
+        URLShortenerException exception = assertThrows(URLShortenerException.class,
+            () -> this.parallelWikiLookup.findFirst(WIKIS, wiki -> "xwiki:A.B"));
+        assertEquals("Failed to initialize the execution context for the wiki lookup.",
+            exception.getCause().getMessage());
+        verify(this.execution, times(3)).removeContext();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.inject.Provider;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.stubbing.Answer;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xwiki.urlshortener.URLShortenerException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Unit tests for {@link RelationalURLShortenerStore}, against an in-memory H2 database.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class RelationalURLShortenerStoreTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "A", "B");
+
+    private static final DocumentReference OTHER_REFERENCE = new DocumentReference("other", "A", "C");
+
+    private final Map<String, DocumentReference> references = new HashMap<>();
+
+    private final XWikiHibernateBaseStore hibernateStore = mock(XWikiHibernateBaseStore.class);
+
+    private final XWikiContext xcontext = mock(XWikiContext.class);
+
+    private Connection connection;
+
+    private RelationalURLShortenerStore store;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:" + UUID.randomUUID());
+
+        Session session = mock(Session.class);
+        when(session.doReturningWork(any())).thenAnswer(invocation -> {
+            try {
+                return invocation.<ReturningWork<?>>getArgument(0).execute(this.connection);
+            } catch (SQLException e) {
+                throw new HibernateException(e);
+            }
+        });
+        Answer<Object> callback = invocation -> {
+            try {
+                return invocation.<XWikiHibernateBaseStore.HibernateCallback<?>>getArgument(1).doInHibernate(session);
+            } catch (HibernateException e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_UNKNOWN, "Failed to execute the callback", e);
+            }
+        };
+        when(this.hibernateStore.executeRead(same(this.xcontext), any())).thenAnswer(callback);
+        when(this.hibernateStore.executeWrite(same(this.xcontext), any())).thenAnswer(callback);
+
+        when(this.xcontext.getWikiId()).thenReturn("sub");
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+
+        this.store = createStore();
+    }
+
+    @AfterEach
+    void afterEach() throws Exception
+    {
+        this.connection.close();
+    }
+
+    private RelationalURLShortenerStore createStore() throws Exception
+    {
+        RelationalURLShortenerStore relationalStore = new RelationalURLShortenerStore();
+        setFieldValue(relationalStore, "hibernateStore", this.hibernateStore);
+        setFieldValue(relationalStore, "xcontextProvider", (Provider<XWikiContext>) () -> this.xcontext);
+        setFieldValue(relationalStore, "serializer", (EntityReferenceSerializer<String>) (reference, parameters) -> {
+            this.references.put(reference.toString(), (DocumentReference) reference);
+            return reference.toString();
+        });
+        setFieldValue(relationalStore, "resolver",
+            (DocumentReferenceResolver<String>) (reference, parameters) -> this.references.get(reference));
+        return relationalStore;
+    }
+
+    @Test
+    void putAndGet() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        assertEquals(DOCUMENT_REFERENCE, this.store.get("test", "12345"));
+        assertEquals("12345", this.store.getPageID(DOCUMENT_REFERENCE));
+        assertTrue(this.store.exists("12345"));
+        assertFalse(this.store.exists("a1b2c"));
+        assertNull(this.store.get("", "a1b2c"));
+        assertNull(this.store.getPageID(OTHER_REFERENCE));
+
+        // The table is in the main wiki database, and the current wiki is restored afterwards.
+        InOrder order = inOrder(this.xcontext);
+        order.verify(this.xcontext).setWikiId("xwiki");
+        order.verify(this.xcontext).setWikiId("sub");
+    }
+
+    @Test
+    void putWithExistingPageID() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        URLShortenerException exception =
+            assertThrows(URLShortenerException.class, () -> this.store.put("12345", OTHER_REFERENCE));
+        assertEquals("Failed to access the URL shortener table.", exception.getMessage());
+        assertEquals(DOCUMENT_REFERENCE, this.store.get("", "12345"));
+    }
+
+    @Test
+    void createTableWhenExisting() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        // A new instance finds the table created by the previous one.
+        RelationalURLShortenerStore otherStore = createStore();
+        assertEquals(DOCUMENT_REFERENCE, otherStore.get("", "12345"));
+        otherStore.put("a1b2c", OTHER_REFERENCE);
+        assertEquals(OTHER_REFERENCE, this.store.get("", "a1b2c"));
+    }
+
+    @Test
+    void getAll() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+        this.store.put("a1b2c", OTHER_REFERENCE);
+
+        assertEquals(Map.of("12345", DOCUMENT_REFERENCE, "a1b2c", OTHER_REFERENCE),
+            this.store.getAll("wiki", List.of("12345", "a1b2c", "zzzzz")));
+        assertEquals(Map.of(), this.store.getAll("wiki", List.of()));
+    }
+
+    @Test
+    void replace() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        assertFalse(this.store.replace(OTHER_REFERENCE, "12345", "a1b2c"));
+        assertFalse(this.store.replace(DOCUMENT_REFERENCE, "zzzzz", "a1b2c"));
+        assertTrue(this.store.replace(DOCUMENT_REFERENCE, "12345", "a1b2c"));
+
+        assertNull(this.store.get("", "12345"));
+        assertEquals(DOCUMENT_REFERENCE, this.store.get("", "a1b2c"));
+        assertEquals("a1b2c", this.store.getPageID(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void delete() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+
+        assertTrue(this.store.delete("12345"));
+        assertFalse(this.store.delete("12345"));
+
+        assertNull(this.store.get("", "12345"));
+        assertNull(this.store.getPageID(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void scan() throws Exception
+    {
+        this.store.put("12345", DOCUMENT_REFERENCE);
+        this.store.put("a1b2c", OTHER_REFERENCE);
+
+        Map<String, DocumentReference> all = new HashMap<>();
+        this.store.scan(all::put);
+        assertEquals(Map.of("12345", DOCUMENT_REFERENCE, "a1b2c", OTHER_REFERENCE), all);
+
+        Map<String, DocumentReference> wiki = new HashMap<>();
+        this.store.scan("other", wiki::put);
+        assertEquals(Map.of("a1b2c", OTHER_REFERENCE), wiki);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import javax.inject.Provider;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SolrPageIDIndex}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class SolrPageIDIndexTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "A", "B");
+
+    private static final DocumentReference OTHER_REFERENCE = new DocumentReference("subwiki", "C", "D");
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private SolrPageIDIndex index;
+
+    @MockComponent
+    private Solr solr;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    @MockComponent
+    private DocumentReferenceResolver<String> resolver;
+
+    @MockComponent
+    private Provider<URLShortenerStore> storeProvider;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    private final SolrClient client = mock(SolrClient.class);
+
+    private final URLShortenerStore store = mock(URLShortenerStore.class);
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getStoreHint()).thenReturn("xobject");
+        when(this.solr.getClient("urlshortener")).thenReturn(this.client);
+        when(this.storeProvider.get()).thenReturn(this.store);
+        doAnswer(invocation -> {
+            invocation.<BiConsumer<String, DocumentReference>>getArgument(0)
+                .accept("12345", DOCUMENT_REFERENCE);
+            return null;
+        }).when(this.store).scan(any());
+        when(this.serializer.serialize(DOCUMENT_REFERENCE)).thenReturn("wiki:A.B");
+        when(this.resolver.resolve("wiki:A.B")).thenReturn(DOCUMENT_REFERENCE);
+
+        SolrDocument document = new SolrDocument();
+        document.setField("id", "12345");
+        document.setField("reference", "wiki:A.B");
+        when(this.client.getById("12345")).thenReturn(document);
+    }
+
+    @Test
+    void fill() throws Exception
+    {
+        waitUntilReady();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<SolrInputDocument>> batch = ArgumentCaptor.forClass(Collection.class);
+        verify(this.client).add(batch.capture());
+        SolrInputDocument document = batch.getValue().iterator().next();
+        assertEquals("12345", document.getFieldValue("id"));
+        assertEquals("wiki:A.B", document.getFieldValue("reference"));
+        assertEquals("wiki", document.getFieldValue("wiki"));
+        verify(this.client).commit();
+        verify(this.execution).removeContext();
+    }
+
+    @Test
+    void refillWhenPutFails() throws Exception
+    {
+        waitUntilReady();
+        when(this.client.add(any(SolrInputDocument.class), anyInt())).thenThrow(new SolrServerException("Solr down"));
+
+        this.index.put("a1b2c", DOCUMENT_REFERENCE);
+
+        // The core is cleared and filled again.
+        verify(this.client, timeout(10000)).deleteByQuery("*:*");
+        waitUntilReady();
+        verify(this.client, times(2)).add(anyCollection());
+        assertEquals(1, this.logCapture.size());
+        assertEquals("Failed to index the page ID [a1b2c]. Root cause: [SolrServerException: Solr down]",
+            this.logCapture.getMessage(0));
+    }
+
+    @Test
+    void get() throws Exception
+    {
+        assertEquals(DOCUMENT_REFERENCE, this.index.get("12345"));
+        assertNull(this.index.get("a1b2c"));
+        assertNull(this.index.get(SolrPageIDIndex.READY_ID));
+    }
+
+    @Test
+    void getAll() throws Exception
+    {
+        SolrDocument document = new SolrDocument();
+        document.setField("id", "12345");
+        document.setField("reference", "wiki:A.B");
+        SolrDocument marker = new SolrDocument();
+        marker.setField("id", SolrPageIDIndex.READY_ID);
+        SolrDocumentList documents = new SolrDocumentList();
+        documents.add(document);
+        documents.add(marker);
+        List<String> pageIDs = List.of("12345", "a1b2c", SolrPageIDIndex.READY_ID);
+        when(this.client.getById(pageIDs)).thenReturn(documents);
+
+        assertEquals(Map.of("12345", DOCUMENT_REFERENCE), this.index.getAll(pageIDs));
+    }
+
+    @Test
+    void put() throws Exception
+    {
+        this.index.put("12345", DOCUMENT_REFERENCE);
+
+        ArgumentCaptor<SolrInputDocument> document = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.client).add(document.capture(), anyInt());
+        assertEquals("12345", document.getValue().getFieldValue("id"));
+        assertEquals("wiki:A.B", document.getValue().getFieldValue("reference"));
+    }
+
+    @Test
+    void remove() throws Exception
+    {
+        // The page ID was given to another document in the meantime.
+        this.index.remove("12345", OTHER_REFERENCE);
+        verify(this.client, never()).deleteById(any(String.class), anyInt());
+
+        this.index.remove("12345", DOCUMENT_REFERENCE);
+        verify(this.client).deleteById("12345", 1000);
+    }
+
+    @Test
+    void removeWiki() throws Exception
+    {
+        this.index.removeWiki("subwiki");
+
+        verify(this.client).deleteByQuery("wiki:subwiki", 1000);
+    }
+
+    private void waitUntilReady() throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!this.index.isReady() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.index.isReady());
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SolrPendingPageIDs}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class SolrPendingPageIDsTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "A", "B");
+
+    private static final String PAGE_ID_FIELD = "property.URLShortener.Code.URLShortenerClass.pageID";
+
+    private static final String QUERY = PAGE_ID_FIELD + ":(12345 OR a1b2c)";
+
+    @InjectMockComponents
+    private SolrPendingPageIDs pendingPageIDs;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private DocumentReferenceResolver<SolrDocument> solrDocumentReferenceResolver;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @Mock
+    private XWikiContext xcontext;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private QueryResponse response;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        // The tests confirm the page IDs themselves.
+        this.pendingPageIDs.dispose();
+
+        when(this.xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+
+        // Only the first page ID is indexed.
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.addField(PAGE_ID_FIELD, "12345");
+        solrDocument.addField(PAGE_ID_FIELD, "other");
+        SolrDocumentList results = new SolrDocumentList();
+        results.add(solrDocument);
+        when(this.queryManager.createQuery(QUERY, "solr")).thenReturn(this.query);
+        when(this.query.bindValue(anyString(), any())).thenReturn(this.query);
+        when(this.query.setLimit(anyInt())).thenReturn(this.query);
+        when(this.query.execute()).thenReturn(List.of(this.response));
+        when(this.response.getResults()).thenReturn(results);
+        when(this.solrDocumentReferenceResolver.resolve(solrDocument)).thenReturn(DOCUMENT_REFERENCE);
+    }
+
+    @Test
+    void putGetAndRemove()
+    {
+        assertNull(this.pendingPageIDs.get("12345"));
+
+        this.pendingPageIDs.put("12345", DOCUMENT_REFERENCE);
+        assertEquals(DOCUMENT_REFERENCE, this.pendingPageIDs.get("12345").getDocumentReference());
+
+        this.pendingPageIDs.remove("12345");
+        assertNull(this.pendingPageIDs.get("12345").getDocumentReference());
+        assertEquals(1, this.pendingPageIDs.size());
+    }
+
+    @Test
+    void confirmAddedPageIDs()
+    {
+        this.pendingPageIDs.put("12345", DOCUMENT_REFERENCE);
+        this.pendingPageIDs.put("a1b2c", DOCUMENT_REFERENCE);
+
+        assertTrue(this.pendingPageIDs.confirm());
+
+        // Only the indexed page ID is forgotten.
+        assertNull(this.pendingPageIDs.get("12345"));
+        assertEquals(DOCUMENT_REFERENCE, this.pendingPageIDs.get("a1b2c").getDocumentReference());
+        // With a single query, run as superadmin.
+        verify(this.queryManager).createQuery(anyString(), anyString());
+        verify(this.query).bindValue("fl", "type,wiki,spaces,name,locale,doclocale," + PAGE_ID_FIELD);
+        verify(this.query).setLimit(2);
+        verify(this.xcontext).setUserReference(new DocumentReference("xwiki", "XWiki", "superadmin"));
+        verify(this.execution).removeContext();
+    }
+
+    @Test
+    void confirmRemovedPageIDs()
+    {
+        this.pendingPageIDs.remove("12345");
+        this.pendingPageIDs.remove("a1b2c");
+
+        assertTrue(this.pendingPageIDs.confirm());
+
+        // Only the page ID that is not indexed anymore is forgotten.
+        assertNull(this.pendingPageIDs.get("12345").getDocumentReference());
+        assertNull(this.pendingPageIDs.get("a1b2c"));
+    }
+
+    @Test
+    void confirmWhenSolrFails() throws Exception
+    {
+        when(this.query.execute()).thenThrow(new QueryException("Solr down", this.query, null));
+        this.pendingPageIDs.put("12345", DOCUMENT_REFERENCE);
+        this.pendingPageIDs.put("a1b2c", DOCUMENT_REFERENCE);
+
+        // Nothing is confirmed, so the next attempt waits longer.
+        assertFalse(this.pendingPageIDs.confirm());
+
+        assertEquals(DOCUMENT_REFERENCE, this.pendingPageIDs.get("12345").getDocumentReference());
+        verify(this.execution).removeContext();
+    }
+
+    @Test
+    void confirmWithoutPendingPageIDs()
+    {
+        assertTrue(this.pendingPageIDs.confirm());
+
+        verifyNoInteractions(this.queryManager, this.executionContextManager);
+    }
+
+    @Test
+    void confirmWithoutXWikiContext()
+    {
+        when(this.xcontextProvider.get()).thenReturn(null);
+        this.pendingPageIDs.put("12345", DOCUMENT_REFERENCE);
+
+        assertFalse(this.pendingPageIDs.confirm());
+
+        assertEquals(DOCUMENT_REFERENCE, this.pendingPageIDs.get("12345").getDocumentReference());
+        verifyNoInteractions(this.queryManager);
+        verify(this.execution).removeContext();
+    }
+}
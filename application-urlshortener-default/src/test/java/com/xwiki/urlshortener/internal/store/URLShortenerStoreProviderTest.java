@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.urlshortener.URLShortenerStore;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLShortenerStoreProvider}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class URLShortenerStoreProviderTest
+{
+    @InjectMockComponents
+    private URLShortenerStoreProvider provider;
+
+    @MockComponent
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private RemoteObservationManagerConfiguration remoteObservationConfiguration;
+
+    @Mock
+    private ComponentManager componentManager;
+
+    @Mock
+    private URLShortenerStore store;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.componentManagerProvider.get()).thenReturn(this.componentManager);
+        when(this.configuration.getStoreHint()).thenReturn("relational");
+        when(this.componentManager.hasComponent(URLShortenerStore.class, "relational")).thenReturn(true);
+    }
+
+    @Test
+    void get() throws Exception
+    {
+        when(this.componentManager.getInstance(URLShortenerStore.class, "relational")).thenReturn(this.store);
+
+        assertSame(this.store, this.provider.get());
+    }
+
+    @Test
+    void getWithUnknownStore() throws Exception
+    {
+        when(this.componentManager.getInstance(URLShortenerStore.class, "relational"))
+            .thenThrow(new ComponentLookupException("Unknown"));
+
+        URLShortenerStoreException exception =
+            assertThrows(URLShortenerStoreException.class, () -> this.provider.get());
+        assertEquals("Failed to lookup the URL shortener store [relational].", exception.getMessage());
+    }
+
+    @Test
+    void initializeWithUnknownStore()
+    {
+        when(this.componentManager.hasComponent(URLShortenerStore.class, "relational")).thenReturn(false);
+
+        InitializationException exception = assertThrows(InitializationException.class, this.provider::initialize);
+        assertEquals("Failed to lookup the URL shortener store [relational].", exception.getMessage());
+    }
+
+    @Test
+    void initializeWithLocalStoreInCluster() throws Exception
+    {
+        when(this.configuration.getStoreHint()).thenReturn("mapped");
+        when(this.componentManager.hasComponent(URLShortenerStore.class, "mapped")).thenReturn(true);
+        when(this.remoteObservationConfiguration.isEnabled()).thenReturn(true);
+
+        InitializationException exception = assertThrows(InitializationException.class, this.provider::initialize);
+        assertEquals("The URL shortener store [mapped] keeps the page IDs on each cluster node and can't be used when "
+            + "the remote observation is enabled.", exception.getMessage());
+
+        when(this.remoteObservationConfiguration.isEnabled()).thenReturn(false);
+        this.provider.initialize();
+    }
+
+    @Test
+    void initializeWithSharedStoreInCluster() throws Exception
+    {
+        when(this.remoteObservationConfiguration.isEnabled()).thenReturn(true);
+
+        this.provider.initialize();
+    }
+}
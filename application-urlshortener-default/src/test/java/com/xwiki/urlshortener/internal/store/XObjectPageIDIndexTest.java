@@ -0,0 +1,234 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import javax.inject.Provider;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xwiki.urlshortener.internal.URLShortenerUpdateExecutor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.xwiki.component.util.ReflectionUtils.getFieldValue;
+import static org.xwiki.component.util.ReflectionUtils.setFieldValue;
+
+/**
+ * Unit tests for {@link XObjectPageIDIndex}, with the lookups run against an in-memory H2 database.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+public class XObjectPageIDIndexTest
+{
+    private final XWikiHibernateBaseStore hibernateStore = mock(XWikiHibernateBaseStore.class);
+
+    private final XWikiContext xcontext = mock(XWikiContext.class);
+
+    private final URLShortenerUpdateExecutor updateExecutor = mock(URLShortenerUpdateExecutor.class);
+
+    private final XObjectPageIDIndex pageIDIndex = new XObjectPageIDIndex();
+
+    private Connection connection;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:" + UUID.randomUUID());
+        try (Statement statement = this.connection.createStatement()) {
+            statement.executeUpdate("create table xwikiobjects (xwo_id bigint primary key, xwo_name varchar(768), "
+                + "xwo_classname varchar(768))");
+            statement.executeUpdate("create table xwikistrings (xws_id bigint, xws_name varchar(255), "
+                + "xws_value varchar(768), primary key (xws_id, xws_name))");
+            statement.executeUpdate("insert into xwikiobjects values (1, 'Space.Page', "
+                + "'URLShortener.Code.URLShortenerClass'), (2, 'Space.Other', 'Space.OtherClass')");
+            statement.executeUpdate("insert into xwikistrings values (1, 'pageID', '12345'), (2, 'pageID', 'a1b2c')");
+        }
+
+        Session session = mock(Session.class);
+        when(session.doReturningWork(any())).thenAnswer(invocation -> {
+            try {
+                return invocation.<ReturningWork<?>>getArgument(0).execute(this.connection);
+            } catch (SQLException e) {
+                throw new HibernateException(e);
+            }
+        });
+        Answer<Object> callback = invocation -> {
+            try {
+                return invocation.<XWikiHibernateBaseStore.HibernateCallback<?>>getArgument(1).doInHibernate(session);
+            } catch (HibernateException e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_UNKNOWN, "Failed to execute the callback", e);
+            }
+        };
+        when(this.hibernateStore.executeRead(same(this.xcontext), any())).thenAnswer(callback);
+        when(this.hibernateStore.executeWrite(same(this.xcontext), any())).thenAnswer(callback);
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+        when(this.updateExecutor.submit(any())).thenAnswer(invocation -> {
+            try {
+                return CompletableFuture.completedFuture(invocation.<Callable<?>>getArgument(0).call());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+
+        setFieldValue(this.pageIDIndex, "hibernateStore", this.hibernateStore);
+        setFieldValue(this.pageIDIndex, "xcontextProvider", (Provider<XWikiContext>) () -> this.xcontext);
+        setFieldValue(this.pageIDIndex, "updateExecutor", this.updateExecutor);
+        setFieldValue(this.pageIDIndex, "logger", mock(Logger.class));
+    }
+
+    @AfterEach
+    void afterEach() throws Exception
+    {
+        this.connection.close();
+    }
+
+    @Test
+    void isReadyOnUnsupportedDatabase()
+    {
+        // H2 keeps the HQL lookup, and is migrated only once.
+        assertFalse(this.pageIDIndex.isReady("wiki"));
+        assertFalse(this.pageIDIndex.isReady("wiki"));
+        verify(this.updateExecutor, times(1)).submit(any());
+        verify(this.xcontext).setWikiId("wiki");
+    }
+
+    @Test
+    void isReadyWhenMigrationFails()
+    {
+        when(this.updateExecutor.submit(any()))
+            .thenReturn(CompletableFuture.failedFuture(new SQLException("Error")))
+            .thenReturn(new CompletableFuture<>());
+
+        assertFalse(this.pageIDIndex.isReady(""));
+        // The next lookup tries again.
+        assertFalse(this.pageIDIndex.isReady("xwiki"));
+        assertFalse(this.pageIDIndex.isReady(""));
+        verify(this.updateExecutor, times(2)).submit(any());
+    }
+
+    @Test
+    void getOnPostgreSQL() throws Exception
+    {
+        getDatabases().put("wiki", XObjectPageIDIndex.Database.POSTGRESQL);
+
+        assertTrue(this.pageIDIndex.isReady("wiki"));
+        assertEquals(List.of("Space.Page"), this.pageIDIndex.get("wiki", "12345"));
+        // The page ID property of another class.
+        assertEquals(List.of(), this.pageIDIndex.get("wiki", "a1b2c"));
+        verify(this.updateExecutor, never()).submit(any());
+    }
+
+    @Test
+    void getOnMySQL() throws Exception
+    {
+        getDatabases().put("xwiki", XObjectPageIDIndex.Database.MYSQL);
+
+        assertTrue(this.pageIDIndex.isReady(""));
+        assertEquals(List.of("Space.Page"), this.pageIDIndex.get("", "12345"));
+        assertEquals(List.of(), this.pageIDIndex.get("", "zzzzz"));
+    }
+
+    @Test
+    void migrateOnPostgreSQL() throws Exception
+    {
+        Statement statement = mockConnection("PostgreSQL", null);
+
+        assertEquals(XObjectPageIDIndex.Database.POSTGRESQL, this.pageIDIndex.migrate("wiki", this.connection));
+        verify(statement).executeUpdate("create index xws_urlshortener_pageid_v1 on xwikistrings "
+            + "(left(xws_value, 64)) where xws_name = 'pageID'");
+    }
+
+    @Test
+    void migrateOnMySQL() throws Exception
+    {
+        Statement statement = mockConnection("MySQL", null);
+
+        assertEquals(XObjectPageIDIndex.Database.MYSQL, this.pageIDIndex.migrate("wiki", this.connection));
+        verify(statement)
+            .executeUpdate("create index xws_urlshortener_pageid_v1 on xwikistrings (xws_name(16), xws_value(64))");
+    }
+
+    @Test
+    void migrateWhenIndexExists() throws Exception
+    {
+        Statement statement = mockConnection("MariaDB", "XWS_URLSHORTENER_PAGEID_V1");
+
+        assertEquals(XObjectPageIDIndex.Database.MYSQL, this.pageIDIndex.migrate("wiki", this.connection));
+        verify(statement, never()).executeUpdate(anyString());
+    }
+
+    private Statement mockConnection(String product, String existingIndex) throws Exception
+    {
+        this.connection.close();
+        this.connection = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        Statement statement = mock(Statement.class);
+        ResultSet indexes = mock(ResultSet.class);
+        when(this.connection.getMetaData()).thenReturn(metaData);
+        when(this.connection.getCatalog()).thenReturn("wiki");
+        when(this.connection.createStatement()).thenReturn(statement);
+        when(metaData.getDatabaseProductName()).thenReturn(product);
+        when(metaData.getIndexInfo("wiki", null, "xwikistrings", false, true)).thenReturn(indexes);
+        when(metaData.getIndexInfo("wiki", null, "XWIKISTRINGS", false, true)).thenReturn(mock(ResultSet.class));
+        if (existingIndex != null) {
+            when(indexes.next()).thenReturn(true, false);
+            when(indexes.getString("INDEX_NAME")).thenReturn(existingIndex);
+        }
+        return statement;
+    }
+
+    private Map<String, XObjectPageIDIndex.Database> getDatabases()
+    {
+        return (Map<String, XObjectPageIDIndex.Database>) getFieldValue(this.pageIDIndex, "databases");
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.urlshortener.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.urlshortener.URLShortenerException;
+import com.xwiki.urlshortener.internal.URLShortenerConfiguration;
+
+import static com.xwiki.urlshortener.internal.DefaultURLShortenerManager.URL_SHORTENER_CLASS_REFERENCE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link XObjectURLShortenerStore}.
+ *
+ * @version $Id$
+ * @since 1.3.5
+ */
+@ComponentTest
+public class XObjectURLShortenerStoreTest
+{
+    private static final String PAGE_ID = "pageID";
+
+    private static final String PAGE_ID_VALUE = "12345";
+
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("wiki", "A", "B");
+
+    @InjectMockComponents
+    private XObjectURLShortenerStore store;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @MockComponent
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @MockComponent
+    private URLShortenerConfiguration configuration;
+
+    @MockComponent
+    private ParallelWikiLookup parallelWikiLookup;
+
+    @MockComponent
+    private SolrPendingPageIDs solrPendingPageIDs;
+
+    @MockComponent
+    private SolrPageIDIndex solrPageIDIndex;
+
+    @MockComponent
+    private XObjectPageIDIndex pageIDIndex;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private XWikiContext xcontext;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiDocument document;
+
+    @Mock
+    private BaseObject object;
+
+    @Mock
+    private Query solrQuery;
+
+    @Mock
+    private QueryResponse solrResponse;
+
+    @BeforeEach
+    void beforeEach()
+    {
+        when(xcontextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        when(document.clone()).thenReturn(document);
+    }
+
+    @Test
+    void put() throws Exception
+    {
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenReturn(document);
+        when(document.newXObject(URL_SHORTENER_CLASS_REFERENCE, xcontext)).thenReturn(object);
+
+        this.store.put(PAGE_ID_VALUE, DOCUMENT_REFERENCE);
+
+        verify(object).set(PAGE_ID, PAGE_ID_VALUE, xcontext);
+        verify(document).setMetaDataDirty(false);
+        verify(xwiki).saveDocument(document, "Created URL Shortener.", true, xcontext);
+        verify(solrPendingPageIDs).put(PAGE_ID_VALUE, DOCUMENT_REFERENCE);
+    }
+
+    @Test
+    void getPageID() throws Exception
+    {
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenReturn(document);
+        BaseObject urlObject = new BaseObject();
+        urlObject.setStringValue(PAGE_ID, PAGE_ID_VALUE);
+        when(document.getXObject(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(urlObject);
+
+        assertEquals(PAGE_ID_VALUE, this.store.getPageID(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void getPageIDWithoutObject() throws Exception
+    {
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenReturn(document);
+
+        assertNull(this.store.getPageID(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void replace() throws Exception
+    {
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenReturn(document);
+        BaseObject urlObject = new BaseObject();
+        urlObject.setStringValue(PAGE_ID, PAGE_ID_VALUE);
+        when(document.getXObjects(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(List.of(urlObject));
+
+        assertTrue(this.store.replace(DOCUMENT_REFERENCE, PAGE_ID_VALUE, "a1b2c"));
+        assertEquals("a1b2c", urlObject.getStringValue(PAGE_ID));
+        verify(xwiki).saveDocument(document, "Regenerate short URL.", true, xcontext);
+        verify(solrPendingPageIDs).put("a1b2c", DOCUMENT_REFERENCE);
+        verify(solrPendingPageIDs).remove(PAGE_ID_VALUE);
+    }
+
+    @Test
+    void replaceWithoutObject() throws Exception
+    {
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenReturn(document);
+        when(document.getXObjects(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(List.of());
+
+        assertFalse(this.store.replace(DOCUMENT_REFERENCE, PAGE_ID_VALUE, "a1b2c"));
+        verify(xwiki, never()).saveDocument(eq(document), anyString(), anyBoolean(), eq(xcontext));
+    }
+
+    @Test
+    void replaceWithException() throws Exception
+    {
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenThrow(XWikiException.class);
+
+        assertThrows(URLShortenerException.class,
+            () -> this.store.replace(DOCUMENT_REFERENCE, PAGE_ID_VALUE, "a1b2c"));
+    }
+
+    /**
+     * Test the case when a document reference is retrieved from a subwiki.
+     */
+    @Test
+    void getOnSubWiki() throws Exception
+    {
+        String wikiId = "test";
+        mockPageIDQuery("123");
+        when(query.setWiki(wikiId)).thenReturn(query);
+        DocumentReference documentReference = new DocumentReference(wikiId, "Space", "Page");
+        when(documentReferenceResolver.resolve("test.Space.Page")).thenReturn(documentReference);
+        when(query.execute()).thenReturn(Collections.singletonList("test.Space.Page"));
+
+        assertEquals(documentReference, this.store.get(wikiId, "123"));
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+        verify(query).setWiki(wikiId);
+    }
+
+    @Test
+    void getWithPageIDIndex() throws Exception
+    {
+        when(this.pageIDIndex.isReady("test")).thenReturn(true);
+        when(this.pageIDIndex.get("test", "123")).thenReturn(List.of("Space.Page"));
+        DocumentReference documentReference = new DocumentReference("test", "Space", "Page");
+        when(documentReferenceResolver.resolve("Space.Page")).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.store.get("test", "123"));
+        verify(queryManager, never()).createQuery(any(), any());
+    }
+
+    /**
+     * Test the case when a document reference is retrieved from the main wiki.
+     */
+    @Test
+    void getOnMainWiki() throws Exception
+    {
+        mockPageIDQuery("123");
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        when(documentReferenceResolver.resolve("wiki.Space.Page")).thenReturn(documentReference);
+        when(query.execute()).thenReturn(Collections.singletonList("wiki.Space.Page"));
+
+        assertEquals(documentReference, this.store.get("", "123"));
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+        verify(query, never()).setWiki(any());
+    }
+
+    @Test
+    void getAllOnSubWiki() throws Exception
+    {
+        String wikiId = "test";
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenReturn(query);
+        when(query.bindValue("pageIDs", List.of("123", "456"))).thenReturn(query);
+        when(query.setWiki(wikiId)).thenReturn(query);
+        DocumentReference documentReference = new DocumentReference(wikiId, "Space", "Page");
+        when(documentReferenceResolver.resolve("Space.Page")).thenReturn(documentReference);
+        when(query.execute()).thenReturn(Collections.singletonList(new Object[] {"Space.Page", "123"}));
+        mockSolrQuery(new SolrDocumentList());
+
+        // A single query for all the page IDs, then the fallback for the page IDs that are not on the wiki.
+        assertEquals(Map.of("123", documentReference), this.store.getAll(wikiId, List.of("123", "456", "123")));
+        verify(queryManager).createQuery(any(), eq(Query.HQL));
+        verify(queryManager).createQuery("property.URLShortener.Code.URLShortenerClass.pageID:(456)", "solr");
+    }
+
+    @Test
+    void getAllOnAnyWiki() throws Exception
+    {
+        String wikiId = "test";
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenReturn(query);
+        when(query.bindValue("pageIDs", List.of("123", "456", "789"))).thenReturn(query);
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        DocumentReference pendingReference = new DocumentReference("other", "Space", "Pending");
+        when(solrPendingPageIDs.get("123"))
+            .thenReturn(new SolrPendingPageIDs.PendingPageID(pendingReference, Long.MAX_VALUE));
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.addField("property.URLShortener.Code.URLShortenerClass.pageID", "456");
+        solrDocument.addField("property.URLShortener.Code.URLShortenerClass.pageID", "other");
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.add(solrDocument);
+        mockSolrQuery(solrDocumentList);
+        DocumentReference documentReference = new DocumentReference("other", "Space", "Page");
+        when(documentReferenceResolver.resolve(any())).thenReturn(documentReference);
+
+        // A single Solr query for the page IDs that are not pending.
+        assertEquals(Map.of("123", pendingReference, "456", documentReference),
+            this.store.getAll(wikiId, List.of("123", "456", "789")));
+        verify(queryManager).createQuery(any(), eq("solr"));
+        verify(queryManager).createQuery("property.URLShortener.Code.URLShortenerClass.pageID:(456 OR 789)", "solr");
+        verify(solrQuery).setLimit(2);
+    }
+
+    @Test
+    void getAllWithSolrPageIDIndex() throws Exception
+    {
+        String wikiId = "test";
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenReturn(query);
+        when(query.bindValue("pageIDs", List.of("123", "456"))).thenReturn(query);
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        DocumentReference documentReference = new DocumentReference("other", "Space", "Page");
+        when(solrPageIDIndex.isReady()).thenReturn(true);
+        when(solrPageIDIndex.getAll(List.of("123", "456"))).thenReturn(Map.of("123", documentReference));
+
+        // The page IDs missed by the dedicated core are not looked up in the search core.
+        assertEquals(Map.of("123", documentReference), this.store.getAll(wikiId, List.of("123", "456")));
+        verify(solrPageIDIndex, never()).get(any());
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    @Test
+    void getAllWithDatabaseFallback() throws Exception
+    {
+        when(configuration.getLookupFallback()).thenReturn("database");
+        mockParallelWikiLookup();
+        when(wikiDescriptorManager.getAllIds()).thenReturn(List.of("xwiki", "test", "other"));
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenReturn(query);
+        when(query.bindValue("pageIDs", List.of("123", "456"))).thenReturn(query);
+        Query otherQuery = mock(Query.class);
+        when(query.setWiki("xwiki")).thenReturn(query);
+        when(query.setWiki("test")).thenReturn(query);
+        when(query.setWiki("other")).thenReturn(otherQuery);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        when(otherQuery.execute()).thenReturn(Collections.singletonList(new Object[] {"Space.Page", "456"}));
+        DocumentReference documentReference = new DocumentReference("other", "Space", "Page");
+        when(documentReferenceResolver.resolve("Space.Page", new WikiReference("other"))).thenReturn(documentReference);
+
+        // A single lookup of all the other wikis for the page IDs that are not on the given wiki.
+        assertEquals(Map.of("456", documentReference), this.store.getAll("test", List.of("123", "456")));
+        verify(parallelWikiLookup).findFirst(eq(List.of("xwiki", "other")), any());
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    @Test
+    void getAllWithException() throws Exception
+    {
+        QueryException exception = new QueryException("Error", null, null);
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenThrow(exception);
+
+        assertEquals(exception,
+            assertThrows(URLShortenerException.class, () -> this.store.getAll("test", List.of("123"))).getCause());
+    }
+
+    /**
+     * Test the case when a document reference is retrieved using solr.
+     */
+    @Test
+    void getWithSolr() throws Exception
+    {
+        String wikiId = "test";
+        mockPageIDQuery("123");
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.add(new SolrDocument());
+        mockSolrQuery(solrDocumentList);
+        DocumentReference documentReference = new DocumentReference(wikiId, "Space", "Page");
+        when(documentReferenceResolver.resolve(any())).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.store.get(wikiId, "123"));
+        verify(queryManager).createQuery(any(), eq(Query.HQL));
+        verify(queryManager).createQuery(any(), eq("solr"));
+    }
+
+    /**
+     * Test the case when a document reference is not found.
+     */
+    @Test
+    void getWithoutResults() throws Exception
+    {
+        String wikiId = "test";
+        mockPageIDQuery("123");
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        mockSolrQuery(new SolrDocumentList());
+
+        assertNull(this.store.get(wikiId, "123"));
+    }
+
+    /**
+     * Test the case when the document reference is not indexed by Solr yet.
+     */
+    @Test
+    void getWithPendingPageID() throws Exception
+    {
+        String wikiId = "test";
+        mockPageIDQuery("123");
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        DocumentReference documentReference = new DocumentReference("other", "Space", "Page");
+        when(solrPendingPageIDs.get("123"))
+            .thenReturn(new SolrPendingPageIDs.PendingPageID(documentReference, Long.MAX_VALUE));
+
+        assertEquals(documentReference, this.store.get(wikiId, "123"));
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    /**
+     * Test the case when a document reference is retrieved from the dedicated Solr core.
+     */
+    @Test
+    void getWithSolrPageIDIndex() throws Exception
+    {
+        String wikiId = "test";
+        mockPageIDQuery("123");
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        DocumentReference documentReference = new DocumentReference("other", "Space", "Page");
+        when(solrPageIDIndex.isReady()).thenReturn(true);
+        when(solrPageIDIndex.get("123")).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.store.get(wikiId, "123"));
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    /**
+     * Test the case when the dedicated Solr core misses the page ID.
+     */
+    @Test
+    void getWithSolrPageIDIndexMiss() throws Exception
+    {
+        String wikiId = "test";
+        mockPageIDQuery("123");
+        when(query.setWiki(wikiId)).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        when(solrPageIDIndex.isReady()).thenReturn(true);
+
+        // The dedicated core is trusted once it's ready.
+        assertNull(this.store.get(wikiId, "123"));
+        verify(solrPageIDIndex).get("123");
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    @Test
+    void getWithDatabaseFallback() throws Exception
+    {
+        when(configuration.getLookupFallback()).thenReturn("database");
+        mockParallelWikiLookup();
+        when(wikiDescriptorManager.getAllIds()).thenReturn(List.of("xwiki", "test", "other"));
+        mockPageIDQuery("123");
+        Query otherQuery = mock(Query.class);
+        when(query.setWiki("xwiki")).thenReturn(query);
+        when(query.setWiki("test")).thenReturn(query);
+        when(query.setWiki("other")).thenReturn(otherQuery);
+        when(query.execute()).thenReturn(Collections.emptyList());
+        when(otherQuery.execute()).thenReturn(Collections.singletonList("Space.Page"));
+        DocumentReference documentReference = new DocumentReference("other", "Space", "Page");
+        when(documentReferenceResolver.resolve("Space.Page", new WikiReference("other"))).thenReturn(documentReference);
+
+        assertEquals(documentReference, this.store.get("test", "123"));
+        verify(parallelWikiLookup).findFirst(eq(List.of("xwiki", "other")), any());
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    @Test
+    void getWithException() throws Exception
+    {
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenThrow(
+            new QueryException("Error", null, null));
+
+        assertThrows(URLShortenerException.class, () -> this.store.get("test", "123"));
+    }
+
+    @Test
+    void exists() throws Exception
+    {
+        mockSolrQuery(new SolrDocumentList());
+
+        assertFalse(this.store.exists(PAGE_ID_VALUE));
+        verify(queryManager).createQuery("property.URLShortener.Code.URLShortenerClass.pageID:12345", "solr");
+        // The translations are indexed with the objects of their default locale document.
+        verify(solrQuery).bindValue("fq", "doclocale:\"\"");
+        verify(solrQuery).bindValue("fl", "type,wiki,spaces,name,locale,doclocale");
+    }
+
+    @Test
+    void existsWithRemovedPendingPageID() throws Exception
+    {
+        when(solrPendingPageIDs.get(PAGE_ID_VALUE))
+            .thenReturn(new SolrPendingPageIDs.PendingPageID(null, Long.MAX_VALUE));
+
+        assertFalse(this.store.exists(PAGE_ID_VALUE));
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    @Test
+    void existsWithDatabaseFallback() throws Exception
+    {
+        when(configuration.getLookupFallback()).thenReturn("database");
+        mockParallelWikiLookup();
+        when(wikiDescriptorManager.getAllIds()).thenReturn(List.of("xwiki", "test"));
+        mockPageIDQuery(PAGE_ID_VALUE);
+        when(query.setWiki(any())).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+
+        assertFalse(this.store.exists(PAGE_ID_VALUE));
+        verify(parallelWikiLookup).findFirst(eq(List.of("xwiki", "test")), any());
+        verify(queryManager, never()).createQuery(any(), eq("solr"));
+    }
+
+    @Test
+    void delete() throws Exception
+    {
+        mockPageIDQuery(PAGE_ID_VALUE);
+        when(query.execute()).thenReturn(Collections.singletonList("wiki.A.B"));
+        when(documentReferenceResolver.resolve("wiki.A.B")).thenReturn(DOCUMENT_REFERENCE);
+        when(xwiki.getDocument(DOCUMENT_REFERENCE, xcontext)).thenReturn(document);
+        BaseObject urlObject = new BaseObject();
+        urlObject.setStringValue(PAGE_ID, PAGE_ID_VALUE);
+        when(document.getXObjects(URL_SHORTENER_CLASS_REFERENCE)).thenReturn(List.of(urlObject));
+
+        assertTrue(this.store.delete(PAGE_ID_VALUE));
+        verify(document).removeXObject(urlObject);
+        verify(xwiki).saveDocument(document, "Removed URL Shortener.", true, xcontext);
+        verify(solrPendingPageIDs).remove(PAGE_ID_VALUE);
+    }
+
+    @Test
+    void scan() throws Exception
+    {
+        when(wikiDescriptorManager.getAllIds()).thenReturn(List.of("xwiki", "test"));
+        when(queryManager.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(query);
+        Query subwikiQuery = mock(Query.class);
+        when(query.setWiki("xwiki")).thenReturn(query);
+        when(query.setWiki("test")).thenReturn(subwikiQuery);
+        when(query.execute()).thenReturn(Collections.<Object>singletonList(new Object[] {"A.B", PAGE_ID_VALUE}));
+        when(subwikiQuery.execute()).thenReturn(Collections.<Object>singletonList(new Object[] {"C.D", "a1b2c"}));
+        DocumentReference subwikiReference = new DocumentReference("test", "C", "D");
+        when(documentReferenceResolver.resolve("A.B", new WikiReference("xwiki"))).thenReturn(DOCUMENT_REFERENCE);
+        when(documentReferenceResolver.resolve("C.D", new WikiReference("test"))).thenReturn(subwikiReference);
+
+        List<String> visited = new ArrayList<>();
+        this.store.scan((pageID, documentReference) -> visited.add(pageID + '=' + documentReference));
+
+        assertEquals(List.of(PAGE_ID_VALUE + '=' + DOCUMENT_REFERENCE, "a1b2c=" + subwikiReference), visited);
+    }
+
+    private void mockPageIDQuery(String pageID) throws QueryException
+    {
+        when(queryManager.createQuery(any(String.class), eq(Query.HQL))).thenReturn(query);
+        when(query.bindValue(PAGE_ID, pageID)).thenReturn(query);
+        when(query.setLimit(anyInt())).thenReturn(query);
+    }
+
+    private void mockParallelWikiLookup() throws URLShortenerException
+    {
+        // Look up the wikis one after the other.
+        when(parallelWikiLookup.findFirst(any(), any())).then(invocation -> {
+            ParallelWikiLookup.WikiLookup<?> lookup = invocation.getArgument(1);
+            for (String wiki : invocation.<List<String>>getArgument(0)) {
+                Object result = lookup.lookup(wiki);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        });
+    }
+
+    private void mockSolrQuery(SolrDocumentList results) throws QueryException
+    {
+        when(queryManager.createQuery(any(String.class), eq("solr"))).thenReturn(solrQuery);
+        when(solrQuery.bindValue(anyString(), any())).thenReturn(solrQuery);
+        when(solrQuery.setLimit(anyInt())).thenReturn(solrQuery);
+        when(solrQuery.execute()).thenReturn(List.of(solrResponse));
+        when(solrResponse.getResults()).thenReturn(results);
+    }
+}